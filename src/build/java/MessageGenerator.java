@@ -0,0 +1,1293 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.lang.model.SourceVersion;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Build-time code generator for the Kafka protocol: reads the JSON message
+// specs (Kafka's own format, see src/main/message) and writes one
+// <Name>Message class per spec, holding
+//
+//   Reader   flyweight over an encoded message: wrap() finds every field's
+//            position in one pass, accessors read primitives in place, and
+//            arrays of structs are walked with a reused cursor (next())
+//   Writer   encodes field by field, in schema order, into a MessageOutput;
+//            run once in sizing mode it returns the exact encoded size
+//
+// Versions, nullable and flexible versions (compact lengths as unsigned
+// varints, tagged fields) come from the spec, so no codec hand-writes an
+// offset. Reading and writing primitives never allocates; only the
+// convenience accessors that build a String, UUID or ByteBuffer view do.
+// Tagged fields are read for any type and written for scalar types; tagged
+// structs and arrays are skipped by writers.
+//
+// Run by the exec plugin in generate-sources (see pom.xml), or by hand:
+//   java src/build/java/MessageGenerator.java src/main/message target/generated-sources/messages
+public class MessageGenerator {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: MessageGenerator <spec directory> <output directory>");
+			System.exit(1);
+		}
+		Path specs = Path.of(args[0]);
+		Path output = Path.of(args[1]);
+		Files.createDirectories(output);
+		List<Path> files;
+		try (Stream<Path> list = Files.list(specs)) {
+			files = list.filter(path -> path.toString().endsWith(".json")).sorted().toList();
+		}
+		int written = 0;
+		for (Path file : files) {
+			Message message;
+			try {
+				message = Message.parse(new Json(Files.readString(file, StandardCharsets.UTF_8)).parse());
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException(file + ": " + e.getMessage(), e);
+			}
+			Path target = output.resolve(message.className + ".java");
+			String source = new Emitter(message).emit();
+			// Unchanged files keep their timestamp, so incremental compiles stay incremental
+			if (!Files.exists(target) || !Files.readString(target, StandardCharsets.UTF_8).equals(source)) {
+				Files.writeString(target, source, StandardCharsets.UTF_8);
+				written++;
+			}
+		}
+		System.out.println("MessageGenerator: " + files.size() + " specs, " + written + " files written to " + output);
+	}
+
+	// Names the generated classes use themselves
+	static final Set<String> RESERVED = Set.of("buffer", "version", "position", "sizeInBytes", "count", "next", "wrap",
+			"array", "skip", "decode", "end", "size", "sizing", "out", "remaining");
+
+	// Version range; "none" is empty (lowest > highest)
+	record Versions(int lowest, int highest) {
+
+		static final int MAX = Short.MAX_VALUE;
+		static final Versions NONE = new Versions(0, -1);
+
+		static Versions parse(Object value, Versions defaultValue) {
+			if (value == null) {
+				return defaultValue;
+			}
+			String text = value.toString().trim();
+			if (text.equals("none")) {
+				return NONE;
+			}
+			if (text.endsWith("+")) {
+				return new Versions(Integer.parseInt(text.substring(0, text.length() - 1)), MAX);
+			}
+			int dash = text.indexOf('-');
+			if (dash > 0) {
+				return new Versions(Integer.parseInt(text.substring(0, dash)), Integer.parseInt(text.substring(dash + 1)));
+			}
+			int version = Integer.parseInt(text);
+			return new Versions(version, version);
+		}
+
+		boolean isEmpty() {
+			return lowest > highest;
+		}
+
+		Versions intersect(Versions other) {
+			return new Versions(Math.max(lowest, other.lowest), Math.min(highest, other.highest));
+		}
+
+		// These versions minus a trailing range (tagged versions are always "N+")
+		Versions before(Versions other) {
+			if (other.isEmpty()) {
+				return this;
+			}
+			return intersect(new Versions(0, other.lowest - 1));
+		}
+
+		// Java condition on "version", simplified for a version known to be within valid
+		String condition(Versions valid) {
+			Versions versions = intersect(valid);
+			if (versions.isEmpty()) {
+				return "false";
+			}
+			boolean low = versions.lowest > valid.lowest;
+			boolean high = versions.highest < valid.highest;
+			if (low && high) {
+				return versions.lowest == versions.highest ? "version == " + versions.lowest
+						: "version >= " + versions.lowest + " && version <= " + versions.highest;
+			}
+			if (low) {
+				return "version >= " + versions.lowest;
+			}
+			return high ? "version <= " + versions.highest : "true";
+		}
+	}
+
+	enum Kind {
+		BOOL("boolean", 1), INT8("byte", 1), INT16("short", 2), UINT16("int", 2), INT32("int", 4), UINT32("long", 4),
+		INT64("long", 8), FLOAT64("double", 8), UUID("UUID", 16), STRING("String", -1), BYTES("ByteBuffer", -1),
+		RECORDS("ByteBuffer", -1), ARRAY(null, -1), STRUCT(null, -1);
+
+		final String javaType;
+		final int size;
+
+		Kind(String javaType, int size) {
+			this.javaType = javaType;
+			this.size = size;
+		}
+
+		// Scalars that a Writer can hold back for the tag buffer
+		boolean isScalar() {
+			return this != ARRAY && this != STRUCT;
+		}
+
+		static Kind of(String type) {
+			return switch (type) {
+				case "bool" -> BOOL;
+				case "int8" -> INT8;
+				case "int16" -> INT16;
+				case "uint16" -> UINT16;
+				case "int32" -> INT32;
+				case "uint32" -> UINT32;
+				case "int64" -> INT64;
+				case "float64" -> FLOAT64;
+				case "uuid" -> UUID;
+				case "string" -> STRING;
+				case "bytes" -> BYTES;
+				case "records" -> RECORDS;
+				default -> null;
+			};
+		}
+	}
+
+	static final class Field {
+		String name;
+		Kind kind;
+		Kind elementKind; // For arrays; STRUCT for arrays of structs
+		Struct struct;    // For structs and arrays of structs
+		Versions versions;
+		Versions nullableVersions;
+		Versions taggedVersions;
+		Versions flexibleVersions; // Override for strings, e.g. the header's client_id
+		int tag = -1;
+		String defaultValue;
+		String about;
+
+		// Versions in which the field is inline, not in the tag buffer
+		Versions regularVersions() {
+			return versions.before(taggedVersions);
+		}
+
+		boolean isTagged() {
+			return !taggedVersions.isEmpty();
+		}
+
+		String javaName() {
+			return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+		}
+	}
+
+	static final class Struct {
+		final String name;
+		final List<Field> fields = new ArrayList<>();
+		boolean array;  // Element of some array: its reader is also a cursor
+		boolean root;
+
+		Struct(String name) {
+			this.name = name;
+		}
+
+		String readerName() {
+			return root ? "Reader" : name + "Reader";
+		}
+
+		String writerName() {
+			return root ? "Writer" : name + "Writer";
+		}
+	}
+
+	static final class Message {
+		String name;
+		String className;
+		String type;
+		Integer apiKey;
+		Versions validVersions;
+		Versions flexibleVersions;
+		Struct root;
+		final List<Struct> structs = new ArrayList<>();
+		final Map<String, Struct> common = new LinkedHashMap<>();
+
+		@SuppressWarnings("unchecked")
+		static Message parse(Object json) {
+			Map<String, Object> spec = (Map<String, Object>) json;
+			Message message = new Message();
+			message.name = require(spec, "name");
+			message.className = message.name + "Message";
+			message.type = require(spec, "type");
+			message.apiKey = spec.get("apiKey") == null ? null : ((Number) spec.get("apiKey")).intValue();
+			message.validVersions = Versions.parse(require(spec, "validVersions"), null);
+			message.flexibleVersions = Versions.parse(require(spec, "flexibleVersions"), null);
+			for (Object common : (List<Object>) spec.getOrDefault("commonStructs", List.of())) {
+				Map<String, Object> struct = (Map<String, Object>) common;
+				message.common.put(require(struct, "name"), new Struct(require(struct, "name")));
+			}
+			for (Object common : (List<Object>) spec.getOrDefault("commonStructs", List.of())) {
+				Map<String, Object> struct = (Map<String, Object>) common;
+				Struct target = message.common.get(struct.get("name"));
+				message.parseFields(target, (List<Object>) struct.get("fields"));
+				message.structs.add(target);
+			}
+			message.root = new Struct(message.name);
+			message.root.root = true;
+			message.parseFields(message.root, (List<Object>) spec.get("fields"));
+			message.structs.add(0, message.root);
+			return message;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void parseFields(Struct struct, List<Object> fields) {
+			for (Object value : fields) {
+				Map<String, Object> spec = (Map<String, Object>) value;
+				Field field = new Field();
+				field.name = require(spec, "name");
+				if (RESERVED.contains(field.javaName()) || SourceVersion.isKeyword(field.javaName())) {
+					throw new IllegalArgumentException(field.name + ": clashes with a generated name");
+				}
+				field.versions = Versions.parse(require(spec, "versions"), null);
+				field.nullableVersions = Versions.parse(spec.get("nullableVersions"), Versions.NONE);
+				field.taggedVersions = Versions.parse(spec.get("taggedVersions"), Versions.NONE);
+				field.flexibleVersions = Versions.parse(spec.get("flexibleVersions"), null);
+				field.defaultValue = spec.get("default") == null ? null : spec.get("default").toString();
+				field.about = (String) spec.get("about");
+				if (spec.get("tag") != null) {
+					field.tag = ((Number) spec.get("tag")).intValue();
+				}
+				if (field.isTagged() && (field.tag < 0 || field.taggedVersions.highest != Versions.MAX)) {
+					throw new IllegalArgumentException(field.name + ": tagged fields need a tag and open-ended taggedVersions");
+				}
+				String type = require(spec, "type");
+				boolean array = type.startsWith("[]");
+				String element = array ? type.substring(2) : type;
+				Kind kind = Kind.of(element);
+				if (array && (kind == Kind.BYTES || kind == Kind.RECORDS || kind == Kind.UUID)) {
+					throw new IllegalArgumentException(field.name + ": arrays of " + element + " are not supported");
+				}
+				if (kind == null) {
+					List<Object> nested = (List<Object>) spec.get("fields");
+					if (nested != null) {
+						Struct child = new Struct(element);
+						parseFields(child, nested);
+						structs.add(child);
+						field.struct = child;
+					} else {
+						field.struct = common.get(element);
+						if (field.struct == null) {
+							throw new IllegalArgumentException(field.name + ": unknown type " + type);
+						}
+					}
+					kind = Kind.STRUCT;
+					field.struct.array |= array;
+				}
+				field.kind = array ? Kind.ARRAY : kind;
+				field.elementKind = array ? kind : null;
+				if (field.isTagged() && field.kind == Kind.STRUCT && !field.nullableVersions.isEmpty()) {
+					throw new IllegalArgumentException(field.name + ": nullable tagged structs are not supported");
+				}
+				struct.fields.add(field);
+			}
+		}
+
+		private static String require(Map<String, Object> spec, String key) {
+			Object value = spec.get(key);
+			if (value == null) {
+				throw new IllegalArgumentException("Missing \"" + key + "\"");
+			}
+			return value.toString();
+		}
+	}
+
+	// Writes the Java source of one message
+	static final class Emitter {
+
+		private static final int COMMENT_WIDTH = 90;
+		private static final Pattern USES_FLEXIBLE = Pattern.compile("\\bflexible\\b");
+
+		private final Message message;
+		private final StringBuilder out = new StringBuilder(16 * 1024);
+		private StringBuilder target = out;
+		private int indent;
+
+		Emitter(Message message) {
+			this.message = message;
+		}
+
+		String emit() {
+			line("// Generated by MessageGenerator from " + message.name + ".json. Do not edit.");
+			line("import java.nio.ByteBuffer;");
+			line("import java.util.UUID;");
+			line("");
+			line("public final class " + message.className + " {");
+			indent++;
+			line("");
+			if (message.apiKey != null) {
+				line("public static final short API_KEY = " + message.apiKey + ";");
+			}
+			line("public static final short LOWEST_SUPPORTED_VERSION = " + message.validVersions.lowest + ";");
+			line("public static final short HIGHEST_SUPPORTED_VERSION = " + message.validVersions.highest + ";");
+			line("");
+			line("private " + message.className + "() {");
+			line("}");
+			line("");
+			line("public static boolean isSupported(short version) {");
+			line("\treturn version >= LOWEST_SUPPORTED_VERSION && version <= HIGHEST_SUPPORTED_VERSION;");
+			line("}");
+			line("");
+			line("public static boolean isFlexible(short version) {");
+			line("\treturn " + flexibleCondition() + ";");
+			line("}");
+			for (Struct struct : message.structs) {
+				line("");
+				reader(struct);
+			}
+			for (Struct struct : message.structs) {
+				line("");
+				writer(struct);
+			}
+			indent--;
+			line("}");
+			return out.toString();
+		}
+
+		private String flexibleCondition() {
+			Versions flexible = message.flexibleVersions.intersect(message.validVersions);
+			if (flexible.isEmpty()) {
+				return "false";
+			}
+			return flexible.lowest <= message.validVersions.lowest ? "true" : "version >= " + flexible.lowest;
+		}
+
+		private String condition(Versions versions) {
+			return versions.condition(message.validVersions);
+		}
+
+		// Whether a field's string or length prefix is compact in the reader's version
+		private String flexible(Field field) {
+			if (field.flexibleVersions != null) {
+				String condition = condition(field.flexibleVersions.intersect(message.flexibleVersions));
+				return condition.equals("true") ? "true" : condition.equals("false") ? "false" : "(" + condition + ")";
+			}
+			return "isFlexible(version)";
+		}
+
+		// --- Reader ---
+
+		private void reader(Struct struct) {
+			String name = struct.readerName();
+			line("// Reads " + (struct.root ? message.name : struct.name) + " in place; one instance can be re-wrapped for every message");
+			line("public static final class " + name + " {");
+			indent++;
+			line("");
+			line("private ByteBuffer buffer;");
+			line("private short version;");
+			line("private int offset;");
+			line("private int end;");
+			if (struct.array) {
+				line("private int count;");
+				line("private int remaining;");
+			}
+			for (Field field : struct.fields) {
+				line("private int " + at(field) + " = -1;");
+			}
+			for (Field field : struct.fields) {
+				if (field.struct != null) {
+					line("private final " + field.struct.readerName() + " " + field.javaName() + " = new " + field.struct.readerName() + "();");
+				}
+			}
+			line("");
+			line("// Points the reader at the encoding that starts at offset and finds its fields");
+			line("public " + name + " wrap(ByteBuffer buffer, int offset, short version) {");
+			line("\tthis.buffer = buffer;");
+			line("\tthis.version = version;");
+			if (struct.array) {
+				line("\tthis.count = 1;");
+				line("\tthis.remaining = 0;");
+			}
+			line("\tdecode(offset);");
+			line("\treturn this;");
+			line("}");
+			if (struct.array) {
+				line("");
+				line("// Positions the reader before the first of count consecutive elements");
+				line(name + " array(ByteBuffer buffer, int offset, int count, short version) {");
+				line("\tthis.buffer = buffer;");
+				line("\tthis.version = version;");
+				line("\tthis.count = count;");
+				line("\tthis.remaining = Math.max(0, count);");
+				line("\tthis.offset = offset;");
+				line("\tthis.end = offset;");
+				line("\treturn this;");
+				line("}");
+				line("");
+				line("// Skips count elements; returns the position after the last");
+				line("int skip(ByteBuffer buffer, int offset, int count, short version) {");
+				line("\tarray(buffer, offset, count, version);");
+				line("\twhile (next()) {");
+				line("\t}");
+				line("\treturn end;");
+				line("}");
+				line("");
+				line("// Array length, -1 for a null array");
+				line("public int count() {");
+				line("\treturn count;");
+				line("}");
+				line("");
+				line("// Moves to the next element; false after the last");
+				line("public boolean next() {");
+				line("\tif (remaining == 0) {");
+				line("\t\treturn false;");
+				line("\t}");
+				line("\tremaining--;");
+				line("\tdecode(end);");
+				line("\treturn true;");
+				line("}");
+			}
+			line("");
+			line("public ByteBuffer buffer() {");
+			line("\treturn buffer;");
+			line("}");
+			line("");
+			line("public short version() {");
+			line("\treturn version;");
+			line("}");
+			line("");
+			line("// Where the current struct starts");
+			line("public int position() {");
+			line("\treturn offset;");
+			line("}");
+			line("");
+			line("public int sizeInBytes() {");
+			line("\treturn end - offset;");
+			line("}");
+			line("");
+			decode(struct);
+			for (Field field : struct.fields) {
+				accessors(field);
+			}
+			indent--;
+			line("}");
+		}
+
+		private String at(Field field) {
+			return field.javaName() + "At";
+		}
+
+		private void decode(Struct struct) {
+			// Built apart first, so decode() declares flexible only if it uses it
+			StringBuilder body = new StringBuilder();
+			int savedIndent = indent;
+			target = body;
+			indent = savedIndent + 1;
+			line("offset = position;");
+			for (Field field : struct.fields) {
+				String condition = condition(field.regularVersions());
+				if (condition.equals("false")) {
+					line(at(field) + " = -1;");
+					continue;
+				}
+				if (!condition.equals("true")) {
+					line("if (" + condition + ") {");
+					indent++;
+				}
+				line(at(field) + " = position;");
+				line(field.kind.size > 0 ? "position += " + field.kind.size + ";" : "position = " + skip(field, "position") + ";");
+				if (!condition.equals("true")) {
+					indent--;
+					line("} else {");
+					line("\t" + at(field) + " = -1;");
+					line("}");
+				}
+			}
+			List<Field> tagged = struct.fields.stream().filter(Field::isTagged)
+					.sorted(Comparator.comparingInt(field -> field.tag)).toList();
+			String flexible = flexibleCondition();
+			if (!flexible.equals("false")) {
+				boolean always = flexible.equals("true");
+				if (!always) {
+					line("if (flexible) {");
+					indent++;
+				}
+				if (tagged.isEmpty()) {
+					line("position = KafkaProtocolUtils.skipTaggedFields(buffer, position);");
+				} else {
+					line("int tags = KafkaProtocolUtils.readUnsignedVarint(buffer, position);");
+					line("position = KafkaProtocolUtils.skipUnsignedVarint(buffer, position);");
+					line("for (int i = 0; i < tags; i++) {");
+					indent++;
+					line("int tag = KafkaProtocolUtils.readUnsignedVarint(buffer, position);");
+					line("position = KafkaProtocolUtils.skipUnsignedVarint(buffer, position);");
+					line("int size = KafkaProtocolUtils.readUnsignedVarint(buffer, position);");
+					line("position = KafkaProtocolUtils.skipUnsignedVarint(buffer, position);");
+					line("switch (tag) {");
+					for (Field field : tagged) {
+						String condition = condition(field.taggedVersions);
+						line("\tcase " + field.tag + ":");
+						if (condition.equals("true")) {
+							line("\t\t" + at(field) + " = position;");
+						} else {
+							line("\t\tif (" + condition + ") {");
+							line("\t\t\t" + at(field) + " = position;");
+							line("\t\t}");
+						}
+						line("\t\tbreak;");
+					}
+					line("\tdefault:");
+					line("\t\tbreak; // Unknown tags are skipped");
+					line("}");
+					line("position += size;");
+					indent--;
+					line("}");
+				}
+				if (!always) {
+					indent--;
+					line("}");
+				}
+			}
+			line("end = position;");
+			target = out;
+			indent = savedIndent;
+
+			line("private void decode(int position) {");
+			if (USES_FLEXIBLE.matcher(body).find()) {
+				line("\tboolean flexible = isFlexible(version);");
+			}
+			out.append(body);
+			line("}");
+		}
+
+		// Expression for the position after the field that starts at position
+		private String skip(Field field, String position) {
+			String flexible = field.kind == Kind.STRING ? flexible(field).replace("isFlexible(version)", "flexible") : "flexible";
+			switch (field.kind) {
+				case STRING:
+					return "KafkaProtocolUtils.skipString(buffer, " + position + ", " + flexible + ")";
+				case BYTES:
+				case RECORDS:
+					return "KafkaProtocolUtils.skipBytes(buffer, " + position + ", " + flexible + ")";
+				case ARRAY:
+					if (field.elementKind == Kind.STRUCT) {
+						return field.javaName() + ".skip(buffer, KafkaProtocolUtils.arrayStart(buffer, " + position + ", flexible), "
+								+ "KafkaProtocolUtils.readArrayLength(buffer, " + position + ", flexible), version)";
+					}
+					if (field.elementKind == Kind.STRING) {
+						return "KafkaProtocolUtils.skipStringArray(buffer, " + position + ", flexible)";
+					}
+					return "KafkaProtocolUtils.skipArray(buffer, " + position + ", " + field.elementKind.size + ", flexible)";
+				case STRUCT:
+					String nullable = condition(field.nullableVersions);
+					String wrap = field.javaName() + ".wrap(buffer, " + position + "%s, version).end";
+					if (nullable.equals("false")) {
+						return wrap.formatted("");
+					}
+					String present = "(buffer.get(" + position + ") < 0 ? " + position + " + 1 : " + wrap.formatted(" + 1") + ")";
+					return nullable.equals("true") ? present : "(" + nullable + " ? " + present + " : " + wrap.formatted("") + ")";
+				default:
+					return position + " + " + field.kind.size;
+			}
+		}
+
+		// True when the field is inline in every valid version, so accessors need no presence check
+		private boolean always(Field field) {
+			return !field.isTagged() && condition(field.versions).equals("true");
+		}
+
+		private void accessors(Field field) {
+			String name = field.javaName();
+			String at = at(field);
+			boolean always = always(field);
+			String about = field.about == null ? null : field.about;
+			if (!always) {
+				line("");
+				line("public boolean has" + field.name + "() {");
+				line("\treturn " + at + " >= 0;");
+				line("}");
+			}
+			switch (field.kind) {
+				case BOOL, INT8, INT16, UINT16, INT32, UINT32, INT64, FLOAT64: {
+					line("");
+					comment(about);
+					line("public " + field.kind.javaType + " " + name + "() {");
+					String read = switch (field.kind) {
+						case BOOL -> "buffer.get(" + at + ") != 0";
+						case INT8 -> "buffer.get(" + at + ")";
+						case INT16 -> "buffer.getShort(" + at + ")";
+						case UINT16 -> "buffer.getShort(" + at + ") & 0xFFFF";
+						case INT32 -> "buffer.getInt(" + at + ")";
+						case UINT32 -> "buffer.getInt(" + at + ") & 0xFFFFFFFFL";
+						case INT64 -> "buffer.getLong(" + at + ")";
+						default -> "buffer.getDouble(" + at + ")";
+					};
+					line("\treturn " + (always ? read : at + " < 0 ? " + defaultLiteral(field) + " : " + read) + ";");
+					line("}");
+					break;
+				}
+				case UUID: {
+					line("");
+					comment(about);
+					line("public long " + name + "MostSignificantBits() {");
+					line("\treturn " + (always ? "" : at + " < 0 ? 0 : ") + "buffer.getLong(" + at + ");");
+					line("}");
+					line("");
+					line("public long " + name + "LeastSignificantBits() {");
+					line("\treturn " + (always ? "" : at + " < 0 ? 0 : ") + "buffer.getLong(" + at + " + 8);");
+					line("}");
+					line("");
+					line("// Allocates a UUID");
+					line("public UUID " + name + "() {");
+					line("\treturn new UUID(" + name + "MostSignificantBits(), " + name + "LeastSignificantBits());");
+					line("}");
+					break;
+				}
+				case STRING: {
+					String flexible = flexible(field);
+					line("");
+					comment(about == null ? null : about + " Length in bytes, -1 for null.");
+					if (about == null) {
+						line("// Length in bytes, -1 for null");
+					}
+					line("public int " + name + "Length() {");
+					line("\treturn " + (always ? "" : at + " < 0 ? -1 : ") + "KafkaProtocolUtils.readStringLength(buffer, " + at + ", " + flexible + ");");
+					line("}");
+					line("");
+					line("// Absolute position of the UTF-8 bytes");
+					line("public int " + name + "Position() {");
+					line("\treturn KafkaProtocolUtils.stringStart(buffer, " + at + ", " + flexible + ");");
+					line("}");
+					line("");
+					line("public boolean " + name + "Equals(byte[] utf8) {");
+					line("\tint length = " + name + "Length();");
+					line("\treturn KafkaProtocolUtils.bytesEqual(buffer, length < 0 ? 0 : " + name + "Position(), length, utf8);");
+					line("}");
+					line("");
+					line("// Decodes a new String");
+					line("public String " + name + "() {");
+					line("\tint length = " + name + "Length();");
+					line("\treturn length < 0 ? " + stringDefault(field) + " : KafkaProtocolUtils.readString(buffer, " + name + "Position(), length);");
+					line("}");
+					break;
+				}
+				case BYTES:
+				case RECORDS: {
+					line("");
+					comment(about == null ? "Length in bytes, -1 for null" : about + " Length in bytes, -1 for null.");
+					line("public int " + name + "Length() {");
+					line("\treturn " + (always ? "" : at + " < 0 ? -1 : ") + "KafkaProtocolUtils.readBytesLength(buffer, " + at + ", isFlexible(version));");
+					line("}");
+					line("");
+					line("public int " + name + "Position() {");
+					line("\treturn KafkaProtocolUtils.bytesStart(buffer, " + at + ", isFlexible(version));");
+					line("}");
+					line("");
+					line("// A view of the bytes, no copy; null for null");
+					line("public ByteBuffer " + name + "() {");
+					line("\tint length = " + name + "Length();");
+					line("\treturn length < 0 ? null : buffer.slice(" + name + "Position(), length);");
+					line("}");
+					break;
+				}
+				case ARRAY: {
+					line("");
+					comment(about == null ? "Array length, -1 for null" : about + " Array length, -1 for null.");
+					line("public int " + name + "Count() {");
+					line("\treturn " + (always ? "" : at + " < 0 ? 0 : ") + "KafkaProtocolUtils.readArrayLength(buffer, " + at + ", isFlexible(version));");
+					line("}");
+					line("");
+					if (field.elementKind == Kind.STRUCT) {
+						String reader = field.struct.readerName();
+						line("// Cursor over the elements: while (x.next()) ...; the same reader on every call");
+						line("public " + reader + " " + name + "() {");
+						if (!always) {
+							line("\tif (" + at + " < 0) {");
+							line("\t\treturn " + name + ".array(buffer, 0, 0, version);");
+							line("\t}");
+						}
+						line("\tboolean flexible = isFlexible(version);");
+						line("\treturn " + name + ".array(buffer, KafkaProtocolUtils.arrayStart(buffer, " + at + ", flexible),");
+						line("\t\t\tKafkaProtocolUtils.readArrayLength(buffer, " + at + ", flexible), version);");
+						line("}");
+					} else if (field.elementKind == Kind.STRING) {
+						line("// Decodes every element; null for a null array");
+						line("public String[] " + name + "() {");
+						if (!always) {
+							line("\tif (" + at + " < 0) {");
+							line("\t\treturn new String[0];");
+							line("\t}");
+						}
+						line("\treturn KafkaProtocolUtils.readStringArray(buffer, " + at + ", isFlexible(version));");
+						line("}");
+					} else {
+						String element = "KafkaProtocolUtils.arrayStart(buffer, " + at + ", isFlexible(version)) + " + field.elementKind.size + " * index";
+						String read = switch (field.elementKind) {
+							case BOOL -> "buffer.get(" + element + ") != 0";
+							case INT8 -> "buffer.get(" + element + ")";
+							case INT16 -> "buffer.getShort(" + element + ")";
+							case UINT16 -> "buffer.getShort(" + element + ") & 0xFFFF";
+							case INT32 -> "buffer.getInt(" + element + ")";
+							case UINT32 -> "buffer.getInt(" + element + ") & 0xFFFFFFFFL";
+							case INT64 -> "buffer.getLong(" + element + ")";
+							default -> "buffer.getDouble(" + element + ")";
+						};
+						line("public " + field.elementKind.javaType + " " + name + "(int index) {");
+						line("\treturn " + read + ";");
+						line("}");
+					}
+					break;
+				}
+				case STRUCT: {
+					String nullable = condition(field.nullableVersions);
+					line("");
+					comment(about == null ? "Null when absent or null" : about + " Null when absent or null.");
+					line("public " + field.struct.readerName() + " " + name + "() {");
+					String absent = always ? "" : at + " < 0";
+					if (!nullable.equals("false")) {
+						String isNull = "buffer.get(" + at + ") < 0";
+						isNull = nullable.equals("true") ? isNull : "(" + nullable + " && " + isNull + ")";
+						absent = absent.isEmpty() ? isNull : absent + " || " + isNull;
+					}
+					if (!absent.isEmpty()) {
+						line("\tif (" + absent + ") {");
+						line("\t\treturn null;");
+						line("\t}");
+					}
+					String start = nullable.equals("false") ? at : nullable.equals("true") ? at + " + 1" : "(" + nullable + " ? " + at + " + 1 : " + at + ")";
+					line("\treturn " + name + ".wrap(buffer, " + start + ", version);");
+					line("}");
+					break;
+				}
+			}
+		}
+
+		private String defaultLiteral(Field field) {
+			String value = field.defaultValue;
+			if (field.kind == Kind.BOOL) {
+				return value == null ? "false" : value;
+			}
+			if (value == null || value.isEmpty()) {
+				return field.kind == Kind.FLOAT64 ? "0.0" : "0";
+			}
+			if (field.kind == Kind.FLOAT64) {
+				return Double.toString(Double.parseDouble(value));
+			}
+			long number = Long.decode(value);
+			return switch (field.kind) {
+				case INT8 -> "(byte) " + number;
+				case INT16 -> "(short) " + number;
+				case INT64, UINT32 -> number + "L";
+				default -> number == Integer.MIN_VALUE ? "Integer.MIN_VALUE" : Long.toString(number);
+			};
+		}
+
+		private String stringDefault(Field field) {
+			if (field.defaultValue == null || field.defaultValue.equals("null")) {
+				return "null";
+			}
+			return "\"" + field.defaultValue.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+		}
+
+		// --- Writer ---
+
+		private void writer(Struct struct) {
+			String name = struct.writerName();
+			line("// Writes " + (struct.root ? message.name : struct.name)
+					+ " field by field in schema order" + (struct.root ? "; end() closes it" : ", then end()"));
+			line("public static final class " + name + " {");
+			indent++;
+			line("");
+			line("private final MessageOutput out;");
+			List<Field> tagged = struct.fields.stream().filter(field -> field.isTagged() && field.kind.isScalar())
+					.sorted(Comparator.comparingInt(field -> field.tag)).toList();
+			for (Field field : tagged) {
+				line("private " + setterType(field) + " " + field.javaName() + "Tagged;");
+				line("private boolean " + field.javaName() + "Set;");
+			}
+			for (Field field : struct.fields) {
+				if (field.struct != null && !field.regularVersions().isEmpty()) {
+					line("private final " + field.struct.writerName() + " " + field.javaName() + ";");
+					if (!condition(field.regularVersions()).equals("true")) {
+						line("private " + field.struct.writerName() + " " + field.javaName() + "Skipped;");
+					}
+				}
+			}
+			line("");
+			if (struct.root) {
+				line("public Writer() {");
+				line("\tthis(new MessageOutput());");
+				line("}");
+				line("");
+			}
+			line((struct.root ? "private " : "") + name + "(MessageOutput out) {");
+			line("\tthis.out = out;");
+			for (Field field : struct.fields) {
+				if (field.struct != null && !field.regularVersions().isEmpty()) {
+					line("\tthis." + field.javaName() + " = new " + field.struct.writerName() + "(out);");
+				}
+			}
+			line("}");
+			if (struct.root) {
+				line("");
+				line("// Writes at the buffer's position, moving it");
+				line("public Writer wrap(ByteBuffer buffer, short version) {");
+				line("\tout.wrap(buffer, version);");
+				line("\treturn this;");
+				line("}");
+				line("");
+				line("// Counts instead of writing: the same calls then give size()");
+				line("public Writer sizing(short version) {");
+				line("\tout.sizing(version);");
+				line("\treturn this;");
+				line("}");
+				line("");
+				line("// Bytes written (or counted) since wrap or sizing");
+				line("public int size() {");
+				line("\treturn out.size();");
+				line("}");
+			}
+			for (Field field : struct.fields) {
+				setter(struct, field);
+			}
+			line("");
+			line("// Closes the struct: its tag buffer, when flexible");
+			line("public " + name + " end() {");
+			indent++;
+			String flexible = flexibleCondition();
+			if (!flexible.equals("false")) {
+				line("if (isFlexible(out.version())) {");
+				indent++;
+				if (tagged.isEmpty()) {
+					line("out.putUnsignedVarint(0);");
+				} else {
+					line("int tags = 0;");
+					for (Field field : tagged) {
+						line("if (" + field.javaName() + "Set) {");
+						line("\ttags++;");
+						line("}");
+					}
+					line("out.putUnsignedVarint(tags);");
+					for (Field field : tagged) {
+						String value = field.javaName() + "Tagged";
+						line("if (" + field.javaName() + "Set) {");
+						indent++;
+						line("out.putUnsignedVarint(" + field.tag + ");");
+						line("out.putUnsignedVarint(" + taggedSize(field, value) + ");");
+						put(field, value, "true");
+						line(field.javaName() + "Set = false;");
+						indent--;
+						line("}");
+					}
+				}
+				indent--;
+				line("}");
+			}
+			line("return this;");
+			indent--;
+			line("}");
+			indent--;
+			line("}");
+		}
+
+		private String setterType(Field field) {
+			return switch (field.kind) {
+				case STRING -> "byte[]";
+				case UUID -> "UUID";
+				default -> field.kind.javaType;
+			};
+		}
+
+		private String taggedSize(Field field, String value) {
+			return switch (field.kind) {
+				case STRING -> "KafkaProtocolUtils.sizeOfString(" + value + ", true)";
+				case BYTES, RECORDS -> "KafkaProtocolUtils.sizeOfBytes(" + value + " == null ? -1 : " + value + ".remaining(), true)";
+				default -> Integer.toString(field.kind.size);
+			};
+		}
+
+		private void put(Field field, String value, String flexible) {
+			switch (field.kind) {
+				case BOOL -> line("out.putBoolean(" + value + ");");
+				case INT8 -> line("out.putByte(" + value + ");");
+				case INT16 -> line("out.putShort(" + value + ");");
+				case UINT16 -> line("out.putShort((short) " + value + ");");
+				case INT32 -> line("out.putInt(" + value + ");");
+				case UINT32 -> line("out.putInt((int) " + value + ");");
+				case INT64 -> line("out.putLong(" + value + ");");
+				case FLOAT64 -> line("out.putDouble(" + value + ");");
+				case UUID -> line("out.putUuid(" + value + ".getMostSignificantBits(), " + value + ".getLeastSignificantBits());");
+				case STRING -> line("out.putString(" + value + ", " + flexible + ");");
+				case BYTES, RECORDS -> line("out.putBytes(" + value + ", " + flexible + ");");
+				default -> throw new IllegalStateException(field.kind.toString());
+			}
+		}
+
+		private void setter(Struct struct, Field field) {
+			String self = struct.writerName();
+			String name = field.javaName();
+			String regular = condition(field.regularVersions());
+			String tagged = condition(field.taggedVersions);
+			String flexible = field.kind == Kind.STRING ? flexible(field) : "isFlexible(version)";
+			if (field.kind.isScalar()) {
+				if (regular.equals("false") && tagged.equals("false")) {
+					return;
+				}
+				line("");
+				comment(field.about);
+				line("public " + self + " " + name + "(" + setterType(field) + " value) {");
+				indent++;
+				boolean sized = field.kind == Kind.STRING || field.kind == Kind.BYTES || field.kind == Kind.RECORDS;
+				if ((regular + " " + tagged + " " + (sized ? flexible : "")).contains("version")) {
+					line("short version = out.version();");
+				}
+				if (regular.equals("true")) {
+					put(field, "value", flexible);
+				} else if (tagged.equals("true")) {
+					line(name + "Tagged = value;");
+					line(name + "Set = true;");
+				} else {
+					if (!regular.equals("false")) {
+						line("if (" + regular + ") {");
+						indent++;
+						put(field, "value", flexible);
+						indent--;
+						line("}" + (tagged.equals("false") ? "" : " else if (" + tagged + ") {"));
+					} else if (!tagged.equals("false")) {
+						line("if (" + tagged + ") {");
+					}
+					if (!tagged.equals("false")) {
+						line("\t" + name + "Tagged = value;");
+						line("\t" + name + "Set = true;");
+						line("}");
+					}
+				}
+				line("return this;");
+				indent--;
+				line("}");
+				if (field.kind == Kind.UUID) {
+					line("");
+					line("public " + self + " " + name + "(long mostSignificantBits, long leastSignificantBits) {");
+					if (field.isTagged()) {
+						line("\treturn " + name + "(new UUID(mostSignificantBits, leastSignificantBits));");
+					} else if (regular.equals("true")) {
+						line("\tout.putUuid(mostSignificantBits, leastSignificantBits);");
+						line("\treturn this;");
+					} else {
+						line("\tshort version = out.version();");
+						line("\tif (" + regular + ") {");
+						line("\t\tout.putUuid(mostSignificantBits, leastSignificantBits);");
+						line("\t}");
+						line("\treturn this;");
+					}
+					line("}");
+				}
+				return;
+			}
+			if (regular.equals("false")) {
+				return; // Tagged structs and arrays are not written
+			}
+			boolean always = regular.equals("true");
+			String nullable = condition(field.nullableVersions);
+			if (field.kind == Kind.ARRAY && field.elementKind != Kind.STRUCT) {
+				String type = field.elementKind == Kind.STRING ? "byte[]" : field.elementKind.javaType;
+				line("");
+				comment(field.about == null ? "null for a null array" : field.about);
+				line("public " + self + " " + name + "(" + type + "[] values) {");
+				indent++;
+				line("short version = out.version();");
+				if (!always) {
+					line("if (" + regular + ") {");
+					indent++;
+				}
+				line("out.putLength(values == null ? -1 : values.length, isFlexible(version));");
+				line("if (values != null) {");
+				line("\tfor (" + type + " value : values) {");
+				indent += 2;
+				Field element = new Field();
+				element.kind = field.elementKind;
+				put(element, "value", "isFlexible(version)");
+				indent -= 2;
+				line("\t}");
+				line("}");
+				if (!always) {
+					indent--;
+					line("}");
+				}
+				line("return this;");
+				indent--;
+				line("}");
+				return;
+			}
+			String child = field.struct.writerName();
+			line("");
+			comment(field.about);
+			if (field.kind == Kind.ARRAY) {
+				line("// Starts the array; write count elements on the returned writer, each closed with end()");
+				line("public " + child + " " + name + "(int count) {");
+			} else {
+				line("// Starts the struct; write it on the returned writer and close it with end()");
+				line("public " + child + " " + name + "() {");
+			}
+			indent++;
+			String marker = field.kind == Kind.ARRAY ? "false" : nullable;
+			if (field.kind == Kind.ARRAY || (regular + " " + marker).contains("version")) {
+				line("short version = out.version();");
+			}
+			if (!always) {
+				line("if (" + regular + ") {");
+				indent++;
+			}
+			if (field.kind == Kind.ARRAY) {
+				line("out.putLength(count, isFlexible(version));");
+			} else if (marker.equals("true")) {
+				line("out.putByte((byte) 1);");
+			} else if (!marker.equals("false")) {
+				line("if (" + marker + ") {");
+				line("\tout.putByte((byte) 1);");
+				line("}");
+			}
+			line("return " + name + ";");
+			if (!always) {
+				indent--;
+				line("}");
+				// Not in this version: the caller's writes go nowhere
+				line("MessageOutput sink = out.sink();");
+				line("if (" + name + "Skipped == null) {");
+				line("\t" + name + "Skipped = new " + child + "(sink);");
+				line("}");
+				line("return " + name + "Skipped;");
+			}
+			indent--;
+			line("}");
+			if (field.kind == Kind.STRUCT && !nullable.equals("false")) {
+				String condition = always ? nullable : nullable.equals("true") ? regular : regular + " && " + nullable;
+				line("");
+				line("public " + self + " " + name + "Null() {");
+				indent++;
+				if (!condition.equals("true")) {
+					line("short version = out.version();");
+					line("if (" + condition + ") {");
+					line("\tout.putByte((byte) -1);");
+					line("}");
+				} else {
+					line("out.putByte((byte) -1);");
+				}
+				line("return this;");
+				indent--;
+				line("}");
+			}
+		}
+
+		// The spec's "about", wrapped to keep lines short
+		private void comment(String text) {
+			if (text == null || text.isBlank()) {
+				return;
+			}
+			StringBuilder comment = new StringBuilder("//");
+			for (String word : text.trim().split("\\s+")) {
+				if (comment.length() > 2 && comment.length() + word.length() > COMMENT_WIDTH) {
+					line(comment.toString());
+					comment.setLength(2);
+				}
+				comment.append(' ').append(word);
+			}
+			line(comment.toString());
+		}
+
+		private void line(String text) {
+			if (!text.isEmpty()) {
+				target.append("\t".repeat(indent));
+			}
+			target.append(text).append('\n');
+		}
+	}
+
+	// Minimal JSON reader for the specs: objects, arrays, strings, numbers,
+	// booleans and null, plus the // and /* */ comments Kafka's specs carry
+	static final class Json {
+
+		private final String text;
+		private int position;
+
+		Json(String text) {
+			this.text = text;
+		}
+
+		Object parse() {
+			Object value = value();
+			space();
+			if (position != text.length()) {
+				throw error("Trailing content");
+			}
+			return value;
+		}
+
+		private Object value() {
+			space();
+			if (position >= text.length()) {
+				throw error("Unexpected end");
+			}
+			char c = text.charAt(position);
+			switch (c) {
+				case '{':
+					return object();
+				case '[':
+					return array();
+				case '"':
+					return string();
+				default:
+					if (text.startsWith("true", position)) {
+						position += 4;
+						return Boolean.TRUE;
+					}
+					if (text.startsWith("false", position)) {
+						position += 5;
+						return Boolean.FALSE;
+					}
+					if (text.startsWith("null", position)) {
+						position += 4;
+						return null;
+					}
+					return number();
+			}
+		}
+
+		private Map<String, Object> object() {
+			Map<String, Object> object = new LinkedHashMap<>();
+			position++;
+			space();
+			if (peek() == '}') {
+				position++;
+				return object;
+			}
+			while (true) {
+				space();
+				String key = string();
+				space();
+				expect(':');
+				object.put(key, value());
+				space();
+				if (peek() == ',') {
+					position++;
+					continue;
+				}
+				expect('}');
+				return object;
+			}
+		}
+
+		private List<Object> array() {
+			List<Object> array = new ArrayList<>();
+			position++;
+			space();
+			if (peek() == ']') {
+				position++;
+				return array;
+			}
+			while (true) {
+				array.add(value());
+				space();
+				if (peek() == ',') {
+					position++;
+					continue;
+				}
+				expect(']');
+				return array;
+			}
+		}
+
+		private String string() {
+			expect('"');
+			StringBuilder value = new StringBuilder();
+			while (true) {
+				char c = text.charAt(position++);
+				if (c == '"') {
+					return value.toString();
+				}
+				if (c == '\\') {
+					char escaped = text.charAt(position++);
+					switch (escaped) {
+						case 'n' -> value.append('\n');
+						case 't' -> value.append('\t');
+						case 'u' -> {
+							value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+							position += 4;
+						}
+						default -> value.append(escaped);
+					}
+				} else {
+					value.append(c);
+				}
+			}
+		}
+
+		private Number number() {
+			int start = position;
+			while (position < text.length() && "+-0123456789.eExX".indexOf(text.charAt(position)) >= 0) {
+				position++;
+			}
+			if (start == position) {
+				throw error("Unexpected character '" + text.charAt(position) + "'");
+			}
+			String number = text.substring(start, position);
+			if (number.contains(".") || number.contains("e") || number.contains("E")) {
+				return Double.parseDouble(number);
+			}
+			return Long.decode(number);
+		}
+
+		private void space() {
+			while (position < text.length()) {
+				char c = text.charAt(position);
+				if (Character.isWhitespace(c)) {
+					position++;
+				} else if (text.startsWith("//", position)) {
+					int end = text.indexOf('\n', position);
+					position = end < 0 ? text.length() : end + 1;
+				} else if (text.startsWith("/*", position)) {
+					int end = text.indexOf("*/", position + 2);
+					if (end < 0) {
+						throw error("Unterminated comment");
+					}
+					position = end + 2;
+				} else {
+					return;
+				}
+			}
+		}
+
+		private char peek() {
+			if (position >= text.length()) {
+				throw error("Unexpected end");
+			}
+			return text.charAt(position);
+		}
+
+		private void expect(char c) {
+			if (peek() != c) {
+				throw error("Expected '" + c + "'");
+			}
+			position++;
+		}
+
+		private IllegalArgumentException error(String message) {
+			int line = 1;
+			for (int i = 0; i < Math.min(position, text.length()); i++) {
+				if (text.charAt(i) == '\n') {
+					line++;
+				}
+			}
+			return new IllegalArgumentException(message + " at line " + line);
+		}
+	}
+}
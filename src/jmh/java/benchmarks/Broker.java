@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// The broker lives in the unnamed package, which named packages cannot
+// import and JMH refuses to generate benchmarks for. Benchmarks therefore
+// reach broker code through method handles bound once into static finals;
+// invokeExact on a constant handle is inlined by the JIT like a direct call.
+final class Broker {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+	private Broker() {
+	}
+
+	static Class<?> type(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Broker class not on the classpath: " + name, e);
+		}
+	}
+
+	// Static method, adapted so every reference parameter and the return type are Object
+	static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+		try {
+			MethodHandle handle = LOOKUP.findStatic(type(className), name, MethodType.methodType(returnType, parameterTypes));
+			return handle.asType(handle.type().erase());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Missing broker method " + className + "." + name, e);
+		}
+	}
+
+	// Instance method, receiver first, erased like staticMethod
+	static MethodHandle virtualMethod(String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+		try {
+			MethodHandle handle = LOOKUP.findVirtual(type(className), name, MethodType.methodType(returnType, parameterTypes));
+			return handle.asType(handle.type().erase());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Missing broker method " + className + "." + name, e);
+		}
+	}
+
+	static MethodHandle constructor(String className, Class<?>... parameterTypes) {
+		try {
+			MethodHandle handle = LOOKUP.findConstructor(type(className), MethodType.methodType(void.class, parameterTypes));
+			return handle.asType(handle.type().erase());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Missing broker constructor " + className, e);
+		}
+	}
+
+	static Object invoke(MethodHandle handle, Object... arguments) {
+		try {
+			return handle.invokeWithArguments(arguments);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
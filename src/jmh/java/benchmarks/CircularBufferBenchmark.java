@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// CircularBuffer add/get, alone and with three producers contending
+// against one consumer. REJECT backpressure keeps producers from blocking
+// when JMH stops the consumer at the end of an iteration.
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=WARN")
+public class CircularBufferBenchmark {
+
+	private static final Class<?> POLICY = Broker.type("BackpressurePolicy");
+
+	private static final MethodHandle NEW_BUFFER = Broker.constructor("CircularBuffer", int.class, POLICY);
+	private static final MethodHandle ADD = Broker.virtualMethod("CircularBuffer", "add", boolean.class, byte[].class);
+	private static final MethodHandle GET = Broker.virtualMethod("CircularBuffer", "get", byte[].class);
+
+	private final byte[] message = new byte[64];
+	private Object buffer;
+
+	@Setup
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void setup() throws Throwable {
+		Object reject = Enum.valueOf((Class) POLICY, "REJECT");
+		buffer = (Object) NEW_BUFFER.invokeExact(1024, reject);
+	}
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public Object addThenGet() throws Throwable {
+		boolean added = (boolean) ADD.invokeExact(buffer, (Object) message);
+		return (Object) GET.invokeExact(buffer);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public boolean add() throws Throwable {
+		return (boolean) ADD.invokeExact(buffer, (Object) message);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public Object get() throws Throwable {
+		return (Object) GET.invokeExact(buffer);
+	}
+}
@@ -0,0 +1,172 @@
+package benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+// Golden vectors for the hand-written codecs, so a change to them cannot
+// silently break wire compatibility with real clients. Exits with 1 on the
+// first mismatch:
+//
+//   java -cp target/benchmarks.jar benchmarks.CodecVectors
+//
+// XXHash32: the sanity values of the reference xxhsum plus the python-xxhash
+// README strings. LZ4: the frame headers Kafka and the lz4 CLI write, and
+// hand-assembled frames and blocks per the LZ4 frame/block spec. Snappy: the
+// snappy-java (xerial) stream header and hand-assembled raw blocks per the
+// Snappy format description. Encoder output is pinned only where the format
+// leaves no choice (headers, stored blocks, all-literal blocks); everything
+// else is checked by round trip.
+public class CodecVectors {
+
+	private static final Class<?> CODEC = Broker.type("CompressionCodec");
+	private static final MethodHandle FOR_ID = Broker.staticMethod("CompressionCodec", "forId", CODEC, int.class);
+	private static final MethodHandle DECOMPRESS = Broker.virtualMethod("CompressionCodec", "decompress",
+			InputStream.class, ByteBuffer.class);
+	private static final MethodHandle COMPRESS = Broker.virtualMethod("CompressionCodec", "compress",
+			OutputStream.class, OutputStream.class);
+	private static final MethodHandle XXHASH32 = Broker.staticMethod("XXHash32", "hash",
+			int.class, byte[].class, int.class, int.class, int.class);
+
+	private static final HexFormat HEX = HexFormat.of();
+	private static final int PRIME32 = 0x9E3779B1;
+
+	private static final int SNAPPY = 2;
+	private static final int LZ4 = 3;
+
+	private static final String SNAPPY_HEADER = "82534e41505059000000000100000001";
+	// FLG 0x60 (version 1, independent blocks), BD 64 KiB, header checksum
+	private static final String KAFKA_LZ4_HEADER = "04224d18604082";
+
+	private int checks = 0;
+
+	public static void main(String[] args) throws Exception {
+		CodecVectors vectors = new CodecVectors();
+		vectors.xxhash32();
+		vectors.lz4();
+		vectors.snappy();
+		System.out.println(vectors.checks + " codec vectors passed");
+	}
+
+	private void xxhash32() {
+		byte[] sanity = new byte[101];
+		int generator = PRIME32;
+		for (int i = 0; i < sanity.length; i++) {
+			sanity[i] = (byte) (generator >>> 24);
+			generator *= generator;
+		}
+		hash(sanity, 0, 0, 0x02CC5D05);
+		hash(sanity, 0, PRIME32, 0x36B78AE7);
+		hash(sanity, 1, 0, 0xB85CBEE5);
+		hash(sanity, 1, PRIME32, 0xD5845D64);
+		hash(sanity, 14, 0, 0xE5AA0AB4);
+		hash(sanity, 14, PRIME32, 0x4481951D);
+		hash(sanity, 101, 0, 0x1F1AA412);
+		hash(sanity, 101, PRIME32, 0x498EC8E2);
+		hash(ascii("a"), 1, 0, 0x550D7456);
+		hash(ascii("abc"), 3, 0, 0x32D153FF);
+		hash(ascii("Nobody inspects the spammish repetition"), 39, 0, 0xE2293B2F);
+		hash(ascii("The quick brown fox jumps over the lazy dog"), 43, 0, 0xE85EA4DE);
+	}
+
+	private void hash(byte[] bytes, int length, int seed, int expected) {
+		int actual = (int) Broker.invoke(XXHASH32, bytes, 0, length, seed);
+		check(actual == expected, "xxhash32 of " + length + " bytes, seed " + Integer.toHexString(seed)
+				+ ": " + Integer.toHexString(actual) + " instead of " + Integer.toHexString(expected));
+	}
+
+	private void lz4() throws Exception {
+		// lz4 -B4 of empty input: FLG 0x64 (content checksum), BD 64 KiB, end mark, xxhash32("")
+		decodes(LZ4, "04224d186440a7" + "00000000" + "055dcc02", "");
+		// One compressed block: "abc" + 19 byte match at distance 3 (length 15 + extra 0),
+		// then last literals "hello"; one stored block "kafka"; content checksum
+		decodes(LZ4, "04224d186440a7" + "0d000000" + "3f616263030000" + "5068656c6c6f"
+				+ "05000080" + "6b61666b61" + "00000000" + "28d99769",
+				"abcabcabcabcabcabcabcahellokafka");
+		// Kafka's own frame with the same compressed block
+		decodes(LZ4, KAFKA_LZ4_HEADER + "0d000000" + "3f616263030000" + "5068656c6c6f" + "00000000",
+				"abcabcabcabcabcabcabcahello");
+		// Block checksums are present when FLG has 0x10, 4 bytes after each block
+		decodes(LZ4, "04224d187040ad" + "05000080" + "6b61666b61" + "01020304" + "00000000", "kafka");
+
+		encodes(LZ4, new byte[0], KAFKA_LZ4_HEADER + "00000000");
+		// Incompressible input goes out as a stored block
+		byte[] random = new byte[16];
+		new Random(42).nextBytes(random);
+		encodes(LZ4, random, KAFKA_LZ4_HEADER + "10000080" + HEX.formatHex(random) + "00000000");
+		roundTrips(LZ4);
+	}
+
+	private void snappy() throws Exception {
+		// Chunk 1: length 12, literal "abc", copy length 9 at distance 3 (1-byte offset)
+		// Chunk 2: length 15, literal "kafka", copy length 10 at distance 5 (2-byte offset)
+		decodes(SNAPPY, SNAPPY_HEADER + "00000007" + "0c0861626315" + "03"
+				+ "0000000a" + "0f106b61666b6126" + "0500",
+				"abcabcabcabc" + "kafkakafkakafka");
+		// Without the xerial header the input is one raw block
+		decodes(SNAPPY, "0c086162631503", "abcabcabcabc");
+
+		encodes(SNAPPY, new byte[0], SNAPPY_HEADER);
+		// Too short for a copy: varint length 3, one literal tag
+		encodes(SNAPPY, ascii("abc"), SNAPPY_HEADER + "00000005" + "0308616263");
+		roundTrips(SNAPPY);
+	}
+
+	private void decodes(int codecId, String compressedHex, String expected) throws Exception {
+		byte[] actual = decompress(codecId, HEX.parseHex(compressedHex));
+		check(Arrays.equals(actual, ascii(expected)), "codec " + codecId + " decoded " + compressedHex
+				+ " to " + new String(actual, StandardCharsets.US_ASCII) + " instead of " + expected);
+	}
+
+	private void encodes(int codecId, byte[] input, String expectedHex) throws Exception {
+		String actual = HEX.formatHex(compress(codecId, input));
+		check(actual.equals(expectedHex), "codec " + codecId + " encoded " + HEX.formatHex(input)
+				+ " to " + actual + " instead of " + expectedHex);
+	}
+
+	// Several blocks of text-like data, so matches, long literals and block
+	// boundaries all come up
+	private void roundTrips(int codecId) throws Exception {
+		Random random = new Random(7);
+		byte[] input = new byte[300 * 1024];
+		for (int i = 0; i < input.length; i++) {
+			input[i] = random.nextInt(4) == 0 ? (byte) random.nextInt(256) : (byte) ('a' + (i / 7) % 13);
+		}
+		byte[] compressed = compress(codecId, input);
+		check(Arrays.equals(decompress(codecId, compressed), input), "codec " + codecId + " round trip of "
+				+ input.length + " bytes differs");
+	}
+
+	private static byte[] compress(int codecId, byte[] input) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = (OutputStream) Broker.invoke(COMPRESS, Broker.invoke(FOR_ID, codecId), bytes)) {
+			out.write(input);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] decompress(int codecId, byte[] compressed) throws Exception {
+		Object codec = Broker.invoke(FOR_ID, codecId);
+		try (InputStream in = (InputStream) Broker.invoke(DECOMPRESS, codec, ByteBuffer.wrap(compressed))) {
+			return in.readAllBytes();
+		}
+	}
+
+	private void check(boolean passed, String failure) {
+		if (!passed) {
+			System.err.println("FAILED: " + failure);
+			System.exit(1);
+		}
+		checks++;
+	}
+
+	private static byte[] ascii(String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+}
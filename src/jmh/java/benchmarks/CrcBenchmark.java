@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// CRC32C of record batch bytes: java.util.zip.CRC32C (intrinsic) over a
+// direct buffer against a byte-at-a-time table lookup, then the broker's
+// BatchValidator over a 16-partition produce, sequential and parallel.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=WARN")
+public class CrcBenchmark {
+
+	private static final MethodHandle VALIDATE = Broker.staticMethod("BatchValidator", "validate",
+			boolean[].class, List.class, int.class);
+
+	// Castagnoli polynomial, reflected
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+			}
+			TABLE[i] = crc;
+		}
+	}
+
+	private static final int PARTITIONS = 16;
+
+	// Bytes checksummed per invocation
+	@Param({"1024", "65536", "1048576"})
+	public int size;
+
+	private ByteBuffer direct;
+	private final CRC32C crc = new CRC32C();
+	private final List<ByteBuffer> recordSets = new ArrayList<>();
+
+	@Setup
+	public void setup() {
+		direct = ByteBuffer.allocateDirect(size);
+		for (int i = 0; i < size; i++) {
+			direct.put(i, (byte) (i * 31));
+		}
+		for (int i = 0; i < PARTITIONS; i++) {
+			recordSets.add(Requests.recordBatch(new byte[Math.max(1, size / PARTITIONS - 80)]));
+		}
+	}
+
+	@Benchmark
+	public long crc32cIntrinsic() {
+		crc.reset();
+		direct.clear();
+		crc.update(direct);
+		return crc.getValue();
+	}
+
+	@Benchmark
+	public long crc32cBytewise() {
+		int value = 0xFFFFFFFF;
+		for (int i = 0; i < size; i++) {
+			value = (value >>> 8) ^ TABLE[(value ^ direct.get(i)) & 0xFF];
+		}
+		return ~value & 0xFFFFFFFFL;
+	}
+
+	@Benchmark
+	public Object validateSequential() throws Throwable {
+		return (Object) VALIDATE.invokeExact((Object) recordSets, Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public Object validateParallel() throws Throwable {
+		return (Object) VALIDATE.invokeExact((Object) recordSets, 0);
+	}
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+// Log-linear latency histogram in nanoseconds: 32 sub-buckets per power of
+// two (about 3% resolution), no allocation per sample. One per thread,
+// merged at the end of a run.
+final class LatencyRecorder {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long[] counts = new long[64 * SUB_BUCKETS];
+	private long total;
+	private long max;
+
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[index(nanos)]++;
+		total++;
+		if (nanos > max) {
+			max = nanos;
+		}
+	}
+
+	void merge(LatencyRecorder other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		total += other.total;
+		max = Math.max(max, other.max);
+	}
+
+	long count() {
+		return total;
+	}
+
+	long max() {
+		return max;
+	}
+
+	// Upper bound of the bucket holding the given quantile (0..1)
+	long percentile(double quantile) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	// Values below SUB_BUCKETS get exact buckets; above that each power of two
+	// [2^b, 2^(b+1)) is split into SUB_BUCKETS buckets of width 2^(b - SUB_BUCKET_BITS)
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int mantissa = (int) (value >>> shift) - SUB_BUCKETS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + mantissa;
+	}
+
+	private static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		int mantissa = index % SUB_BUCKETS;
+		return ((long) (mantissa + SUB_BUCKETS + 1) << shift) - 1;
+	}
+}
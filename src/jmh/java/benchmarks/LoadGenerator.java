@@ -0,0 +1,222 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Closed-loop localhost load generator. Opens N connections, each sending one
+// request at a time (ApiVersions, DescribeTopicPartitions, both
+// alternating, or Produce) and waiting for its response, paced so all
+// connections together aim for --rate requests/s (0 = as fast as possible).
+//
+// --api produce appends one --record-size record per request, spread over
+// --partitions partitions of --topic, with --acks (default -1). Running it
+// against brokers started with each -Dlog.flush.policy gives the group
+// commit latency/throughput comparison.
+//
+// Latency is measured from the request's scheduled send time, not the actual
+// one, so a stalled broker shows up in the percentiles instead of silently
+// lowering the offered load (coordinated omission).
+//
+//   java -cp target/benchmarks.jar benchmarks.LoadGenerator \
+//       --connections 64 --rate 50000 --duration 30 --warmup 5 --api mixed --csv results.csv
+//   java -cp target/benchmarks.jar benchmarks.LoadGenerator \
+//       --connections 64 --api produce --acks -1 --partitions 8 --label every-batch --csv flush.csv
+public class LoadGenerator {
+
+	private String host = "localhost";
+	private int port = 9092;
+	private int connections = 16;
+	private long rate = 0;
+	private int durationSeconds = 30;
+	private int warmupSeconds = 5;
+	private String api = "mixed";
+	private String topic = "bench-topic";
+	private String csv = null;
+	private short acks = -1;
+	private int partitions = 1;
+	private int recordSize = 100;
+	private String label = "";
+
+	private final AtomicLong errors = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		LoadGenerator generator = new LoadGenerator();
+		generator.parse(args);
+		generator.run();
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String value = i + 1 < args.length ? args[i + 1] : null;
+			switch (args[i]) {
+				case "--host": host = value; i++; break;
+				case "--port": port = Integer.parseInt(value); i++; break;
+				case "--connections": connections = Integer.parseInt(value); i++; break;
+				case "--rate": rate = Long.parseLong(value); i++; break;
+				case "--duration": durationSeconds = Integer.parseInt(value); i++; break;
+				case "--warmup": warmupSeconds = Integer.parseInt(value); i++; break;
+				case "--api": api = value; i++; break;
+				case "--topic": topic = value; i++; break;
+				case "--csv": csv = value; i++; break;
+				case "--acks": acks = Short.parseShort(value); i++; break;
+				case "--partitions": partitions = Integer.parseInt(value); i++; break;
+				case "--record-size": recordSize = Integer.parseInt(value); i++; break;
+				case "--label": label = value; i++; break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.err.println("Options: --host --port --connections --rate --duration --warmup"
+							+ " --api apiversions|describe|mixed|produce --topic --csv <file>"
+							+ " --acks --partitions --record-size --label <free text for the report>");
+					System.exit(2);
+			}
+		}
+		if (!api.equals("apiversions") && !api.equals("describe") && !api.equals("mixed") && !api.equals("produce")) {
+			throw new IllegalArgumentException("Unknown --api " + api);
+		}
+		if (api.equals("produce") && acks == 0) {
+			throw new IllegalArgumentException("--acks 0 gets no response to time");
+		}
+	}
+
+	private void run() throws Exception {
+		long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+		long measureFrom = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		long endNanos = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+		// Per-connection interval between scheduled sends
+		long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * connections / rate : 0;
+
+		List<LatencyRecorder> recorders = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(connections);
+		for (int i = 0; i < connections; i++) {
+			LatencyRecorder recorder = new LatencyRecorder();
+			recorders.add(recorder);
+			int id = i;
+			Thread.ofVirtual().name("load-" + i).start(() -> {
+				try {
+					drive(id, recorder, startNanos, measureFrom, endNanos, intervalNanos);
+				} catch (IOException e) {
+					errors.incrementAndGet();
+					System.err.println("Connection " + id + " failed: " + e.getMessage());
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+
+		LatencyRecorder total = new LatencyRecorder();
+		for (LatencyRecorder recorder : recorders) {
+			total.merge(recorder);
+		}
+		report(total);
+	}
+
+	private void drive(int id, LatencyRecorder recorder, long startNanos, long measureFrom, long endNanos,
+			long intervalNanos) throws IOException {
+		try (SocketChannel channel = SocketChannel.open()) {
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.connect(new InetSocketAddress(host, port));
+
+			ByteBuffer apiVersions = Requests.apiVersions(0, "load-" + id);
+			ByteBuffer describe = Requests.describeTopicPartitions(0, "load-" + id, topic);
+			ByteBuffer produce = Requests.produce(0, "load-" + id, topic, id % partitions, acks, recordSize);
+			ByteBuffer sizeBuffer = ByteBuffer.allocate(4);
+			ByteBuffer responseBuffer = ByteBuffer.allocate(64 * 1024);
+
+			// Stagger connections so paced sends do not all fire at once
+			long scheduled = startNanos + (intervalNanos > 0 ? intervalNanos * id / connections : 0);
+			int correlationId = 0;
+			while (true) {
+				long now = System.nanoTime();
+				if (intervalNanos > 0) {
+					while (now < scheduled) {
+						LockSupport.parkNanos(scheduled - now);
+						now = System.nanoTime();
+					}
+				} else {
+					scheduled = now;
+				}
+				if (scheduled >= endNanos) {
+					return;
+				}
+
+				correlationId++;
+				boolean sendDescribe = api.equals("describe") || (api.equals("mixed") && (correlationId & 1) == 0);
+				ByteBuffer request = api.equals("produce") ? produce : sendDescribe ? describe : apiVersions;
+				Requests.setCorrelationId(request, correlationId);
+				request.rewind();
+				while (request.hasRemaining()) {
+					channel.write(request);
+				}
+
+				sizeBuffer.clear();
+				readFully(channel, sizeBuffer);
+				int size = sizeBuffer.getInt(0);
+				if (size > responseBuffer.capacity()) {
+					responseBuffer = ByteBuffer.allocate(size);
+				}
+				responseBuffer.clear().limit(size);
+				readFully(channel, responseBuffer);
+				if (responseBuffer.getInt(0) != correlationId) {
+					errors.incrementAndGet();
+				}
+
+				long finished = System.nanoTime();
+				if (scheduled >= measureFrom) {
+					recorder.record(finished - scheduled);
+				}
+				scheduled += intervalNanos;
+			}
+		}
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Connection closed by broker");
+			}
+		}
+	}
+
+	private void report(LatencyRecorder total) throws IOException {
+		double throughput = total.count() / (double) durationSeconds;
+		String summary = String.format(
+				"api=%s label=%s connections=%d target=%d/s throughput=%.0f/s requests=%d errors=%d "
+						+ "p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+				apiName(), label, connections, rate, throughput, total.count(), errors.get(),
+				micros(total.percentile(0.50)), micros(total.percentile(0.99)),
+				micros(total.percentile(0.999)), micros(total.max()));
+		System.out.println(summary);
+
+		if (csv != null) {
+			Path path = Path.of(csv);
+			boolean header = !Files.exists(path);
+			String line = (header ? "timestamp,api,label,connections,target_rate,throughput,requests,errors,p50_us,p99_us,p999_us,max_us\n" : "")
+					+ String.format("%d,%s,%s,%d,%d,%.0f,%d,%d,%.1f,%.1f,%.1f,%.1f%n",
+							System.currentTimeMillis(), apiName(), label, connections, rate, throughput, total.count(), errors.get(),
+							micros(total.percentile(0.50)), micros(total.percentile(0.99)),
+							micros(total.percentile(0.999)), micros(total.max()));
+			Files.writeString(path, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+	}
+
+	private String apiName() {
+		return api.equals("produce") ? "produce(acks=" + acks + ")" : api;
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Request decode: the RequestHeader flyweight alone, and the full
+// MessageUtils.handleMessage dispatch (decode + handler + encode).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=WARN")
+public class RequestDecodeBenchmark {
+
+	private static final Class<?> REQUEST_HEADER = Broker.type("RequestHeader");
+	private static final Class<?> RESPONSE = Broker.type("Response");
+
+	private static final MethodHandle NEW_HEADER = Broker.constructor("RequestHeader");
+	private static final MethodHandle WRAP = Broker.virtualMethod("RequestHeader", "wrap", REQUEST_HEADER, ByteBuffer.class, int.class);
+	private static final MethodHandle API_KEY = Broker.virtualMethod("RequestHeader", "apiKey", short.class);
+	private static final MethodHandle API_VERSION = Broker.virtualMethod("RequestHeader", "apiVersion", short.class);
+	private static final MethodHandle CORRELATION_ID = Broker.virtualMethod("RequestHeader", "correlationId", int.class);
+	private static final MethodHandle CLIENT_ID = Broker.virtualMethod("RequestHeader", "clientId", String.class);
+	private static final MethodHandle BODY_OFFSET = Broker.virtualMethod("RequestHeader", "bodyOffset", int.class);
+
+	private static final MethodHandle HANDLE_MESSAGE = Broker.staticMethod("MessageUtils", "handleMessage", RESPONSE, ByteBuffer.class);
+	private static final MethodHandle RELEASE = Broker.virtualMethod("Response", "release", void.class);
+
+	private Object header;
+	private ByteBuffer apiVersions;
+	private ByteBuffer describeTopicPartitions;
+
+	@Setup
+	public void setup() throws Throwable {
+		header = (Object) NEW_HEADER.invokeExact();
+		apiVersions = Requests.body(Requests.apiVersions(1, "bench-client"));
+		describeTopicPartitions = Requests.body(Requests.describeTopicPartitions(2, "bench-client", "bench-topic"));
+	}
+
+	@Benchmark
+	public void headerFlyweight(Blackhole blackhole) throws Throwable {
+		Object h = (Object) WRAP.invokeExact(header, (Object) apiVersions, 0);
+		blackhole.consume((short) API_KEY.invokeExact(h));
+		blackhole.consume((short) API_VERSION.invokeExact(h));
+		blackhole.consume((int) CORRELATION_ID.invokeExact(h));
+		blackhole.consume((Object) CLIENT_ID.invokeExact(h));
+		blackhole.consume((int) BODY_OFFSET.invokeExact(h));
+	}
+
+	@Benchmark
+	public void dispatchApiVersions() throws Throwable {
+		apiVersions.position(0);
+		Object response = (Object) HANDLE_MESSAGE.invokeExact((Object) apiVersions);
+		RELEASE.invokeExact(response);
+	}
+
+	@Benchmark
+	public void dispatchDescribeTopicPartitions() throws Throwable {
+		describeTopicPartitions.position(0);
+		Object response = (Object) HANDLE_MESSAGE.invokeExact((Object) describeTopicPartitions);
+		RELEASE.invokeExact(response);
+	}
+}
@@ -0,0 +1,141 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+// Wire-format request frames (size prefix included) shared by the
+// benchmarks and the load generator.
+final class Requests {
+
+	static final short PRODUCE = 0;
+	static final short API_VERSIONS = 18;
+	static final short DESCRIBE_TOPIC_PARTITIONS = 75;
+
+	private Requests() {
+	}
+
+	// ApiVersions v4: header v2 + client_software_name/version + TAG_BUFFER
+	static ByteBuffer apiVersions(int correlationId, String clientId) {
+		byte[] client = clientId.getBytes(StandardCharsets.UTF_8);
+		byte[] softwareName = "kafka-bench".getBytes(StandardCharsets.UTF_8);
+		byte[] softwareVersion = "1.0".getBytes(StandardCharsets.UTF_8);
+		int size = 2 + 2 + 4 + 2 + client.length + 1
+				+ 1 + softwareName.length + 1 + softwareVersion.length + 1;
+		ByteBuffer frame = ByteBuffer.allocate(4 + size);
+		frame.putInt(size)
+				.putShort(API_VERSIONS).putShort((short) 4).putInt(correlationId)
+				.putShort((short) client.length).put(client).put((byte) 0)
+				.put((byte) (softwareName.length + 1)).put(softwareName)
+				.put((byte) (softwareVersion.length + 1)).put(softwareVersion)
+				.put((byte) 0);
+		return frame.flip();
+	}
+
+	// DescribeTopicPartitions v0 for one topic
+	static ByteBuffer describeTopicPartitions(int correlationId, String clientId, String topic) {
+		byte[] client = clientId.getBytes(StandardCharsets.UTF_8);
+		byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+		int size = 2 + 2 + 4 + 2 + client.length + 1
+				+ 1 + 1 + name.length + 1 // topics: compact array of (name, TAG_BUFFER)
+				+ 4 + 1 + 1; // response_partition_limit, null cursor, TAG_BUFFER
+		ByteBuffer frame = ByteBuffer.allocate(4 + size);
+		frame.putInt(size)
+				.putShort(DESCRIBE_TOPIC_PARTITIONS).putShort((short) 0).putInt(correlationId)
+				.putShort((short) client.length).put(client).put((byte) 0)
+				.put((byte) 2).put((byte) (name.length + 1)).put(name).put((byte) 0)
+				.putInt(100).put((byte) 0xFF).put((byte) 0);
+		return frame.flip();
+	}
+
+	// Produce v9 of one record batch (one record of valueSize bytes) to one partition
+	static ByteBuffer produce(int correlationId, String clientId, String topic, int partition, short acks, int valueSize) {
+		byte[] client = clientId.getBytes(StandardCharsets.UTF_8);
+		byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer batch = recordBatch(new byte[valueSize]);
+		int size = 2 + 2 + 4 + 2 + client.length + 1
+				+ 1 + 2 + 4 // null transactional_id, acks, timeout_ms
+				+ 1 + 1 + name.length // topics: one entry, name
+				+ 1 + 4 + varintSize(batch.remaining() + 1) + batch.remaining() + 1 // partitions: index, records, TAG_BUFFER
+				+ 1 + 1; // topic and request TAG_BUFFERs
+		ByteBuffer frame = ByteBuffer.allocate(4 + size);
+		frame.putInt(size)
+				.putShort(PRODUCE).putShort((short) 9).putInt(correlationId)
+				.putShort((short) client.length).put(client).put((byte) 0)
+				.put((byte) 0).putShort(acks).putInt(30_000)
+				.put((byte) 2).put((byte) (name.length + 1)).put(name)
+				.put((byte) 2).putInt(partition);
+		putUnsignedVarint(frame, batch.remaining() + 1);
+		frame.put(batch).put((byte) 0).put((byte) 0).put((byte) 0);
+		return frame.flip();
+	}
+
+	// Record batch v2 holding one record with a null key
+	static ByteBuffer recordBatch(byte[] value) {
+		ByteBuffer record = ByteBuffer.allocate(16 + value.length);
+		record.put((byte) 0); // attributes
+		putVarint(record, 0); // timestamp_delta
+		putVarint(record, 0); // offset_delta
+		putVarint(record, -1); // key
+		putVarint(record, value.length);
+		record.put(value);
+		putVarint(record, 0); // headers
+		record.flip();
+
+		int recordsSize = varintSize(zigZag(record.remaining())) + record.remaining();
+		ByteBuffer batch = ByteBuffer.allocate(61 + recordsSize);
+		long now = System.currentTimeMillis();
+		batch.putLong(0) // base_offset, assigned by the broker
+				.putInt(batch.capacity() - 12) // batch_length
+				.putInt(-1) // partition_leader_epoch
+				.put((byte) 2) // magic
+				.putInt(0) // crc, patched below
+				.putShort((short) 0) // attributes
+				.putInt(0) // last_offset_delta
+				.putLong(now).putLong(now)
+				.putLong(-1L).putShort((short) -1).putInt(-1) // producer id, epoch, base sequence
+				.putInt(1); // records count
+		putVarint(batch, record.remaining());
+		batch.put(record);
+		CRC32C crc = new CRC32C();
+		crc.update(batch.array(), 21, batch.capacity() - 21);
+		batch.putInt(17, (int) crc.getValue());
+		return batch.flip();
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static void putVarint(ByteBuffer buffer, long value) {
+		putUnsignedVarint(buffer, zigZag(value));
+	}
+
+	private static void putUnsignedVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static int varintSize(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	// The frame without its size prefix, as the broker's handlers see it
+	static ByteBuffer body(ByteBuffer frame) {
+		ByteBuffer body = frame.duplicate();
+		body.position(4);
+		return body.slice();
+	}
+
+	static void setCorrelationId(ByteBuffer frame, int correlationId) {
+		frame.putInt(4 + 4, correlationId);
+	}
+}
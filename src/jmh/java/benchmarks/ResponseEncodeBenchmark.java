@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Response encode into pooled buffers, bypassing the template cache.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=WARN")
+public class ResponseEncodeBenchmark {
+
+	private static final Class<?> REGISTRY = Broker.type("RequestHandlerRegistry");
+	private static final Class<?> BUFFER_POOL = Broker.type("BufferPool");
+	private static final Class<?> RESPONSE = Broker.type("Response");
+	private static final Class<?> CLUSTER_METADATA = Broker.type("ClusterMetadata");
+	private static final Class<?> METADATA_BUILDER = Broker.type("ClusterMetadata$Builder");
+	private static final Class<?> PARTITION_METADATA = Broker.type("PartitionMetadata");
+
+	private static final MethodHandle API_VERSIONS_RESPONSE = Broker.staticMethod("MessageUtils",
+			"createApiVersionsResponse", ByteBuffer.class, int.class, int.class, REGISTRY);
+	private static final MethodHandle TOPIC_PARTITIONS_RESPONSE = Broker.staticMethod("MessageUtils",
+			"createTopicPartitionsResponse", RESPONSE, int.class, List.class, String.class, int.class, int.class, CLUSTER_METADATA);
+	private static final MethodHandle RESPONSE_RELEASE = Broker.virtualMethod("Response", "release", void.class);
+	private static final MethodHandle REGISTRY_GET = Broker.staticMethod("RequestHandlerRegistry", "get", REGISTRY);
+	private static final MethodHandle POOL_CURRENT = Broker.staticMethod("BufferPool", "current", BUFFER_POOL);
+	private static final MethodHandle POOL_RELEASE = Broker.virtualMethod("BufferPool", "release", void.class, ByteBuffer.class);
+
+	@Param({"0", "3", "4"})
+	public int apiVersionsVersion;
+
+	// Partitions of the described topic
+	@Param({"1", "32"})
+	public int partitions;
+
+	private Object registry;
+	private Object pool;
+	private final List<String> topicNames = List.of("bench-topic");
+	private Object metadata;
+	private int correlationId;
+
+	@Setup
+	public void setup() throws Throwable {
+		registry = (Object) REGISTRY_GET.invokeExact();
+		pool = (Object) POOL_CURRENT.invokeExact();
+		metadata = metadata("bench-topic", partitions);
+	}
+
+	// Snapshot with one topic of n partitions, replicas on brokers 1-3
+	private static Object metadata(String topic, int n) {
+		UUID topicId = UUID.randomUUID();
+		Object builder = Broker.invoke(Broker.staticMethod("ClusterMetadata", "builder", METADATA_BUILDER));
+		Broker.invoke(Broker.virtualMethod("ClusterMetadata$Builder", "addTopic", METADATA_BUILDER, String.class, UUID.class),
+				builder, topic, topicId);
+		MethodHandle newPartition = Broker.constructor("PartitionMetadata",
+				UUID.class, int.class, int.class, int.class, int.class, int[].class, int[].class);
+		MethodHandle putPartition = Broker.virtualMethod("ClusterMetadata$Builder", "putPartition", METADATA_BUILDER, PARTITION_METADATA);
+		for (int i = 0; i < n; i++) {
+			Object partition = Broker.invoke(newPartition, topicId, i, 1, 0, 0, new int[] { 1, 2, 3 }, new int[] { 1, 2, 3 });
+			Broker.invoke(putPartition, builder, partition);
+		}
+		return Broker.invoke(Broker.virtualMethod("ClusterMetadata$Builder", "build", CLUSTER_METADATA), builder);
+	}
+
+	@Benchmark
+	public void apiVersions() throws Throwable {
+		Object buffer = (Object) API_VERSIONS_RESPONSE.invokeExact(apiVersionsVersion, ++correlationId, registry);
+		POOL_RELEASE.invokeExact(pool, buffer);
+	}
+
+	@Benchmark
+	public void describeTopicPartitions() throws Throwable {
+		Object response = (Object) TOPIC_PARTITIONS_RESPONSE.invokeExact(++correlationId, (Object) topicNames, (Object) null, 0, 2000, metadata);
+		RESPONSE_RELEASE.invokeExact(response);
+	}
+}
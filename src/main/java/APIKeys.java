@@ -84,14 +84,25 @@ public enum APIKeys {
         return this.description;
     }
 
+    // Highest api key the request header can carry. Tables indexed by api key
+    // (handlers, metrics, response templates) are sized by it, not by the
+    // highest key listed here, so a newer client's key still indexes safely.
+    public static final int MAX_API_KEY = 127;
+
+    // Dense code -> constant table, so lookups on the request path are O(1)
+    private static final APIKeys[] BY_CODE = new APIKeys[MAX_API_KEY + 1];
+
+    static {
+        for (APIKeys key : values()) {
+            BY_CODE[key.code] = key;
+        }
+    }
+
     public static APIKeys fromApiKey(short apiKey) {
-        for (APIKeys key : APIKeys.values()) {
-            if (key.getCode() == apiKey) {
-                return key;
-            }
+        if (apiKey < 0 || apiKey >= BY_CODE.length) {
+            return null;
         }
-	// return null if something is wrong with the APIKEY
-        return null; // o maybe implement exceptions
+	// null if something is wrong with the APIKEY
+        return BY_CODE[apiKey];
     }
 }
-
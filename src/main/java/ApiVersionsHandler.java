@@ -0,0 +1,59 @@
+import java.nio.ByteBuffer;
+
+// ApiVersions (key 18): advertises every handler in the registry with its
+// supported version range. The body only depends on the request version, so
+// it is encoded once per version and served from the ResponseTemplateCache.
+public class ApiVersionsHandler implements RequestHandler {
+
+	private final RequestHandlerRegistry registry;
+
+	public ApiVersionsHandler(RequestHandlerRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.API_VERSIONS;
+	}
+
+	@Override
+	public short minVersion() {
+		return 0;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 4;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 3;
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ResponseTemplateCache templates = ResponseTemplateCache.get();
+		short version = request.apiVersion();
+		if (request.throttleTimeMs() > 0) {
+			// The template says throttle_time_ms = 0, so throttled clients get a fresh body
+			return MessageUtils.handleApiVersions(version, request.correlationId(), registry, request.throttleTimeMs());
+		}
+		Response cached = templates.response(apiKey().getCode(), version, request.correlationId());
+		if (cached != null) {
+			return cached;
+		}
+		ResponseTemplateCache.Stamp stamp = templates.stamp();
+		ByteBuffer encoded = MessageUtils.createApiVersionsResponse(version, request.correlationId(), registry);
+		encoded.flip();
+		templates.put(apiKey().getCode(), version, encoded, stamp);
+		return Response.of(BufferPool.current(), encoded);
+	}
+
+	// Clients probe with their newest version, so the error must still be
+	// readable by them: error_code right after the correlation id
+	@Override
+	public Response unsupportedVersion(RequestContext request) {
+		return MessageUtils.handleApiVersions(request.apiVersion(), request.correlationId(), registry, request.throttleTimeMs());
+	}
+}
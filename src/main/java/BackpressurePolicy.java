@@ -0,0 +1,37 @@
+// What MessageQueue.put does when the queue is full.
+public enum BackpressurePolicy {
+
+	// Wait for space, spinning then yielding: producer stalls, nothing is lost
+	BLOCK(WaitStrategy.YIELD),
+
+	// Wait for space, parking with backoff: cheaper on CPU, slower to resume
+	PARK(WaitStrategy.PARK),
+
+	// Fail fast and let the caller decide (e.g. answer with an error)
+	REJECT(null);
+
+	private final WaitStrategy waitStrategy;
+
+	BackpressurePolicy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	public <E> boolean put(MessageQueue<E> queue, E element) {
+		int idleCount = 0;
+		while (!queue.offer(element)) {
+			if (waitStrategy == null || Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+			idleCount = waitStrategy.idle(idleCount);
+		}
+		return true;
+	}
+
+	public static BackpressurePolicy fromName(String name, BackpressurePolicy defaultPolicy) {
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException | NullPointerException e) {
+			return defaultPolicy;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// CRC32C check of the record batches of a Produce before anything is
+// appended. The checksum runs in place over each batch in the request frame
+// (java.util.zip.CRC32C, a JIT intrinsic on x86 and ARM), never copying it.
+//
+// Once a request carries more than produce.crc.parallel.threshold.bytes,
+// its batches are checked in parallel on the common ForkJoinPool, the
+// handler thread taking part, so one large multi-partition produce is not
+// bound to one core.
+public final class BatchValidator {
+
+	private BatchValidator() {
+	}
+
+	// valid[i] tells whether every batch of recordSets.get(i) is complete and
+	// matches its CRC. A null set is left for the caller to reject.
+	public static boolean[] validate(List<ByteBuffer> recordSets, int parallelThresholdBytes) {
+		int sets = recordSets.size();
+		boolean[] valid = new boolean[sets];
+		// Framing first (headers only), collecting where each batch starts
+		int[] batchSet = new int[16];
+		int[] batchPosition = new int[16];
+		int batches = 0;
+		long totalBytes = 0;
+		RecordBatch batch = new RecordBatch();
+		for (int i = 0; i < sets; i++) {
+			ByteBuffer records = recordSets.get(i);
+			if (records == null) {
+				continue;
+			}
+			valid[i] = records.hasRemaining();
+			int position = records.position();
+			int limit = records.limit();
+			while (valid[i] && position < limit) {
+				if (!RecordBatch.isComplete(records, position, limit)) {
+					valid[i] = false;
+					break;
+				}
+				if (batches == batchSet.length) {
+					batchSet = Arrays.copyOf(batchSet, batches * 2);
+					batchPosition = Arrays.copyOf(batchPosition, batches * 2);
+				}
+				batchSet[batches] = i;
+				batchPosition[batches] = position;
+				batches++;
+				position += batch.wrap(records, position).sizeInBytes();
+			}
+			totalBytes += limit - records.position();
+		}
+
+		int[] setOf = batchSet;
+		int[] positionOf = batchPosition;
+		IntStream checks = IntStream.range(0, batches);
+		if (batches > 1 && totalBytes >= parallelThresholdBytes && ForkJoinPool.getCommonPoolParallelism() > 1) {
+			checks = checks.parallel();
+		}
+		// Racing threads only ever store false, and the terminal operation
+		// publishes their writes to this thread
+		checks.forEach(b -> {
+			int set = setOf[b];
+			if (valid[set] && !new RecordBatch().wrap(recordSets.get(set), positionOf[b]).isValid()) {
+				valid[set] = false;
+			}
+		});
+		return valid;
+	}
+}
@@ -0,0 +1,204 @@
+// Broker settings, read once from system properties (-Dname=value) with
+// Kafka-like names so they can be tuned without touching the code.
+public class BrokerConfig {
+
+	public static final int PORT = getInt("port", 9092);
+
+	// nio: selector based reactors (default), virtual: one virtual thread per
+	// connection, threads: legacy thread-per-socket pool
+	public static final String IO_MODE = getString("io.mode", "nio");
+
+	public static final int NUM_NETWORK_THREADS = getInt("num.network.threads",
+			Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+	public static final int NUM_IO_THREADS = getInt("num.io.threads",
+			Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+	// Bound of the request channel between network and handler threads (rounded
+	// up to a power of two); a full channel stops the network threads reading
+	public static final int QUEUED_MAX_REQUESTS = Math.max(1, getInt("queued.max.requests", 500));
+
+	// Requests read ahead and handled concurrently per connection; responses
+	// still go out in request order
+	public static final int MAX_IN_FLIGHT = Math.max(1, getInt("max.in.flight", 5));
+
+	// Carrier threads backing the virtual thread scheduler in io.mode=virtual
+	public static final int VIRTUAL_CARRIER_PARALLELISM = getInt("virtual.carrier.parallelism",
+			Runtime.getRuntime().availableProcessors());
+
+	public static final boolean VIRTUAL_TRACE_PINNING = getBoolean("virtual.trace.pinning", false);
+
+	// Upper bound for a single request frame, same default as Kafka
+	public static final int SOCKET_REQUEST_MAX_BYTES = getInt("socket.request.max.bytes", 100 * 1024 * 1024);
+
+	// Partition logs live in <log.dirs>/<topic>-<partition>/
+	public static final String LOG_DIRS = getString("log.dirs", "/tmp/kraft-combined-logs");
+
+	// Segments are memory mapped, so this has to fit in an int
+	public static final int LOG_SEGMENT_BYTES = Math.max(1024 * 1024, getInt("log.segment.bytes", 1024 * 1024 * 1024));
+
+	// Produce creates the log of a partition the cluster metadata does not know
+	public static final boolean AUTO_CREATE_TOPICS_ENABLE = getBoolean("auto.create.topics.enable", false);
+
+	// Most partitions one DescribeTopicPartitions response describes
+	public static final int MAX_REQUEST_PARTITION_SIZE_LIMIT = Math.max(1, getInt("max.request.partition.size.limit", 2000));
+
+	// How often the cluster metadata log is checked for new records; 0 reads it only at startup
+	public static final long METADATA_REFRESH_INTERVAL_MS = getLong("metadata.refresh.interval.ms", 1000);
+
+	// Produce normally stores compressed batches untouched; with this set every
+	// batch is decompressed and its records checked against the header
+	public static final boolean LOG_VALIDATE_RECORDS = getBoolean("log.validate.records", false);
+
+	// Produce requests at least this large have their batch CRCs checked in
+	// parallel; below it the fork/join hand-off costs more than the CRC itself
+	public static final int PRODUCE_CRC_PARALLEL_THRESHOLD_BYTES = getInt("produce.crc.parallel.threshold.bytes", 1024 * 1024);
+
+	// Sparse index: one offset/time index entry per this many appended bytes
+	public static final int LOG_INDEX_INTERVAL_BYTES = getInt("log.index.interval.bytes", 4096);
+
+	// Preallocated size of each active segment's index files
+	public static final int LOG_INDEX_SIZE_MAX_BYTES = getInt("log.index.size.max.bytes", 10 * 1024 * 1024);
+
+	// none, interval or every-batch; see FlushPolicy
+	public static final FlushPolicy LOG_FLUSH_POLICY = FlushPolicy.fromName(getString("log.flush.policy", "none"), FlushPolicy.NONE);
+
+	public static final int LOG_FLUSH_INTERVAL_MS = Math.max(1, getInt("log.flush.interval.ms", 50));
+
+	// Unflushed bytes that trigger an early flush under the interval policy
+	public static final long LOG_FLUSH_INTERVAL_BYTES = getLong("log.flush.interval.bytes", 1024 * 1024);
+
+	// Completed fetches left in watch lists before the purgatory reaper sweeps them
+	public static final int FETCH_PURGATORY_PURGE_INTERVAL_REQUESTS = getInt("fetch.purgatory.purge.interval.requests", 1000);
+
+	// Same for produces waiting on a flush
+	public static final int PRODUCER_PURGATORY_PURGE_INTERVAL_REQUESTS = getInt("producer.purgatory.purge.interval.requests", 1000);
+
+	// This broker as FindCoordinator describes it; it coordinates every group
+	public static final int NODE_ID = getInt("node.id", 1);
+
+	public static final String ADVERTISED_HOST_NAME = getString("advertised.host.name", "localhost");
+
+	// Session timeouts a joining member may ask for
+	public static final int GROUP_MIN_SESSION_TIMEOUT_MS = getInt("group.min.session.timeout.ms", 6000);
+
+	public static final int GROUP_MAX_SESSION_TIMEOUT_MS = getInt("group.max.session.timeout.ms", 1800000);
+
+	// How long the first rebalance of an empty group waits for more members
+	public static final int GROUP_INITIAL_REBALANCE_DELAY_MS = Math.max(0, getInt("group.initial.rebalance.delay.ms", 3000));
+
+	// Committed offsets go to __consumer_offsets-<hash(group) % partitions>
+	public static final int OFFSETS_TOPIC_NUM_PARTITIONS = Math.max(1, getInt("offsets.topic.num.partitions", 50));
+
+	public static final int OFFSETS_TOPIC_SEGMENT_BYTES = Math.max(1024 * 1024, getInt("offsets.topic.segment.bytes", 100 * 1024 * 1024));
+
+	// Longest metadata string an OffsetCommit may attach to an offset
+	public static final int OFFSET_METADATA_MAX_BYTES = getInt("offset.metadata.max.bytes", 4096);
+
+	// Log compaction: a background cleaner keeps only the latest record of each
+	// key in the sealed segments of __consumer_offsets and of these topics
+	// (comma separated)
+	public static final boolean LOG_CLEANER_ENABLE = getBoolean("log.cleaner.enable", true);
+
+	public static final String LOG_CLEANER_COMPACT_TOPICS = getString("log.cleaner.compact.topics", "");
+
+	// Off-heap key hash -> offset map of the cleaner, allocated once; the keys
+	// one pass can dedupe are bounded by this, not the other way round
+	public static final int LOG_CLEANER_DEDUPE_BUFFER_SIZE = Math.max(1024 * 1024, getInt("log.cleaner.dedupe.buffer.size", 32 * 1024 * 1024));
+
+	// Write buffer of the cleaned segments
+	public static final int LOG_CLEANER_IO_BUFFER_SIZE = Math.max(64 * 1024, getInt("log.cleaner.io.buffer.size", 512 * 1024));
+
+	// Bytes read plus written per second by the cleaner; 0 means unlimited
+	public static final long LOG_CLEANER_IO_MAX_BYTES_PER_SECOND = getLong("log.cleaner.io.max.bytes.per.second", 10 * 1024 * 1024);
+
+	// A log is cleaned once this share of its sealed bytes has not been cleaned yet
+	public static final double LOG_CLEANER_MIN_CLEANABLE_RATIO = getDouble("log.cleaner.min.cleanable.ratio", 0.5);
+
+	// Sleep of the cleaner when no log needs cleaning
+	public static final long LOG_CLEANER_BACKOFF_MS = getLong("log.cleaner.backoff.ms", 15000);
+
+	// How long a tombstone outlives the records it deletes, so that a consumer
+	// that has read them also sees it
+	public static final long LOG_CLEANER_DELETE_RETENTION_MS = getLong("log.cleaner.delete.retention.ms", 24 * 60 * 60 * 1000L);
+
+	// Replaced segments are deleted this long after the swap; fetches may still be reading them
+	public static final long LOG_SEGMENT_DELETE_DELAY_MS = getLong("log.segment.delete.delay.ms", 60000);
+
+	// Client quotas, per client_id and per client IP; 0 means unlimited. Byte
+	// rates count produce request bytes and fetched record bytes.
+	public static final long QUOTA_CLIENT_REQUEST_RATE = getLong("quota.client.request.rate", 0);
+
+	public static final long QUOTA_CLIENT_PRODUCE_BYTE_RATE = getLong("quota.client.produce.byte.rate", 0);
+
+	public static final long QUOTA_CLIENT_FETCH_BYTE_RATE = getLong("quota.client.fetch.byte.rate", 0);
+
+	public static final long QUOTA_IP_REQUEST_RATE = getLong("quota.ip.request.rate", 0);
+
+	public static final long QUOTA_IP_PRODUCE_BYTE_RATE = getLong("quota.ip.produce.byte.rate", 0);
+
+	public static final long QUOTA_IP_FETCH_BYTE_RATE = getLong("quota.ip.fetch.byte.rate", 0);
+
+	// Bursts up to this many seconds of a quota pass without throttling
+	public static final int QUOTA_BURST_SECONDS = Math.max(1, getInt("quota.burst.seconds", 1));
+
+	// Longest throttle_time_ms handed out, however far over its quota a client is
+	public static final int QUOTA_MAX_THROTTLE_MS = getInt("quota.max.throttle.ms", 10000);
+
+	// Plain-text /metrics endpoint, loopback only by default; port 0 turns it off
+	public static final String METRICS_HTTP_HOST = getString("metrics.http.host", "127.0.0.1");
+
+	public static final int METRICS_HTTP_PORT = getInt("metrics.http.port", 9404);
+
+	// Registers the broker and per-request MBeans with the platform MBean server
+	public static final boolean METRICS_JMX_ENABLE = getBoolean("metrics.jmx.enable", true);
+
+	public static int getInt(String name, int defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public static long getLong(String name, long defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public static double getDouble(String name, double defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public static String getString(String name, String defaultValue) {
+		String value = System.getProperty(name);
+		return value == null ? defaultValue : value.trim();
+	}
+
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		String value = System.getProperty(name);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+}
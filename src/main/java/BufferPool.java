@@ -0,0 +1,73 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Pool of direct buffers in power-of-two size classes. Each Reactor binds its
+// own pool to its thread; every other thread shares SHARED. Buffers are handed
+// back to the pool they came from (see Response.release), whichever thread
+// finishes with them.
+public class BufferPool {
+
+	private static final int MIN_CLASS_SHIFT = 6;   // 64 bytes
+	private static final int MAX_CLASS_SHIFT = 20;  // 1 MiB, larger buffers are not pooled
+	private static final int MAX_BUFFERS_PER_CLASS = BrokerConfig.getInt("buffer.pool.max.per.class", 64);
+
+	public static final BufferPool SHARED = new BufferPool();
+
+	private static final ThreadLocal<BufferPool> CURRENT = ThreadLocal.withInitial(() -> SHARED);
+
+	private final ArrayBlockingQueue<ByteBuffer>[] free;
+
+	@SuppressWarnings("unchecked")
+	public BufferPool() {
+		free = new ArrayBlockingQueue[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+		for (int i = 0; i < free.length; i++) {
+			free[i] = new ArrayBlockingQueue<>(MAX_BUFFERS_PER_CLASS);
+		}
+	}
+
+	public static BufferPool current() {
+		return CURRENT.get();
+	}
+
+	public static void bind(BufferPool pool) {
+		CURRENT.set(pool);
+	}
+
+	// Returns a cleared big-endian buffer with limit == size
+	public ByteBuffer acquire(int size) {
+		int sizeClass = sizeClass(size);
+		ByteBuffer buffer = null;
+		if (sizeClass < free.length) {
+			buffer = free[sizeClass].poll();
+			if (buffer == null) {
+				buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_CLASS_SHIFT));
+			}
+		} else {
+			buffer = ByteBuffer.allocateDirect(size);
+		}
+		buffer.clear().limit(size);
+		return buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || buffer.isReadOnly()) {
+			return; // Read-only buffers are shared views (templates), never pooled
+		}
+		int capacity = buffer.capacity();
+		if (Integer.bitCount(capacity) != 1) {
+			return; // Oversized one-off allocation
+		}
+		int sizeClass = sizeClass(capacity);
+		if (sizeClass < free.length) {
+			free[sizeClass].offer(buffer); // Dropped if the class is already full
+		}
+	}
+
+	private static int sizeClass(int size) {
+		if (size <= (1 << MIN_CLASS_SHIFT)) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+	}
+}
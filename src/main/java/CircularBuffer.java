@@ -1,66 +1,72 @@
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
 
+// Bounded message buffer on top of the lock-free MpscRingBuffer. Any number
+// of threads may add, one thread consumes. Capacity is rounded up to a power
+// of two. When full, add applies the configured BackpressurePolicy
+// (buffer.backpressure.policy = BLOCK | PARK | REJECT) instead of
+// overwriting the oldest message; rejected messages are counted, here and in
+// the broker-wide Metrics along with the total depth of all buffers.
 public class CircularBuffer {
 
-	private byte[][] buffer;
-	private int size;
-	private int head;
-	private int tail;
-	private int count;
-	//private ReentrantLock lock; // Lock for concurrency control
-	private Lock lock; // Lock for concurrency control
+	private final MessageQueue<byte[]> queue;
+	private final LongAdder rejected = new LongAdder();
 
 	public CircularBuffer(int size) {
-		this.size = size;
-		this.buffer = new byte[size][];
-		this.head = 0;
-		this.tail = 0;
-		this.count = 0;
-		this.lock = new ReentrantLock(); // Lock for concurrency control
+		this(size, BackpressurePolicy.fromName(
+				BrokerConfig.getString("buffer.backpressure.policy", "PARK"), BackpressurePolicy.PARK));
 	}
 
-	// Add message to buffer (Producer)
-	public void add(byte[] message) {
-		lock.lock();
-		try {
-			// Overwrite oldest if full
-			if (count == size) {
-				head = (head + 1) % size; // Move head forward when overwriting
-			} else {
-				count++; // Normal behavior, no overwriting
-			}
-			buffer[tail] = message;
-			tail = (tail + 1) % size; // Move tail to the next empty spot
-		} finally {
-			lock.unlock(); // End
+	public CircularBuffer(int size, BackpressurePolicy policy) {
+		this.queue = new MpscRingBuffer<>(size, policy);
+	}
+
+	// Add message to buffer (Producer); false if it was rejected
+	public boolean add(byte[] message) {
+		if (queue.put(message)) {
+			Metrics.get().bufferAdded();
+			return true;
 		}
+		rejected.increment();
+		Metrics.get().bufferRejected();
+		return false;
 	}
 
-	// Retrieve message from buffer (Consumer
+	// Retrieve message from buffer (Consumer), null if empty
 	public byte[] get() {
-		lock.lock();
-		try {
-			if(count == 0){
-				return null; // Buffer empty
-			}
-			byte[] message = buffer[head];
-			buffer[head] = null; // Clear slot
-			head = (head + 1) % size; // Move head forward
-			count--;
-			return message;
-		} finally {
-			lock.unlock();
+		return removed(queue.poll());
+	}
+
+	// Wait for the next message with the given strategy, null if interrupted
+	public byte[] take(WaitStrategy waitStrategy) {
+		return removed(queue.take(waitStrategy));
+	}
+
+	// Keeps the broker-wide depth in Metrics in step with this buffer
+	private static byte[] removed(byte[] message) {
+		if (message != null) {
+			Metrics.get().bufferRemoved();
 		}
+		return message;
 	}
 
 	// Checking method funcs
 	public boolean isEmpty() {
-		return count == 0;
+		return queue.isEmpty();
 	}
 
 	public boolean isFull(){
-		return count == size;
+		return queue.isFull();
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	public int capacity() {
+		return queue.capacity();
+	}
+
+	public long rejectedCount() {
+		return rejected.sum();
 	}
 }
-	
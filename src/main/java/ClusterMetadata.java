@@ -0,0 +1,136 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Immutable snapshot of the cluster's topics and partitions. Readers take the
+// current snapshot from MetadataCache and never lock; every change builds a
+// new snapshot (copy on write) and publishes it in one volatile store.
+public final class ClusterMetadata {
+
+	public static final ClusterMetadata EMPTY = new ClusterMetadata(new HashMap<>());
+
+	private final Map<String, TopicMetadata> topicsByName;
+	private final Map<UUID, TopicMetadata> topicsById;
+	private final List<String> sortedNames;
+
+	private ClusterMetadata(Map<UUID, TopicMetadata> topics) {
+		this.topicsById = topics;
+		this.topicsByName = new HashMap<>(topics.size() * 2);
+		for (TopicMetadata topic : topics.values()) {
+			topicsByName.put(topic.name(), topic);
+		}
+		String[] names = topicsByName.keySet().toArray(new String[0]);
+		Arrays.sort(names);
+		this.sortedNames = Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	// null if the topic does not exist
+	public TopicMetadata topic(String name) {
+		return name == null ? null : topicsByName.get(name);
+	}
+
+	public TopicMetadata topic(UUID id) {
+		return topicsById.get(id);
+	}
+
+	public boolean hasPartition(String topic, int partitionId) {
+		TopicMetadata metadata = topic(topic);
+		return metadata != null && metadata.partition(partitionId) != null;
+	}
+
+	public int topicCount() {
+		return topicsById.size();
+	}
+
+	public Collection<TopicMetadata> topics() {
+		return topicsById.values();
+	}
+
+	// Topic names in ascending order (a read-only view, for binary search and paging)
+	public List<String> sortedTopicNames() {
+		return sortedNames;
+	}
+
+	public Builder toBuilder() {
+		return new Builder(topicsById);
+	}
+
+	public static Builder builder() {
+		return new Builder(EMPTY.topicsById);
+	}
+
+	// Applies metadata records on top of a snapshot. Topics that are not
+	// touched are shared with the base snapshot; touched ones get a working
+	// copy of their partition array, turned back into a TopicMetadata on build.
+	public static final class Builder {
+
+		private final Map<UUID, TopicMetadata> topics;
+		private final Map<UUID, PartitionMetadata[]> working = new HashMap<>();
+
+		private Builder(Map<UUID, TopicMetadata> base) {
+			this.topics = new HashMap<>(base);
+		}
+
+		public Builder addTopic(String name, UUID id) {
+			TopicMetadata existing = topics.get(id);
+			if (existing == null || !existing.name().equals(name)) {
+				topics.put(id, new TopicMetadata(name, id, null));
+				working.remove(id);
+			}
+			return this;
+		}
+
+		public Builder removeTopic(UUID id) {
+			topics.remove(id);
+			working.remove(id);
+			return this;
+		}
+
+		// Ignored (with a warning) if the topic record has not been seen
+		public Builder putPartition(PartitionMetadata partition) {
+			UUID topicId = partition.topicId();
+			TopicMetadata topic = topics.get(topicId);
+			if (topic == null) {
+				Log.warn("Partition {} for unknown topic id {}", partition.partitionId(), topicId);
+				return this;
+			}
+			int id = partition.partitionId();
+			PartitionMetadata[] partitions = working.get(topicId);
+			if (partitions == null) {
+				partitions = topic.partitionsCopy(Math.max(topic.partitionCount(), id + 1));
+			} else if (partitions.length <= id) {
+				partitions = Arrays.copyOf(partitions, Math.max(id + 1, partitions.length * 2));
+			}
+			partitions[id] = partition;
+			working.put(topicId, partitions);
+			return this;
+		}
+
+		public PartitionMetadata partition(UUID topicId, int partitionId) {
+			PartitionMetadata[] partitions = working.get(topicId);
+			if (partitions != null) {
+				return partitionId >= 0 && partitionId < partitions.length ? partitions[partitionId] : null;
+			}
+			TopicMetadata topic = topics.get(topicId);
+			return topic == null ? null : topic.partition(partitionId);
+		}
+
+		public ClusterMetadata build() {
+			Map<UUID, TopicMetadata> result = new HashMap<>(topics);
+			for (Map.Entry<UUID, PartitionMetadata[]> entry : working.entrySet()) {
+				TopicMetadata topic = result.get(entry.getKey());
+				PartitionMetadata[] partitions = entry.getValue();
+				int count = partitions.length;
+				while (count > 0 && partitions[count - 1] == null) {
+					count--;
+				}
+				result.put(topic.id(), new TopicMetadata(topic.name(), topic.id(), Arrays.copyOf(partitions, count)));
+			}
+			return new ClusterMetadata(result);
+		}
+	}
+}
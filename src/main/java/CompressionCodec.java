@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+// Record batch compression, selected by the low three bits of the batch
+// attributes: 0 none, 1 gzip, 2 snappy, 3 lz4, 4 zstd. Everything is pure
+// Java so the broker needs no native libraries; zstd is recognised but not
+// implemented and answers UNSUPPORTED_COMPRESSION_TYPE.
+//
+// Codecs stream: decompress wraps the compressed bytes in an InputStream,
+// compress wraps an OutputStream. Block codecs take their block arrays from
+// a small per-thread cache (scratch/recycle), so a steady stream of batches
+// does not allocate them again and again.
+public abstract class CompressionCodec {
+
+	public static final int ATTRIBUTE_MASK = 0x07;
+
+	public static final CompressionCodec NONE = new CompressionCodec() {
+		@Override
+		public int id() {
+			return 0;
+		}
+
+		@Override
+		public String name() {
+			return "none";
+		}
+
+		@Override
+		public InputStream decompress(ByteBuffer compressed) {
+			return new ByteBufferInputStream(compressed);
+		}
+
+		@Override
+		public OutputStream compress(OutputStream out) {
+			return out;
+		}
+	};
+
+	public static final CompressionCodec GZIP = new GzipCodec();
+	public static final CompressionCodec SNAPPY = new SnappyCodec();
+	public static final CompressionCodec LZ4 = new Lz4Codec();
+
+	private static final int ZSTD_ID = 4;
+
+	public abstract int id();
+
+	public abstract String name();
+
+	// Stream of the uncompressed bytes of compressed[position, limit)
+	public abstract InputStream decompress(ByteBuffer compressed) throws IOException;
+
+	// Stream that compresses into out; closing it finishes the format but
+	// also closes out
+	public abstract OutputStream compress(OutputStream out) throws IOException;
+
+	public static CompressionCodec forAttributes(short attributes) {
+		return forId(attributes & ATTRIBUTE_MASK);
+	}
+
+	public static CompressionCodec forId(int id) {
+		switch (id) {
+			case 0: return NONE;
+			case 1: return GZIP;
+			case 2: return SNAPPY;
+			case 3: return LZ4;
+			case ZSTD_ID:
+				throw new KafkaException(ErrorCodes.UNSUPPORTED_COMPRESSION_TYPE, "zstd is not supported");
+			default:
+				throw new KafkaException(ErrorCodes.UNSUPPORTED_COMPRESSION_TYPE, "Unknown compression type " + id);
+		}
+	}
+
+	// Ids a batch may carry (whether or not we can decode them)
+	public static boolean isKnown(int id) {
+		return id >= 0 && id <= ZSTD_ID;
+	}
+
+	public static boolean isReadable(int id) {
+		return id >= 0 && id < ZSTD_ID;
+	}
+
+	@Override
+	public String toString() {
+		return name();
+	}
+
+	private static final int SCRATCH_PER_THREAD = 4;
+	private static final ThreadLocal<ArrayDeque<byte[]>> SCRATCH = ThreadLocal.withInitial(ArrayDeque::new);
+
+	// A block array of at least size bytes, reused per thread
+	static byte[] scratch(int size) {
+		ArrayDeque<byte[]> free = SCRATCH.get();
+		for (int i = free.size(); i > 0; i--) {
+			byte[] array = free.pollFirst();
+			if (array.length >= size) {
+				return array;
+			}
+			free.addLast(array);
+		}
+		return new byte[size];
+	}
+
+	static void recycle(byte[] array) {
+		ArrayDeque<byte[]> free = SCRATCH.get();
+		if (array != null && free.size() < SCRATCH_PER_THREAD) {
+			free.addFirst(array);
+		}
+	}
+}
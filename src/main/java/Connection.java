@@ -0,0 +1,259 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// Per-socket state for the NIO network layer: assembles length-prefixed
+// frames across partial reads, reads ahead up to max.in.flight requests which
+// go through the RequestChannel to be handled concurrently, and queues their
+// responses in request order until the socket accepts them.
+//
+// A client over its quotas (QuotaManager) is muted: nothing more is read
+// from the socket until its throttle time has passed, while responses
+// already in flight still go out.
+public class Connection {
+
+	private final SocketChannel channel;
+	private final SelectionKey key;
+	private final Reactor reactor;
+	private final RequestChannel requestChannel;
+	private final String remoteAddress;
+	private final QuotaManager.Session quota;
+
+	// Frame assembly: first the 4-byte size prefix, then the frame body
+	private final ByteBuffer sizeBuffer = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
+	private ByteBuffer frameBuffer = null;
+
+	private final InFlightRequests inFlight = new InFlightRequests(BrokerConfig.MAX_IN_FLIGHT);
+	private final Consumer<Response> enqueue = this::enqueue;
+	// Set while this connection sits in the reactor's completion queue
+	final AtomicBoolean completionPending = new AtomicBoolean();
+
+	private final ArrayDeque<Response> writeQueue = new ArrayDeque<>();
+	private boolean muted = false;
+	private boolean closed = false;
+	// Network thread only: reading is paused until throttledUntil (nanoTime)
+	private boolean throttled = false;
+	private long throttledUntil;
+
+	public Connection(SocketChannel channel, SelectionKey key, Reactor reactor, RequestChannel requestChannel) {
+		this.channel = channel;
+		this.key = key;
+		this.reactor = reactor;
+		this.requestChannel = requestChannel;
+		this.remoteAddress = String.valueOf(channel.socket().getRemoteSocketAddress());
+		QuotaManager quotas = QuotaManager.get();
+		this.quota = quotas.isEnabled() ? quotas.session(channel.socket().getInetAddress().getHostAddress()) : null;
+		Metrics.get().connectionOpened();
+	}
+
+	public void onReadable() {
+		try {
+			while (!closed) {
+				if (inFlight.isFull() || throttled) {
+					// Pipeline is full or the client is throttled, stop
+					// reading until responses go out or the throttle ends
+					mute();
+					return;
+				}
+				if (frameBuffer == null) {
+					if (channel.read(sizeBuffer) < 0) {
+						close();
+						return;
+					}
+					if (sizeBuffer.hasRemaining()) {
+						return; // Wait for the rest of the size prefix
+					}
+					int messageLength = sizeBuffer.getInt(0);
+					sizeBuffer.clear();
+					if (messageLength <= 0 || messageLength > BrokerConfig.SOCKET_REQUEST_MAX_BYTES) {
+						Log.warn("Invalid message length {} from {}", messageLength, remoteAddress);
+						close();
+						return;
+					}
+					frameBuffer = ByteBuffer.allocate(messageLength);
+				}
+
+				if (channel.read(frameBuffer) < 0) {
+					Log.warn("End of stream reached before reading full message.");
+					close();
+					return;
+				}
+				if (frameBuffer.hasRemaining()) {
+					return; // Partial frame, continue on the next read event
+				}
+
+				ByteBuffer frame = frameBuffer;
+				frameBuffer = null;
+				frame.flip();
+				Metrics.get().bytesIn(4 + frame.remaining());
+				dispatch(frame);
+			}
+		} catch (IOException e) {
+			Log.warn("Error while reading from {}: {}", remoteAddress, e.getMessage());
+			close();
+		}
+	}
+
+	private void dispatch(ByteBuffer frame) {
+		long sequence = inFlight.register();
+		long received = System.nanoTime();
+		short apiKey = frame.remaining() >= 2 ? frame.getShort(frame.position()) : -1;
+		int throttleTimeMs = quota == null ? 0 : MessageUtils.recordRequest(quota, frame, 4 + frame.remaining());
+		if (throttleTimeMs > 0) {
+			throttle(throttleTimeMs);
+		}
+		if (!requestChannel.send(new RequestChannel.Request(this, sequence, frame, apiKey, received, throttleTimeMs))) {
+			Log.error("Interrupted while queueing a request from {}", remoteAddress);
+			inFlight.fail(sequence);
+			onCompletion();
+		}
+	}
+
+	// Runs on a request handler thread
+	void handle(RequestChannel.Request request) {
+		long sequence = request.sequence;
+		short apiKey = request.apiKey;
+		long received = request.receivedNanos;
+		Metrics.get().record(apiKey, Metrics.Stage.REQUEST_QUEUE, System.nanoTime() - received);
+		BufferPool.bind(reactor.bufferPool());
+		try {
+			Response response = MessageUtils.handleMessage(request.frame, deferred -> complete(sequence, deferred, apiKey, received),
+					quota, request.throttleTimeMs);
+			if (response == Response.DEFERRED) {
+				return; // Answered later, e.g. by a delayed fetch
+			}
+			track(response, apiKey, received);
+			inFlight.complete(sequence, response);
+		} catch (RuntimeException e) {
+			Log.error("Error processing request from {}", remoteAddress, e);
+			inFlight.fail(sequence);
+		}
+		reactor.completed(this);
+	}
+
+	// Any thread: the answer to a deferred request. If the connection closed
+	// meanwhile the network thread just releases it.
+	private void complete(long sequence, Response response, short apiKey, long received) {
+		track(response, apiKey, received);
+		inFlight.complete(sequence, response);
+		reactor.completed(this);
+	}
+
+	// Requests without a response are done once handled
+	private static void track(Response response, short apiKey, long received) {
+		if (response != null) {
+			response.track(apiKey, received);
+		} else {
+			Metrics.get().record(apiKey, Metrics.Stage.TOTAL, System.nanoTime() - received);
+		}
+	}
+
+	// Network thread: move every response that is ready, in order, to the socket
+	public void onCompletion() {
+		if (closed) {
+			inFlight.releaseCompleted();
+			return;
+		}
+		if (!inFlight.drainInOrder(enqueue)) {
+			close();
+			return;
+		}
+		resumeReading();
+	}
+
+	// Network thread: pause reading for throttleTimeMs, or longer if already paused
+	private void throttle(int throttleTimeMs) {
+		long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(throttleTimeMs);
+		if (throttled && until - throttledUntil <= 0) {
+			return;
+		}
+		throttled = true;
+		throttledUntil = until;
+		reactor.schedule(this, until);
+	}
+
+	// Network thread, from the reactor's timer. A connection throttled again
+	// meanwhile has a later deadline queued and stays muted.
+	void onThrottleExpired(long now) {
+		if (throttled && throttledUntil - now <= 0) {
+			throttled = false;
+			resumeReading();
+		}
+	}
+
+	private void resumeReading() {
+		if (muted && !closed && !inFlight.isFull() && !throttled) {
+			unmute();
+			onReadable(); // Frames may already be waiting in the socket buffer
+		}
+	}
+
+	private void enqueue(Response response) {
+		response.dequeued();
+		if (response.throttleTimeMs() > 0) {
+			throttle(response.throttleTimeMs()); // Charged while handling, e.g. fetched bytes
+		}
+		writeQueue.add(response);
+		if (writeQueue.size() == 1) {
+			onWritable();
+		}
+	}
+
+	public void onWritable() {
+		try {
+			while (!writeQueue.isEmpty()) {
+				Response head = writeQueue.peek();
+				if (!head.writeTo(channel)) {
+					// Socket buffer full, resume when the selector reports writability
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					return;
+				}
+				writeQueue.poll().release();
+			}
+			if (key.isValid()) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+		} catch (IOException e) {
+			Log.warn("Error while writing to {}: {}", remoteAddress, e.getMessage());
+			close();
+		}
+	}
+
+	private void mute() {
+		muted = true;
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+	}
+
+	private void unmute() {
+		muted = false;
+		if (key.isValid()) {
+			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+		}
+	}
+
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		Metrics.get().connectionClosed();
+		Response pending;
+		while ((pending = writeQueue.poll()) != null) {
+			pending.release();
+		}
+		inFlight.releaseCompleted();
+		key.cancel();
+		try {
+			Log.debug("Connection from {} ended", remoteAddress);
+			channel.close();
+		} catch (IOException e) {
+			Log.warn("Error closing client socket: {}", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,45 @@
+// A Fetch waiting in the purgatory for min_bytes to arrive. Produce calls
+// checkAndComplete with the key of each partition it appended to; the fetch
+// completes as soon as its partitions hold enough bytes, or with whatever
+// is there when max_wait_ms runs out.
+public class DelayedFetch extends DelayedOperation {
+
+	private final FetchHandler.FetchRequest fetch;
+	private final FetchHandler handler;
+	private final ResponseCallback callback;
+
+	public DelayedFetch(FetchHandler.FetchRequest fetch, FetchHandler handler, ResponseCallback callback) {
+		super(fetch.maxWaitMs);
+		this.fetch = fetch;
+		this.handler = handler;
+		this.callback = callback;
+	}
+
+	// Purgatory key of one partition
+	public static String key(String topic, int partition) {
+		return PartitionLog.dirName(topic, partition);
+	}
+
+	@Override
+	public boolean tryComplete() {
+		return handler.isSatisfied(fetch) && forceComplete();
+	}
+
+	// Runs on the producing handler thread or the purgatory reaper
+	@Override
+	public void onComplete() {
+		Response response;
+		try {
+			response = handler.respond(fetch);
+		} catch (RuntimeException e) {
+			Log.error("Error completing delayed fetch {}", fetch.correlationId, e);
+			response = MessageUtils.createErrorResponse(fetch.correlationId, ErrorCodes.UNKNOWN);
+		}
+		callback.complete(response);
+	}
+
+	@Override
+	public void onExpiration() {
+		if (Log.isDebugEnabled()) Log.debug("Fetch {} expired after {} ms", fetch.correlationId, fetch.maxWaitMs);
+	}
+}
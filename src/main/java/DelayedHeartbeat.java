@@ -0,0 +1,39 @@
+// Session timeout of one member, keyed by the member itself. A heartbeat
+// (or any request that proves the member alive) completes it and schedules
+// the next; if the timeout fires first, the member is removed and the group
+// rebalances without it. Members parked in a JoinGroup or SyncGroup are
+// kept alive: the rebalance itself bounds how long they wait.
+public class DelayedHeartbeat extends DelayedOperation {
+
+	private final GroupCoordinator coordinator;
+	private final GroupMetadata group;
+	private final MemberMetadata member;
+	private final long deadlineMs;
+
+	public DelayedHeartbeat(GroupCoordinator coordinator, GroupMetadata group, MemberMetadata member, long deadlineMs, long delayMs) {
+		super(delayMs);
+		this.coordinator = coordinator;
+		this.group = group;
+		this.member = member;
+		this.deadlineMs = deadlineMs;
+	}
+
+	@Override
+	public boolean tryComplete() {
+		group.lock().lock();
+		try {
+			return (member.shouldKeepAlive() || !group.isCurrent(member)) && forceComplete();
+		} finally {
+			group.lock().unlock();
+		}
+	}
+
+	@Override
+	public void onComplete() {
+	}
+
+	@Override
+	public void onExpiration() {
+		coordinator.onHeartbeatExpired(group, member, deadlineMs);
+	}
+}
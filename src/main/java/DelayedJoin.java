@@ -0,0 +1,43 @@
+// A group in PreparingRebalance waiting for its members to rejoin. Every
+// JoinGroup, LeaveGroup or member expiry calls checkAndComplete on the group
+// id; at the rebalance timeout the members that have not rejoined are
+// dropped and the generation completes with the rest.
+//
+// The first rebalance of an empty group waits the whole
+// group.initial.rebalance.delay.ms instead, so consumers started together
+// land in one generation rather than one rebalance each.
+public class DelayedJoin extends DelayedOperation {
+
+	private final GroupCoordinator coordinator;
+	private final GroupMetadata group;
+	private final boolean initial;
+
+	public DelayedJoin(GroupCoordinator coordinator, GroupMetadata group, long delayMs, boolean initial) {
+		super(delayMs);
+		this.coordinator = coordinator;
+		this.group = group;
+		this.initial = initial;
+	}
+
+	@Override
+	public boolean tryComplete() {
+		if (initial) {
+			return false;
+		}
+		group.lock().lock();
+		try {
+			return group.hasAllMembersJoined() && forceComplete();
+		} finally {
+			group.lock().unlock();
+		}
+	}
+
+	@Override
+	public void onComplete() {
+		coordinator.completeJoin(group);
+	}
+
+	@Override
+	public void onExpiration() {
+	}
+}
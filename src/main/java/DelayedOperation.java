@@ -0,0 +1,57 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A request that waits in a DelayedOperationPurgatory until tryComplete
+// finds its condition met or its timeout fires, whichever comes first.
+// Completion happens exactly once: forceComplete wins a CAS, cancels the
+// timer and calls onComplete; a timeout additionally calls onExpiration.
+public abstract class DelayedOperation extends TimerTask {
+
+	private final AtomicBoolean completed = new AtomicBoolean();
+
+	// tryComplete is never run by two threads at once for the same operation
+	private final ReentrantLock lock = new ReentrantLock();
+
+	protected DelayedOperation(long delayMs) {
+		super(delayMs);
+	}
+
+	// Checks whether the operation can complete now and if so calls forceComplete
+	public abstract boolean tryComplete();
+
+	// Builds and sends the result; runs once, on whichever thread completed it
+	public abstract void onComplete();
+
+	// Runs after onComplete when the operation timed out
+	public abstract void onExpiration();
+
+	public boolean forceComplete() {
+		if (completed.compareAndSet(false, true)) {
+			cancel();
+			onComplete();
+			return true;
+		}
+		return false;
+	}
+
+	public boolean isCompleted() {
+		return completed.get();
+	}
+
+	boolean safeTryComplete() {
+		lock.lock();
+		try {
+			return !isCompleted() && tryComplete();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Timer expiry
+	@Override
+	public void run() {
+		if (forceComplete()) {
+			onExpiration();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Holds delayed operations until they can complete. Each operation watches
+// one or more keys (for Fetch, "topic-partition"); whoever changes the state
+// behind a key calls checkAndComplete(key) to retry just the operations
+// watching it. Timeouts come from a SystemTimer driven by one reaper thread
+// per purgatory, so parked requests cost no handler threads.
+//
+// A completed operation is only unlinked from its watch lists lazily (when
+// its key is checked again) or by the reaper's periodic purge once more
+// than purge.interval of them have piled up.
+public class DelayedOperationPurgatory<T extends DelayedOperation> {
+
+	private static final long REAPER_POLL_MS = 200;
+
+	private final String name;
+	private final int purgeInterval;
+	private final SystemTimer timer = new SystemTimer();
+	private final ConcurrentHashMap<Object, ConcurrentLinkedQueue<T>> watchers = new ConcurrentHashMap<>();
+
+	// Operations ever watched minus those purged; completed ones linger until purged
+	private final AtomicInteger estimatedTotalOperations = new AtomicInteger();
+
+	public DelayedOperationPurgatory(String name, int purgeInterval) {
+		this.name = name;
+		this.purgeInterval = purgeInterval;
+		Thread reaper = new Thread(this::reap, "kafka-expiration-reaper-" + name);
+		reaper.setDaemon(true);
+		reaper.start();
+	}
+
+	// Completes the operation now if it can, otherwise watches the keys and
+	// starts its timeout. Returns true if it completed on this call.
+	public boolean tryCompleteElseWatch(T operation, List<?> keys) {
+		if (operation.safeTryComplete()) {
+			return true;
+		}
+		for (Object key : keys) {
+			if (operation.isCompleted()) {
+				return false;
+			}
+			watchers.compute(key, (k, queue) -> {
+				if (queue == null) {
+					queue = new ConcurrentLinkedQueue<>();
+				}
+				queue.add(operation);
+				return queue;
+			});
+		}
+		estimatedTotalOperations.incrementAndGet();
+
+		// The state may have changed between the first try and the watch
+		if (operation.safeTryComplete()) {
+			return true;
+		}
+		if (!operation.isCompleted()) {
+			timer.add(operation);
+			if (operation.isCompleted()) {
+				operation.cancel(); // Completed while being added
+			}
+		}
+		return false;
+	}
+
+	// Retries the operations watching key; returns how many completed
+	public int checkAndComplete(Object key) {
+		ConcurrentLinkedQueue<T> queue = watchers.get(key);
+		if (queue == null) {
+			return 0;
+		}
+		int completed = 0;
+		for (Iterator<T> it = queue.iterator(); it.hasNext();) {
+			T operation = it.next();
+			if (operation.isCompleted()) {
+				it.remove();
+			} else if (operation.safeTryComplete()) {
+				it.remove();
+				completed++;
+			}
+		}
+		removeIfEmpty(key);
+		return completed;
+	}
+
+	// Operations still waiting for their timeout
+	public int delayed() {
+		return timer.size();
+	}
+
+	public int watched() {
+		int count = 0;
+		for (ConcurrentLinkedQueue<T> queue : watchers.values()) {
+			count += queue.size();
+		}
+		return count;
+	}
+
+	private void removeIfEmpty(Object key) {
+		// Atomic with the add in tryCompleteElseWatch, so no operation lands in a dropped queue
+		watchers.computeIfPresent(key, (k, queue) -> queue.isEmpty() ? null : queue);
+	}
+
+	private int purgeCompleted() {
+		int purged = 0;
+		for (Object key : watchers.keySet()) {
+			ConcurrentLinkedQueue<T> queue = watchers.get(key);
+			if (queue == null) {
+				continue;
+			}
+			for (Iterator<T> it = queue.iterator(); it.hasNext();) {
+				if (it.next().isCompleted()) {
+					it.remove();
+					purged++;
+				}
+			}
+			removeIfEmpty(key);
+		}
+		return purged;
+	}
+
+	private void reap() {
+		while (true) {
+			try {
+				timer.advanceClock(REAPER_POLL_MS);
+				if (estimatedTotalOperations.get() - delayed() > purgeInterval) {
+					estimatedTotalOperations.set(delayed());
+					int purged = purgeCompleted();
+					Log.debug("Purged {} completed operations from the {} purgatory", purged, name);
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				Log.error("Delayed operation failed in the {} purgatory", name, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// A Produce with acks=-1 waiting until every partition it appended to has
+// been flushed past its data (log.flush.policy interval or every-batch).
+// The FlushScheduler calls checkAndComplete for each log it flushes;
+// partitions still not covered at timeout_ms answer REQUEST_TIMED_OUT.
+public class DelayedProduce extends DelayedOperation {
+
+	private final short version;
+	private final boolean flexible;
+	private final int correlationId;
+	private final int throttleTimeMs;
+	private final List<ProduceHandler.TopicResult> topics;
+	private final ResponseCallback callback;
+
+	public DelayedProduce(short version, boolean flexible, int correlationId, int throttleTimeMs,
+			List<ProduceHandler.TopicResult> topics, int timeoutMs, ResponseCallback callback) {
+		super(Math.max(0, timeoutMs));
+		this.version = version;
+		this.flexible = flexible;
+		this.correlationId = correlationId;
+		this.throttleTimeMs = throttleTimeMs;
+		this.topics = topics;
+		this.callback = callback;
+	}
+
+	// Purgatory key of one partition
+	public static String key(PartitionLog log) {
+		return PartitionLog.dirName(log.topic(), log.partition());
+	}
+
+	// Keys of the partitions that wait for a flush
+	public List<String> keys() {
+		List<String> keys = new ArrayList<>();
+		for (ProduceHandler.TopicResult topic : topics) {
+			for (ProduceHandler.PartitionResult partition : topic.partitions) {
+				if (partition.log != null) {
+					keys.add(key(partition.log));
+				}
+			}
+		}
+		return keys;
+	}
+
+	@Override
+	public boolean tryComplete() {
+		for (ProduceHandler.TopicResult topic : topics) {
+			for (ProduceHandler.PartitionResult partition : topic.partitions) {
+				if (!partition.isFlushed()) {
+					return false;
+				}
+			}
+		}
+		return forceComplete();
+	}
+
+	@Override
+	public void onComplete() {
+		for (ProduceHandler.TopicResult topic : topics) {
+			for (ProduceHandler.PartitionResult partition : topic.partitions) {
+				if (!partition.isFlushed()) {
+					partition.error = ErrorCodes.REQUEST_TIMED_OUT;
+				}
+			}
+		}
+		callback.complete(ProduceHandler.encode(version, flexible, correlationId, throttleTimeMs, topics));
+	}
+
+	@Override
+	public void onExpiration() {
+		Log.warn("Produce {} timed out waiting for a log flush", correlationId);
+	}
+}
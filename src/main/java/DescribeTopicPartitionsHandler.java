@@ -0,0 +1,66 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+// DescribeTopicPartitions (key 75): every requested topic (or every topic,
+// for an empty list) is answered from the current ClusterMetadata snapshot,
+// without locking, in name order. Responses are paged: at most
+// response_partition_limit partitions (capped by
+// max.request.partition.size.limit), resuming from the request's cursor.
+public class DescribeTopicPartitionsHandler implements RequestHandler {
+
+	private static final ThreadLocal<DescribeTopicPartitionsRequestMessage.Reader> READER =
+			ThreadLocal.withInitial(DescribeTopicPartitionsRequestMessage.Reader::new);
+
+	private final MetadataCache metadata;
+
+	public DescribeTopicPartitionsHandler(MetadataCache metadata) {
+		this.metadata = metadata;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.DESCRIBE_TOPIC_PARTITIONS;
+	}
+
+	@Override
+	public short minVersion() {
+		return 0;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 0;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 0;
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		DescribeTopicPartitionsRequestMessage.Reader reader = READER.get().wrap(buffer, buffer.position(), request.apiVersion());
+		TreeSet<String> requested = new TreeSet<>();
+		for (DescribeTopicPartitionsRequestMessage.TopicRequestReader topic = reader.topics(); topic.next(); ) {
+			String name = topic.name();
+			if (name != null) {
+				requested.add(name);
+			}
+		}
+		List<String> topicNames = new ArrayList<>(requested);
+		int partitionLimit = reader.responsePartitionLimit();
+		if (partitionLimit <= 0 || partitionLimit > BrokerConfig.MAX_REQUEST_PARTITION_SIZE_LIMIT) {
+			partitionLimit = BrokerConfig.MAX_REQUEST_PARTITION_SIZE_LIMIT;
+		}
+		DescribeTopicPartitionsRequestMessage.CursorReader cursor = reader.cursor();
+		String cursorTopic = cursor == null ? null : cursor.topicName();
+		int cursorPartition = cursor == null ? 0 : cursor.partitionIndex();
+		request.decoded();
+		Log.debug("TopicNames: {} cursor: {}:{}", topicNames, cursorTopic, cursorPartition);
+		return MessageUtils.handleTopicPartitionsRequest(request.correlationId(), topicNames, cursorTopic, cursorPartition,
+				partitionLimit, metadata.current(), request.throttleTimeMs());
+	}
+}
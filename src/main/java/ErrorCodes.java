@@ -35,7 +35,11 @@ public enum ErrorCodes {
     INVALID_TIMESTAMP(32, false, "The timestamp of the message is out of acceptable range."),
     UNSUPPORTED_SASL_MECHANISM(33, false, "The broker does not support the requested SASL mechanism."),
     ILLEGAL_SASL_STATE(34, false, "Request is not valid given the current SASL state."),
-    UNSUPPORTED_VERSION(35, false, "The version of API is not supported.");
+    UNSUPPORTED_VERSION(35, false, "The version of API is not supported."),
+    UNSUPPORTED_FOR_MESSAGE_FORMAT(43, false, "The message format version on the broker does not support the request."),
+    KAFKA_STORAGE_ERROR(56, true, "Disk error when trying to access log file on the disk."),
+    UNSUPPORTED_COMPRESSION_TYPE(76, false, "The requesting client does not support the compression type of given partition."),
+    MEMBER_ID_REQUIRED(79, false, "The group member needs to have a valid member id before actually entering a consumer group.");
 
     private final int code;
     private final boolean retryable;
@@ -0,0 +1,340 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Fetch (key 1): everything but the record bytes is encoded into one pooled
+// buffer; each partition's records are a FileRegion of its segment, sent
+// with transferTo between slices of that buffer. Consumer reads never copy
+// log data into the heap.
+//
+// Long polling: when fewer than min_bytes are available the request parks
+// in the fetch purgatory as a DelayedFetch, answered when a produce brings
+// enough bytes or after max_wait_ms, without holding a handler thread.
+//
+// No fetch sessions yet: every fetch is a full fetch and session_id is 0.
+public class FetchHandler implements RequestHandler {
+
+	private static final ThreadLocal<FetchRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(FetchRequestMessage.Reader::new);
+
+	private final LogManager logs;
+	private final DelayedOperationPurgatory<DelayedFetch> purgatory;
+
+	public FetchHandler(LogManager logs, DelayedOperationPurgatory<DelayedFetch> purgatory) {
+		this.logs = logs;
+		this.purgatory = purgatory;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.FETCH;
+	}
+
+	// v4 brings record batch v2 and isolation_level; from v13 topics are
+	// identified by topic id
+	@Override
+	public short minVersion() {
+		return 4;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 12;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 12;
+	}
+
+	// The decoded request, kept by a DelayedFetch after the frame is gone
+	static final class FetchRequest {
+		short version;
+		boolean flexible;
+		int correlationId;
+		int maxWaitMs;
+		int minBytes;
+		int maxBytes;
+		List<TopicFetch> topics;
+		QuotaManager.Session quota;
+		int throttleTimeMs; // Charged for the request itself
+
+		List<String> keys() {
+			List<String> keys = new ArrayList<>();
+			for (TopicFetch topic : topics) {
+				for (PartitionFetch partition : topic.partitions) {
+					keys.add(DelayedFetch.key(topic.name, partition.index));
+				}
+			}
+			return keys;
+		}
+	}
+
+	static final class TopicFetch {
+		String name;
+		byte[] nameBytes;
+		List<PartitionFetch> partitions = new ArrayList<>();
+	}
+
+	static final class PartitionFetch {
+		int index;
+		long fetchOffset;
+		int maxBytes;
+	}
+
+	private static final class PartitionResult {
+		int index;
+		ErrorCodes error = ErrorCodes.NONE;
+		long highWatermark = -1;
+		long logStartOffset = -1;
+		FileRegion records;
+
+		int recordsSize() {
+			return records == null ? 0 : (int) records.count();
+		}
+	}
+
+	private static final class TopicResult {
+		byte[] name;
+		List<PartitionResult> partitions = new ArrayList<>();
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		FetchRequest fetch = parse(request.body(), request.apiVersion(), request.correlationId());
+		fetch.quota = request.quota();
+		fetch.throttleTimeMs = request.throttleTimeMs();
+		request.decoded();
+		if (fetch.maxWaitMs <= 0 || fetch.minBytes <= 0 || fetch.topics.isEmpty()
+				|| !request.canDefer() || isSatisfied(fetch)) {
+			List<TopicResult> topics = readAll(fetch);
+			request.encoding();
+			return encode(fetch, topics);
+		}
+		DelayedFetch delayed = new DelayedFetch(fetch, this, request.defer());
+		purgatory.tryCompleteElseWatch(delayed, fetch.keys());
+		return Response.DEFERRED;
+	}
+
+	private static FetchRequest parse(ByteBuffer buffer, short version, int correlationId) {
+		FetchRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+		FetchRequest fetch = new FetchRequest();
+		fetch.version = version;
+		fetch.flexible = FetchRequestMessage.isFlexible(version);
+		fetch.correlationId = correlationId;
+		fetch.maxWaitMs = reader.maxWaitMs();
+		fetch.minBytes = reader.minBytes();
+		fetch.maxBytes = reader.maxBytes();
+		// isolation_level is not read, everything we store is committed
+
+		fetch.topics = new ArrayList<>(Math.max(0, reader.topicsCount()));
+		for (FetchRequestMessage.FetchTopicReader topicReader = reader.topics(); topicReader.next(); ) {
+			TopicFetch topic = new TopicFetch();
+			topic.name = topicReader.topic();
+			topic.nameBytes = KafkaProtocolUtils.utf8(topic.name);
+			for (FetchRequestMessage.FetchPartitionReader partitionReader = topicReader.partitions(); partitionReader.next(); ) {
+				PartitionFetch partition = new PartitionFetch();
+				partition.index = partitionReader.partition();
+				partition.fetchOffset = partitionReader.fetchOffset();
+				partition.maxBytes = partitionReader.partitionMaxBytes();
+				topic.partitions.add(partition);
+			}
+			fetch.topics.add(topic);
+		}
+		// forgotten_topics_data and rack_id only matter for sessions and replicas
+		return fetch;
+	}
+
+	// True once the fetch should be answered: min_bytes are available across
+	// its partitions, or one of them would answer with an error anyway
+	boolean isSatisfied(FetchRequest fetch) {
+		long available = 0;
+		for (TopicFetch topic : fetch.topics) {
+			for (PartitionFetch partition : topic.partitions) {
+				PartitionLog log = topic.name == null ? null : logs.get(topic.name, partition.index);
+				if (log == null) {
+					return true;
+				}
+				long bytes = log.bytesAvailable(partition.fetchOffset);
+				if (bytes < 0) {
+					return true; // Out of range
+				}
+				available += Math.min(bytes, Math.max(0, partition.maxBytes));
+				if (available >= fetch.minBytes) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Reads every partition and encodes the response
+	Response respond(FetchRequest fetch) {
+		return encode(fetch, readAll(fetch));
+	}
+
+	// The fetched bytes count towards the client's fetch byte quota; whatever
+	// that charges is added to the throttle time of the response
+	private static Response encode(FetchRequest fetch, List<TopicResult> topics) {
+		int throttleTimeMs = fetch.throttleTimeMs;
+		if (fetch.quota != null) {
+			long bytes = 0;
+			for (TopicResult topic : topics) {
+				for (PartitionResult partition : topic.partitions) {
+					bytes += partition.recordsSize();
+				}
+			}
+			int fetchThrottleMs = bytes > 0 ? fetch.quota.recordFetch(bytes) : 0;
+			if (fetchThrottleMs > throttleTimeMs) {
+				if (throttleTimeMs == 0) {
+					Metrics.get().throttled();
+				}
+				throttleTimeMs = fetchThrottleMs;
+			}
+		}
+		return encode(fetch.version, fetch.flexible, fetch.correlationId, throttleTimeMs, topics).throttled(throttleTimeMs);
+	}
+
+	private List<TopicResult> readAll(FetchRequest fetch) {
+		// Byte budget across the whole response; the first batch found is
+		// always returned whole so a consumer can make progress
+		int remainingBytes = fetch.maxBytes;
+		boolean first = true;
+		List<TopicResult> topics = new ArrayList<>(fetch.topics.size());
+		for (TopicFetch topicFetch : fetch.topics) {
+			TopicResult topic = new TopicResult();
+			topic.name = topicFetch.nameBytes;
+			for (PartitionFetch partitionFetch : topicFetch.partitions) {
+				PartitionResult partition = new PartitionResult();
+				partition.index = partitionFetch.index;
+				read(topicFetch.name, partition, partitionFetch.fetchOffset,
+						Math.min(partitionFetch.maxBytes, remainingBytes), first);
+				if (partition.records != null) {
+					remainingBytes = Math.max(0, remainingBytes - partition.recordsSize());
+					first = false;
+				}
+				topic.partitions.add(partition);
+			}
+			topics.add(topic);
+		}
+		return topics;
+	}
+
+	private void read(String topic, PartitionResult result, long fetchOffset, int maxBytes, boolean minOneBatch) {
+		PartitionLog log = topic == null ? null : logs.get(topic, result.index);
+		if (log == null) {
+			result.error = ErrorCodes.UNKNOWN_TOPIC_OR_PARTITION;
+			return;
+		}
+		result.highWatermark = log.logEndOffset();
+		result.logStartOffset = log.logStartOffset();
+		if (maxBytes <= 0 && !minOneBatch) {
+			return;
+		}
+		try {
+			result.records = log.read(fetchOffset, Math.max(0, maxBytes), minOneBatch);
+		} catch (KafkaException e) {
+			Log.debug("Fetch from {} failed: {}", log, e.getMessage());
+			result.error = e.error();
+		} catch (RuntimeException e) {
+			Log.error("Error reading from {}", log, e);
+			result.error = ErrorCodes.UNKNOWN;
+		}
+	}
+
+	private static int sizeOfRecordsLength(int length, boolean flexible) {
+		return flexible ? KafkaProtocolUtils.sizeOfUnsignedVarint(length + 1) : 4;
+	}
+
+	// Exact encoded size of everything except the record bytes
+	private static int responseSize(short version, boolean flexible, List<TopicResult> topics) {
+		int size = 4 + (flexible ? 1 : 0); // correlation_id, header TAG_BUFFER
+		size += 4; // throttle_time_ms
+		if (version >= 7) {
+			size += 2 + 4; // error_code, session_id
+		}
+		size += KafkaProtocolUtils.sizeOfArrayLength(topics.size(), flexible);
+		for (TopicResult topic : topics) {
+			size += KafkaProtocolUtils.sizeOfString(topic.name, flexible);
+			size += KafkaProtocolUtils.sizeOfArrayLength(topic.partitions.size(), flexible);
+			for (PartitionResult partition : topic.partitions) {
+				size += 4 + 2 + 8 + 8; // index, error_code, high_watermark, last_stable_offset
+				if (version >= 5) {
+					size += 8; // log_start_offset
+				}
+				size += KafkaProtocolUtils.sizeOfArrayLength(-1, flexible); // aborted_transactions
+				if (version >= 11) {
+					size += 4; // preferred_read_replica
+				}
+				size += sizeOfRecordsLength(partition.recordsSize(), flexible);
+				if (flexible) {
+					size += 1;
+				}
+			}
+			if (flexible) {
+				size += 1;
+			}
+		}
+		if (flexible) {
+			size += 1;
+		}
+		return size;
+	}
+
+	private static Response encode(short version, boolean flexible, int correlationId, int throttleTimeMs, List<TopicResult> topics) {
+		BufferPool pool = BufferPool.current();
+		ByteBuffer message = pool.acquire(responseSize(version, flexible, topics));
+		Response.Builder response = Response.builder(pool).own(message);
+		int sliceStart = 0;
+
+		message.putInt(correlationId);
+		if (flexible) {
+			message.put((byte) 0); // Header TAG_BUFFER
+		}
+		message.putInt(throttleTimeMs); // throttle_time_ms
+		if (version >= 7) {
+			message.putShort((short) ErrorCodes.NONE.getCode());
+			message.putInt(0); // session_id, sessionless
+		}
+		KafkaProtocolUtils.writeArrayLength(message, topics.size(), flexible);
+		for (TopicResult topic : topics) {
+			KafkaProtocolUtils.writeString(message, topic.name, flexible);
+			KafkaProtocolUtils.writeArrayLength(message, topic.partitions.size(), flexible);
+			for (PartitionResult partition : topic.partitions) {
+				message.putInt(partition.index);
+				message.putShort((short) partition.error.getCode());
+				message.putLong(partition.highWatermark);
+				message.putLong(partition.highWatermark); // last_stable_offset, no transactions
+				if (version >= 5) {
+					message.putLong(partition.logStartOffset);
+				}
+				KafkaProtocolUtils.writeArrayLength(message, -1, flexible); // aborted_transactions
+				if (version >= 11) {
+					message.putInt(-1); // preferred_read_replica
+				}
+				int recordsSize = partition.recordsSize();
+				if (flexible) {
+					KafkaProtocolUtils.writeUnsignedVarint(message, recordsSize + 1);
+				} else {
+					message.putInt(recordsSize);
+				}
+				if (partition.records != null) {
+					response.add(message.slice(sliceStart, message.position() - sliceStart));
+					response.add(partition.records);
+					sliceStart = message.position();
+				}
+				if (flexible) {
+					message.put((byte) 0);
+				}
+			}
+			if (flexible) {
+				message.put((byte) 0);
+			}
+		}
+		if (flexible) {
+			message.put((byte) 0);
+		}
+		response.add(message.slice(sliceStart, message.position() - sliceStart));
+		return response.build();
+	}
+}
@@ -0,0 +1,50 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+// A byte range of a log segment sent as part of a Response with
+// FileChannel.transferTo, so the bytes go from the page cache to the socket
+// (sendfile) without ever being copied into the Java heap.
+public class FileRegion {
+
+	private final FileChannel file;
+	private final long position;
+	private final long count;
+	private long transferred = 0;
+
+	public FileRegion(FileChannel file, long position, long count) {
+		this.file = file;
+		this.position = position;
+		this.count = count;
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public long remaining() {
+		return count - transferred;
+	}
+
+	// Returns true once the whole region is written. On a non-blocking channel
+	// this may be partial and is called again when the socket is writable.
+	public boolean transferTo(WritableByteChannel target) throws IOException {
+		while (transferred < count) {
+			long written = file.transferTo(position + transferred, count - transferred, target);
+			if (written <= 0) {
+				if (position + transferred >= file.size()) {
+					throw new EOFException("Log segment truncated under a pending send");
+				}
+				return false; // Socket buffer full
+			}
+			transferred += written;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + count + " bytes of log at " + position + "]";
+	}
+}
@@ -0,0 +1,77 @@
+import java.nio.ByteBuffer;
+
+// FindCoordinator (key 10): every group is coordinated by this broker, so
+// the answer is always node.id at advertised.host.name and the listener
+// port. v4 looks up a batch of keys at once. Transactions are not
+// supported, so transaction coordinators are never available.
+public class FindCoordinatorHandler implements RequestHandler {
+
+	private static final byte GROUP_KEY_TYPE = 0;
+	private static final byte[] NO_HOST = new byte[0];
+
+	private static final ThreadLocal<FindCoordinatorRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(FindCoordinatorRequestMessage.Reader::new);
+	private static final ThreadLocal<FindCoordinatorResponseMessage.Writer> RESPONSE_WRITER =
+			ThreadLocal.withInitial(FindCoordinatorResponseMessage.Writer::new);
+
+	private final byte[] host = KafkaProtocolUtils.utf8(BrokerConfig.ADVERTISED_HOST_NAME);
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.GROUP_COORDINATOR;
+	}
+
+	@Override
+	public short minVersion() {
+		return 0;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 4;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 3;
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		short version = request.apiVersion();
+		FindCoordinatorRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+		String[] keys = reader.hasCoordinatorKeys() ? reader.coordinatorKeys() : new String[] {reader.key()};
+		ErrorCodes error = reader.keyType() == GROUP_KEY_TYPE ? ErrorCodes.NONE : ErrorCodes.GROUP_COORDINATOR_NOT_AVAILABLE;
+		request.encoding();
+		FindCoordinatorResponseMessage.Writer writer = RESPONSE_WRITER.get();
+		write(writer.sizing(version), keys, error, request.throttleTimeMs());
+		boolean flexible = isFlexible(version);
+		ByteBuffer message = BufferPool.current().acquire(MessageUtils.responseHeaderSize(flexible) + writer.size());
+		MessageUtils.writeResponseHeader(message, request.correlationId(), flexible);
+		write(writer.wrap(message, version), keys, error, request.throttleTimeMs());
+		return MessageUtils.createResponseBuffer(message);
+	}
+
+	private void write(FindCoordinatorResponseMessage.Writer writer, String[] keys, ErrorCodes error, int throttleTimeMs) {
+		boolean found = error == ErrorCodes.NONE;
+		byte[] message = found ? null : KafkaProtocolUtils.utf8(error.getMessage());
+		writer.throttleTimeMs(throttleTimeMs)
+				.errorCode((short) error.getCode())
+				.errorMessage(message)
+				.nodeId(found ? BrokerConfig.NODE_ID : -1)
+				.host(found ? host : NO_HOST)
+				.port(found ? BrokerConfig.PORT : -1);
+		FindCoordinatorResponseMessage.CoordinatorWriter coordinators = writer.coordinators(keys.length);
+		for (String key : keys) {
+			coordinators.key(KafkaProtocolUtils.utf8(key))
+					.nodeId(found ? BrokerConfig.NODE_ID : -1)
+					.host(found ? host : NO_HOST)
+					.port(found ? BrokerConfig.PORT : -1)
+					.errorCode((short) error.getCode())
+					.errorMessage(message)
+					.end();
+		}
+		writer.end();
+	}
+}
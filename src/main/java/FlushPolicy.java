@@ -0,0 +1,25 @@
+// When appended log data is forced to disk, and so when a Produce with
+// acks=-1 may be answered.
+public enum FlushPolicy {
+
+	// Leave it to the OS page cache; acks=-1 answers as soon as the append is done
+	NONE,
+
+	// One flush of every dirty log per log.flush.interval.ms, or sooner once
+	// log.flush.interval.bytes have piled up
+	INTERVAL,
+
+	// Flush as soon as anything is dirty. Appends arriving during a flush
+	// share the next one, so concurrent producers still group commit.
+	EVERY_BATCH;
+
+	// Accepts the config spelling ("every-batch") as well as the constant name
+	public static FlushPolicy fromName(String name, FlushPolicy defaultPolicy) {
+		try {
+			return valueOf(name.trim().toUpperCase().replace('-', '_'));
+		} catch (IllegalArgumentException | NullPointerException e) {
+			System.err.println("Unknown log.flush.policy " + name + ", using " + defaultPolicy);
+			return defaultPolicy;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Group commit for the partition logs under log.dirs. Appends only mark
+// their log dirty; one flusher thread forces every dirty log per round and
+// then reports each one to onFlushed, which completes the produces waiting
+// on it. However many producers append during a round, the next round
+// costs one force per dirty log, not one per request.
+//
+// With FlushPolicy.NONE there is no flusher and appended() does nothing.
+public class FlushScheduler {
+
+	private final FlushPolicy policy;
+	private final long intervalNanos;
+	private final long intervalBytes;
+	private final Consumer<PartitionLog> onFlushed;
+
+	private final Set<PartitionLog> dirty = ConcurrentHashMap.newKeySet();
+	private final AtomicLong unflushedBytes = new AtomicLong();
+
+	// Set by producers that want a round now; the lock only guards the wakeup
+	private final AtomicBoolean requested = new AtomicBoolean();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition wakeup = lock.newCondition();
+
+	public FlushScheduler(FlushPolicy policy, int intervalMs, long intervalBytes, Consumer<PartitionLog> onFlushed) {
+		this.policy = policy;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+		this.intervalBytes = intervalBytes;
+		this.onFlushed = onFlushed;
+		if (policy != FlushPolicy.NONE) {
+			Thread flusher = new Thread(this::flushLoop, "kafka-log-flusher");
+			flusher.setDaemon(true);
+			flusher.start();
+			Log.info("Log flush policy {} (interval {} ms, {} bytes)", policy, intervalMs, intervalBytes);
+		}
+	}
+
+	public FlushPolicy policy() {
+		return policy;
+	}
+
+	// False under FlushPolicy.NONE: nothing waits for a flush
+	public boolean isEnabled() {
+		return policy != FlushPolicy.NONE;
+	}
+
+	// Producer side, after bytes were appended to log
+	public void appended(PartitionLog log, int bytes) {
+		if (policy == FlushPolicy.NONE) {
+			return;
+		}
+		dirty.add(log);
+		long pending = unflushedBytes.addAndGet(bytes);
+		if ((policy == FlushPolicy.EVERY_BATCH || pending >= intervalBytes) && requested.compareAndSet(false, true)) {
+			lock.lock();
+			try {
+				wakeup.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void flushLoop() {
+		long deadline = System.nanoTime() + intervalNanos;
+		while (true) {
+			lock.lock();
+			try {
+				while (!requested.get()) {
+					if (policy == FlushPolicy.EVERY_BATCH) {
+						wakeup.await();
+						continue;
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						break;
+					}
+					wakeup.awaitNanos(remaining);
+				}
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				lock.unlock();
+			}
+			requested.set(false);
+			deadline = System.nanoTime() + intervalNanos;
+			flushDirty();
+		}
+	}
+
+	private void flushDirty() {
+		unflushedBytes.set(0);
+		for (Iterator<PartitionLog> it = dirty.iterator(); it.hasNext();) {
+			PartitionLog log = it.next();
+			// Removed before flushing: an append from now on marks it dirty again
+			it.remove();
+			try {
+				log.flush();
+			} catch (IOException | RuntimeException e) {
+				Log.error("Error flushing {}", log, e);
+				continue; // Waiting produces time out
+			}
+			try {
+				onFlushed.accept(log);
+			} catch (RuntimeException e) {
+				Log.error("Error completing produces flushed to {}", log, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,492 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Coordinator of every consumer group (classic rebalance protocol), since
+// this broker is the only one. Group state lives in memory only, one
+// GroupMetadata state machine per group id, dropped once the group is empty
+// again; committed offsets go through the OffsetManager. A restart forgets
+// the members, whose next heartbeat then answers UNKNOWN_MEMBER_ID so they
+// rejoin.
+//
+// A JoinGroup or SyncGroup that has to wait for the rest of the group parks
+// its answer on the member (as a callback) and the coordinator completes it
+// once the rebalance gets there: DelayedJoin in the join purgatory bounds
+// how long a rebalance waits for members, DelayedHeartbeat in the heartbeat
+// purgatory expires members whose session runs out.
+//
+// Every change holds the group's lock; purgatory operations are tried and
+// completed under it, which is why their timers run expired tasks outside
+// their own locks (SystemTimer).
+public class GroupCoordinator {
+
+	private static final int PURGE_INTERVAL_REQUESTS = 1000;
+
+	// What a parked or immediate JoinGroup answers
+	public static final class JoinResult {
+		final ErrorCodes error;
+		final String memberId;
+		final int generationId;
+		final String protocolType;
+		final String protocolName;
+		final String leaderId;
+		// Every member and its metadata for the chosen protocol, for the leader only
+		final List<JoinedMember> members;
+
+		JoinResult(ErrorCodes error, String memberId, int generationId, String protocolType, String protocolName,
+				String leaderId, List<JoinedMember> members) {
+			this.error = error;
+			this.memberId = memberId;
+			this.generationId = generationId;
+			this.protocolType = protocolType;
+			this.protocolName = protocolName;
+			this.leaderId = leaderId;
+			this.members = members;
+		}
+
+		static JoinResult error(String memberId, ErrorCodes error) {
+			return new JoinResult(error, memberId, -1, null, null, "", Collections.emptyList());
+		}
+	}
+
+	public static final class JoinedMember {
+		final String memberId;
+		final String groupInstanceId;
+		final byte[] metadata;
+
+		JoinedMember(String memberId, String groupInstanceId, byte[] metadata) {
+			this.memberId = memberId;
+			this.groupInstanceId = groupInstanceId;
+			this.metadata = metadata;
+		}
+	}
+
+	public static final class SyncResult {
+		final ErrorCodes error;
+		final String protocolType;
+		final String protocolName;
+		final byte[] assignment;
+
+		SyncResult(ErrorCodes error, String protocolType, String protocolName, byte[] assignment) {
+			this.error = error;
+			this.protocolType = protocolType;
+			this.protocolName = protocolName;
+			this.assignment = assignment;
+		}
+
+		static SyncResult error(ErrorCodes error) {
+			return new SyncResult(error, null, null, MemberMetadata.NO_BYTES);
+		}
+	}
+
+	private final ConcurrentHashMap<String, GroupMetadata> groups = new ConcurrentHashMap<>();
+	private final OffsetManager offsets;
+	private final DelayedOperationPurgatory<DelayedJoin> joinPurgatory =
+			new DelayedOperationPurgatory<>("Rebalance", PURGE_INTERVAL_REQUESTS);
+	private final DelayedOperationPurgatory<DelayedHeartbeat> heartbeatPurgatory =
+			new DelayedOperationPurgatory<>("Heartbeat", PURGE_INTERVAL_REQUESTS);
+
+	public GroupCoordinator(OffsetManager offsets) {
+		this.offsets = offsets;
+	}
+
+	public void joinGroup(String groupId, String memberId, String groupInstanceId, String clientId, boolean requireKnownMemberId,
+			int sessionTimeoutMs, int rebalanceTimeoutMs, String protocolType, List<MemberMetadata.Protocol> protocols,
+			Consumer<JoinResult> callback) {
+		if (groupId == null || groupId.isEmpty()) {
+			callback.accept(JoinResult.error(memberId, ErrorCodes.INVALID_GROUP_ID));
+			return;
+		}
+		if (sessionTimeoutMs < BrokerConfig.GROUP_MIN_SESSION_TIMEOUT_MS || sessionTimeoutMs > BrokerConfig.GROUP_MAX_SESSION_TIMEOUT_MS) {
+			callback.accept(JoinResult.error(memberId, ErrorCodes.INVALID_SESSION_TIMEOUT));
+			return;
+		}
+		boolean newMember = memberId == null || memberId.isEmpty();
+		GroupMetadata group;
+		while (true) {
+			group = newMember ? groups.computeIfAbsent(groupId, GroupMetadata::new) : groups.get(groupId);
+			if (group == null) {
+				callback.accept(JoinResult.error(memberId, ErrorCodes.UNKNOWN_MEMBER_ID));
+				return;
+			}
+			group.lock().lock();
+			if (groups.get(groupId) == group) {
+				break;
+			}
+			group.lock().unlock(); // Removed while we waited for its lock
+		}
+		try {
+			if (!group.supportsProtocols(protocolType, protocols)) {
+				callback.accept(JoinResult.error(memberId, ErrorCodes.INCONSISTENT_GROUP_PROTOCOL));
+				return;
+			}
+			if (newMember) {
+				String id = (clientId == null ? "" : clientId) + "-" + UUID.randomUUID();
+				MemberMetadata member = new MemberMetadata(id, groupInstanceId, clientId, sessionTimeoutMs, rebalanceTimeoutMs, protocolType, protocols);
+				if (requireKnownMemberId) {
+					// v4+: hand out the id first, the member joins again with it
+					group.addPending(member);
+					completeAndScheduleNextHeartbeat(group, member);
+					callback.accept(JoinResult.error(id, ErrorCodes.MEMBER_ID_REQUIRED));
+				} else {
+					addMemberAndRebalance(group, member, callback);
+				}
+				return;
+			}
+			MemberMetadata pending = group.removePending(memberId);
+			if (pending != null) {
+				pending.update(sessionTimeoutMs, rebalanceTimeoutMs, protocolType, protocols);
+				addMemberAndRebalance(group, pending, callback);
+				return;
+			}
+			MemberMetadata member = group.member(memberId);
+			if (member == null) {
+				callback.accept(JoinResult.error(memberId, ErrorCodes.UNKNOWN_MEMBER_ID));
+				return;
+			}
+			switch (group.state()) {
+				case PREPARING_REBALANCE:
+					updateMemberAndRebalance(group, member, sessionTimeoutMs, rebalanceTimeoutMs, protocols, callback);
+					break;
+				case COMPLETING_REBALANCE:
+				case STABLE:
+					// A follower rejoining with what it had (its join answer got lost)
+					// gets the current generation back; anything else rebalances
+					if (member.matches(protocols) && (group.is(GroupMetadata.State.COMPLETING_REBALANCE) || !group.isLeader(memberId))) {
+						completeAndScheduleNextHeartbeat(group, member);
+						callback.accept(joinResult(group, member));
+					} else {
+						updateMemberAndRebalance(group, member, sessionTimeoutMs, rebalanceTimeoutMs, protocols, callback);
+					}
+					break;
+				default:
+					callback.accept(JoinResult.error(memberId, ErrorCodes.UNKNOWN_MEMBER_ID));
+			}
+		} finally {
+			maybeRemoveGroup(group); // Created for a join that failed
+			group.lock().unlock();
+		}
+	}
+
+	public void syncGroup(String groupId, int generationId, String memberId, String protocolType, String protocolName,
+			Map<String, byte[]> assignments, Consumer<SyncResult> callback) {
+		GroupMetadata group = groups.get(groupId);
+		if (group == null) {
+			callback.accept(SyncResult.error(ErrorCodes.UNKNOWN_MEMBER_ID));
+			return;
+		}
+		group.lock().lock();
+		try {
+			MemberMetadata member = group.member(memberId);
+			if (member == null) {
+				callback.accept(SyncResult.error(ErrorCodes.UNKNOWN_MEMBER_ID));
+			} else if (generationId != group.generationId()) {
+				callback.accept(SyncResult.error(ErrorCodes.ILLEGAL_GENERATION));
+			} else if ((protocolType != null && !protocolType.equals(group.protocolType()))
+					|| (protocolName != null && !protocolName.equals(group.protocolName()))) {
+				callback.accept(SyncResult.error(ErrorCodes.INCONSISTENT_GROUP_PROTOCOL));
+			} else if (group.is(GroupMetadata.State.PREPARING_REBALANCE)) {
+				callback.accept(SyncResult.error(ErrorCodes.REBALANCE_IN_PROGRESS));
+			} else if (group.is(GroupMetadata.State.STABLE)) {
+				completeAndScheduleNextHeartbeat(group, member);
+				callback.accept(syncResult(group, member));
+			} else if (group.is(GroupMetadata.State.COMPLETING_REBALANCE)) {
+				member.awaitingSync = callback;
+				if (group.isLeader(memberId)) {
+					// The leader's assignment ends the rebalance for everyone
+					for (MemberMetadata each : group.members()) {
+						each.assignment(assignments.get(each.memberId()));
+					}
+					group.transitionTo(GroupMetadata.State.STABLE);
+					Log.info("Group {} stabilized with generation {} ({} members)", groupId, group.generationId(), group.size());
+					for (MemberMetadata each : group.members()) {
+						completeSync(group, each, syncResult(group, each));
+					}
+				}
+			} else {
+				callback.accept(SyncResult.error(ErrorCodes.UNKNOWN_MEMBER_ID));
+			}
+		} finally {
+			group.lock().unlock();
+		}
+	}
+
+	public ErrorCodes heartbeat(String groupId, String memberId, int generationId) {
+		GroupMetadata group = groups.get(groupId);
+		if (group == null) {
+			return ErrorCodes.UNKNOWN_MEMBER_ID;
+		}
+		group.lock().lock();
+		try {
+			MemberMetadata member = group.member(memberId);
+			if (member == null) {
+				return ErrorCodes.UNKNOWN_MEMBER_ID;
+			}
+			if (generationId != group.generationId()) {
+				return ErrorCodes.ILLEGAL_GENERATION;
+			}
+			completeAndScheduleNextHeartbeat(group, member);
+			return group.is(GroupMetadata.State.PREPARING_REBALANCE) ? ErrorCodes.REBALANCE_IN_PROGRESS : ErrorCodes.NONE;
+		} finally {
+			group.lock().unlock();
+		}
+	}
+
+	// One error per member id, in order
+	public List<ErrorCodes> leaveGroup(String groupId, List<String> memberIds) {
+		List<ErrorCodes> errors = new ArrayList<>(memberIds.size());
+		GroupMetadata group = groups.get(groupId);
+		if (group == null) {
+			for (int i = 0; i < memberIds.size(); i++) {
+				errors.add(ErrorCodes.UNKNOWN_MEMBER_ID);
+			}
+			return errors;
+		}
+		group.lock().lock();
+		try {
+			for (String memberId : memberIds) {
+				MemberMetadata pending = group.removePending(memberId);
+				MemberMetadata member = group.member(memberId);
+				if (pending != null) {
+					heartbeatPurgatory.checkAndComplete(pending);
+					errors.add(ErrorCodes.NONE);
+				} else if (member != null) {
+					Log.info("Member {} is leaving group {}", memberId, groupId);
+					removeMemberAndUpdateGroup(group, member);
+					errors.add(ErrorCodes.NONE);
+				} else {
+					errors.add(ErrorCodes.UNKNOWN_MEMBER_ID);
+				}
+			}
+			if (group.is(GroupMetadata.State.PREPARING_REBALANCE)) {
+				joinPurgatory.checkAndComplete(groupId); // A pending member may have been all it waited for
+			}
+			maybeRemoveGroup(group);
+			return errors;
+		} finally {
+			group.lock().unlock();
+		}
+	}
+
+	// Checks the committer against the group, then stores the commits.
+	// Without a generation and member id it is a standalone consumer's
+	// commit, allowed while no members use the group.
+	public void commitOffsets(String groupId, String memberId, int generationId, List<OffsetManager.Commit> commits) {
+		ErrorCodes error = ErrorCodes.NONE;
+		if (groupId == null || groupId.isEmpty()) {
+			error = ErrorCodes.INVALID_GROUP_ID;
+		} else {
+			GroupMetadata group = groups.get(groupId);
+			boolean standalone = generationId < 0 && (memberId == null || memberId.isEmpty());
+			if (group == null) {
+				error = standalone ? ErrorCodes.NONE : ErrorCodes.ILLEGAL_GENERATION;
+			} else {
+				group.lock().lock();
+				try {
+					error = validateCommit(group, memberId, generationId, standalone);
+				} finally {
+					group.lock().unlock();
+				}
+			}
+		}
+		if (error != ErrorCodes.NONE) {
+			for (OffsetManager.Commit commit : commits) {
+				commit.error = error;
+			}
+			return;
+		}
+		offsets.commit(groupId, commits);
+	}
+
+	private ErrorCodes validateCommit(GroupMetadata group, String memberId, int generationId, boolean standalone) {
+		if (standalone) {
+			return group.is(GroupMetadata.State.EMPTY) ? ErrorCodes.NONE : ErrorCodes.UNKNOWN_MEMBER_ID;
+		}
+		MemberMetadata member = group.member(memberId);
+		if (member == null) {
+			return ErrorCodes.UNKNOWN_MEMBER_ID;
+		}
+		if (generationId != group.generationId()) {
+			return ErrorCodes.ILLEGAL_GENERATION;
+		}
+		if (group.is(GroupMetadata.State.COMPLETING_REBALANCE)) {
+			return ErrorCodes.REBALANCE_IN_PROGRESS;
+		}
+		completeAndScheduleNextHeartbeat(group, member); // A commit is as good as a heartbeat
+		return ErrorCodes.NONE;
+	}
+
+	private void addMemberAndRebalance(GroupMetadata group, MemberMetadata member, Consumer<JoinResult> callback) {
+		member.awaitingJoin = callback;
+		group.add(member);
+		heartbeatPurgatory.checkAndComplete(member); // Kept alive while it waits
+		maybePrepareRebalance(group);
+	}
+
+	private void updateMemberAndRebalance(GroupMetadata group, MemberMetadata member, int sessionTimeoutMs, int rebalanceTimeoutMs,
+			List<MemberMetadata.Protocol> protocols, Consumer<JoinResult> callback) {
+		member.update(sessionTimeoutMs, rebalanceTimeoutMs, member.protocolType(), protocols);
+		if (member.awaitingJoin != null && member.awaitingJoin != callback) {
+			// A second join from the same member replaces the first, which gets an error
+			member.awaitingJoin.accept(JoinResult.error(member.memberId(), ErrorCodes.REBALANCE_IN_PROGRESS));
+		}
+		member.awaitingJoin = callback;
+		heartbeatPurgatory.checkAndComplete(member);
+		maybePrepareRebalance(group);
+	}
+
+	private void maybePrepareRebalance(GroupMetadata group) {
+		if (group.is(GroupMetadata.State.PREPARING_REBALANCE)) {
+			joinPurgatory.checkAndComplete(group.groupId());
+		} else {
+			prepareRebalance(group);
+		}
+	}
+
+	private void prepareRebalance(GroupMetadata group) {
+		if (group.is(GroupMetadata.State.COMPLETING_REBALANCE)) {
+			// Followers waiting for the leader's assignment have to rejoin
+			for (MemberMetadata member : group.members()) {
+				member.assignment(null);
+				completeSync(group, member, SyncResult.error(ErrorCodes.REBALANCE_IN_PROGRESS));
+			}
+		}
+		boolean initial = group.is(GroupMetadata.State.EMPTY) && BrokerConfig.GROUP_INITIAL_REBALANCE_DELAY_MS > 0;
+		long delayMs = initial
+				? Math.min(BrokerConfig.GROUP_INITIAL_REBALANCE_DELAY_MS, group.maxRebalanceTimeoutMs())
+				: group.maxRebalanceTimeoutMs();
+		group.transitionTo(GroupMetadata.State.PREPARING_REBALANCE);
+		Log.info("Preparing to rebalance group {} (generation {}, {} members)", group, group.generationId(), group.size());
+		joinPurgatory.tryCompleteElseWatch(new DelayedJoin(this, group, delayMs, initial), List.of(group.groupId()));
+	}
+
+	// DelayedJoin: drops the members that did not rejoin and starts the next
+	// generation with the rest, answering every parked JoinGroup
+	void completeJoin(GroupMetadata group) {
+		group.lock().lock();
+		try {
+			if (!group.is(GroupMetadata.State.PREPARING_REBALANCE)) {
+				return;
+			}
+			for (MemberMetadata member : new ArrayList<>(group.members())) {
+				if (member.awaitingJoin == null) {
+					Log.info("Member {} did not rejoin group {} in time, removing it", member, group);
+					group.remove(member.memberId());
+					heartbeatPurgatory.checkAndComplete(member);
+				}
+			}
+			group.initNextGeneration();
+			if (group.is(GroupMetadata.State.EMPTY)) {
+				Log.info("Group {} with generation {} is now empty", group, group.generationId());
+				maybeRemoveGroup(group);
+				return;
+			}
+			Log.info("Group {} moved to generation {} with protocol {} and {} members",
+					group, group.generationId(), group.protocolName(), group.size());
+			for (MemberMetadata member : group.members()) {
+				Consumer<JoinResult> callback = member.awaitingJoin;
+				member.awaitingJoin = null;
+				callback.accept(joinResult(group, member));
+				completeAndScheduleNextHeartbeat(group, member);
+			}
+		} finally {
+			group.lock().unlock();
+		}
+	}
+
+	// DelayedHeartbeat timed out; stale if the member heartbeat since
+	void onHeartbeatExpired(GroupMetadata group, MemberMetadata member, long deadlineMs) {
+		group.lock().lock();
+		try {
+			if (member.heartbeatDeadlineMs != deadlineMs || member.shouldKeepAlive() || !group.isCurrent(member)) {
+				return;
+			}
+			if (group.removePending(member.memberId()) != null) {
+				Log.info("Pending member {} in group {} never joined, removing it", member, group);
+				if (group.is(GroupMetadata.State.PREPARING_REBALANCE)) {
+					joinPurgatory.checkAndComplete(group.groupId());
+				}
+				maybeRemoveGroup(group);
+				return;
+			}
+			Log.info("Member {} in group {} has failed (session timeout {} ms), removing it",
+					member, group, member.sessionTimeoutMs());
+			removeMemberAndUpdateGroup(group, member);
+		} finally {
+			group.lock().unlock();
+		}
+	}
+
+	private void removeMemberAndUpdateGroup(GroupMetadata group, MemberMetadata member) {
+		if (member.awaitingJoin != null) {
+			member.awaitingJoin.accept(JoinResult.error(member.memberId(), ErrorCodes.UNKNOWN_MEMBER_ID));
+			member.awaitingJoin = null;
+		}
+		completeSync(group, member, SyncResult.error(ErrorCodes.UNKNOWN_MEMBER_ID));
+		group.remove(member.memberId());
+		heartbeatPurgatory.checkAndComplete(member);
+		switch (group.state()) {
+			case STABLE:
+			case COMPLETING_REBALANCE:
+				prepareRebalance(group);
+				break;
+			case PREPARING_REBALANCE:
+				joinPurgatory.checkAndComplete(group.groupId());
+				break;
+			default:
+		}
+		maybeRemoveGroup(group);
+	}
+
+	// Forgets a group nobody is in or joining any more, so group ids do not
+	// pile up; its committed offsets stay with the OffsetManager. Called with
+	// the group's lock held, which joinGroup rechecks the map under.
+	private void maybeRemoveGroup(GroupMetadata group) {
+		if (group.isIdle() && groups.remove(group.groupId(), group)) {
+			Log.debug("Removed empty group {}", group);
+		}
+	}
+
+	private void completeSync(GroupMetadata group, MemberMetadata member, SyncResult result) {
+		Consumer<SyncResult> callback = member.awaitingSync;
+		if (callback != null) {
+			member.awaitingSync = null;
+			callback.accept(result);
+			if (result.error == ErrorCodes.NONE) {
+				completeAndScheduleNextHeartbeat(group, member);
+			}
+		}
+	}
+
+	// Counts as a heartbeat: completes the pending session timeout and starts the next
+	private void completeAndScheduleNextHeartbeat(GroupMetadata group, MemberMetadata member) {
+		member.heartbeatSatisfied = true;
+		heartbeatPurgatory.checkAndComplete(member);
+		member.heartbeatSatisfied = false;
+		int timeoutMs = member.sessionTimeoutMs();
+		member.heartbeatDeadlineMs = System.currentTimeMillis() + timeoutMs;
+		heartbeatPurgatory.tryCompleteElseWatch(
+				new DelayedHeartbeat(this, group, member, member.heartbeatDeadlineMs, timeoutMs), List.of(member));
+	}
+
+	private static JoinResult joinResult(GroupMetadata group, MemberMetadata member) {
+		List<JoinedMember> members = Collections.emptyList();
+		if (group.isLeader(member.memberId())) {
+			members = new ArrayList<>(group.size());
+			for (MemberMetadata each : group.members()) {
+				byte[] metadata = each.metadata(group.protocolName());
+				members.add(new JoinedMember(each.memberId(), each.groupInstanceId(), metadata == null ? MemberMetadata.NO_BYTES : metadata));
+			}
+		}
+		return new JoinResult(ErrorCodes.NONE, member.memberId(), group.generationId(), group.protocolType(),
+				group.protocolName(), group.leaderId(), members);
+	}
+
+	private static SyncResult syncResult(GroupMetadata group, MemberMetadata member) {
+		return new SyncResult(ErrorCodes.NONE, group.protocolType(), group.protocolName(), member.assignment());
+	}
+}
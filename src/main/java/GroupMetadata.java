@@ -0,0 +1,253 @@
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-memory state of one consumer group (classic protocol). Everything here
+// is guarded by lock(); the GroupCoordinator holds it for every change and
+// the delayed join and heartbeat operations take it again when they run.
+//
+//   Empty --join--> PreparingRebalance --all joined--> CompletingRebalance
+//   CompletingRebalance --leader syncs--> Stable
+//   Stable / CompletingRebalance --join, leave, expiry--> PreparingRebalance
+//   PreparingRebalance --no members left--> Empty
+public class GroupMetadata {
+
+	public enum State {
+		EMPTY("Empty"),
+		PREPARING_REBALANCE("PreparingRebalance"),
+		COMPLETING_REBALANCE("CompletingRebalance"),
+		STABLE("Stable");
+
+		private final String displayName;
+
+		State(String displayName) {
+			this.displayName = displayName;
+		}
+
+		// States this one may be entered from
+		private Set<State> validPrevious() {
+			switch (this) {
+				case EMPTY:
+				case COMPLETING_REBALANCE:
+					return EnumSet.of(PREPARING_REBALANCE);
+				case PREPARING_REBALANCE:
+					return EnumSet.of(EMPTY, STABLE, COMPLETING_REBALANCE);
+				default:
+					return EnumSet.of(COMPLETING_REBALANCE);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return displayName;
+		}
+	}
+
+	private final String groupId;
+	private final ReentrantLock lock = new ReentrantLock();
+	private State state = State.EMPTY;
+	private int generationId = 0;
+	private String protocolType;
+	private String protocolName;
+	private String leaderId;
+	private final Map<String, MemberMetadata> members = new LinkedHashMap<>();
+	// Given an id by a MEMBER_ID_REQUIRED answer, not joined with it yet
+	private final Map<String, MemberMetadata> pendingMembers = new HashMap<>();
+
+	public GroupMetadata(String groupId) {
+		this.groupId = groupId;
+	}
+
+	public String groupId() {
+		return groupId;
+	}
+
+	public ReentrantLock lock() {
+		return lock;
+	}
+
+	public State state() {
+		return state;
+	}
+
+	public boolean is(State state) {
+		return this.state == state;
+	}
+
+	public void transitionTo(State target) {
+		if (!target.validPrevious().contains(state)) {
+			throw new IllegalStateException("Group " + groupId + " cannot go from " + state + " to " + target);
+		}
+		state = target;
+	}
+
+	public int generationId() {
+		return generationId;
+	}
+
+	public String protocolType() {
+		return protocolType;
+	}
+
+	public String protocolName() {
+		return protocolName;
+	}
+
+	public String leaderId() {
+		return leaderId;
+	}
+
+	public boolean isLeader(String memberId) {
+		return memberId.equals(leaderId);
+	}
+
+	public MemberMetadata member(String memberId) {
+		return members.get(memberId);
+	}
+
+	public Collection<MemberMetadata> members() {
+		return members.values();
+	}
+
+	public int size() {
+		return members.size();
+	}
+
+	public void add(MemberMetadata member) {
+		if (members.isEmpty()) {
+			protocolType = member.protocolType();
+		}
+		members.put(member.memberId(), member);
+		if (leaderId == null) {
+			leaderId = member.memberId();
+		}
+	}
+
+	// Removes the member, handing leadership to the next one if it led
+	public void remove(String memberId) {
+		members.remove(memberId);
+		if (memberId.equals(leaderId)) {
+			leaderId = members.isEmpty() ? null : members.keySet().iterator().next();
+		}
+	}
+
+	public void addPending(MemberMetadata member) {
+		pendingMembers.put(member.memberId(), member);
+	}
+
+	public MemberMetadata removePending(String memberId) {
+		return pendingMembers.remove(memberId);
+	}
+
+	// The member, pending or joined, that this very object still stands for
+	public boolean isCurrent(MemberMetadata member) {
+		return members.get(member.memberId()) == member || pendingMembers.get(member.memberId()) == member;
+	}
+
+	// Every member has rejoined and no new one is still on its way
+	public boolean hasAllMembersJoined() {
+		for (MemberMetadata member : members.values()) {
+			if (member.awaitingJoin == null) {
+				return false;
+			}
+		}
+		return pendingMembers.isEmpty();
+	}
+
+	// Longest a rebalance waits for members to rejoin
+	public int maxRebalanceTimeoutMs() {
+		int timeout = 0;
+		for (MemberMetadata member : members.values()) {
+			timeout = Math.max(timeout, member.rebalanceTimeoutMs());
+		}
+		return timeout;
+	}
+
+	// Empty, with no member on its way in either; nothing left to coordinate
+	public boolean isIdle() {
+		return state == State.EMPTY && members.isEmpty() && pendingMembers.isEmpty();
+	}
+
+	// A member joining with these protocols could take part in the group
+	public boolean supportsProtocols(String memberProtocolType, List<MemberMetadata.Protocol> protocols) {
+		if (memberProtocolType == null || memberProtocolType.isEmpty() || protocols.isEmpty()) {
+			return false;
+		}
+		if (members.isEmpty()) {
+			return true;
+		}
+		if (!memberProtocolType.equals(protocolType)) {
+			return false;
+		}
+		Set<String> candidates = candidateProtocols();
+		for (MemberMetadata.Protocol protocol : protocols) {
+			if (candidates.contains(protocol.name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Protocols every member supports
+	private Set<String> candidateProtocols() {
+		Set<String> candidates = null;
+		for (MemberMetadata member : members.values()) {
+			Set<String> names = new LinkedHashSet<>();
+			for (MemberMetadata.Protocol protocol : member.protocols()) {
+				names.add(protocol.name);
+			}
+			if (candidates == null) {
+				candidates = names;
+			} else {
+				candidates.retainAll(names);
+			}
+		}
+		return candidates == null ? new LinkedHashSet<>() : candidates;
+	}
+
+	// Each member votes for its most preferred candidate; most votes wins
+	private String selectProtocol() {
+		Set<String> candidates = candidateProtocols();
+		Map<String, Integer> votes = new LinkedHashMap<>();
+		for (MemberMetadata member : members.values()) {
+			String vote = member.vote(candidates);
+			if (vote != null) {
+				votes.merge(vote, 1, Integer::sum);
+			}
+		}
+		String selected = null;
+		int most = 0;
+		for (Map.Entry<String, Integer> entry : votes.entrySet()) {
+			if (entry.getValue() > most) {
+				selected = entry.getKey();
+				most = entry.getValue();
+			}
+		}
+		return selected;
+	}
+
+	// Ends a rebalance: a new generation with the protocol the members
+	// agree on, or an empty group if none rejoined
+	public void initNextGeneration() {
+		generationId++;
+		if (members.isEmpty()) {
+			protocolType = null;
+			protocolName = null;
+			transitionTo(State.EMPTY);
+		} else {
+			protocolName = selectProtocol();
+			transitionTo(State.COMPLETING_REBALANCE);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return groupId;
+	}
+}
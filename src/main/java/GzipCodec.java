@@ -0,0 +1,33 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// gzip through java.util.zip, with the same 8 KiB buffers Kafka's clients use
+public class GzipCodec extends CompressionCodec {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	@Override
+	public int id() {
+		return 1;
+	}
+
+	@Override
+	public String name() {
+		return "gzip";
+	}
+
+	@Override
+	public InputStream decompress(ByteBuffer compressed) throws IOException {
+		return new GZIPInputStream(new ByteBufferInputStream(compressed), BUFFER_SIZE);
+	}
+
+	@Override
+	public OutputStream compress(OutputStream out) throws IOException {
+		return new BufferedOutputStream(new GZIPOutputStream(out, BUFFER_SIZE), BUFFER_SIZE);
+	}
+}
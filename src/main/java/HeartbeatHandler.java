@@ -0,0 +1,55 @@
+import java.nio.ByteBuffer;
+
+// Heartbeat (key 12): keeps a member's session alive and tells it, with
+// REBALANCE_IN_PROGRESS, when it has to rejoin.
+public class HeartbeatHandler implements RequestHandler {
+
+	private static final ThreadLocal<HeartbeatRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(HeartbeatRequestMessage.Reader::new);
+	private static final ThreadLocal<HeartbeatResponseMessage.Writer> RESPONSE_WRITER =
+			ThreadLocal.withInitial(HeartbeatResponseMessage.Writer::new);
+
+	private final GroupCoordinator coordinator;
+
+	public HeartbeatHandler(GroupCoordinator coordinator) {
+		this.coordinator = coordinator;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.HEARTBEAT;
+	}
+
+	@Override
+	public short minVersion() {
+		return 0;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 4;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 4;
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		short version = request.apiVersion();
+		boolean flexible = isFlexible(version);
+		HeartbeatRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+		request.decoded();
+
+		ErrorCodes error = coordinator.heartbeat(reader.groupId(), reader.memberId(), reader.generationId());
+		request.encoding();
+		HeartbeatResponseMessage.Writer writer = RESPONSE_WRITER.get();
+		writer.sizing(version).throttleTimeMs(request.throttleTimeMs()).errorCode((short) error.getCode()).end();
+		ByteBuffer message = BufferPool.current().acquire(MessageUtils.responseHeaderSize(flexible) + writer.size());
+		MessageUtils.writeResponseHeader(message, request.correlationId(), flexible);
+		writer.wrap(message, version).throttleTimeMs(request.throttleTimeMs()).errorCode((short) error.getCode()).end();
+		return MessageUtils.createResponseBuffer(message);
+	}
+}
@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Pipeline of requests read ahead on one connection. The network thread
+// registers each frame in arrival order; handler threads complete them in any
+// order; responses are released to the socket strictly in arrival order,
+// which is the order the client assigned its correlation ids.
+public class InFlightRequests {
+
+	private static final Object NO_RESPONSE = new Object();
+	private static final Object FAILED = new Object();
+
+	private final int capacity;
+	private final AtomicReferenceArray<Object> slots;
+
+	// Network thread only
+	private long nextSequence = 0;
+	private long nextToSend = 0;
+
+	public InFlightRequests(int capacity) {
+		this.capacity = capacity;
+		this.slots = new AtomicReferenceArray<>(capacity);
+	}
+
+	public int size() {
+		return (int) (nextSequence - nextToSend);
+	}
+
+	public boolean isFull() {
+		return size() >= capacity;
+	}
+
+	// Network thread: reserve the next slot for a frame that was just read
+	public long register() {
+		return nextSequence++;
+	}
+
+	// Handler thread: a null response means the request expects none
+	public void complete(long sequence, Response response) {
+		slots.set(index(sequence), response == null ? NO_RESPONSE : response);
+	}
+
+	public void fail(long sequence) {
+		slots.set(index(sequence), FAILED);
+	}
+
+	// Network thread: hands every response that is ready, in order, to sink.
+	// Stops at the first gap. Returns false if a request in order failed.
+	public boolean drainInOrder(Consumer<Response> sink) {
+		while (nextToSend < nextSequence) {
+			int index = index(nextToSend);
+			Object completed = slots.get(index);
+			if (completed == null) {
+				return true; // Head of the pipeline is still being handled
+			}
+			slots.set(index, null);
+			nextToSend++;
+			if (completed == FAILED) {
+				return false;
+			}
+			if (completed != NO_RESPONSE) {
+				sink.accept((Response) completed);
+			}
+		}
+		return true;
+	}
+
+	// Network thread, on close: release whatever already completed
+	public void releaseCompleted() {
+		for (int i = 0; i < capacity; i++) {
+			Object completed = slots.getAndSet(i, null);
+			if (completed instanceof Response) {
+				((Response) completed).release();
+			}
+		}
+	}
+
+	private int index(long sequence) {
+		return (int) (sequence % capacity);
+	}
+}
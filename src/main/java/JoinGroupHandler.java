@@ -0,0 +1,104 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// JoinGroup (key 11): a member (re)joining its group. The answer usually
+// has to wait for the rest of the group to join too, so it is given through
+// RequestContext.respondLater once the GroupCoordinator completes the
+// rebalance. From v4 a member without an id first gets MEMBER_ID_REQUIRED
+// and a fresh id to join with.
+public class JoinGroupHandler implements RequestHandler {
+
+	private static final byte[] NO_STRING = new byte[0];
+
+	private static final ThreadLocal<JoinGroupRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(JoinGroupRequestMessage.Reader::new);
+	private static final ThreadLocal<JoinGroupResponseMessage.Writer> RESPONSE_WRITER =
+			ThreadLocal.withInitial(JoinGroupResponseMessage.Writer::new);
+
+	private final GroupCoordinator coordinator;
+
+	public JoinGroupHandler(GroupCoordinator coordinator) {
+		this.coordinator = coordinator;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.JOIN_GROUP;
+	}
+
+	@Override
+	public short minVersion() {
+		return 0;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 9;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 6;
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		short version = request.apiVersion();
+		boolean flexible = isFlexible(version);
+		JoinGroupRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+
+		String groupId = reader.groupId();
+		String memberId = reader.memberId();
+		String groupInstanceId = reader.groupInstanceId(); // Kept, but membership is never static
+		int sessionTimeoutMs = reader.sessionTimeoutMs();
+		int rebalanceTimeoutMs = reader.hasRebalanceTimeoutMs() ? reader.rebalanceTimeoutMs() : sessionTimeoutMs;
+		String protocolType = reader.protocolType();
+		List<MemberMetadata.Protocol> protocols = new ArrayList<>(Math.max(0, reader.protocolsCount()));
+		for (JoinGroupRequestMessage.JoinGroupRequestProtocolReader protocol = reader.protocols(); protocol.next(); ) {
+			protocols.add(new MemberMetadata.Protocol(protocol.name(), KafkaProtocolUtils.copyBytes(protocol.metadata())));
+		}
+		String clientId = request.header().clientId();
+		int correlationId = request.correlationId();
+		int throttleTimeMs = request.throttleTimeMs();
+		request.decoded();
+
+		return request.respondLater(callback -> coordinator.joinGroup(groupId, memberId, groupInstanceId, clientId, version >= 4,
+				sessionTimeoutMs, rebalanceTimeoutMs, protocolType, protocols,
+				result -> callback.complete(encode(version, flexible, correlationId, throttleTimeMs, result))));
+	}
+
+	private static Response encode(short version, boolean flexible, int correlationId, int throttleTimeMs, GroupCoordinator.JoinResult result) {
+		JoinGroupResponseMessage.Writer writer = RESPONSE_WRITER.get();
+		write(writer.sizing(version), version, result, throttleTimeMs);
+		ByteBuffer message = BufferPool.current().acquire(MessageUtils.responseHeaderSize(flexible) + writer.size());
+		MessageUtils.writeResponseHeader(message, correlationId, flexible);
+		write(writer.wrap(message, version), version, result, throttleTimeMs);
+		return MessageUtils.createResponseBuffer(message);
+	}
+
+	private static void write(JoinGroupResponseMessage.Writer writer, short version, GroupCoordinator.JoinResult result, int throttleTimeMs) {
+		// ProtocolName is only nullable from v7
+		byte[] protocolName = KafkaProtocolUtils.utf8(result.protocolName);
+		if (protocolName == null && version < 7) {
+			protocolName = NO_STRING;
+		}
+		JoinGroupResponseMessage.JoinGroupResponseMemberWriter members = writer.throttleTimeMs(throttleTimeMs)
+				.errorCode((short) result.error.getCode())
+				.generationId(result.generationId)
+				.protocolType(KafkaProtocolUtils.utf8(result.protocolType))
+				.protocolName(protocolName)
+				.leader(KafkaProtocolUtils.utf8(result.leaderId))
+				.skipAssignment(false)
+				.memberId(KafkaProtocolUtils.utf8(result.memberId))
+				.members(result.members.size());
+		for (GroupCoordinator.JoinedMember member : result.members) {
+			members.memberId(KafkaProtocolUtils.utf8(member.memberId))
+					.groupInstanceId(KafkaProtocolUtils.utf8(member.groupInstanceId))
+					.metadata(ByteBuffer.wrap(member.metadata))
+					.end();
+		}
+		writer.end();
+	}
+}
@@ -0,0 +1,20 @@
+// Failure that maps to a Kafka error code in the response, thrown by the
+// storage layer and caught by the request handlers.
+public class KafkaException extends RuntimeException {
+
+	private final ErrorCodes error;
+
+	public KafkaException(ErrorCodes error, String message) {
+		super(message);
+		this.error = error;
+	}
+
+	public KafkaException(ErrorCodes error, String message, Throwable cause) {
+		super(message, cause);
+		this.error = error;
+	}
+
+	public ErrorCodes error() {
+		return error;
+	}
+}
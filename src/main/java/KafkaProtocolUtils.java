@@ -2,7 +2,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.UUID;
 
 public class KafkaProtocolUtils {
 
@@ -27,22 +29,15 @@ public class KafkaProtocolUtils {
 
 
   // Consumer: Process messages from the buffer (Output?)
+  // Parks with backoff while the buffer is empty instead of polling on a sleep
   public static void consumeMessages(CircularBuffer messageBuffer){
-	  while(true){
-		  try {
-			  byte[] message = messageBuffer.get();
-			  if(message != null){
-				  System.out.println("Processing message: " + Arrays.toString(message));
-			  }
-			  Thread.sleep(100); // Sleep 0.1 s
-		  } catch (InterruptedException e){
-			  System.out.println("Interrupted while consuming messages: " + e.getMessage());
+	  while(!Thread.currentThread().isInterrupted()){
+		  byte[] message = messageBuffer.take(WaitStrategy.PARK);
+		  if(message != null && Log.isDebugEnabled()){
+			  Log.debug("Processing message: {}", Arrays.toString(message));
 		  }
-		  /*
-		  } catch (IOException e){
-			  System.out.println("Interrupted while consuming messages: " + e.getMessage());
-		  }*/
 	  }
+	  Log.info("Interrupted while consuming messages");
   }
 
   public static byte[] readExactly(InputStream in, int numBytes) throws IOException {
@@ -72,88 +67,22 @@ public class KafkaProtocolUtils {
   }
 
 
-  // Reimplementing response processing
-  //private static ByteBuffer generateResponse(byte[] message_size, byte[] request_api_key, byte[] request_api_version, byte[] correlation_id, byte[] client_id, byte[] tagged_fields){
-  //processOutput(tempBuffer, message_size, request_api_key, request_api_version, correlation_id, client_id, tagged_fields);
+  // Answers one size-prefixed ApiVersions frame. The header is read by the
+  // RequestHeader flyweight (client_id is an INT16-length string, tagged
+  // fields only in header v2) and the body comes from the generated
+  // ApiVersionsResponseMessage writer, sized before it is written.
   public static ByteBuffer generateResponse(byte[] bufferData){
-
-	  // Input buffer to read data from bufferData
-	  ByteBuffer inputBuffer = ByteBuffer.wrap(bufferData);
-
-	  // Extract fields from bufferData
-	  // message_size --- INT32, 4 bytes, int
-	  byte[] message_size = new byte[4];
-	  inputBuffer.get(message_size);
-
-	  // request_api_key --- INT16, 2 bytes, short
-	  byte[] request_api_key = new byte[2];
-	  inputBuffer.get(request_api_key);
-	  // request_api_version --- INT16, 2 bytes, short
-	  byte[] request_api_version = new byte[2];
-	  inputBuffer.get(request_api_version);
-
-	  // correlation_id --- INT32, 4 bytes, int
-	  byte[] correlation_id = new byte[4];
-	  inputBuffer.get(correlation_id);
-
-	  // client_id --- Nullable String --- MIN: INT16, 2 bytes , short --- MAX: INT64, 8 bytes
-	  int client_id_length = inputBuffer.getInt();
-	  byte[] client_id = new byte[client_id_length];
-	  inputBuffer.get(client_id);
-
-	  // tagged_fields --- Nullable String --- MIN: INT16, 2 bytes , short --- MAX: INT64, 8 bytes
-	  int tagged_fields_length = inputBuffer.getInt();
-	  byte[] tagged_fields = new byte[client_id_length];
-	  inputBuffer.get(tagged_fields);
-
-	  // Tempbuffer
-	  ByteBuffer tempBuffer = ByteBuffer.allocate(128);
-	  processOutput(tempBuffer, message_size, request_api_key, request_api_version, correlation_id);
-
-	  // Estimate total size of the message, but reserving the first 4 bytes
-	  int response_size = tempBuffer.position();
-	  // try to process that first 4 bytes
-	  ByteBuffer OutputBuffer = ByteBuffer.allocate(4 + response_size);
-	  OutputBuffer.putInt(response_size);
-	  OutputBuffer.put(tempBuffer.array(), 0, response_size);
-
-	  return OutputBuffer;
-  }
-
-  private static short RespondAPIVersionRequest(byte[] request_api_version){
-	  short version = ByteBuffer.wrap(request_api_version).getShort();
-	  ErrorCodes errorCode = ErrorCodes.fromApiVersion(version);
-	  return (short)errorCode.getCode();
-  }
-  private static short RespondAPIKeyRequest(byte[] request_api_key){
-	  short apiKey = ByteBuffer.wrap(request_api_key).getShort();
-	  APIKeys apiKeyEnum = APIKeys.fromApiKey(apiKey);
-	  return (short)apiKeyEnum.getCode();
+	  ByteBuffer frame = ByteBuffer.wrap(bufferData, 4, bufferData.length - 4).slice();
+	  RequestHeader header = new RequestHeader().wrap(frame, 0);
+	  ByteBuffer message = MessageUtils.createApiVersionsResponse(header.apiVersion(), header.correlationId(), RequestHandlerRegistry.get());
+	  message.flip();
+	  ByteBuffer outputBuffer = ByteBuffer.allocate(4 + message.remaining());
+	  outputBuffer.putInt(message.remaining());
+	  outputBuffer.put(message);
+	  BufferPool.current().release(message);
+	  return outputBuffer;
   }
 
-  //private static void processOutput(ByteBuffer outputBuffer, byte[] message_size, byte[] request_api_key, byte[] request_api_version, byte[] correlation_id, byte[] client_id, byte[] tagged_fields){
-  public static void processOutput(ByteBuffer outputBuffer, byte[] message_size, byte[] request_api_key, byte[] request_api_version, byte[] correlation_id){
-
-	  // Correlation ID --- INT32, 4 bytes, int
-	  outputBuffer.putInt(ByteBuffer.wrap(correlation_id).getInt());
-	  // API_VERSION --- INT16, 2 bytes, short
-	  // Error code --- INT16, 2 bytes, short --- 0 means "No Error"
-	  outputBuffer.putShort((short)RespondAPIVersionRequest(request_api_version));
-	  // Testing if this is not ok
-	  // Response header --- 1 byte --- 2
-	  outputBuffer.put((byte) 2);
-	  // API_KEY --- INT16, 2bytes, short --- 18
-	  outputBuffer.putShort((short)RespondAPIKeyRequest(request_api_key));
-
-	  // MIN_VERSION --- INT16, 2bytes, short --- 0
-	  outputBuffer.putShort((short) 0);
-	  // MAX_VERSION --- INT16, 2 bytes, short --- 4
-	  outputBuffer.putShort((short) 4);
-	  // Throttle time --- INT32, 4 bytes --- 0
-	  outputBuffer.putInt((int) 0);
-	  // TAGGED_FIELDS --- INT16, 2 bytes --- now 0 'no tagged fields' --- not sure if MAX INT64
-	  outputBuffer.putShort((short) 0); 
-  }
  public static int byteArrToUInt(byte[] correlation_id){
 
 
@@ -169,5 +98,271 @@ public class KafkaProtocolUtils {
  }
 
 
+
+ // Wire primitives. "flexible" selects the compact encodings (unsigned
+ // varint lengths stored as N + 1) used from an API's first flexible version
+ // onwards. Requests are decoded by the generated readers through the
+ // absolute-position helpers below; these position-advancing readers are for
+ // records and the metadata and offsets logs.
+
+ public static int readUnsignedVarint(ByteBuffer buffer) {
+	 int value = 0;
+	 int shift = 0;
+	 while (true) {
+		 byte b = buffer.get();
+		 value |= (b & 0x7F) << shift;
+		 if ((b & 0x80) == 0) {
+			 return value;
+		 }
+		 shift += 7;
+		 if (shift > 28) {
+			 throw new IllegalArgumentException("Varint is too long");
+		 }
+	 }
+ }
+
+ public static void writeUnsignedVarint(ByteBuffer buffer, int value) {
+	 while ((value & ~0x7F) != 0) {
+		 buffer.put((byte) ((value & 0x7F) | 0x80));
+		 value >>>= 7;
+	 }
+	 buffer.put((byte) value);
+ }
+
+ public static int sizeOfUnsignedVarint(int value) {
+	 int size = 1;
+	 while ((value & ~0x7F) != 0) {
+		 value >>>= 7;
+		 size++;
+	 }
+	 return size;
+ }
+
+ // Zig-zag varint/varlong as used inside record batches
+ public static int readVarint(ByteBuffer buffer) {
+	 int raw = readUnsignedVarint(buffer);
+	 return (raw >>> 1) ^ -(raw & 1);
+ }
+
+ public static long readVarlong(ByteBuffer buffer) {
+	 long raw = 0;
+	 int shift = 0;
+	 while (true) {
+		 byte b = buffer.get();
+		 raw |= (long) (b & 0x7F) << shift;
+		 if ((b & 0x80) == 0) {
+			 break;
+		 }
+		 shift += 7;
+		 if (shift > 63) {
+			 throw new IllegalArgumentException("Varlong is too long");
+		 }
+	 }
+	 return (raw >>> 1) ^ -(raw & 1);
+ }
+
+ public static void writeVarint(ByteBuffer buffer, int value) {
+	 writeUnsignedVarint(buffer, (value << 1) ^ (value >> 31));
+ }
+
+ public static int sizeOfVarint(int value) {
+	 return sizeOfUnsignedVarint((value << 1) ^ (value >> 31));
+ }
+
+ // Array length, -1 for a null array
+ public static int readArrayLength(ByteBuffer buffer, boolean flexible) {
+	 return flexible ? readUnsignedVarint(buffer) - 1 : buffer.getInt();
+ }
+
+ public static void writeArrayLength(ByteBuffer buffer, int length, boolean flexible) {
+	 if (flexible) {
+		 writeUnsignedVarint(buffer, length + 1);
+	 } else {
+		 buffer.putInt(length);
+	 }
+ }
+
+ public static int sizeOfArrayLength(int length, boolean flexible) {
+	 return flexible ? sizeOfUnsignedVarint(length + 1) : 4;
+ }
+
+ // Nullable string, null when the length is -1
+ public static String readString(ByteBuffer buffer, boolean flexible) {
+	 int length = flexible ? readUnsignedVarint(buffer) - 1 : buffer.getShort();
+	 if (length < 0) {
+		 return null;
+	 }
+	 return MessageUtils.getString(buffer, length);
+ }
+
+ public static void writeString(ByteBuffer buffer, byte[] utf8, boolean flexible) {
+	 int length = utf8 == null ? -1 : utf8.length;
+	 if (flexible) {
+		 writeUnsignedVarint(buffer, length + 1);
+	 } else {
+		 buffer.putShort((short) length);
+	 }
+	 if (utf8 != null) {
+		 buffer.put(utf8);
+	 }
+ }
+
+ public static int sizeOfString(byte[] utf8, boolean flexible) {
+	 int length = utf8 == null ? 0 : utf8.length;
+	 return length + (flexible ? sizeOfUnsignedVarint(utf8 == null ? 0 : length + 1) : 2);
+ }
+
+ public static byte[] utf8(String value) {
+	 return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+ }
+
+ // Copy of the remaining bytes, for values kept past the request; null stays null
+ public static byte[] copyBytes(ByteBuffer value) {
+	 if (value == null) {
+		 return null;
+	 }
+	 byte[] bytes = new byte[value.remaining()];
+	 value.get(value.position(), bytes);
+	 return bytes;
+ }
+
+ public static UUID readUuid(ByteBuffer buffer) {
+	 return new UUID(buffer.getLong(), buffer.getLong());
+ }
+
+
+ // Absolute-position variants for the generated message readers
+ // (MessageGenerator): they read in place and never move the buffer.
+
+ public static int readUnsignedVarint(ByteBuffer buffer, int position) {
+	 int value = 0;
+	 int shift = 0;
+	 while (true) {
+		 byte b = buffer.get(position++);
+		 value |= (b & 0x7F) << shift;
+		 if ((b & 0x80) == 0) {
+			 return value;
+		 }
+		 shift += 7;
+		 if (shift > 28) {
+			 throw new IllegalArgumentException("Varint is too long");
+		 }
+	 }
+ }
+
+ // Position after the unsigned varint at position
+ public static int skipUnsignedVarint(ByteBuffer buffer, int position) {
+	 int end = position;
+	 while ((buffer.get(end++) & 0x80) != 0) {
+		 if (end - position > 5) {
+			 throw new IllegalArgumentException("Varint is too long");
+		 }
+	 }
+	 return end;
+ }
+
+ // -1 for a null string
+ public static int readStringLength(ByteBuffer buffer, int position, boolean flexible) {
+	 return flexible ? readUnsignedVarint(buffer, position) - 1 : buffer.getShort(position);
+ }
+
+ // Position of the first UTF-8 byte of the string at position
+ public static int stringStart(ByteBuffer buffer, int position, boolean flexible) {
+	 return flexible ? skipUnsignedVarint(buffer, position) : position + 2;
+ }
+
+ public static int skipString(ByteBuffer buffer, int position, boolean flexible) {
+	 return stringStart(buffer, position, flexible) + Math.max(0, readStringLength(buffer, position, flexible));
+ }
+
+ // Bytes, records and arrays share one length encoding: INT32, or an
+ // unsigned varint of N + 1 when flexible. -1 for null.
+ public static int readArrayLength(ByteBuffer buffer, int position, boolean flexible) {
+	 return flexible ? readUnsignedVarint(buffer, position) - 1 : buffer.getInt(position);
+ }
+
+ public static int readBytesLength(ByteBuffer buffer, int position, boolean flexible) {
+	 return readArrayLength(buffer, position, flexible);
+ }
+
+ public static int arrayStart(ByteBuffer buffer, int position, boolean flexible) {
+	 return flexible ? skipUnsignedVarint(buffer, position) : position + 4;
+ }
+
+ public static int bytesStart(ByteBuffer buffer, int position, boolean flexible) {
+	 return arrayStart(buffer, position, flexible);
+ }
+
+ public static int skipBytes(ByteBuffer buffer, int position, boolean flexible) {
+	 return bytesStart(buffer, position, flexible) + Math.max(0, readBytesLength(buffer, position, flexible));
+ }
+
+ // Skips an array of fixed size elements
+ public static int skipArray(ByteBuffer buffer, int position, int elementSize, boolean flexible) {
+	 return arrayStart(buffer, position, flexible) + Math.max(0, readArrayLength(buffer, position, flexible)) * elementSize;
+ }
+
+ public static int skipStringArray(ByteBuffer buffer, int position, boolean flexible) {
+	 int count = readArrayLength(buffer, position, flexible);
+	 position = arrayStart(buffer, position, flexible);
+	 for (int i = 0; i < count; i++) {
+		 position = skipString(buffer, position, flexible);
+	 }
+	 return position;
+ }
+
+ // null for a null array; null elements stay null
+ public static String[] readStringArray(ByteBuffer buffer, int position, boolean flexible) {
+	 int count = readArrayLength(buffer, position, flexible);
+	 if (count < 0) {
+		 return null;
+	 }
+	 String[] values = new String[count];
+	 position = arrayStart(buffer, position, flexible);
+	 for (int i = 0; i < count; i++) {
+		 int length = readStringLength(buffer, position, flexible);
+		 values[i] = length < 0 ? null : readString(buffer, stringStart(buffer, position, flexible), length);
+		 position = skipString(buffer, position, flexible);
+	 }
+	 return values;
+ }
+
+ public static int skipTaggedFields(ByteBuffer buffer, int position) {
+	 int count = readUnsignedVarint(buffer, position);
+	 position = skipUnsignedVarint(buffer, position);
+	 for (int i = 0; i < count; i++) {
+		 position = skipUnsignedVarint(buffer, position); // tag
+		 int size = readUnsignedVarint(buffer, position);
+		 position = skipUnsignedVarint(buffer, position) + size;
+	 }
+	 return position;
+ }
+
+ public static String readString(ByteBuffer buffer, int position, int length) {
+	 byte[] bytes = new byte[length];
+	 buffer.get(position, bytes);
+	 return new String(bytes, StandardCharsets.UTF_8);
+ }
+
+ // Compares length bytes at position with utf8 without decoding them
+ public static boolean bytesEqual(ByteBuffer buffer, int position, int length, byte[] utf8) {
+	 if (utf8 == null) {
+		 return length < 0;
+	 }
+	 if (length != utf8.length) {
+		 return false;
+	 }
+	 for (int i = 0; i < length; i++) {
+		 if (buffer.get(position + i) != utf8[i]) {
+			 return false;
+		 }
+	 }
+	 return true;
+ }
+
+ public static int sizeOfBytes(int length, boolean flexible) {
+	 return Math.max(0, length) + (flexible ? sizeOfUnsignedVarint(length + 1) : 4);
+ }
+
 }
 
@@ -0,0 +1,86 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// LeaveGroup (key 13): members leaving on purpose, so the group rebalances
+// now instead of after their session timeout. From v3 one request may
+// remove several members, each with its own error.
+public class LeaveGroupHandler implements RequestHandler {
+
+	private static final ThreadLocal<LeaveGroupRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(LeaveGroupRequestMessage.Reader::new);
+	private static final ThreadLocal<LeaveGroupResponseMessage.Writer> RESPONSE_WRITER =
+			ThreadLocal.withInitial(LeaveGroupResponseMessage.Writer::new);
+
+	private final GroupCoordinator coordinator;
+
+	public LeaveGroupHandler(GroupCoordinator coordinator) {
+		this.coordinator = coordinator;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.LEAVE_GROUP;
+	}
+
+	@Override
+	public short minVersion() {
+		return 0;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 5;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 4;
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		short version = request.apiVersion();
+		boolean flexible = isFlexible(version);
+		LeaveGroupRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+
+		List<String> memberIds = new ArrayList<>();
+		List<String> instanceIds = new ArrayList<>();
+		if (reader.hasMembers()) {
+			for (LeaveGroupRequestMessage.MemberIdentityReader member = reader.members(); member.next(); ) {
+				memberIds.add(member.memberId());
+				instanceIds.add(member.groupInstanceId());
+			}
+		} else {
+			memberIds.add(reader.memberId());
+			instanceIds.add(null);
+		}
+		request.decoded();
+
+		List<ErrorCodes> errors = coordinator.leaveGroup(reader.groupId(), memberIds);
+		// Before v3 the one member's error is the request's
+		ErrorCodes error = reader.hasMembers() ? ErrorCodes.NONE : errors.get(0);
+		request.encoding();
+		LeaveGroupResponseMessage.Writer writer = RESPONSE_WRITER.get();
+		write(writer.sizing(version), error, memberIds, instanceIds, errors, request.throttleTimeMs());
+		ByteBuffer message = BufferPool.current().acquire(MessageUtils.responseHeaderSize(flexible) + writer.size());
+		MessageUtils.writeResponseHeader(message, request.correlationId(), flexible);
+		write(writer.wrap(message, version), error, memberIds, instanceIds, errors, request.throttleTimeMs());
+		return MessageUtils.createResponseBuffer(message);
+	}
+
+	private static void write(LeaveGroupResponseMessage.Writer writer, ErrorCodes error, List<String> memberIds,
+			List<String> instanceIds, List<ErrorCodes> errors, int throttleTimeMs) {
+		LeaveGroupResponseMessage.MemberResponseWriter members = writer.throttleTimeMs(throttleTimeMs)
+				.errorCode((short) error.getCode())
+				.members(memberIds.size());
+		for (int i = 0; i < memberIds.size(); i++) {
+			members.memberId(KafkaProtocolUtils.utf8(memberIds.get(i)))
+					.groupInstanceId(KafkaProtocolUtils.utf8(instanceIds.get(i)))
+					.errorCode((short) errors.get(i).getCode())
+					.end();
+		}
+		writer.end();
+	}
+}
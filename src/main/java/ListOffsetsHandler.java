@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// ListOffsets (key 2): earliest/latest offsets and offset-by-timestamp
+// lookups. Timestamp lookups go through each segment's TimeIndex and
+// OffsetIndex, so their cost does not grow with the partition size.
+public class ListOffsetsHandler implements RequestHandler {
+
+	private static final long LATEST_TIMESTAMP = -1L;
+	private static final long EARLIEST_TIMESTAMP = -2L;
+	private static final long MAX_TIMESTAMP = -3L;
+
+	private static final ThreadLocal<ListOffsetsRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(ListOffsetsRequestMessage.Reader::new);
+	private static final ThreadLocal<ListOffsetsResponseMessage.Writer> RESPONSE_WRITER =
+			ThreadLocal.withInitial(ListOffsetsResponseMessage.Writer::new);
+
+	private final LogManager logs;
+
+	public ListOffsetsHandler(LogManager logs) {
+		this.logs = logs;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.OFFSET;
+	}
+
+	@Override
+	public short minVersion() {
+		return 1;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 7;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 6;
+	}
+
+	private static final class PartitionResult {
+		int index;
+		ErrorCodes error = ErrorCodes.NONE;
+		long timestamp = -1;
+		long offset = -1;
+	}
+
+	private static final class TopicResult {
+		byte[] name;
+		List<PartitionResult> partitions = new ArrayList<>();
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		short version = request.apiVersion();
+		boolean flexible = isFlexible(version);
+		ListOffsetsRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+
+		// isolation_level is not read, everything we store is committed
+		List<TopicResult> topics = new ArrayList<>(Math.max(0, reader.topicsCount()));
+		for (ListOffsetsRequestMessage.ListOffsetsTopicReader topicReader = reader.topics(); topicReader.next(); ) {
+			TopicResult topic = new TopicResult();
+			String name = topicReader.name();
+			topic.name = KafkaProtocolUtils.utf8(name);
+			for (ListOffsetsRequestMessage.ListOffsetsPartitionReader partitionReader = topicReader.partitions(); partitionReader.next(); ) {
+				PartitionResult partition = new PartitionResult();
+				partition.index = partitionReader.partitionIndex();
+				lookup(name, partition, partitionReader.timestamp());
+				topic.partitions.add(partition);
+			}
+			topics.add(topic);
+		}
+		request.encoding();
+		return encode(version, flexible, request.correlationId(), request.throttleTimeMs(), topics);
+	}
+
+	private void lookup(String topic, PartitionResult result, long timestamp) {
+		PartitionLog log = topic == null ? null : logs.get(topic, result.index);
+		if (log == null) {
+			result.error = ErrorCodes.UNKNOWN_TOPIC_OR_PARTITION;
+			return;
+		}
+		try {
+			if (timestamp == LATEST_TIMESTAMP) {
+				result.offset = log.logEndOffset();
+			} else if (timestamp == EARLIEST_TIMESTAMP) {
+				result.offset = log.logStartOffset();
+			} else if (timestamp == MAX_TIMESTAMP) {
+				set(result, log.maxTimestampOffset());
+			} else if (timestamp < 0) {
+				result.error = ErrorCodes.INVALID_TIMESTAMP;
+			} else {
+				set(result, log.offsetForTimestamp(timestamp));
+			}
+		} catch (IOException | RuntimeException e) {
+			Log.error("Error looking up offsets in {}", log, e);
+			result.error = ErrorCodes.UNKNOWN;
+		}
+	}
+
+	private static void set(PartitionResult result, LogSegment.TimestampOffset found) {
+		if (found != null) {
+			result.timestamp = found.timestamp;
+			result.offset = found.offset;
+		}
+	}
+
+	// Sized by a dry run of the generated writer, so the pooled buffer is
+	// acquired once at its exact size
+	private static Response encode(short version, boolean flexible, int correlationId, int throttleTimeMs, List<TopicResult> topics) {
+		ListOffsetsResponseMessage.Writer writer = RESPONSE_WRITER.get();
+		write(writer.sizing(version), topics, throttleTimeMs);
+		ByteBuffer message = BufferPool.current().acquire(MessageUtils.responseHeaderSize(flexible) + writer.size());
+		MessageUtils.writeResponseHeader(message, correlationId, flexible);
+		write(writer.wrap(message, version), topics, throttleTimeMs);
+		return MessageUtils.createResponseBuffer(message);
+	}
+
+	private static void write(ListOffsetsResponseMessage.Writer writer, List<TopicResult> topics, int throttleTimeMs) {
+		ListOffsetsResponseMessage.ListOffsetsTopicResponseWriter topicWriter = writer.throttleTimeMs(throttleTimeMs).topics(topics.size());
+		for (TopicResult topic : topics) {
+			ListOffsetsResponseMessage.ListOffsetsPartitionResponseWriter partitionWriter =
+					topicWriter.name(topic.name).partitions(topic.partitions.size());
+			for (PartitionResult partition : topic.partitions) {
+				partitionWriter.partitionIndex(partition.index)
+						.errorCode((short) partition.error.getCode())
+						.timestamp(partition.timestamp)
+						.offset(partition.offset)
+						.leaderEpoch(-1) // Not tracked
+						.end();
+			}
+			topicWriter.end();
+		}
+		writer.end();
+	}
+}
@@ -0,0 +1,276 @@
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Leveled logging that keeps formatting and stdout off the request path.
+// Callers only claim a slot in a preallocated ring and store the format plus
+// its arguments; a background thread turns "{}" placeholders into text and
+// writes batches to stdout/stderr. If the ring is full the event is dropped
+// and counted rather than blocking the caller. An idle drainer parks until
+// the next event is published.
+//
+// Arguments are formatted later, on the drainer thread: a mutable argument
+// (a LogSegment, a collection) shows its state at that point, not at the
+// call. Pass a value or a String where the difference matters.
+//
+//   -Dlog.level=TRACE|DEBUG|INFO|WARN|ERROR|OFF   (default INFO)
+//   -Dlog.trace.api.keys=18,75                    hex dumps only for these api keys
+//   -Dlog.buffer.size=8192                        ring slots, rounded up to a power of two
+public class Log {
+
+	public enum Level { TRACE, DEBUG, INFO, WARN, ERROR, OFF }
+
+	private static final Level LEVEL = parseLevel(BrokerConfig.getString("log.level", "INFO"));
+	private static final boolean[] TRACE_API_KEYS = parseApiKeys(BrokerConfig.getString("log.trace.api.keys", ""));
+	private static final HexFormat HEX = HexFormat.ofDelimiter(" ");
+
+	// Ring of reusable events; sequence[i] tells producers and the drainer
+	// whose turn slot i is (Vyukov bounded queue)
+	private static final int CAPACITY = Integer.highestOneBit(Math.max(2, BrokerConfig.getInt("log.buffer.size", 8192) - 1)) << 1;
+	private static final int MASK = CAPACITY - 1;
+	private static final Event[] EVENTS = new Event[CAPACITY];
+	private static final AtomicLongArray SEQUENCE = new AtomicLongArray(CAPACITY);
+	private static final AtomicLong TAIL = new AtomicLong();
+	private static final AtomicLong DROPPED = new AtomicLong();
+	private static long head = 0; // Only touched by the drainer thread
+	private static volatile boolean drainerParked = false;
+
+	private static final Thread DRAINER;
+
+	static {
+		for (int i = 0; i < CAPACITY; i++) {
+			EVENTS[i] = new Event();
+			SEQUENCE.set(i, i);
+		}
+		DRAINER = new Thread(Log::drainLoop, "kafka-log-appender");
+		DRAINER.setDaemon(true);
+		DRAINER.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "kafka-log-flush"));
+	}
+
+	private static final class Event {
+		Level level;
+		String threadName;
+		String format;
+		Object arg0, arg1, arg2;
+		Object[] args;
+		Throwable error;
+	}
+
+	public static boolean isEnabled(Level level) {
+		return level.compareTo(LEVEL) >= 0 && level != Level.OFF;
+	}
+
+	public static boolean isTraceEnabled() {
+		return isEnabled(Level.TRACE);
+	}
+
+	public static boolean isDebugEnabled() {
+		return isEnabled(Level.DEBUG);
+	}
+
+	// Hex dumps are expensive, so TRACE additionally has to be switched on per api key
+	public static boolean isTraceEnabled(int apiKey) {
+		return isTraceEnabled() && apiKey >= 0 && apiKey < TRACE_API_KEYS.length && TRACE_API_KEYS[apiKey];
+	}
+
+	public static void trace(String format, Object arg0) { log(Level.TRACE, format, arg0, null, null, null, null); }
+	public static void trace(String format, Object arg0, Object arg1) { log(Level.TRACE, format, arg0, arg1, null, null, null); }
+
+	public static void debug(String format) { log(Level.DEBUG, format, null, null, null, null, null); }
+	public static void debug(String format, Object arg0) { log(Level.DEBUG, format, arg0, null, null, null, null); }
+	public static void debug(String format, Object arg0, Object arg1) { log(Level.DEBUG, format, arg0, arg1, null, null, null); }
+	public static void debug(String format, Object arg0, Object arg1, Object arg2) { log(Level.DEBUG, format, arg0, arg1, arg2, null, null); }
+	public static void debug(String format, Object... args) { log(Level.DEBUG, format, null, null, null, args, null); }
+
+	public static void info(String format) { log(Level.INFO, format, null, null, null, null, null); }
+	public static void info(String format, Object arg0) { log(Level.INFO, format, arg0, null, null, null, null); }
+	public static void info(String format, Object arg0, Object arg1) { log(Level.INFO, format, arg0, arg1, null, null, null); }
+	public static void info(String format, Object arg0, Object arg1, Object arg2) { log(Level.INFO, format, arg0, arg1, arg2, null, null); }
+	public static void info(String format, Object... args) { log(Level.INFO, format, null, null, null, args, null); }
+
+	public static void warn(String format) { log(Level.WARN, format, null, null, null, null, null); }
+	public static void warn(String format, Object arg0) { log(Level.WARN, format, arg0, null, null, null, null); }
+	public static void warn(String format, Object arg0, Object arg1) { log(Level.WARN, format, arg0, arg1, null, null, null); }
+	public static void warn(String format, Object arg0, Object arg1, Object arg2) { log(Level.WARN, format, arg0, arg1, arg2, null, null); }
+
+	public static void error(String format) { log(Level.ERROR, format, null, null, null, null, null); }
+	public static void error(String format, Object arg0) { log(Level.ERROR, format, arg0, null, null, null, null); }
+	public static void error(String format, Object arg0, Object arg1) { log(Level.ERROR, format, arg0, arg1, null, null, null); }
+	// The stack trace follows the message, so the format has no placeholder for error
+	public static void error(String format, Object arg0, Throwable error) { log(Level.ERROR, format, arg0, null, null, null, error); }
+
+	// TRACE hex dump of buffer[offset, offset + length) for one api key. The
+	// bytes are rendered here because the buffer may be reused once we return.
+	public static void traceHex(int apiKey, String label, ByteBuffer buffer, int offset, int length) {
+		if (!isTraceEnabled(apiKey)) {
+			return;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(offset, bytes);
+		log(Level.TRACE, "{} ({} bytes): {}", label, length, HEX.formatHex(bytes), null, null);
+	}
+
+	public static long droppedEvents() {
+		return DROPPED.get();
+	}
+
+	private static void log(Level level, String format, Object arg0, Object arg1, Object arg2, Object[] args, Throwable error) {
+		if (!isEnabled(level)) {
+			return;
+		}
+		long tail = TAIL.get();
+		while (true) {
+			int index = (int) (tail & MASK);
+			long sequence = SEQUENCE.get(index);
+			if (sequence == tail) {
+				if (TAIL.compareAndSet(tail, tail + 1)) {
+					break;
+				}
+				tail = TAIL.get();
+			} else if (sequence < tail) {
+				DROPPED.incrementAndGet(); // Ring full, never block the caller
+				return;
+			} else {
+				tail = TAIL.get();
+			}
+		}
+		int index = (int) (tail & MASK);
+		Event event = EVENTS[index];
+		event.level = level;
+		event.threadName = Thread.currentThread().getName();
+		event.format = format;
+		event.arg0 = arg0;
+		event.arg1 = arg1;
+		event.arg2 = arg2;
+		event.args = args;
+		event.error = error;
+		// Publish to the drainer. A volatile write, not lazySet, so it cannot
+		// pass the read of drainerParked and miss a drainer going to sleep.
+		SEQUENCE.set(index, tail + 1);
+		if (drainerParked) {
+			LockSupport.unpark(DRAINER);
+		}
+	}
+
+	private static void drainLoop() {
+		int idle = 0;
+		while (true) {
+			if (drain() > 0) {
+				idle = 0;
+			} else if (++idle < 100) {
+				Thread.onSpinWait();
+			} else {
+				// Announce the park, then look once more: an event published
+				// after that sees the flag and unparks us
+				drainerParked = true;
+				if (!hasPublished()) {
+					LockSupport.park();
+				}
+				drainerParked = false;
+			}
+		}
+	}
+
+	private static synchronized boolean hasPublished() {
+		return SEQUENCE.get((int) (head & MASK)) == head + 1;
+	}
+
+	// Formats and writes everything published so far; returns the event count
+	private static synchronized int drain() {
+		StringBuilder out = new StringBuilder();
+		StringBuilder err = new StringBuilder();
+		int drained = 0;
+		while (true) {
+			int index = (int) (head & MASK);
+			if (SEQUENCE.get(index) != head + 1) {
+				break;
+			}
+			Event event = EVENTS[index];
+			StringBuilder target = event.level.compareTo(Level.WARN) >= 0 ? err : out;
+			format(target, event);
+			Throwable error = event.error;
+			event.format = null;
+			event.arg0 = event.arg1 = event.arg2 = null;
+			event.args = null;
+			event.error = null;
+			SEQUENCE.lazySet(index, head + CAPACITY); // Hand the slot back to producers
+			head++;
+			drained++;
+			if (error != null) {
+				flush(System.err, err);
+				error.printStackTrace();
+			}
+		}
+		long dropped = DROPPED.getAndSet(0);
+		if (dropped > 0) {
+			err.append("[WARN] log ring full, dropped ").append(dropped).append(" events\n");
+		}
+		flush(System.out, out);
+		flush(System.err, err);
+		return drained;
+	}
+
+	private static void flush(PrintStream stream, StringBuilder text) {
+		if (text.length() > 0) {
+			stream.print(text);
+			stream.flush();
+			text.setLength(0);
+		}
+	}
+
+	private static void format(StringBuilder target, Event event) {
+		target.append('[').append(event.level).append("] [").append(event.threadName).append("] ");
+		String format = event.format;
+		int argIndex = 0;
+		int start = 0;
+		int placeholder;
+		while ((placeholder = format.indexOf("{}", start)) >= 0) {
+			target.append(format, start, placeholder).append(argument(event, argIndex++));
+			start = placeholder + 2;
+		}
+		target.append(format, start, format.length()).append('\n');
+	}
+
+	private static Object argument(Event event, int index) {
+		if (event.args != null) {
+			return index < event.args.length ? event.args[index] : "{}";
+		}
+		switch (index) {
+			case 0: return event.arg0;
+			case 1: return event.arg1;
+			case 2: return event.arg2;
+			default: return "{}";
+		}
+	}
+
+	private static Level parseLevel(String name) {
+		try {
+			return Level.valueOf(name.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown log.level " + name + ", using INFO");
+			return Level.INFO;
+		}
+	}
+
+	private static boolean[] parseApiKeys(String list) {
+		boolean[] enabled = new boolean[APIKeys.MAX_API_KEY + 1];
+		for (String part : list.split(",")) {
+			if (part.isBlank()) {
+				continue;
+			}
+			try {
+				int apiKey = Integer.parseInt(part.trim());
+				if (apiKey >= 0 && apiKey < enabled.length) {
+					enabled[apiKey] = true;
+				}
+			} catch (NumberFormatException e) {
+				System.err.println("Ignoring invalid api key in log.trace.api.keys: " + part);
+			}
+		}
+		return enabled;
+	}
+}
@@ -0,0 +1,499 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Background compaction of keyed logs, after Kafka's log cleaner. One pass
+// over a log:
+//
+//   1. Scan the dirty section, from the log's checkpoint up to the active
+//      segment, into the OffsetMap: key hash -> latest offset. The map has
+//      a fixed size; when it is full the pass stops there and the rest of
+//      the section stays dirty for the next pass.
+//   2. Rewrite the sealed segments up to that offset, merged into groups
+//      that fit one segment, keeping a record only if the map has no later
+//      offset for its key. A tombstone also goes once its segment has been
+//      clean for log.cleaner.delete.retention.ms (by file mtime).
+//   3. Swap each rewritten group in with PartitionLog.replaceSegments and
+//      delete the old files log.segment.delete.delay.ms later.
+//
+// A batch keeps its base offset and header; one that loses records is
+// rewritten uncompressed with the survivors only. The last batch of a group
+// is kept, even empty, so a cleaned segment ends at the offset where the
+// segments it replaces ended. The active segment is never touched.
+//
+// Logs are cleaned dirtiest first, once log.cleaner.min.cleanable.ratio of
+// their sealed bytes is dirty. Checkpoints are kept in
+// <log.dirs>/cleaner-offset-checkpoint, in Kafka's format. All reads and
+// writes draw on one TokenBucket of log.cleaner.io.max.bytes.per.second: the
+// cleaner sleeps rather than compete with Produce and Fetch for the disk.
+public class LogCleaner {
+
+	private static final LogCleaner INSTANCE = new LogCleaner(LogManager.get());
+
+	private static final String CHECKPOINT_FILE = "cleaner-offset-checkpoint";
+
+	// One record of a batch, as far as the cleaner reads it
+	private static final class Record {
+		int start;
+		int end;
+		int offsetDelta;
+		ByteBuffer key;
+		boolean tombstone;
+
+		// Reads the record at records' position and moves past it
+		void read(ByteBuffer records) {
+			start = records.position();
+			int length = KafkaProtocolUtils.readVarint(records);
+			end = records.position() + length;
+			records.get(); // attributes
+			KafkaProtocolUtils.readVarlong(records); // timestamp_delta
+			offsetDelta = KafkaProtocolUtils.readVarint(records);
+			int keyLength = KafkaProtocolUtils.readVarint(records);
+			key = keyLength < 0 ? null : records.slice(records.position(), keyLength);
+			records.position(records.position() + Math.max(0, keyLength));
+			tombstone = KafkaProtocolUtils.readVarint(records) < 0;
+			records.position(end);
+		}
+	}
+
+	private static final class Stats {
+		long bytesRead;
+		long bytesWritten;
+		long recordsRemoved;
+	}
+
+	private static final class Replaced {
+		final LogSegment segment;
+		final long deleteAtMs;
+
+		Replaced(LogSegment segment, long deleteAtMs) {
+			this.segment = segment;
+			this.deleteAtMs = deleteAtMs;
+		}
+	}
+
+	private final LogManager logs;
+	private final Set<String> compactedTopics = ConcurrentHashMap.newKeySet();
+	// dir name of the log -> first dirty offset
+	private final Map<String, Long> checkpoints = new ConcurrentHashMap<>();
+	// Logs a pass failed on, left alone until restart
+	private final Set<String> uncleanable = ConcurrentHashMap.newKeySet();
+	private final TokenBucket throttle;
+
+	// Cleaner thread only
+	private final ArrayDeque<Replaced> replaced = new ArrayDeque<>();
+	private final Record record = new Record();
+	private OffsetMap offsetMap;
+	private ByteBuffer writeBuffer;
+	private ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+
+	public LogCleaner(LogManager logs) {
+		this.logs = logs;
+		long rate = BrokerConfig.LOG_CLEANER_IO_MAX_BYTES_PER_SECOND;
+		this.throttle = rate > 0 ? new TokenBucket(rate, 1, TimeUnit.SECONDS.toNanos(60)) : null;
+		for (String topic : BrokerConfig.LOG_CLEANER_COMPACT_TOPICS.split(",")) {
+			if (!topic.isBlank()) {
+				compactedTopics.add(topic.trim());
+			}
+		}
+	}
+
+	public static LogCleaner get() {
+		return INSTANCE;
+	}
+
+	public void startup() {
+		if (!BrokerConfig.LOG_CLEANER_ENABLE) {
+			return;
+		}
+		readCheckpoints();
+		Thread cleaner = new Thread(this::cleanLoop, "kafka-log-cleaner");
+		cleaner.setDaemon(true);
+		cleaner.setPriority(Thread.MIN_PRIORITY);
+		cleaner.start();
+		Log.info("Log cleaner started for {} ({} byte offset map, {} bytes/s)", compactedTopics,
+				BrokerConfig.LOG_CLEANER_DEDUPE_BUFFER_SIZE, BrokerConfig.LOG_CLEANER_IO_MAX_BYTES_PER_SECOND);
+	}
+
+	// Compacts topic from now on. Whoever reads a log from end to end at
+	// startup registers it only when done, so segments are not swapped under it.
+	public void compact(String topic) {
+		compactedTopics.add(topic);
+	}
+
+	private void cleanLoop() {
+		long backoffNanos = TimeUnit.MILLISECONDS.toNanos(BrokerConfig.LOG_CLEANER_BACKOFF_MS);
+		while (true) {
+			deleteReplaced();
+			PartitionLog log = dirtiestLog();
+			if (log != null) {
+				try {
+					clean(log);
+					continue;
+				} catch (IOException | RuntimeException e) {
+					Log.error("Error cleaning {}, leaving it uncleaned", log, e);
+					uncleanable.add(log.toString());
+				}
+			}
+			LockSupport.parkNanos(backoffNanos);
+			if (Thread.interrupted()) {
+				return;
+			}
+		}
+	}
+
+	private long firstDirtyOffset(PartitionLog log) {
+		Long checkpoint = checkpoints.get(log.toString());
+		return Math.max(log.logStartOffset(), checkpoint == null ? 0 : checkpoint);
+	}
+
+	// Compacted log with the largest share of dirty sealed bytes, if that is
+	// at least the minimum cleanable ratio
+	private PartitionLog dirtiestLog() {
+		PartitionLog dirtiest = null;
+		double maxRatio = 0;
+		for (PartitionLog log : logs.logs()) {
+			if (!compactedTopics.contains(log.topic()) || uncleanable.contains(log.toString())) {
+				continue;
+			}
+			long firstDirty = firstDirtyOffset(log);
+			long activeBase = log.activeSegment().baseOffset();
+			long cleanBytes = 0;
+			long dirtyBytes = 0;
+			for (LogSegment segment : log.segments()) {
+				if (segment.baseOffset() >= activeBase) {
+					break;
+				}
+				if (segment.nextOffset() <= firstDirty) {
+					cleanBytes += segment.size();
+				} else {
+					dirtyBytes += segment.size();
+				}
+			}
+			if (dirtyBytes == 0) {
+				continue;
+			}
+			double ratio = (double) dirtyBytes / (cleanBytes + dirtyBytes);
+			if (ratio >= BrokerConfig.LOG_CLEANER_MIN_CLEANABLE_RATIO && ratio > maxRatio) {
+				dirtiest = log;
+				maxRatio = ratio;
+			}
+		}
+		return dirtiest;
+	}
+
+	private void clean(PartitionLog log) throws IOException {
+		long start = System.nanoTime();
+		long firstDirty = firstDirtyOffset(log);
+		long activeBase = log.activeSegment().baseOffset();
+		List<LogSegment> sealed = new ArrayList<>();
+		for (LogSegment segment : log.segments()) {
+			if (segment.baseOffset() >= activeBase) {
+				break;
+			}
+			sealed.add(segment);
+		}
+		if (offsetMap == null) {
+			offsetMap = new OffsetMap(BrokerConfig.LOG_CLEANER_DEDUPE_BUFFER_SIZE);
+			writeBuffer = ByteBuffer.allocateDirect(BrokerConfig.LOG_CLEANER_IO_BUFFER_SIZE);
+		}
+		Stats stats = new Stats();
+		PooledOutputStream inflated = new PooledOutputStream(BufferPool.current(), 64 * 1024);
+		try {
+			offsetMap.clear();
+			long endOffset = buildOffsetMap(sealed, firstDirty, inflated, stats);
+			if (endOffset <= firstDirty) {
+				throw new IllegalStateException("The batch at offset " + firstDirty + " has more records than the offset map holds ("
+						+ offsetMap.capacity() + "); raise log.cleaner.dedupe.buffer.size");
+			}
+			long deleteHorizonMs = System.currentTimeMillis() - BrokerConfig.LOG_CLEANER_DELETE_RETENTION_MS;
+			List<LogSegment> cleanable = new ArrayList<>();
+			for (LogSegment segment : sealed) {
+				if (segment.baseOffset() < endOffset) {
+					cleanable.add(segment);
+				}
+			}
+			for (List<LogSegment> group : groups(cleanable, log.segmentBytes())) {
+				cleanGroup(log, group, firstDirty, deleteHorizonMs, inflated, stats);
+			}
+			checkpoints.put(log.toString(), endOffset);
+			writeCheckpoints();
+			Log.info("Cleaned {} up to offset {}: {} keys, {} records removed, {} bytes read, {} bytes written in {} ms",
+					log, endOffset, offsetMap.size(), stats.recordsRemoved, stats.bytesRead, stats.bytesWritten,
+					(System.nanoTime() - start) / 1_000_000);
+		} finally {
+			inflated.release();
+		}
+	}
+
+	// Adds the keys of the dirty section to the map; returns the offset it
+	// got to, the start of the first batch that did not fit
+	private long buildOffsetMap(List<LogSegment> sealed, long firstDirty, PooledOutputStream inflated, Stats stats) throws IOException {
+		RecordBatch batch = new RecordBatch();
+		long endOffset = firstDirty;
+		for (LogSegment segment : sealed) {
+			if (segment.nextOffset() <= firstDirty) {
+				continue;
+			}
+			ByteBuffer data = read(segment);
+			int position = 0;
+			while (RecordBatch.isComplete(data, position, data.limit())) {
+				batch.wrap(data, position);
+				if (batch.lastOffset() >= firstDirty) {
+					if (!offsetMap.hasRoomFor(batch.recordsCount())) {
+						return Math.max(firstDirty, batch.baseOffset());
+					}
+					throttle(batch.sizeInBytes());
+					stats.bytesRead += batch.sizeInBytes();
+					if (isCleanable(batch)) {
+						ByteBuffer records = batch.records(inflated);
+						for (int i = 0; i < batch.recordsCount() && records.hasRemaining(); i++) {
+							record.read(records);
+							long offset = batch.baseOffset() + record.offsetDelta;
+							if (record.key != null && offset >= firstDirty) {
+								offsetMap.put(record.key, offset);
+							}
+						}
+					}
+				}
+				position += batch.sizeInBytes();
+			}
+			endOffset = segment.nextOffset();
+		}
+		return endOffset;
+	}
+
+	// Consecutive segments that together fit one segment
+	private static List<List<LogSegment>> groups(List<LogSegment> segments, int segmentBytes) {
+		List<List<LogSegment>> groups = new ArrayList<>();
+		List<LogSegment> group = new ArrayList<>();
+		long bytes = 0;
+		for (LogSegment segment : segments) {
+			if (!group.isEmpty() && (bytes + segment.size() > segmentBytes
+					|| segment.nextOffset() - 1 - group.get(0).baseOffset() > Integer.MAX_VALUE)) {
+				groups.add(group);
+				group = new ArrayList<>();
+				bytes = 0;
+			}
+			group.add(segment);
+			bytes += segment.size();
+		}
+		if (!group.isEmpty()) {
+			groups.add(group);
+		}
+		return groups;
+	}
+
+	// Writes what survives of group to <base>.log.cleaned and swaps it in,
+	// unless nothing was removed
+	private void cleanGroup(PartitionLog log, List<LogSegment> group, long firstDirty, long deleteHorizonMs,
+			PooledOutputStream inflated, Stats stats) throws IOException {
+		Path file = LogSegment.fileName(log.dir(), group.get(0).baseOffset());
+		Path cleaned = file.resolveSibling(file.getFileName() + ".cleaned");
+		RecordBatch batch = new RecordBatch();
+		long lastModified = 0;
+		boolean changed = false;
+		try (FileChannel out = FileChannel.open(cleaned, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			writeBuffer.clear();
+			for (int i = 0; i < group.size(); i++) {
+				LogSegment segment = group.get(i);
+				long modified = Files.getLastModifiedTime(segment.file()).toMillis();
+				lastModified = Math.max(lastModified, modified);
+				boolean dropTombstones = segment.nextOffset() <= firstDirty && modified < deleteHorizonMs;
+				ByteBuffer data = read(segment);
+				int position = 0;
+				while (RecordBatch.isComplete(data, position, data.limit())) {
+					batch.wrap(data, position);
+					int next = position + batch.sizeInBytes();
+					boolean last = i == group.size() - 1 && !RecordBatch.isComplete(data, next, data.limit());
+					changed |= cleanBatch(out, data, batch, dropTombstones, last, inflated, stats);
+					position = next;
+				}
+			}
+			flushWrites(out);
+			out.force(true);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(cleaned);
+			throw e;
+		}
+		if (!changed) {
+			Files.delete(cleaned);
+			return;
+		}
+		LogSegment segment = log.replaceSegments(group, cleaned);
+		// Tombstone retention counts from the newest write, not from the cleaning
+		Files.setLastModifiedTime(segment.file(), FileTime.fromMillis(lastModified));
+		long deleteAtMs = System.currentTimeMillis() + BrokerConfig.LOG_SEGMENT_DELETE_DELAY_MS;
+		for (LogSegment old : group) {
+			replaced.add(new Replaced(old, deleteAtMs));
+		}
+	}
+
+	// Writes the records of batch that survive; true if that is not all of them.
+	// Batches the cleaner cannot read (control, zstd) are kept as they are.
+	private boolean cleanBatch(FileChannel out, ByteBuffer data, RecordBatch batch, boolean dropTombstones, boolean keepEmpty,
+			PooledOutputStream inflated, Stats stats) throws IOException {
+		int position = batch.position();
+		int size = batch.sizeInBytes();
+		throttle(size);
+		stats.bytesRead += size;
+		if (!isCleanable(batch)) {
+			write(out, data.slice(position, size), stats);
+			return false;
+		}
+		ByteBuffer records = batch.records(inflated);
+		int count = batch.recordsCount();
+		ensureScratch(RecordBatch.HEADER_SIZE + records.remaining());
+		scratch.clear().position(RecordBatch.HEADER_SIZE);
+		int kept = 0;
+		for (int i = 0; i < count && records.hasRemaining(); i++) {
+			record.read(records);
+			if (shouldRetain(batch.baseOffset() + record.offsetDelta, dropTombstones)) {
+				scratch.put(records.slice(record.start, record.end - record.start));
+				kept++;
+			} else {
+				stats.recordsRemoved++;
+			}
+		}
+		if (kept == count) {
+			write(out, data.slice(position, size), stats);
+			return false;
+		}
+		if (kept == 0 && !keepEmpty) {
+			return true;
+		}
+		// Same header, survivors only, uncompressed
+		int length = scratch.position();
+		scratch.put(0, data, position, RecordBatch.HEADER_SIZE)
+				.putInt(RecordBatch.BATCH_LENGTH_OFFSET, length - RecordBatch.LOG_OVERHEAD)
+				.putShort(RecordBatch.ATTRIBUTES_OFFSET, (short) (batch.attributes() & ~CompressionCodec.ATTRIBUTE_MASK))
+				.putInt(RecordBatch.RECORDS_COUNT_OFFSET, kept);
+		ByteBuffer rebuilt = scratch.duplicate().flip();
+		scratch.putInt(RecordBatch.CRC_OFFSET, (int) new RecordBatch().wrap(rebuilt, 0).computeChecksum());
+		write(out, rebuilt, stats);
+		return true;
+	}
+
+	private static boolean isCleanable(RecordBatch batch) {
+		return batch.magic() == RecordBatch.CURRENT_MAGIC && !batch.isControl() && CompressionCodec.isReadable(batch.compressionId());
+	}
+
+	// For the record last read: records without a key are always kept
+	private boolean shouldRetain(long offset, boolean dropTombstones) {
+		if (record.key == null) {
+			return true;
+		}
+		long latest = offsetMap.get(record.key);
+		if (latest > offset) {
+			return false;
+		}
+		return !(record.tombstone && dropTombstones);
+	}
+
+	private void ensureScratch(int bytes) {
+		if (scratch.capacity() < bytes) {
+			scratch = ByteBuffer.allocate(Math.max(bytes, 2 * scratch.capacity()));
+		}
+	}
+
+	private ByteBuffer read(LogSegment segment) throws IOException {
+		return segment.channel().map(FileChannel.MapMode.READ_ONLY, 0, segment.size());
+	}
+
+	private void write(FileChannel out, ByteBuffer bytes, Stats stats) throws IOException {
+		int length = bytes.remaining();
+		throttle(length);
+		stats.bytesWritten += length;
+		if (length > writeBuffer.remaining()) {
+			flushWrites(out);
+		}
+		if (length > writeBuffer.capacity()) {
+			while (bytes.hasRemaining()) {
+				out.write(bytes);
+			}
+			return;
+		}
+		writeBuffer.put(bytes);
+	}
+
+	private void flushWrites(FileChannel out) throws IOException {
+		writeBuffer.flip();
+		while (writeBuffer.hasRemaining()) {
+			out.write(writeBuffer);
+		}
+		writeBuffer.clear();
+	}
+
+	private void throttle(int bytes) {
+		if (throttle == null) {
+			return;
+		}
+		long waitNanos = throttle.record(bytes, System.nanoTime());
+		if (waitNanos > 0) {
+			LockSupport.parkNanos(waitNanos);
+		}
+	}
+
+	// Segments replaced long enough ago that no fetch still reads them
+	private void deleteReplaced() {
+		long now = System.currentTimeMillis();
+		while (!replaced.isEmpty() && replaced.peek().deleteAtMs <= now) {
+			LogSegment segment = replaced.poll().segment;
+			try {
+				segment.deleteMarked();
+			} catch (IOException e) {
+				Log.warn("Error deleting replaced segment {}: {}", segment, e.getMessage());
+			}
+		}
+	}
+
+	// Kafka's format: version 0, the number of entries, then "topic partition offset" lines
+	private void readCheckpoints() {
+		Path file = logs.logDir().resolve(CHECKPOINT_FILE);
+		if (!Files.exists(file)) {
+			return;
+		}
+		try {
+			List<String> lines = Files.readAllLines(file);
+			for (int i = 2; i < lines.size(); i++) {
+				String[] fields = lines.get(i).trim().split(" ");
+				if (fields.length == 3) {
+					checkpoints.put(PartitionLog.dirName(fields[0], Integer.parseInt(fields[1])), Long.parseLong(fields[2]));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			Log.warn("Ignoring unreadable {}: {}", file, e.toString());
+		}
+	}
+
+	// Written aside and renamed over the old file
+	private void writeCheckpoints() throws IOException {
+		Map<String, Long> sorted = new TreeMap<>(checkpoints);
+		StringBuilder content = new StringBuilder("0\n").append(sorted.size()).append('\n');
+		for (Map.Entry<String, Long> entry : sorted.entrySet()) {
+			String name = entry.getKey();
+			int dash = name.lastIndexOf('-');
+			content.append(name, 0, dash).append(' ').append(name, dash + 1, name.length())
+					.append(' ').append(entry.getValue()).append('\n');
+		}
+		Path file = logs.logDir().resolve(CHECKPOINT_FILE);
+		Path temporary = file.resolveSibling(CHECKPOINT_FILE + ".tmp");
+		Files.writeString(temporary, content);
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
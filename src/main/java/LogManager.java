@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Owns every partition log under log.dirs. Logs are opened on first use and
+// closed (active segments truncated to their real size) on shutdown.
+public class LogManager {
+
+	private static final LogManager INSTANCE = new LogManager(Path.of(BrokerConfig.LOG_DIRS), BrokerConfig.LOG_SEGMENT_BYTES);
+
+	private final Path logDir;
+	private final int segmentBytes;
+	private final ConcurrentHashMap<String, PartitionLog> logs = new ConcurrentHashMap<>();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(INSTANCE::closeAll, "kafka-log-close"));
+	}
+
+	public LogManager(Path logDir, int segmentBytes) {
+		this.logDir = logDir;
+		this.segmentBytes = segmentBytes;
+	}
+
+	public static LogManager get() {
+		return INSTANCE;
+	}
+
+	public Path logDir() {
+		return logDir;
+	}
+
+	// Opens (or creates) the log of topic-partition
+	public PartitionLog getOrCreate(String topic, int partition) {
+		return getOrCreate(topic, partition, segmentBytes);
+	}
+
+	// Same with its own segment size (internal topics); a log opened before
+	// keeps the size it was opened with
+	public PartitionLog getOrCreate(String topic, int partition, int segmentBytes) {
+		String name = PartitionLog.dirName(topic, partition);
+		PartitionLog log = logs.get(name);
+		if (log != null) {
+			return log;
+		}
+		return logs.computeIfAbsent(name, key -> open(topic, partition, key, segmentBytes));
+	}
+
+	// Log of a partition that exists: known to the cluster metadata (opened
+	// or created on first use) or already on disk; null otherwise
+	public PartitionLog get(String topic, int partition) {
+		String name = PartitionLog.dirName(topic, partition);
+		PartitionLog log = logs.get(name);
+		if (log != null) {
+			return log;
+		}
+		if (!MetadataCache.get().current().hasPartition(topic, partition) && !Files.isDirectory(logDir.resolve(name))) {
+			return null;
+		}
+		return getOrCreate(topic, partition);
+	}
+
+	public Collection<PartitionLog> logs() {
+		return logs.values();
+	}
+
+	private PartitionLog open(String topic, int partition, String name, int segmentBytes) {
+		try {
+			return new PartitionLog(topic, partition, logDir.resolve(name), segmentBytes);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot open log " + name, e);
+		}
+	}
+
+	public void closeAll() {
+		for (PartitionLog log : logs.values()) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				Log.warn("Error closing log {}: {}", log, e.getMessage());
+			}
+		}
+	}
+}
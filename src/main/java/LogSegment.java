@@ -0,0 +1,434 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// One file of a partition log, named after the offset of its first batch
+// (00000000000000000000.log). The active segment is preallocated to the
+// segment size and memory mapped, so an append is a copy into the page cache
+// with no system call; sealed segments are truncated to their real size and
+// only read through the FileChannel.
+//
+// Each segment has a sparse OffsetIndex and TimeIndex with an entry every
+// log.index.interval.bytes, so a seek is a binary search plus a short scan
+// of batch headers. They are rebuilt from the log when missing or corrupt.
+//
+// Appends are serialised by PartitionLog. Readers only look at bytes below
+// size(), which is published after the batch has been copied.
+public class LogSegment {
+
+	private static final int INDEX_INTERVAL_BYTES = BrokerConfig.LOG_INDEX_INTERVAL_BYTES;
+	private static final int INDEX_SIZE_MAX_BYTES = BrokerConfig.LOG_INDEX_SIZE_MAX_BYTES;
+
+	// Scratch space for batch headers while seeking
+	private static final ThreadLocal<ByteBuffer> HEADER =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocate(RecordBatch.HEADER_SIZE));
+
+	private final long baseOffset;
+	private final Path file;
+	private final FileChannel channel;
+	private final int maxBytes;
+	private MappedByteBuffer mapped; // null once sealed
+	private OffsetIndex offsetIndex;
+	private TimeIndex timeIndex;
+	private int bytesSinceLastIndexEntry = 0;
+
+	private volatile int size;
+	private volatile long nextOffset;
+	private volatile long maxTimestamp = -1;
+	private volatile long offsetOfMaxTimestamp = -1;
+
+	// First record at or after a timestamp
+	public static final class TimestampOffset {
+		public final long timestamp;
+		public final long offset;
+
+		TimestampOffset(long timestamp, long offset) {
+			this.timestamp = timestamp;
+			this.offset = offset;
+		}
+	}
+
+	private LogSegment(long baseOffset, Path file, FileChannel channel, int maxBytes) {
+		this.baseOffset = baseOffset;
+		this.file = file;
+		this.channel = channel;
+		this.maxBytes = maxBytes;
+		this.nextOffset = baseOffset;
+	}
+
+	public static Path fileName(Path dir, long baseOffset) {
+		return dir.resolve(String.format("%020d.log", baseOffset));
+	}
+
+	// New, empty active segment
+	public static LogSegment create(Path dir, long baseOffset, int maxBytes) throws IOException {
+		Path file = fileName(dir, baseOffset);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		LogSegment segment = new LogSegment(baseOffset, file, channel, maxBytes);
+		segment.openIndexes(true);
+		segment.map();
+		return segment;
+	}
+
+	// Existing segment found at startup. The active segment is always scanned
+	// (its preallocated tail reads as zeros and a batch may have been cut short
+	// by a crash) and its indexes rebuilt. A sealed segment trusts its indexes
+	// when they look sane and only scans the tail after the last entry.
+	public static LogSegment open(Path file, int maxBytes, boolean active) throws IOException {
+		String name = file.getFileName().toString();
+		long baseOffset = Long.parseLong(name.substring(0, name.length() - ".log".length()));
+		Path dir = file.getParent();
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		LogSegment segment = new LogSegment(baseOffset, file, channel, maxBytes);
+		if (active) {
+			segment.openIndexes(true);
+			segment.recover(0, true);
+			segment.map();
+			return segment;
+		}
+		boolean indexesExist = Files.exists(OffsetIndex.fileName(dir, baseOffset)) && Files.exists(TimeIndex.fileName(dir, baseOffset));
+		if (indexesExist) {
+			segment.openIndexes(false);
+			int fileSize = (int) Math.min(channel.size(), maxBytes);
+			if (segment.offsetIndex.isSane(fileSize) && segment.timeIndex.isSane(fileSize)) {
+				segment.maxTimestamp = segment.timeIndex.lastTimestamp();
+				segment.offsetOfMaxTimestamp = segment.timeIndex.lookup(segment.maxTimestamp);
+				segment.recover(segment.offsetIndex.lastPosition(), false);
+				channel.truncate(segment.size);
+				return segment;
+			}
+			Log.warn("Rebuilding corrupt indexes of {}", file);
+			segment.offsetIndex.delete();
+			segment.timeIndex.delete();
+		} else {
+			Log.info("Rebuilding missing indexes of {}", file);
+		}
+		segment.rebuildSealed();
+		return segment;
+	}
+
+	// Sealed segment the LogCleaner just wrote, without indexes yet
+	public static LogSegment openCleaned(Path file, long baseOffset, int maxBytes) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		LogSegment segment = new LogSegment(baseOffset, file, channel, maxBytes);
+		segment.rebuildSealed();
+		return segment;
+	}
+
+	private void rebuildSealed() throws IOException {
+		openIndexes(true);
+		recover(0, true);
+		offsetIndex.seal();
+		timeIndex.seal();
+		channel.truncate(size);
+	}
+
+	// Offset after the last complete batch of a segment file that is not
+	// loaded (an unfinished cleaner swap found at startup)
+	public static long nextOffset(Path file, long baseOffset) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(RecordBatch.HEADER_SIZE);
+			RecordBatch batch = new RecordBatch().wrap(header, 0);
+			long size = channel.size();
+			long position = 0;
+			long next = baseOffset;
+			while (position + RecordBatch.HEADER_SIZE <= size) {
+				header.clear();
+				if (channel.read(header, position) < RecordBatch.HEADER_SIZE) {
+					break;
+				}
+				long end = position + batch.sizeInBytes();
+				if (batch.batchLength() < RecordBatch.HEADER_SIZE - RecordBatch.LOG_OVERHEAD || end > size) {
+					break;
+				}
+				next = batch.lastOffset() + 1;
+				position = end;
+			}
+			return next;
+		}
+	}
+
+	private void openIndexes(boolean writable) throws IOException {
+		Path dir = file.getParent();
+		offsetIndex = new OffsetIndex(OffsetIndex.fileName(dir, baseOffset), baseOffset, INDEX_SIZE_MAX_BYTES, writable);
+		timeIndex = new TimeIndex(TimeIndex.fileName(dir, baseOffset), baseOffset, INDEX_SIZE_MAX_BYTES, writable);
+	}
+
+	private void map() throws IOException {
+		mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+	}
+
+	// Walks batch headers from position to the end of the valid data, setting
+	// size, next offset and max timestamp; with rebuild, index entries are
+	// added exactly as append would have.
+	private void recover(int position, boolean rebuild) throws IOException {
+		long fileSize = Math.min(channel.size(), maxBytes);
+		ByteBuffer header = HEADER.get();
+		RecordBatch batch = new RecordBatch().wrap(header, 0);
+		long next = rebuild ? baseOffset : offsetIndex.lastOffset();
+		while (position + RecordBatch.HEADER_SIZE <= fileSize && readHeader(position, header)) {
+			int batchLength = batch.batchLength();
+			long end = position + RecordBatch.LOG_OVERHEAD + (long) batchLength;
+			if (batchLength < RecordBatch.HEADER_SIZE - RecordBatch.LOG_OVERHEAD || end > fileSize
+					|| batch.magic() != RecordBatch.CURRENT_MAGIC) {
+				break;
+			}
+			if (rebuild) {
+				index(batch.baseOffset(), position, batch.sizeInBytes(), batch.maxTimestamp(), batch.lastOffset());
+			} else if (batch.maxTimestamp() > maxTimestamp) {
+				maxTimestamp = batch.maxTimestamp();
+				offsetOfMaxTimestamp = batch.lastOffset();
+			}
+			next = batch.lastOffset() + 1;
+			position = (int) end;
+		}
+		size = position;
+		nextOffset = next;
+		if (position < channel.size()) {
+			Log.debug("Recovered {} at {} bytes, next offset {}", file, position, next);
+		}
+	}
+
+	public long baseOffset() {
+		return baseOffset;
+	}
+
+	public Path file() {
+		return file;
+	}
+
+	public FileChannel channel() {
+		return channel;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Offset the next appended batch will get
+	public long nextOffset() {
+		return nextOffset;
+	}
+
+	public long maxTimestamp() {
+		return maxTimestamp;
+	}
+
+	public long offsetOfMaxTimestamp() {
+		return offsetOfMaxTimestamp;
+	}
+
+	public boolean isActive() {
+		return mapped != null;
+	}
+
+	// Room for bytes more, with offsets up to lastOffset still relative to the base
+	public boolean hasRoomFor(int bytes, long lastOffset) {
+		return mapped != null && maxBytes - size >= bytes
+				&& lastOffset - baseOffset <= Integer.MAX_VALUE
+				&& !offsetIndex.isFull() && !timeIndex.isFull();
+	}
+
+	// Copies whole batches (offsets already assigned) to the end of the segment
+	public void append(ByteBuffer batches, long firstOffset, long lastOffset, long batchMaxTimestamp, long batchOffsetOfMaxTimestamp) {
+		int position = size;
+		int length = batches.remaining();
+		mapped.put(position, batches, batches.position(), length);
+		index(firstOffset, position, length, batchMaxTimestamp, batchOffsetOfMaxTimestamp);
+		nextOffset = lastOffset + 1;
+		size = position + length; // Publish after the bytes are in place
+	}
+
+	private void index(long firstOffset, int position, int length, long batchMaxTimestamp, long batchOffsetOfMaxTimestamp) {
+		if (batchMaxTimestamp > maxTimestamp) {
+			maxTimestamp = batchMaxTimestamp;
+			offsetOfMaxTimestamp = batchOffsetOfMaxTimestamp;
+		}
+		if (bytesSinceLastIndexEntry > INDEX_INTERVAL_BYTES) {
+			offsetIndex.append(firstOffset, position);
+			timeIndex.append(maxTimestamp, offsetOfMaxTimestamp);
+			bytesSinceLastIndexEntry = 0;
+		}
+		bytesSinceLastIndexEntry += length;
+	}
+
+	// File position of the batch containing offset, or -1 if it is past the end
+	public int translateOffset(long offset) {
+		ByteBuffer header = HEADER.get();
+		RecordBatch batch = new RecordBatch().wrap(header, 0);
+		int end = size;
+		int position = offsetIndex.lookup(offset);
+		while (position < end && readHeader(position, header)) {
+			if (batch.lastOffset() >= offset) {
+				return position;
+			}
+			position += batch.sizeInBytes();
+		}
+		return -1;
+	}
+
+	// Size of the batch starting at position (from translateOffset)
+	public int batchSizeAt(int position) {
+		ByteBuffer header = HEADER.get();
+		if (!readHeader(position, header)) {
+			return 0;
+		}
+		return RecordBatch.LOG_OVERHEAD + header.getInt(RecordBatch.BATCH_LENGTH_OFFSET);
+	}
+
+	// First record with a timestamp >= timestamp, or null if there is none in
+	// this segment. Compressed batches are inflated to find the exact record;
+	// a codec we cannot read (zstd) resolves to the batch.
+	public TimestampOffset findOffsetByTimestamp(long timestamp) throws IOException {
+		if (maxTimestamp < timestamp) {
+			return null;
+		}
+		int position = translateOffset(timeIndex.lookup(timestamp));
+		if (position < 0) {
+			return null;
+		}
+		ByteBuffer header = HEADER.get();
+		RecordBatch batch = new RecordBatch().wrap(header, 0);
+		int end = size;
+		while (position < end && readHeader(position, header)) {
+			if (batch.maxTimestamp() >= timestamp) {
+				return findInBatch(position, batch.sizeInBytes(), timestamp);
+			}
+			position += batch.sizeInBytes();
+		}
+		return null;
+	}
+
+	private TimestampOffset findInBatch(int position, int length, long timestamp) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		read(position, buffer);
+		RecordBatch batch = new RecordBatch().wrap(buffer, 0);
+		if (!CompressionCodec.isReadable(batch.compressionId())) {
+			return new TimestampOffset(batch.maxTimestamp(), batch.baseOffset());
+		}
+		PooledOutputStream inflated = new PooledOutputStream(BufferPool.current(), length);
+		try {
+			ByteBuffer records = batch.records(inflated);
+			long baseTimestamp = batch.baseTimestamp();
+			int count = batch.recordsCount();
+			for (int i = 0; i < count && records.hasRemaining(); i++) {
+				int recordLength = KafkaProtocolUtils.readVarint(records);
+				int next = records.position() + recordLength;
+				records.get(); // attributes
+				long recordTimestamp = baseTimestamp + KafkaProtocolUtils.readVarlong(records);
+				int offsetDelta = KafkaProtocolUtils.readVarint(records);
+				if (recordTimestamp >= timestamp) {
+					return new TimestampOffset(recordTimestamp, batch.baseOffset() + offsetDelta);
+				}
+				records.position(next);
+			}
+		} finally {
+			inflated.release();
+		}
+		return new TimestampOffset(batch.maxTimestamp(), batch.lastOffset());
+	}
+
+	private boolean readHeader(int position, ByteBuffer header) {
+		header.clear();
+		try {
+			return read(position, header);
+		} catch (IOException e) {
+			Log.warn("Error reading {} at {}: {}", file, position, e.getMessage());
+			return false;
+		}
+	}
+
+	// Fills buffer from position; false if the file ends first
+	private boolean read(int position, ByteBuffer buffer) throws IOException {
+		MappedByteBuffer active = mapped;
+		if (active != null) {
+			if (position + buffer.remaining() > maxBytes) {
+				return false;
+			}
+			active.get(position, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+			return true;
+		}
+		long filePosition = position;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, filePosition);
+			if (read < 0) {
+				return false;
+			}
+			filePosition += read;
+		}
+		return true;
+	}
+
+	// Forces appended bytes to the device
+	public void flush() throws IOException {
+		MappedByteBuffer active = mapped; // May be sealed concurrently
+		if (active != null) {
+			active.force(0, size);
+		} else {
+			channel.force(false);
+		}
+		offsetIndex.flush();
+		timeIndex.flush();
+	}
+
+	// Stop appending: drop the mapping and the preallocated tail
+	public void seal() throws IOException {
+		if (mapped == null) {
+			return;
+		}
+		mapped.force(0, size);
+		mapped = null;
+		channel.truncate(size);
+		offsetIndex.seal();
+		timeIndex.seal();
+	}
+
+	public void close() throws IOException {
+		seal();
+		offsetIndex.close();
+		timeIndex.close();
+		channel.close();
+	}
+
+	public void delete() throws IOException {
+		mapped = null;
+		channel.close();
+		offsetIndex.delete();
+		timeIndex.delete();
+		Files.deleteIfExists(file);
+	}
+
+	// Renames the log and index files to <name>.deleted once the segment is
+	// replaced; the open channel keeps serving reads until deleteMarked()
+	public void markDeleted() throws IOException {
+		Path dir = file.getParent();
+		for (Path path : new Path[] { file, OffsetIndex.fileName(dir, baseOffset), TimeIndex.fileName(dir, baseOffset) }) {
+			if (Files.exists(path)) {
+				Files.move(path, deletedName(path), StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+	}
+
+	public void deleteMarked() throws IOException {
+		close();
+		Path dir = file.getParent();
+		Files.deleteIfExists(deletedName(file));
+		Files.deleteIfExists(deletedName(OffsetIndex.fileName(dir, baseOffset)));
+		Files.deleteIfExists(deletedName(TimeIndex.fileName(dir, baseOffset)));
+	}
+
+	public static Path deletedName(Path path) {
+		return path.resolveSibling(path.getFileName() + ".deleted");
+	}
+
+	@Override
+	public String toString() {
+		return file.getFileName() + "[" + size + " bytes]";
+	}
+}
@@ -0,0 +1,384 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// LZ4 frame format (what Kafka producers send for compression type 3),
+// with the block codec implemented here in plain Java.
+//
+// Frame: magic 0x184D2204 (LE), FLG, BD, [content size], [dict id],
+// header checksum = (xxhash32(FLG..) >> 8) & 0xFF, then blocks of
+// [LE int32 size, high bit = stored uncompressed][data][block checksum?],
+// a zero size as end mark and an optional content checksum. We write what
+// Kafka writes: independent 64 KiB blocks, no checksums besides the header.
+public class Lz4Codec extends CompressionCodec {
+
+	static final int MAGIC = 0x184D2204;
+	private static final int VERSION = 1;
+	private static final int FLG_BLOCK_INDEPENDENCE = 0x20;
+	private static final int FLG_BLOCK_CHECKSUM = 0x10;
+	private static final int FLG_CONTENT_SIZE = 0x08;
+	private static final int FLG_CONTENT_CHECKSUM = 0x04;
+	private static final int FLG_DICT_ID = 0x01;
+	private static final int BD_64KB = 4;
+	private static final int UNCOMPRESSED_FLAG = 0x80000000;
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12; // A match may not start within the last 12 bytes
+	private static final int MAX_DISTANCE = 65535;
+	private static final int HASH_LOG = 12;
+
+	@Override
+	public int id() {
+		return 3;
+	}
+
+	@Override
+	public String name() {
+		return "lz4";
+	}
+
+	@Override
+	public InputStream decompress(ByteBuffer compressed) throws IOException {
+		return new FrameInputStream(compressed);
+	}
+
+	@Override
+	public OutputStream compress(OutputStream out) throws IOException {
+		return new FrameOutputStream(out);
+	}
+
+	static int maxBlockSize(int bd) throws IOException {
+		int id = (bd >>> 4) & 0x07;
+		if (id < 4) {
+			throw new IOException("Invalid LZ4 block size id " + id);
+		}
+		return 1 << (2 * id + 8); // 4: 64 KiB ... 7: 4 MiB
+	}
+
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	// Decodes one block; returns the number of bytes written to dst
+	static int decompressBlock(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLimit)
+			throws IOException {
+		int sp = srcOffset;
+		int srcEnd = srcOffset + srcLength;
+		int dp = dstOffset;
+		while (sp < srcEnd) {
+			int token = src[sp++] & 0xFF;
+			int literalLength = token >>> 4;
+			if (literalLength == 15) {
+				int b;
+				do {
+					if (sp >= srcEnd) {
+						throw new IOException("Malformed LZ4 block: truncated literal length");
+					}
+					b = src[sp++] & 0xFF;
+					literalLength += b;
+				} while (b == 255);
+			}
+			if (literalLength > srcEnd - sp || literalLength > dstLimit - dp) {
+				throw new IOException("Malformed LZ4 block: literals overrun");
+			}
+			System.arraycopy(src, sp, dst, dp, literalLength);
+			sp += literalLength;
+			dp += literalLength;
+			if (sp == srcEnd) {
+				break; // The last sequence is literals only
+			}
+			if (srcEnd - sp < 2) {
+				throw new IOException("Malformed LZ4 block: truncated offset");
+			}
+			int distance = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+			sp += 2;
+			int matchLength = token & 0x0F;
+			if (matchLength == 15) {
+				int b;
+				do {
+					if (sp >= srcEnd) {
+						throw new IOException("Malformed LZ4 block: truncated match length");
+					}
+					b = src[sp++] & 0xFF;
+					matchLength += b;
+				} while (b == 255);
+			}
+			matchLength += MIN_MATCH;
+			int from = dp - distance;
+			if (distance == 0 || from < dstOffset || matchLength > dstLimit - dp) {
+				throw new IOException("Malformed LZ4 block: bad match");
+			}
+			if (distance >= matchLength) {
+				System.arraycopy(dst, from, dst, dp, matchLength);
+				dp += matchLength;
+			} else {
+				for (int i = 0; i < matchLength; i++) {
+					dst[dp++] = dst[from + i]; // Overlapping copy repeats the pattern
+				}
+			}
+		}
+		return dp - dstOffset;
+	}
+
+	// Greedy single-probe compressor; returns the compressed length.
+	// dst needs maxCompressedLength(srcLength) bytes. hashTable is scratch.
+	static int compressBlock(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int[] hashTable) {
+		int srcEnd = srcOffset + srcLength;
+		int dp = dstOffset;
+		int anchor = srcOffset;
+		if (srcLength >= MF_LIMIT + 1) {
+			Arrays.fill(hashTable, -1);
+			int matchLimit = srcEnd - MF_LIMIT;
+			int matchEnd = srcEnd - LAST_LITERALS;
+			int ip = srcOffset;
+			while (ip < matchLimit) {
+				int sequence = XXHash32.readIntLE(src, ip);
+				int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+				int ref = hashTable[hash];
+				hashTable[hash] = ip;
+				if (ref < 0 || ip - ref > MAX_DISTANCE || XXHash32.readIntLE(src, ref) != sequence) {
+					ip++;
+					continue;
+				}
+				int matchLength = MIN_MATCH;
+				while (ip + matchLength < matchEnd && src[ref + matchLength] == src[ip + matchLength]) {
+					matchLength++;
+				}
+				dp = writeSequence(src, anchor, ip - anchor, dst, dp, ip - ref, matchLength);
+				ip += matchLength;
+				anchor = ip;
+			}
+		}
+		return writeLastLiterals(src, anchor, srcEnd - anchor, dst, dp) - dstOffset;
+	}
+
+	private static int writeSequence(byte[] src, int literalStart, int literalLength, byte[] dst, int dp,
+			int distance, int matchLength) {
+		int tokenPosition = dp++;
+		int extraMatch = matchLength - MIN_MATCH;
+		dst[tokenPosition] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(extraMatch, 15));
+		dp = writeLength(dst, dp, literalLength);
+		System.arraycopy(src, literalStart, dst, dp, literalLength);
+		dp += literalLength;
+		dst[dp++] = (byte) distance;
+		dst[dp++] = (byte) (distance >>> 8);
+		return writeLength(dst, dp, extraMatch);
+	}
+
+	private static int writeLastLiterals(byte[] src, int literalStart, int literalLength, byte[] dst, int dp) {
+		dst[dp++] = (byte) (Math.min(literalLength, 15) << 4);
+		dp = writeLength(dst, dp, literalLength);
+		System.arraycopy(src, literalStart, dst, dp, literalLength);
+		return dp + literalLength;
+	}
+
+	// The part of a length beyond the 15 held in the token
+	private static int writeLength(byte[] dst, int dp, int length) {
+		if (length < 15) {
+			return dp;
+		}
+		length -= 15;
+		while (length >= 255) {
+			dst[dp++] = (byte) 255;
+			length -= 255;
+		}
+		dst[dp++] = (byte) length;
+		return dp;
+	}
+
+	static final class FrameInputStream extends InputStream {
+
+		private final ByteBuffer in;
+		private final boolean blockChecksum;
+		private final boolean contentChecksum;
+		private final int maxBlockSize;
+		private byte[] compressed;
+		private byte[] block;
+		private int blockPosition;
+		private int blockLimit;
+		private boolean finished;
+
+		FrameInputStream(ByteBuffer compressed) throws IOException {
+			this.in = compressed.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			if (in.remaining() < 7 || in.getInt() != MAGIC) {
+				throw new IOException("Not an LZ4 frame");
+			}
+			int descriptorStart = in.position();
+			int flg = in.get() & 0xFF;
+			int bd = in.get() & 0xFF;
+			if ((flg >>> 6) != VERSION) {
+				throw new IOException("Unsupported LZ4 frame version " + (flg >>> 6));
+			}
+			if ((flg & FLG_DICT_ID) != 0) {
+				throw new IOException("LZ4 dictionaries are not supported");
+			}
+			if ((flg & FLG_CONTENT_SIZE) != 0) {
+				in.getLong();
+			}
+			byte[] descriptor = new byte[in.position() - descriptorStart];
+			in.get(descriptorStart, descriptor);
+			int expected = (XXHash32.hash(descriptor, 0, descriptor.length, 0) >>> 8) & 0xFF;
+			if ((in.get() & 0xFF) != expected) {
+				throw new IOException("LZ4 frame header checksum mismatch");
+			}
+			blockChecksum = (flg & FLG_BLOCK_CHECKSUM) != 0;
+			contentChecksum = (flg & FLG_CONTENT_CHECKSUM) != 0;
+			maxBlockSize = maxBlockSize(bd);
+			this.compressed = scratch(maxBlockSize);
+			this.block = scratch(maxBlockSize);
+		}
+
+		private boolean nextBlock() throws IOException {
+			if (finished) {
+				return false;
+			}
+			if (in.remaining() < 4) {
+				throw new IOException("Truncated LZ4 frame");
+			}
+			int size = in.getInt();
+			if (size == 0) {
+				finished = true;
+				if (contentChecksum) {
+					in.getInt(); // Not verified, the batch CRC already covers the bytes
+				}
+				return false;
+			}
+			boolean stored = (size & UNCOMPRESSED_FLAG) != 0;
+			size &= ~UNCOMPRESSED_FLAG;
+			if (size > maxBlockSize || size > in.remaining()) {
+				throw new IOException("LZ4 block of " + size + " bytes is out of bounds");
+			}
+			if (stored) {
+				in.get(block, 0, size);
+				blockLimit = size;
+			} else {
+				in.get(compressed, 0, size);
+				blockLimit = decompressBlock(compressed, 0, size, block, 0, maxBlockSize);
+			}
+			if (blockChecksum) {
+				in.getInt();
+			}
+			blockPosition = 0;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (blockPosition == blockLimit && !nextBlock()) {
+				return -1;
+			}
+			return block[blockPosition++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			while (blockPosition == blockLimit) {
+				if (!nextBlock()) {
+					return -1;
+				}
+			}
+			int count = Math.min(length, blockLimit - blockPosition);
+			System.arraycopy(block, blockPosition, bytes, offset, count);
+			blockPosition += count;
+			return count;
+		}
+
+		@Override
+		public void close() {
+			recycle(compressed);
+			recycle(block);
+			compressed = null;
+			block = null;
+		}
+	}
+
+	static final class FrameOutputStream extends OutputStream {
+
+		private static final int BLOCK_SIZE = 64 * 1024;
+
+		private final OutputStream out;
+		private final int[] hashTable = new int[1 << HASH_LOG];
+		private byte[] block = scratch(BLOCK_SIZE);
+		private byte[] compressed = scratch(maxCompressedLength(BLOCK_SIZE));
+		private int blockLength;
+		private boolean closed;
+
+		FrameOutputStream(OutputStream out) throws IOException {
+			this.out = out;
+			byte[] descriptor = { (byte) (VERSION << 6 | FLG_BLOCK_INDEPENDENCE), (byte) (BD_64KB << 4) };
+			int checksum = (XXHash32.hash(descriptor, 0, 2, 0) >>> 8) & 0xFF;
+			writeIntLE(MAGIC);
+			out.write(descriptor);
+			out.write(checksum);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (blockLength == BLOCK_SIZE) {
+				flushBlock();
+			}
+			block[blockLength++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (blockLength == BLOCK_SIZE) {
+					flushBlock();
+				}
+				int count = Math.min(length, BLOCK_SIZE - blockLength);
+				System.arraycopy(bytes, offset, block, blockLength, count);
+				blockLength += count;
+				offset += count;
+				length -= count;
+			}
+		}
+
+		private void flushBlock() throws IOException {
+			if (blockLength == 0) {
+				return;
+			}
+			int size = compressBlock(block, 0, blockLength, compressed, 0, hashTable);
+			if (size >= blockLength) {
+				writeIntLE(blockLength | UNCOMPRESSED_FLAG);
+				out.write(block, 0, blockLength);
+			} else {
+				writeIntLE(size);
+				out.write(compressed, 0, size);
+			}
+			blockLength = 0;
+		}
+
+		private void writeIntLE(int value) throws IOException {
+			out.write(value);
+			out.write(value >>> 8);
+			out.write(value >>> 16);
+			out.write(value >>> 24);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				flushBlock();
+				writeIntLE(0); // End mark
+				out.close();
+			} finally {
+				recycle(block);
+				recycle(compressed);
+				block = null;
+				compressed = null;
+			}
+		}
+	}
+}
@@ -1,8 +1,10 @@
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.concurrent.ExecutorService;
@@ -14,52 +16,92 @@ import java.util.HexFormat;
 
 public class Main {
 
-	private static int PORT = 9092;
+	private static int PORT = BrokerConfig.PORT;
 	private static int THREAD_POOL_SIZE = 4;
 	private static int SOCKET_TIMEOUT_MS = 9000; // 9 seconds, 1 second less than test
 	
 	// Recoupling to CircularBuffer structure
-	// CircularBuffer implementation
+	// CircularBuffer implementation, one per connection
 	private static int BUFFER_SIZE = 100;
-	private static CircularBuffer messageBuffer = new CircularBuffer(BUFFER_SIZE);
 
   public static void main(String[] args){
 
      System.err.println("Logs from your program will appear here!");
 
-     try {
-	     ServerSocket serverSocket = new ServerSocket(PORT);
-	     ExecutorService executorService = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-	
+     // Replay the metadata log before the first request arrives, then follow it
+     MetadataCache.get().startup();
+     MetricsReporter.start();
+     LogCleaner.get().startup();
+     RequestHandlerRegistry.get().offsetManager().startup();
+
+     if ("virtual".equals(BrokerConfig.IO_MODE)) {
+	     // One virtual thread per connection (-Dio.mode=virtual)
+	     configureVirtualThreads();
+	     ServerSocket serverSocket = createServerSocket(PORT);
+	     ExecutorService executorService = Executors.newThreadPerTaskExecutor(
+			     Thread.ofVirtual().name("kafka-client-", 0).factory());
 	     if(serverSocket != null){
-		     handleConnections(serverSocket, executorService);
-     	     }
-     } catch (IOException e) {
-	     System.err.println("Error creating ServerSocket: " + e.getMessage());
+		     handleConnections(serverSocket, executorService, false);
+	     }
+	     return;
+     }
+
+     if (!"threads".equals(BrokerConfig.IO_MODE)) {
+	     try {
+		     new NioServer(BrokerConfig.PORT, BrokerConfig.NUM_NETWORK_THREADS).start();
+	     } catch (IOException e) {
+		     Log.error("Error starting network layer: {}", e.getMessage());
+	     }
+	     return;
+     }
+
+     // Legacy thread-per-socket mode (-Dio.mode=threads)
+     ServerSocket serverSocket = createServerSocket(PORT);
+     ExecutorService executorService = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+
+     if(serverSocket != null){
+	     handleConnections(serverSocket, executorService, true);
      }
   }
 
+  // The scheduler reads these properties when the first virtual thread is
+  // created, so they have to be in place before the accept loop starts.
+  private static void configureVirtualThreads(){
+	  if (System.getProperty("jdk.virtualThreadScheduler.parallelism") == null) {
+		  System.setProperty("jdk.virtualThreadScheduler.parallelism",
+				  String.valueOf(BrokerConfig.VIRTUAL_CARRIER_PARALLELISM));
+	  }
+	  // Reports any virtual thread that blocks while pinned to its carrier
+	  if (BrokerConfig.VIRTUAL_TRACE_PINNING && System.getProperty("jdk.tracePinnedThreads") == null) {
+		  System.setProperty("jdk.tracePinnedThreads", "short");
+	  }
+	  Log.info("Virtual thread mode, carrier parallelism: {}",
+			  System.getProperty("jdk.virtualThreadScheduler.parallelism"));
+  }
+
 
   private static ServerSocket createServerSocket(int port){
 	  try{
-		  ServerSocket serverSocket = new ServerSocket(port);
+		  // Channel backed, so accepted sockets expose a SocketChannel for gathering writes
+		  ServerSocket serverSocket = ServerSocketChannel.open().socket();
 		  serverSocket.setReuseAddress(true);
+		  serverSocket.bind(new InetSocketAddress(port));
 		  return serverSocket;
 	  } catch (IOException e) {
-		  System.err.println("Failed to create server socket: " + e.getMessage());
+		  Log.error("Failed to create server socket: {}", e.getMessage());
 		  return null;
 	  }
   }
 
-  private static void handleConnections(ServerSocket serverSocket, ExecutorService executorService){
+  private static void handleConnections(ServerSocket serverSocket, ExecutorService executorService, boolean buffered){
 	  try{
 		  while(true){
 			  Socket clientSocket = serverSocket.accept();
-			  System.out.println("Accepted connection from " + clientSocket.getRemoteSocketAddress());
-			  executorService.submit(() -> KafkaClientHandler(clientSocket));
+			  Log.debug("Accepted connection from {}", clientSocket.getRemoteSocketAddress());
+			  executorService.submit(() -> KafkaClientHandler(clientSocket, buffered));
 		  }
 	  } catch (IOException e) {
-		  System.err.println("Error handling connections: " + e.getMessage());
+		  Log.error("Error handling connections: {}", e.getMessage());
 	  } finally {
 		  closeServerSocket(serverSocket);
 	  }
@@ -70,32 +112,44 @@ public class Main {
 		  try{
 			  serverSocket.close();
 		  } catch (IOException e){
-			  System.err.println("Failed to close server socket: " + e.getMessage());
+			  Log.error("Failed to close server socket: {}", e.getMessage());
 		  }
 	  }
   }
 
   
 
-  private static void KafkaClientHandler(Socket clientSocket) {
+  // With buffered off (virtual threads) requests skip the CircularBuffer
+  // entirely, so the handler never touches a lock around socket I/O.
+  private static void KafkaClientHandler(Socket clientSocket, boolean buffered) {
 
 	  HexFormat hexFormat = HexFormat.of();
+	  CircularBuffer messageBuffer = buffered ? new CircularBuffer(BUFFER_SIZE) : null;
+	  QuotaManager quotas = QuotaManager.get();
+	  QuotaManager.Session quota = quotas.isEnabled() ? quotas.session(clientSocket.getInetAddress().getHostAddress()) : null;
+	  Metrics.get().connectionOpened();
+
+	  try (InputStream reader = clientSocket.getInputStream()){
 
-	  try (InputStream reader = clientSocket.getInputStream();
-	       OutputStream writer = clientSocket.getOutputStream()){
+		SocketChannel writer = clientSocket.getChannel();
 
 		while(true) {
 			int messageLength = MessageUtils.readMessageLength(reader);
 			if(messageLength <= 0) break;
 
 			byte[] message = MessageUtils.readMessage(reader, messageLength);
-			if(message != null){
+			if(message != null && !buffered){
+				MessageUtils.processMessage(writer, message, quota);
+			} else if(message != null){
 
 				// Extract CorrelationID from received message
 				int expectedCorrelationID = MessageUtils.extractCorrelationID(message);
 
 				// Add the message to the circular buffer
-				messageBuffer.add(message);
+				if(!messageBuffer.add(message)){
+					Log.warn("Message buffer full, discarding message.");
+					continue;
+				}
 
 				// Process the message from the circular buffer
 				byte[] bufferedMessage = messageBuffer.get();
@@ -103,8 +157,8 @@ public class Main {
 				   MessageUtils.validateMessage(bufferedMessage, expectedCorrelationID)){
 
 
-					System.err.println("Valid CorrelationID, processing message.");
-					MessageUtils.processMessage(writer, bufferedMessage);
+					Log.debug("Valid CorrelationID, processing message.");
+					MessageUtils.processMessage(writer, bufferedMessage, quota);
 
 					// Send response to client
 					//String responseMessage = "Hi";
@@ -116,24 +170,25 @@ public class Main {
 
 
 				} else {
-					System.err.println("Invalid CorrelationID, discarding message.");
+					Log.warn("Invalid CorrelationID, discarding message.");
 				}
 
 			}
 		}
 	} catch (IOException e){
-		System.err.println("Error while handling client: " + e.getMessage());
+		Log.warn("Error while handling client: {}", e.getMessage());
 	} finally {
+		Metrics.get().connectionClosed();
 		closeClientSocket(clientSocket);
 	}
   }
 
   private static void closeClientSocket(Socket clientSocket) {
 	  try{
-		  System.out.println("Connection from " + clientSocket.getRemoteSocketAddress() + " ended");
+		  Log.debug("Connection from {} ended", clientSocket.getRemoteSocketAddress());
 		  clientSocket.close();
 	  } catch (IOException e) {
-		  System.err.println("Error closing client socket: " + e.getMessage());
+		  Log.warn("Error closing client socket: {}", e.getMessage());
 	  }
   }
 
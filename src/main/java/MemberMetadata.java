@@ -0,0 +1,137 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// One member of a consumer group as the GroupCoordinator sees it: the
+// protocols it offered in its last JoinGroup, its assignment, and the
+// JoinGroup or SyncGroup it has parked until the rebalance moves on.
+// Guarded by its group's lock.
+public class MemberMetadata {
+
+	static final byte[] NO_BYTES = new byte[0];
+
+	// One protocol the member supports, with its opaque subscription metadata
+	public static final class Protocol {
+		final String name;
+		final byte[] metadata;
+
+		public Protocol(String name, byte[] metadata) {
+			this.name = name;
+			this.metadata = metadata == null ? NO_BYTES : metadata;
+		}
+	}
+
+	private final String memberId;
+	private final String groupInstanceId;
+	private final String clientId;
+	private int sessionTimeoutMs;
+	private int rebalanceTimeoutMs;
+	private String protocolType;
+	private List<Protocol> protocols;
+	private byte[] assignment = NO_BYTES;
+
+	Consumer<GroupCoordinator.JoinResult> awaitingJoin;
+	Consumer<GroupCoordinator.SyncResult> awaitingSync;
+
+	// Set while a heartbeat completes the pending DelayedHeartbeat
+	boolean heartbeatSatisfied;
+	// Deadline of the latest DelayedHeartbeat; an older one expiring is stale
+	long heartbeatDeadlineMs;
+
+	public MemberMetadata(String memberId, String groupInstanceId, String clientId, int sessionTimeoutMs, int rebalanceTimeoutMs,
+			String protocolType, List<Protocol> protocols) {
+		this.memberId = memberId;
+		this.groupInstanceId = groupInstanceId;
+		this.clientId = clientId;
+		update(sessionTimeoutMs, rebalanceTimeoutMs, protocolType, protocols);
+	}
+
+	public void update(int sessionTimeoutMs, int rebalanceTimeoutMs, String protocolType, List<Protocol> protocols) {
+		this.sessionTimeoutMs = sessionTimeoutMs;
+		this.rebalanceTimeoutMs = rebalanceTimeoutMs;
+		this.protocolType = protocolType;
+		this.protocols = protocols;
+	}
+
+	public String memberId() {
+		return memberId;
+	}
+
+	public String groupInstanceId() {
+		return groupInstanceId;
+	}
+
+	public String clientId() {
+		return clientId;
+	}
+
+	public int sessionTimeoutMs() {
+		return sessionTimeoutMs;
+	}
+
+	public int rebalanceTimeoutMs() {
+		return rebalanceTimeoutMs;
+	}
+
+	public String protocolType() {
+		return protocolType;
+	}
+
+	public List<Protocol> protocols() {
+		return protocols;
+	}
+
+	public byte[] assignment() {
+		return assignment;
+	}
+
+	public void assignment(byte[] assignment) {
+		this.assignment = assignment == null ? NO_BYTES : assignment;
+	}
+
+	// Subscription metadata for protocol, null if the member does not support it
+	public byte[] metadata(String protocol) {
+		for (Protocol candidate : protocols) {
+			if (candidate.name.equals(protocol)) {
+				return candidate.metadata;
+			}
+		}
+		return null;
+	}
+
+	// Same protocols, in the same order, with the same metadata
+	public boolean matches(List<Protocol> other) {
+		if (other.size() != protocols.size()) {
+			return false;
+		}
+		for (int i = 0; i < other.size(); i++) {
+			Protocol mine = protocols.get(i);
+			Protocol theirs = other.get(i);
+			if (!mine.name.equals(theirs.name) || !Arrays.equals(mine.metadata, theirs.metadata)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// The member's most preferred protocol among candidates
+	public String vote(Set<String> candidates) {
+		for (Protocol protocol : protocols) {
+			if (candidates.contains(protocol.name)) {
+				return protocol.name;
+			}
+		}
+		return null;
+	}
+
+	// Parked in a rebalance or just heard from: not to be expired
+	public boolean shouldKeepAlive() {
+		return heartbeatSatisfied || awaitingJoin != null || awaitingSync != null;
+	}
+
+	@Override
+	public String toString() {
+		return memberId;
+	}
+}
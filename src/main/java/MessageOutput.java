@@ -0,0 +1,123 @@
+import java.nio.ByteBuffer;
+
+// Where the generated message writers (MessageGenerator) put their bytes.
+// Wrapped around a buffer it encodes at the buffer's position; in sizing
+// mode it only counts. Running the same writer calls once in each mode
+// gives the exact size and then the bytes, with no size formula to keep in
+// step with the encoder.
+public final class MessageOutput {
+
+	private ByteBuffer buffer;
+	private short version;
+	private int size;
+	private MessageOutput sink;
+
+	public MessageOutput wrap(ByteBuffer buffer, short version) {
+		this.buffer = buffer;
+		this.version = version;
+		this.size = 0;
+		return this;
+	}
+
+	public MessageOutput sizing(short version) {
+		return wrap(null, version);
+	}
+
+	public short version() {
+		return version;
+	}
+
+	// Bytes written, or counted when sizing
+	public int size() {
+		return size;
+	}
+
+	// Counts but never writes: takes the elements of an array or struct the
+	// version does not have, so callers need not check versions themselves
+	MessageOutput sink() {
+		if (sink == null) {
+			sink = new MessageOutput();
+		}
+		return sink.sizing(version);
+	}
+
+	public void putByte(byte value) {
+		if (buffer != null) {
+			buffer.put(value);
+		}
+		size += 1;
+	}
+
+	public void putBoolean(boolean value) {
+		putByte((byte) (value ? 1 : 0));
+	}
+
+	public void putShort(short value) {
+		if (buffer != null) {
+			buffer.putShort(value);
+		}
+		size += 2;
+	}
+
+	public void putInt(int value) {
+		if (buffer != null) {
+			buffer.putInt(value);
+		}
+		size += 4;
+	}
+
+	public void putLong(long value) {
+		if (buffer != null) {
+			buffer.putLong(value);
+		}
+		size += 8;
+	}
+
+	public void putDouble(double value) {
+		if (buffer != null) {
+			buffer.putDouble(value);
+		}
+		size += 8;
+	}
+
+	public void putUuid(long mostSignificantBits, long leastSignificantBits) {
+		putLong(mostSignificantBits);
+		putLong(leastSignificantBits);
+	}
+
+	public void putUnsignedVarint(int value) {
+		if (buffer != null) {
+			KafkaProtocolUtils.writeUnsignedVarint(buffer, value);
+		}
+		size += KafkaProtocolUtils.sizeOfUnsignedVarint(value);
+	}
+
+	// Array, bytes or records length; -1 for null
+	public void putLength(int length, boolean flexible) {
+		if (flexible) {
+			putUnsignedVarint(length + 1);
+		} else {
+			putInt(length);
+		}
+	}
+
+	public void putString(byte[] utf8, boolean flexible) {
+		if (buffer != null) {
+			KafkaProtocolUtils.writeString(buffer, utf8, flexible);
+		}
+		size += KafkaProtocolUtils.sizeOfString(utf8, flexible);
+	}
+
+	// The remaining bytes of value, which keeps its position
+	public void putBytes(ByteBuffer value, boolean flexible) {
+		int length = value == null ? -1 : value.remaining();
+		putLength(length, flexible);
+		if (length > 0) {
+			if (buffer != null) {
+				buffer.put(buffer.position(), value, value.position(), length);
+				buffer.position(buffer.position() + length);
+			}
+			size += length;
+		}
+	}
+}
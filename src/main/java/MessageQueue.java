@@ -0,0 +1,49 @@
+import java.util.function.Consumer;
+
+// Bounded, lock-free queue family used between broker threads. offer/poll
+// never block; put and take apply the queue's BackpressurePolicy and the
+// caller's WaitStrategy respectively.
+public interface MessageQueue<E> {
+
+	// false if the queue is full
+	boolean offer(E element);
+
+	// null if the queue is empty
+	E poll();
+
+	// Moves up to limit elements to sink in one batch; returns how many
+	int drainTo(Consumer<? super E> sink, int limit);
+
+	int size();
+
+	int capacity();
+
+	BackpressurePolicy backpressurePolicy();
+
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	default boolean isFull() {
+		return size() >= capacity();
+	}
+
+	// Enqueues according to backpressurePolicy(); false only when the policy
+	// rejects, or the waiting thread is interrupted
+	default boolean put(E element) {
+		return backpressurePolicy().put(this, element);
+	}
+
+	// Waits for an element with the given strategy; null if interrupted
+	default E take(WaitStrategy waitStrategy) {
+		int idleCount = 0;
+		E element;
+		while ((element = poll()) == null) {
+			if (Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+			idleCount = waitStrategy.idle(idleCount);
+		}
+		return element;
+	}
+}
@@ -1,11 +1,14 @@
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.nio.BufferUnderflowException;
 
 public class MessageUtils {
@@ -15,18 +18,16 @@ public class MessageUtils {
         if (reader.read(lenWord) == 4) {
             ByteBuffer buffer = wrap(lenWord);
 	    int messageLength = buffer.getInt();
-	    System.out.println("Message Length: " + messageLength);
+	    if (Log.isDebugEnabled()) Log.debug("Message Length: {}", messageLength);
             return messageLength;
         } else {
-            System.err.println("Message length not available");
+            Log.debug("Message length not available");
             return -1;
         }
     }
 
     public static byte[] readMessage(InputStream reader, int messageLength) throws IOException {
 
-	    System.out.println("Message length when 'readMessage' method is applied: " +
-			    messageLength);
 	    byte[] message = new byte[messageLength];
 	    /*
     	    if (reader.read(message) != messageLength) {
@@ -41,152 +42,194 @@ public class MessageUtils {
 	    while (totalBytesRead < messageLength) {
 	        bytesRead = reader.read(message, totalBytesRead, messageLength - totalBytesRead);
 	        if (bytesRead == -1) {
-	            System.err.println("End of stream reached before reading full message.");
+	            Log.warn("End of stream reached before reading full message.");
 	            return null;
 	        }
 	        totalBytesRead += bytesRead;
 	    }
 
-	    System.out.println("Message readed");
 	    
 	    
         return message;
     }
 
-    public static void processMessage(OutputStream writer, byte[] message) throws IOException {
-
-        ByteBuffer buffer = wrap(message);
-	/*
-	    System.out.println("ByteBuffer contents check: ");
-	    System.out.println("ByteBuffer DEC: ");
-	    printByteBuffer(buffer);
-	    System.out.println("ByteBuffer HEX: ");
-	    printByteBufferHEX(buffer);
-	*/
-        //RequestKey key = RequestKey.fromValue(buffer.getShort());
-	//short key = (short)APIKeys.RespondAPIKeyRequest(buffer.getShort());
-	//
-	// Check Buffer status
-	buffer.rewind(); // Reset position
-	System.out.println("ByteBuffer position: " + buffer.position());
-	System.out.println("ByteBuffer limit: " + buffer.limit());
-	//
-	while(buffer.hasRemaining()){
-		byte b = buffer.get();
-		System.out.print(b + " ");
+    public static void processMessage(GatheringByteChannel channel, byte[] message) throws IOException {
+	processMessage(channel, message, null);
+    }
+
+    // Blocking transports cannot stop reading a throttled client without
+    // parking its thread, so they only report throttle_time_ms and leave the
+    // back-off to the client
+    public static void processMessage(GatheringByteChannel channel, byte[] message, QuotaManager.Session quota) throws IOException {
+
+	long received = System.nanoTime();
+	short apiKey = message.length >= 2 ? (short) (((message[0] & 0xFF) << 8) | (message[1] & 0xFF)) : -1;
+	Metrics.get().bytesIn(4 + message.length);
+	ByteBuffer frame = wrap(message);
+	int throttleTimeMs = quota == null ? 0 : recordRequest(quota, frame, message.length + 4);
+	Response response = handleMessage(frame, null, quota, throttleTimeMs);
+
+	if (response == null) {
+		Log.debug("Response buffer is null, nothing to send.");
+		Metrics.get().record(apiKey, Metrics.Stage.TOTAL, System.nanoTime() - received);
+		return;
 	}
-	if(buffer.remaining() > 0){
-		System.err.println("Not all data was processed. Remaining: " + buffer.remaining());
+	response.track(apiKey, received);
+	try {
+		response.writeFully(channel);
+		Log.debug("Response sent successfully.");
+	} catch (IOException e) {
+		Log.error("Error writing response: {}", e.getMessage(), e);
+	} finally {
+		response.release();
 	}
-	System.out.println("All bytes processed.");
-	buffer.rewind(); // Reset position
-	
+    }
 
-	//
-	APIKeys key = APIKeys.fromApiKey(buffer.getShort());
-        int version = buffer.getShort();
-        int correlationId = buffer.getInt();
-        System.out.println("Received request for " + key + " " + version + " " + correlationId);
-	short clientIDLength = buffer.getShort();
-	System.out.println("Client ID Length: " + clientIDLength);
-	String clientID = getString(buffer, clientIDLength);
-	System.out.println("Client ID: " + clientID);
-	System.out.println("Buffer position after clientID: " + buffer.position());
-	byte clientTAGBUFFER = buffer.get();
-	System.out.println("Buffer position after clientIDTAGBUFFER: " + buffer.position());
-
-        ByteBuffer responseBuffer = null;
-        switch (key) {
-            case APIKeys.API_VERSIONS:
-                responseBuffer = handleApiVersions(version, correlationId, key);
-                break;
-	    case APIKeys.DESCRIBE_TOPIC_PARTITIONS:
-		//buffer.rewind(); // Reset position
-		//String topicName = extractTopicName(buffer, (14 + clientID.length() + 1 + 1 + 1)); FIX THIS
-		//buffer.position(25);
-		byte arrayLength = buffer.get();
-		System.out.println("Array length: " + arrayLength);
-		byte topicNameLength = buffer.get();
-		System.out.println("TopicName length: " + topicNameLength);
-		String topicName = getString(buffer, (topicNameLength - 1));
-		System.out.println("TopicName: " + topicName);
-		UUID topicUUID = UUID.fromString("00000000-0000-0000-0000-000000000000");
-		responseBuffer = handleTopicPartitionsRequest(correlationId, topicName, topicUUID);
-
-		if (responseBuffer == null) {
-		    System.out.println("Error: responseBuffer is null.");
-		} else {
-		    System.out.println("Response buffer allocated, size: " + responseBuffer.capacity());
-		}
-
-		break;
-            // Handle other cases (PRODUCE, FETCH, HEARTBEAT)
-	    default:
-		System.out.println("Unknown API Key: " + key);
-		// implement send error message to client
-		//responseBuffer = createErrorResponse(correlationId, "Unknown API Key");
-        }
+    // Reused per thread, so decoding a header never allocates
+    private static final ThreadLocal<RequestContext> REQUEST_CONTEXT =
+            ThreadLocal.withInitial(RequestContext::new);
 
-	try{
-	        if (responseBuffer != null) {
-		    	System.out.println("Response contents: " + Arrays.toString(data(responseBuffer)));
-            		writer.write(data(responseBuffer));
-          	  	writer.flush();
-			System.out.println("Response sent successfully.");
-		} else {
-			System.out.println("Response buffer is null, nothing to send.");
-		}
+    public static Response handleMessage(byte[] message) {
+	return handleMessage(wrap(message));
+    }
 
-	} catch (IOException e) {
-		System.out.println("Error writing response: " + e.getMessage());
-		e.printStackTrace();
+    // Decodes one request frame (without the size prefix), dispatches it to
+    // the registered handler and returns the encoded response, or null if
+    // there is nothing to send.
+    public static Response handleMessage(ByteBuffer buffer) {
+	return handleMessage(buffer, null);
+    }
+
+    // As above, but a handler may return Response.DEFERRED and answer later
+    // through callback
+    public static Response handleMessage(ByteBuffer buffer, ResponseCallback callback) {
+	return handleMessage(buffer, callback, null, 0);
+    }
+
+    // As above, for a client whose quotas already charged throttleTimeMs
+    public static Response handleMessage(ByteBuffer buffer, ResponseCallback callback, QuotaManager.Session quota, int throttleTimeMs) {
+
+	long start = System.nanoTime();
+	RequestContext request = REQUEST_CONTEXT.get().wrap(buffer, callback, quota, throttleTimeMs);
+	RequestHeader header = request.header();
+	short apiKey = header.apiKey();
+	short version = header.apiVersion();
+        int correlationId = header.correlationId();
+        if (Log.isDebugEnabled()) Log.debug("Received request for {} {} {}", APIKeys.fromApiKey(apiKey), version, correlationId);
+	Log.traceHex(apiKey, "Request", buffer, buffer.position(), buffer.remaining());
+
+	Response responseBuffer;
+	RequestHandler handler = RequestHandlerRegistry.get().handlerFor(apiKey);
+	long headerDecoded = System.nanoTime();
+	if (handler == null) {
+		Log.warn("Unknown API Key: {}", apiKey);
+		responseBuffer = createErrorResponse(correlationId, ErrorCodes.UNSUPPORTED_VERSION);
+	} else if (!handler.supportsVersion(version)) {
+		Log.warn("Unsupported version {} for {}", version, handler.apiKey());
+		responseBuffer = handler.unsupportedVersion(request);
+	} else {
+		buffer.position(header.bodyOffset());
+		responseBuffer = handler.handle(request);
 	}
+	request.recordStages(start, headerDecoded, System.nanoTime());
+
+	if (responseBuffer != null && responseBuffer != Response.DEFERRED && Log.isTraceEnabled(apiKey)) {
+		Log.trace("Response ({} bytes): {}", responseBuffer.remaining(), responseBuffer.toHexString());
+	}
+	return responseBuffer;
+    }
+
+    // Charges one request frame (size prefix included in bytes) to the
+    // client's quotas; returns the throttle time in ms
+    public static int recordRequest(QuotaManager.Session quota, ByteBuffer frame, int bytes) {
+	if (frame.remaining() < 10) {
+		return 0; // Not even a header, rejected when handled
+	}
+	RequestHeader header = QUOTA_HEADER.get().wrap(frame, frame.position());
+	int throttleTimeMs = quota.recordRequest(header.clientId(), header.apiKey(), bytes);
+	if (throttleTimeMs > 0) {
+		Metrics.get().throttled();
+	}
+	return throttleTimeMs;
     }
 
- public  static ByteBuffer handleApiVersions(int version, int correlationId, APIKeys key) {
-        ByteBuffer message = createApiVersionsResponse(version, correlationId, key);
+    // Separate from the handler's, so quota checks on a network thread keep
+    // their own client_id cache
+    private static final ThreadLocal<RequestHeader> QUOTA_HEADER = ThreadLocal.withInitial(RequestHeader::new);
+
+    // Minimal error answer (response header v0 + error_code) for requests we
+    // cannot decode any further: unknown api key or unsupported version
+    public static Response createErrorResponse(int correlationId, ErrorCodes error) {
+	ByteBuffer message = BufferPool.current().acquire(4 + 2);
+	message.putInt(correlationId);
+	message.putShort((short) error.getCode());
+	return createResponseBuffer(message);
+    }
+
+ public  static Response handleApiVersions(int version, int correlationId, RequestHandlerRegistry registry, int throttleTimeMs) {
+        ByteBuffer message = createApiVersionsResponse(version, correlationId, registry, throttleTimeMs);
         return createResponseBuffer(message);
     }
 
-    public static ByteBuffer createApiVersionsResponse(int version, int correlationId, APIKeys key) {
-        ByteBuffer message = ByteBuffer.allocate(1024).order(ByteOrder.BIG_ENDIAN);
-        message.putInt(correlationId);
-
-	// Error code 0 (no error)
-        if (version >= 0 && version <= 4) {
-            message.putShort((short) 0); // No error
-            message.put((byte) 3) // compat arrays = (NUMApiKeys - 1) = now 2 arrays
-				  
-
-            // First Key byte array - APIVersions
-            .putShort((short)key.getCode()) // 1st KEY
-	    .putShort((short) 0) // Min version
-            .putShort((short) 4) // Max version
-            .put((byte) 0) // TAG BUFFER
-	
-            // Second Key byte array - DESCRIBE_TOPIC_PARTITIONS
-            .putShort((short)key.DESCRIBE_TOPIC_PARTITIONS.getCode())
-            .putShort((short) 0) // Min Version Description
-            .putShort((short) 0) // Max Version Description
-            .put((byte) 0) // TAG BUFFER
-	
-            // END
-            .putInt((int) 0) // throttle_time_ms
-            .put((byte) 0); // TAG BUFFER
-	    ;
-	    
-        } else {
-            message.putShort((short) 35); // Unsupported version error code
+    // api_keys is generated from the handler registry: one entry per
+    // registered handler with its declared version range
+    public static ByteBuffer createApiVersionsResponse(int version, int correlationId, RequestHandlerRegistry registry) {
+        return createApiVersionsResponse(version, correlationId, registry, 0);
+    }
+
+    // Encoded by the generated ApiVersionsResponseMessage writer, sized by a
+    // dry run of the same calls. The header is always v0, so that a client
+    // sending too new a version can still read the error.
+    public static ByteBuffer createApiVersionsResponse(int version, int correlationId, RequestHandlerRegistry registry, int throttleTimeMs) {
+        List<RequestHandler> handlers = registry.handlers();
+        if (!ApiVersionsResponseMessage.isSupported((short) version)) {
+            ByteBuffer message = BufferPool.current().acquire(4 + 2);
+            message.putInt(correlationId);
+            message.putShort((short) ErrorCodes.UNSUPPORTED_VERSION.getCode());
+            return message;
         }
+        ApiVersionsResponseMessage.Writer writer = API_VERSIONS_WRITER.get();
+        writeApiVersions(writer.sizing((short) version), handlers, throttleTimeMs);
+        ByteBuffer message = BufferPool.current().acquire(responseHeaderSize(false) + writer.size());
+        writeResponseHeader(message, correlationId, false);
+        writeApiVersions(writer.wrap(message, (short) version), handlers, throttleTimeMs);
         return message;
     }
 
-    public static ByteBuffer createResponseBuffer(ByteBuffer message) {
-        ByteBuffer response = ByteBuffer.allocate(1024).order(ByteOrder.BIG_ENDIAN);
-        byte[] messageBytes = data(message);
-        response.putInt(messageBytes.length);
-        response.put(messageBytes);
-        return response;
+    private static void writeApiVersions(ApiVersionsResponseMessage.Writer writer, List<RequestHandler> handlers, int throttleTimeMs) {
+        writer.errorCode((short) ErrorCodes.NONE.getCode());
+        ApiVersionsResponseMessage.ApiVersionWriter apiKeys = writer.apiKeys(handlers.size());
+        for (RequestHandler handler : handlers) {
+            apiKeys.apiKey((short) handler.apiKey().getCode())
+                   .minVersion(handler.minVersion())
+                   .maxVersion(handler.maxVersion())
+                   .end();
+        }
+        writer.throttleTimeMs(throttleTimeMs).end();
+    }
+
+    // Generated writers keep no state between messages, so one per thread
+    private static final ThreadLocal<ApiVersionsResponseMessage.Writer> API_VERSIONS_WRITER =
+            ThreadLocal.withInitial(ApiVersionsResponseMessage.Writer::new);
+    private static final ThreadLocal<DescribeTopicPartitionsResponseMessage.Writer> TOPIC_PARTITIONS_WRITER =
+            ThreadLocal.withInitial(DescribeTopicPartitionsResponseMessage.Writer::new);
+    private static final ThreadLocal<ResponseHeaderMessage.Writer> RESPONSE_HEADER_WRITER =
+            ThreadLocal.withInitial(ResponseHeaderMessage.Writer::new);
+
+    // Response header v1 (with a tag buffer) for flexible responses, v0 otherwise
+    public static int responseHeaderSize(boolean flexible) {
+        return RESPONSE_HEADER_WRITER.get().sizing((short) (flexible ? 1 : 0)).correlationId(0).end().size();
+    }
+
+    public static void writeResponseHeader(ByteBuffer message, int correlationId, boolean flexible) {
+        RESPONSE_HEADER_WRITER.get().wrap(message, (short) (flexible ? 1 : 0)).correlationId(correlationId).end();
+    }
+
+    // Pairs a fully written body with its size header; the body buffer is
+    // already exactly sized, so it is flipped and sent as is.
+    public static Response createResponseBuffer(ByteBuffer message) {
+        message.flip();
+        return Response.of(BufferPool.current(), message);
     }
 
     public static byte[] data(ByteBuffer buffer) {
@@ -206,10 +249,11 @@ public class MessageUtils {
 	    return correlationID == expectedCorrelationID;
     }
     public static int extractCorrelationID(byte[] message){
-	    ByteBuffer buffer = ByteBuffer.wrap(message);
-	    buffer.order(ByteOrder.BIG_ENDIAN);
-	    int correlationID = buffer.getInt(4); // After MessageSize
-	    return correlationID;
+	    // After api_key and api_version, read in place
+	    return ((message[4] & 0xFF) << 24) |
+		   ((message[5] & 0xFF) << 16) |
+		   ((message[6] & 0xFF) << 8) |
+		    (message[7] & 0xFF);
     }
     // Modding
     //public static String extractTopicName(ByteBuffer buffer, int byteposition) {
@@ -309,32 +353,128 @@ public class MessageUtils {
     }
 
 
-    public static ByteBuffer handleTopicPartitionsRequest(int correlationID, String topicName, UUID topicUUID){
-	    ByteBuffer message = createTopicPartitionsResponse(correlationID, topicName, topicUUID);
+    public static Response handleTopicPartitionsRequest(int correlationID, List<String> topicNames, String cursorTopic, int cursorPartition,
+		    int partitionLimit, ClusterMetadata metadata, int throttleTimeMs){
+	    return createTopicPartitionsResponse(correlationID, topicNames, cursorTopic, cursorPartition, partitionLimit, metadata, throttleTimeMs);
+    }
+
+    private static final UUID ZERO_UUID = new UUID(0L, 0L);
+    private static final int[] NO_NODES = new int[0];
+    private static final int TOPIC_AUTHORIZED_OPERATIONS = 3576; // 0x0df8: READ, WRITE, CREATE, DELETE, ALTER, DESCRIBE, DESCRIBE_CONFIGS, ALTER_CONFIGS
+
+    // One page of DescribeTopicPartitions: topicNames (sorted by the caller),
+    // or every topic in the snapshot when empty, resumed from the cursor and
+    // cut after partitionLimit partitions. next_cursor points at the first
+    // partition left out, or is null on the last page. Unknown names get
+    // UNKNOWN_TOPIC_OR_PARTITION and do not count towards the limit.
+    //
+    // The page is planned first (so array lengths are known), then encoded
+    // by the generated DescribeTopicPartitionsResponseMessage writer.
+    public static Response createTopicPartitionsResponse(int correlationID, List<String> topicNames, String cursorTopic, int cursorPartition,
+		    int partitionLimit, ClusterMetadata metadata){
+	    return createTopicPartitionsResponse(correlationID, topicNames, cursorTopic, cursorPartition, partitionLimit, metadata, 0);
+    }
+
+    public static Response createTopicPartitionsResponse(int correlationID, List<String> topicNames, String cursorTopic, int cursorPartition,
+		    int partitionLimit, ClusterMetadata metadata, int throttleTimeMs){
+
+	    List<String> names = topicNames.isEmpty() ? metadata.sortedTopicNames() : topicNames;
+	    int start = 0;
+	    if (cursorTopic != null) {
+		    start = Collections.binarySearch(names, cursorTopic);
+		    start = start < 0 ? -start - 1 : start;
+	    }
+
+	    // Entries of {name index, first partition, end partition}
+	    List<int[]> page = new ArrayList<>();
+	    int budget = Math.max(0, partitionLimit);
+	    String nextTopic = null;
+	    int nextPartition = 0;
+	    for (int i = start; i < names.size(); i++) {
+		    String name = names.get(i);
+		    TopicMetadata topic = metadata.topic(name);
+		    int first = name.equals(cursorTopic) ? Math.max(0, cursorPartition) : 0;
+		    if (topic == null) {
+			    page.add(new int[] { i, 0, 0 });
+			    continue;
+		    }
+		    int count = topic.partitionCount();
+		    if (count > 0 && first >= count) {
+			    continue; // The cursor is past this topic's last partition
+		    }
+		    if (budget == 0) {
+			    nextTopic = name;
+			    nextPartition = first;
+			    break;
+		    }
+		    int end = (int) Math.min(count, (long) first + budget);
+		    budget -= end - first;
+		    page.add(new int[] { i, first, end });
+		    if (end < count) {
+			    nextTopic = name;
+			    nextPartition = end;
+			    break;
+		    }
+	    }
+
+	    // A dry run of the writer calls sizes the page exactly, then the same
+	    // calls fill one pooled buffer
+	    String cursor = nextTopic;
+	    DescribeTopicPartitionsResponseMessage.Writer writer = TOPIC_PARTITIONS_WRITER.get();
+	    writeTopicPartitions(writer.sizing((short) 0), names, page, metadata, cursor, nextPartition, throttleTimeMs);
+	    ByteBuffer message = BufferPool.current().acquire(responseHeaderSize(true) + writer.size());
+	    writeResponseHeader(message, correlationID, true);
+	    writeTopicPartitions(writer.wrap(message, (short) 0), names, page, metadata, cursor, nextPartition, throttleTimeMs);
 	    return createResponseBuffer(message);
+    }
 
+    private static void writeTopicPartitions(DescribeTopicPartitionsResponseMessage.Writer writer, List<String> names, List<int[]> page,
+		    ClusterMetadata metadata, String nextTopic, int nextPartition, int throttleTimeMs) {
+	    writer.throttleTimeMs(throttleTimeMs);
+	    DescribeTopicPartitionsResponseMessage.DescribeTopicPartitionsResponseTopicWriter topics = writer.topics(page.size());
+	    for (int[] entry : page) {
+		    String name = names.get(entry[0]);
+		    TopicMetadata topic = metadata.topic(name);
+		    ErrorCodes error = topic == null ? ErrorCodes.UNKNOWN_TOPIC_OR_PARTITION : ErrorCodes.NONE;
+		    topics.errorCode((short) error.getCode())
+			  .name(KafkaProtocolUtils.utf8(name))
+			  .topicId(topic == null ? ZERO_UUID : topic.id())
+			  .isInternal(topic != null && topic.isInternal());
+		    DescribeTopicPartitionsResponseMessage.DescribeTopicPartitionsResponsePartitionWriter partitions =
+			    topics.partitions(topic == null ? 0 : countPartitions(topic, entry[1], entry[2]));
+		    for (int p = entry[1]; topic != null && p < entry[2]; p++) {
+			    PartitionMetadata partition = topic.partition(p);
+			    if (partition != null) {
+				    partitions.errorCode((short) ErrorCodes.NONE.getCode())
+					      .partitionIndex(partition.partitionId())
+					      .leaderId(partition.leader())
+					      .leaderEpoch(partition.leaderEpoch())
+					      .replicaNodes(partition.replicas())
+					      .isrNodes(partition.isr())
+					      .eligibleLeaderReplicas(NO_NODES)
+					      .lastKnownElr(NO_NODES)
+					      .offlineReplicas(NO_NODES)
+					      .end();
+			    }
+		    }
+		    topics.topicAuthorizedOperations(TOPIC_AUTHORIZED_OPERATIONS).end();
+	    }
+	    if (nextTopic == null) {
+		    writer.nextCursorNull();
+	    } else {
+		    writer.nextCursor().topicName(KafkaProtocolUtils.utf8(nextTopic)).partitionIndex(nextPartition).end();
+	    }
+	    writer.end();
     }
-    public static ByteBuffer createTopicPartitionsResponse(int correlationID, String topicName, UUID topicUUID){
-
-	    ByteBuffer message = ByteBuffer.allocate(1024).order(ByteOrder.BIG_ENDIAN);
-
-	    message.putInt(correlationID);
-	    message.put((byte) 0 ); // Header TAG_BUFFER
-	    message.putInt(0); // Thottle Time
-	    message.put((byte) 2); // Array Length : N + 1 = 1
-	    //message.putShort((short) 3); // Error Code - UNKNOWN_TOPIC add TopicsErrorsEnum
-	    message.putShort((short) 0); // Error Code - None add TopicsErrorsEnum
-	    message.put((byte) (topicName.length() + 1)); // TopicNameLength : N+1
-	    message.put(topicName.getBytes(StandardCharsets.UTF_8)); // TopicName
-	    message.put(uuidToByteArray(topicUUID)); // TopicID - 16bytes UUID
-	    message.put((byte) 0); // IsInternal - byte boolean
-	    message.put((byte) 1); // Partitions Array - COMPACT_ARRAY - N+1=0
-	    message.putInt(3576); // TopicAuthorizedOperations : 4bytes BitField
-	    message.put((byte) 0); // Topics TAG_BUFFER
-	    message.put((byte) 0xFF); // Cursor
-	    message.put((byte) 0); // Final TAG_BUFFER
-	    
-	    return message;
+
+    private static int countPartitions(TopicMetadata topic, int first, int end) {
+	    int count = 0;
+	    for (int i = first; i < end; i++) {
+		    if (topic.partition(i) != null) {
+			    count++;
+		    }
+	    }
+	    return count;
     }
 
     public static String getString(ByteBuffer buffer, int N) {
@@ -0,0 +1,71 @@
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.UnaryOperator;
+
+// Holder of the current ClusterMetadata snapshot, loaded from the metadata
+// log at startup. Readers get the snapshot with one volatile read; writers
+// build a new snapshot and swap it in. The only writer is the refresher
+// thread, which applies whatever the controller appended to the metadata log
+// every metadata.refresh.interval.ms.
+public class MetadataCache {
+
+	private static final MetadataCache INSTANCE = new MetadataCache(new MetadataLoader(Path.of(BrokerConfig.LOG_DIRS)));
+
+	private final MetadataLoader loader;
+	private volatile ClusterMetadata current;
+
+	public MetadataCache(MetadataLoader loader) {
+		this.loader = loader;
+		this.current = loader.load();
+	}
+
+	public static MetadataCache get() {
+		return INSTANCE;
+	}
+
+	public ClusterMetadata current() {
+		return current;
+	}
+
+	// Starts following the metadata log, unless the refresh interval is 0
+	public void startup() {
+		if (BrokerConfig.METADATA_REFRESH_INTERVAL_MS <= 0) {
+			return;
+		}
+		Thread refresher = new Thread(this::refreshLoop, "kafka-metadata-refresher");
+		refresher.setDaemon(true);
+		refresher.start();
+	}
+
+	// Publishes change(current) as the new snapshot. Pre-encoded responses
+	// may describe the old one, so a new snapshot drops them.
+	public synchronized ClusterMetadata update(UnaryOperator<ClusterMetadata> change) {
+		ClusterMetadata previous = current;
+		ClusterMetadata next = change.apply(previous);
+		if (next != previous) {
+			current = next;
+			ResponseTemplateCache.get().invalidate();
+		}
+		return next;
+	}
+
+	private void refreshLoop() {
+		long intervalNanos = TimeUnit.MILLISECONDS.toNanos(BrokerConfig.METADATA_REFRESH_INTERVAL_MS);
+		while (true) {
+			LockSupport.parkNanos(intervalNanos);
+			if (Thread.interrupted()) {
+				return;
+			}
+			try {
+				ClusterMetadata previous = current;
+				ClusterMetadata next = update(loader::catchUp);
+				if (next != previous) {
+					Log.info("Cluster metadata updated: {} topics", next.topicCount());
+				}
+			} catch (RuntimeException e) {
+				Log.error("Error refreshing cluster metadata from {}", BrokerConfig.LOG_DIRS, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+// Replays the KRaft metadata log (<log.dirs>/__cluster_metadata-0/*.log) into
+// a ClusterMetadata snapshot. Each record value is a metadata record:
+//
+//   frame_version UVARINT, type UVARINT, version UVARINT, fields...
+//
+// TopicRecord, PartitionRecord, PartitionChangeRecord and RemoveTopicRecord
+// shape the snapshot; everything else (feature levels, brokers) is skipped.
+//
+// The loader remembers where its last complete batch ended, so catchUp only
+// reads what was appended since. Not thread safe; MetadataCache serializes it.
+public class MetadataLoader {
+
+	public static final String METADATA_TOPIC = "__cluster_metadata";
+
+	private static final int TOPIC_RECORD = 2;
+	private static final int PARTITION_RECORD = 3;
+	private static final int PARTITION_CHANGE_RECORD = 5;
+	private static final int REMOVE_TOPIC_RECORD = 9;
+
+	private static final int NO_LEADER_CHANGE = -2;
+
+	private final Path dir;
+	// Segment and position right after the last batch replayed
+	private String segment = "";
+	private long position = 0;
+
+	public MetadataLoader(Path logDir) {
+		this.dir = logDir.resolve(PartitionLog.dirName(METADATA_TOPIC, 0));
+	}
+
+	// The whole log as a snapshot
+	public ClusterMetadata load() {
+		if (!Files.isDirectory(dir)) {
+			Log.info("No cluster metadata log in {}", dir);
+			return ClusterMetadata.EMPTY;
+		}
+		ClusterMetadata metadata = catchUp(ClusterMetadata.EMPTY);
+		Log.info("Loaded cluster metadata: {} topics", metadata.topicCount());
+		return metadata;
+	}
+
+	// base with the batches appended since the last call applied, or base
+	// itself when there are none
+	public ClusterMetadata catchUp(ClusterMetadata base) {
+		if (!Files.isDirectory(dir)) {
+			return base;
+		}
+		ClusterMetadata.Builder builder = base.toBuilder();
+		boolean changed = false;
+		try {
+			for (Path file : segments(dir)) {
+				String name = file.getFileName().toString();
+				if (name.compareTo(segment) < 0) {
+					continue;
+				}
+				long start = name.equals(segment) ? position : 0;
+				try (FileChannel channel = FileChannel.open(file)) {
+					long size = channel.size();
+					if (size <= start) {
+						continue;
+					}
+					int replayed = replay(channel.map(FileChannel.MapMode.READ_ONLY, start, size - start), builder);
+					changed |= replayed > 0;
+					if (replayed > 0 || !name.equals(segment)) {
+						segment = name;
+						position = start + replayed;
+					}
+				}
+			}
+		} catch (IOException e) {
+			Log.error("Error reading cluster metadata from {}: {}", dir, e.getMessage());
+		}
+		return changed ? builder.build() : base;
+	}
+
+	private static List<Path> segments(Path dir) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> list = Files.list(dir)) {
+			list.filter(path -> path.getFileName().toString().matches("\\d{20}\\.log")).sorted().forEach(files::add);
+		}
+		return files;
+	}
+
+	// Applies every record of every complete batch in log, inflating
+	// compressed batches into one reused pooled buffer; returns the bytes
+	// replayed, a trailing partial batch excluded
+	public static int replay(ByteBuffer log, ClusterMetadata.Builder builder) {
+		PooledOutputStream inflated = new PooledOutputStream(BufferPool.current(), 64 * 1024);
+		try {
+			return replayBatches(log, builder, inflated);
+		} finally {
+			inflated.release();
+		}
+	}
+
+	private static int replayBatches(ByteBuffer log, ClusterMetadata.Builder builder, PooledOutputStream inflated) {
+		RecordBatch batch = new RecordBatch();
+		int position = 0;
+		int limit = log.limit();
+		while (RecordBatch.isComplete(log, position, limit)) {
+			batch.wrap(log, position);
+			int end = position + batch.sizeInBytes();
+			if (batch.magic() != RecordBatch.CURRENT_MAGIC) {
+				Log.warn("Stopping metadata replay at unsupported batch magic {}", batch.magic());
+				return position;
+			}
+			if (batch.isControl()) {
+				position = end;
+				continue;
+			}
+			try {
+				replayRecords(batch.records(inflated), batch.recordsCount(), builder);
+			} catch (IOException | KafkaException e) {
+				Log.warn("Skipping unreadable metadata batch at offset {}: {}", batch.baseOffset(), e.getMessage());
+			}
+			position = end;
+		}
+		return position;
+	}
+
+	private static void replayRecords(ByteBuffer records, int count, ClusterMetadata.Builder builder) {
+		for (int i = 0; i < count && records.hasRemaining(); i++) {
+			int length = KafkaProtocolUtils.readVarint(records);
+			int next = records.position() + length;
+			records.get(); // attributes
+			KafkaProtocolUtils.readVarlong(records); // timestamp_delta
+			KafkaProtocolUtils.readVarint(records); // offset_delta
+			int keyLength = KafkaProtocolUtils.readVarint(records);
+			records.position(records.position() + Math.max(0, keyLength));
+			int valueLength = KafkaProtocolUtils.readVarint(records);
+			if (valueLength > 0) {
+				ByteBuffer value = records.slice(records.position(), valueLength);
+				try {
+					apply(value, builder);
+				} catch (RuntimeException e) {
+					Log.warn("Skipping malformed metadata record: {}", e.toString());
+				}
+			}
+			records.position(next);
+		}
+	}
+
+	private static void apply(ByteBuffer value, ClusterMetadata.Builder builder) {
+		KafkaProtocolUtils.readUnsignedVarint(value); // frame_version
+		int type = KafkaProtocolUtils.readUnsignedVarint(value);
+		int version = KafkaProtocolUtils.readUnsignedVarint(value);
+		switch (type) {
+			case TOPIC_RECORD: {
+				String name = KafkaProtocolUtils.readString(value, true);
+				UUID id = KafkaProtocolUtils.readUuid(value);
+				builder.addTopic(name, id);
+				break;
+			}
+			case PARTITION_RECORD: {
+				int partitionId = value.getInt();
+				UUID topicId = KafkaProtocolUtils.readUuid(value);
+				int[] replicas = readIntArray(value);
+				int[] isr = readIntArray(value);
+				readIntArray(value); // removing_replicas
+				readIntArray(value); // adding_replicas
+				int leader = value.getInt();
+				int leaderEpoch = value.getInt();
+				int partitionEpoch = value.getInt();
+				builder.putPartition(new PartitionMetadata(topicId, partitionId, leader, leaderEpoch, partitionEpoch, replicas, isr));
+				break;
+			}
+			case PARTITION_CHANGE_RECORD: {
+				int partitionId = value.getInt();
+				UUID topicId = KafkaProtocolUtils.readUuid(value);
+				int leader = value.getInt();
+				int[] isr = null;
+				int[] replicas = null;
+				int tags = KafkaProtocolUtils.readUnsignedVarint(value);
+				for (int t = 0; t < tags; t++) {
+					int tag = KafkaProtocolUtils.readUnsignedVarint(value);
+					int size = KafkaProtocolUtils.readUnsignedVarint(value);
+					int next = value.position() + size;
+					if (tag == 0) {
+						isr = readIntArray(value);
+					} else if (tag == 2) {
+						replicas = readIntArray(value);
+					}
+					value.position(next);
+				}
+				PartitionMetadata current = builder.partition(topicId, partitionId);
+				if (current != null) {
+					builder.putPartition(current.withChange(leader == NO_LEADER_CHANGE ? current.leader() : leader, replicas, isr));
+				}
+				break;
+			}
+			case REMOVE_TOPIC_RECORD:
+				builder.removeTopic(KafkaProtocolUtils.readUuid(value));
+				break;
+			default:
+				Log.debug("Skipping metadata record type {} v{}", type, version);
+		}
+	}
+
+	private static int[] readIntArray(ByteBuffer value) {
+		int length = KafkaProtocolUtils.readArrayLength(value, true);
+		int[] array = new int[Math.max(0, length)];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = value.getInt();
+		}
+		return array;
+	}
+}
@@ -0,0 +1,245 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Broker-wide counters and per-API latency histograms. Everything on the
+// request path is a LongAdder or LatencyHistogram update, so recording never
+// locks or allocates; the histograms of an api key are created the first
+// time it is seen. MetricsReporter exposes all of it over JMX and HTTP.
+public final class Metrics {
+
+	// Where a request spends its time, in order. DECODE/HANDLE/ENCODE are
+	// split by the handler through RequestContext; one that does not mark
+	// its phases counts all of its time as HANDLE.
+	public enum Stage {
+		REQUEST_QUEUE("request_queue"),   // Frame read until a request handler picks it up
+		DECODE("decode"),                 // Header and body parsing
+		HANDLE("handle"),                 // The work itself
+		ENCODE("encode"),                 // Building the response
+		RESPONSE_QUEUE("response_queue"), // Handler done until its network thread takes the response
+		SEND("send"),                     // First socket write until the last byte is out
+		TOTAL("total");                   // Frame read until the response is fully written
+
+		private final String label;
+
+		Stage(String label) {
+			this.label = label;
+		}
+
+		public String label() {
+			return label;
+		}
+
+		// JMX style, e.g. RequestQueueTimeMs
+		public String beanName() {
+			StringBuilder name = new StringBuilder();
+			for (String word : label.split("_")) {
+				name.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+			}
+			return name.append("TimeMs").toString();
+		}
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+	private static final Metrics INSTANCE = new Metrics();
+
+	private final AtomicReferenceArray<ApiMetrics> apis = new AtomicReferenceArray<>(APIKeys.MAX_API_KEY + 1);
+
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder connectionsActive = new LongAdder();
+	private final LongAdder connectionsTotal = new LongAdder();
+	// Summed over every CircularBuffer (threads io.mode); the buffer no longer
+	// overwrites when full, it rejects under its backpressure policy
+	private final LongAdder bufferDepth = new LongAdder();
+	private final LongAdder bufferRejected = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+	// Stage sizing: the request channel, responses waiting for their network
+	// thread, and the time each stage's threads spend busy
+	private volatile RequestChannel requestChannel;
+	private final LongAdder responseQueueSize = new LongAdder();
+	private final LongAdder networkBusyNanos = new LongAdder();
+	private final LongAdder handlerBusyNanos = new LongAdder();
+	private volatile int networkThreads;
+	private volatile int handlerThreads;
+
+	public static Metrics get() {
+		return INSTANCE;
+	}
+
+	public static final class ApiMetrics {
+
+		private final short apiKey;
+		private final String name;
+		private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+
+		private ApiMetrics(short apiKey) {
+			this.apiKey = apiKey;
+			APIKeys key = APIKeys.fromApiKey(apiKey);
+			this.name = key == null ? "Unknown" + apiKey : key.getDescription().replace(" request", "");
+			for (int i = 0; i < stages.length; i++) {
+				stages[i] = new LatencyHistogram();
+			}
+		}
+
+		public short apiKey() {
+			return apiKey;
+		}
+
+		// Kafka style request name, e.g. Produce or DescribeTopicPartitions
+		public String name() {
+			return name;
+		}
+
+		public LatencyHistogram stage(Stage stage) {
+			return stages[stage.ordinal()];
+		}
+	}
+
+	// null for an api key outside the wire range
+	public ApiMetrics api(short apiKey) {
+		if (apiKey < 0 || apiKey > APIKeys.MAX_API_KEY) {
+			return null;
+		}
+		ApiMetrics metrics = apis.get(apiKey);
+		if (metrics == null) {
+			apis.compareAndSet(apiKey, null, new ApiMetrics(apiKey));
+			metrics = apis.get(apiKey);
+		}
+		return metrics;
+	}
+
+	// Api keys seen so far (or created by the reporter), in key order
+	public List<ApiMetrics> apis() {
+		List<ApiMetrics> seen = new ArrayList<>();
+		for (int i = 0; i <= APIKeys.MAX_API_KEY; i++) {
+			ApiMetrics metrics = apis.get(i);
+			if (metrics != null) {
+				seen.add(metrics);
+			}
+		}
+		return seen;
+	}
+
+	public void record(short apiKey, Stage stage, long nanos) {
+		ApiMetrics metrics = api(apiKey);
+		if (metrics != null) {
+			metrics.stages[stage.ordinal()].record(nanos);
+		}
+	}
+
+	public void bytesIn(long bytes) {
+		bytesIn.add(bytes);
+	}
+
+	public void bytesOut(long bytes) {
+		bytesOut.add(bytes);
+	}
+
+	public void connectionOpened() {
+		connectionsActive.increment();
+		connectionsTotal.increment();
+	}
+
+	public void connectionClosed() {
+		connectionsActive.decrement();
+	}
+
+	public void bufferAdded() {
+		bufferDepth.increment();
+	}
+
+	public void bufferRemoved() {
+		bufferDepth.decrement();
+	}
+
+	public void bufferRejected() {
+		bufferRejected.increment();
+	}
+
+	// A request that came back with a throttle time from the client's quotas
+	public void throttled() {
+		throttled.increment();
+	}
+
+	public void stages(RequestChannel requestChannel, int networkThreads, int handlerThreads) {
+		this.requestChannel = requestChannel;
+		this.networkThreads = networkThreads;
+		this.handlerThreads = handlerThreads;
+	}
+
+	public void responseQueued() {
+		responseQueueSize.increment();
+	}
+
+	public void responseDequeued() {
+		responseQueueSize.decrement();
+	}
+
+	public void networkBusy(long nanos) {
+		networkBusyNanos.add(nanos);
+	}
+
+	public void handlerBusy(long nanos) {
+		handlerBusyNanos.add(nanos);
+	}
+
+	public long bytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long bytesOut() {
+		return bytesOut.sum();
+	}
+
+	public long connectionsActive() {
+		return connectionsActive.sum();
+	}
+
+	public long connectionsTotal() {
+		return connectionsTotal.sum();
+	}
+
+	public long bufferDepth() {
+		return bufferDepth.sum();
+	}
+
+	public long bufferRejectedTotal() {
+		return bufferRejected.sum();
+	}
+
+	public long throttledTotal() {
+		return throttled.sum();
+	}
+
+	public long requestQueueSize() {
+		RequestChannel channel = requestChannel;
+		return channel == null ? 0 : channel.size();
+	}
+
+	public long requestQueueCapacity() {
+		RequestChannel channel = requestChannel;
+		return channel == null ? 0 : channel.capacity();
+	}
+
+	public long responseQueueSize() {
+		return responseQueueSize.sum();
+	}
+
+	public long networkBusyNanos() {
+		return networkBusyNanos.sum();
+	}
+
+	public long handlerBusyNanos() {
+		return handlerBusyNanos.sum();
+	}
+
+	public int networkThreads() {
+		return networkThreads;
+	}
+
+	public int handlerThreads() {
+		return handlerThreads;
+	}
+}
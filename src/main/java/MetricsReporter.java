@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Publishes Metrics, read-only and off the request path:
+//
+//   JMX   kafka.server:type=BrokerMetrics
+//         kafka.network:type=RequestChannel (queue sizes, stage thread busy time)
+//         kafka.network:type=RequestMetrics,name=<Stage>TimeMs,request=<Api>
+//         (Count, Mean, Max and percentiles in ms, per registered handler)
+//   HTTP  GET http://<metrics.http.host>:<metrics.http.port>/metrics in the
+//         Prometheus text format, including api keys without a handler
+//
+// Both read the live counters, so a scrape costs a histogram copy per
+// series and nothing while nobody looks.
+public final class MetricsReporter {
+
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+	private MetricsReporter() {
+	}
+
+	public static void start() {
+		Metrics metrics = Metrics.get();
+		// Registered APIs are listed from the start, even before their first request
+		for (RequestHandler handler : RequestHandlerRegistry.get().handlers()) {
+			metrics.api((short) handler.apiKey().getCode());
+		}
+		if (BrokerConfig.METRICS_JMX_ENABLE) {
+			registerMBeans(metrics);
+		}
+		if (BrokerConfig.METRICS_HTTP_PORT > 0) {
+			startHttp(metrics, BrokerConfig.METRICS_HTTP_HOST, BrokerConfig.METRICS_HTTP_PORT);
+		}
+	}
+
+	private static void registerMBeans(Metrics metrics) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			Map<String, Supplier<Object>> broker = new LinkedHashMap<>();
+			broker.put("BytesInTotal", metrics::bytesIn);
+			broker.put("BytesOutTotal", metrics::bytesOut);
+			broker.put("ActiveConnections", metrics::connectionsActive);
+			broker.put("ConnectionsTotal", metrics::connectionsTotal);
+			broker.put("CircularBufferDepth", metrics::bufferDepth);
+			broker.put("CircularBufferRejectedTotal", metrics::bufferRejectedTotal);
+			broker.put("ThrottledRequestsTotal", metrics::throttledTotal);
+			register(server, "kafka.server:type=BrokerMetrics", new Bean("Broker counters", broker));
+
+			Map<String, Supplier<Object>> network = new LinkedHashMap<>();
+			network.put("RequestQueueSize", metrics::requestQueueSize);
+			network.put("RequestQueueCapacity", metrics::requestQueueCapacity);
+			network.put("ResponseQueueSize", metrics::responseQueueSize);
+			network.put("NetworkThreads", metrics::networkThreads);
+			network.put("NetworkBusySecondsTotal", () -> metrics.networkBusyNanos() / 1e9);
+			network.put("RequestHandlerThreads", metrics::handlerThreads);
+			network.put("RequestHandlerBusySecondsTotal", () -> metrics.handlerBusyNanos() / 1e9);
+			register(server, "kafka.network:type=RequestChannel", new Bean("Network and request handler stages", network));
+
+			for (Metrics.ApiMetrics api : metrics.apis()) {
+				for (Metrics.Stage stage : Metrics.Stage.values()) {
+					LatencyHistogram histogram = api.stage(stage);
+					Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+					attributes.put("Count", () -> histogram.snapshot().count());
+					attributes.put("Mean", () -> histogram.snapshot().mean() / 1e6);
+					attributes.put("Max", () -> histogram.snapshot().max() / 1e6);
+					attributes.put("50thPercentile", () -> histogram.snapshot().percentile(0.5) / 1e6);
+					attributes.put("99thPercentile", () -> histogram.snapshot().percentile(0.99) / 1e6);
+					attributes.put("999thPercentile", () -> histogram.snapshot().percentile(0.999) / 1e6);
+					register(server, "kafka.network:type=RequestMetrics,name=" + stage.beanName() + ",request=" + api.name(),
+							new Bean(api.name() + " " + stage.label() + " time in ms", attributes));
+				}
+			}
+		} catch (JMException e) {
+			Log.warn("Could not register metrics MBeans: {}", e.getMessage());
+		}
+	}
+
+	private static void register(MBeanServer server, String name, Bean bean) throws JMException {
+		ObjectName objectName = new ObjectName(name);
+		if (!server.isRegistered(objectName)) {
+			server.registerMBean(bean, objectName);
+		}
+	}
+
+	private static void startHttp(Metrics metrics, String host, int port) {
+		try {
+			HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+			server.createContext("/metrics", exchange -> respond(exchange, metrics));
+			server.start();
+			Log.info("Metrics on http://{}:{}/metrics", host, port);
+		} catch (IOException e) {
+			// Not worth failing the broker over, e.g. a second broker on the host
+			Log.warn("Metrics endpoint on {}:{} not started: {}", host, port, e.getMessage());
+		}
+	}
+
+	private static void respond(HttpExchange exchange, Metrics metrics) throws IOException {
+		try (exchange) {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = render(metrics).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+
+	// Prometheus text exposition format
+	static String render(Metrics metrics) {
+		StringBuilder out = new StringBuilder(4096);
+		counter(out, "kafka_server_bytes_in_total", "Request bytes read, size prefix included", metrics.bytesIn());
+		counter(out, "kafka_server_bytes_out_total", "Response bytes written, size prefix included", metrics.bytesOut());
+		gauge(out, "kafka_server_connections", "Open client connections", metrics.connectionsActive());
+		counter(out, "kafka_server_connections_total", "Client connections accepted", metrics.connectionsTotal());
+		gauge(out, "kafka_server_circular_buffer_depth", "Messages waiting in all CircularBuffers", metrics.bufferDepth());
+		counter(out, "kafka_server_circular_buffer_rejected_total", "Messages a full CircularBuffer turned away",
+				metrics.bufferRejectedTotal());
+		counter(out, "kafka_server_throttled_requests_total", "Requests answered with a quota throttle time",
+				metrics.throttledTotal());
+		gauge(out, "kafka_network_request_queue_size", "Requests waiting for a request handler", metrics.requestQueueSize());
+		gauge(out, "kafka_network_request_queue_capacity", "Bound of the request channel (queued.max.requests)",
+				metrics.requestQueueCapacity());
+		gauge(out, "kafka_network_response_queue_size", "Connections with responses waiting for their network thread",
+				metrics.responseQueueSize());
+		gauge(out, "kafka_network_threads", "Network (reactor) threads", metrics.networkThreads());
+		seconds(out, "kafka_network_busy_seconds_total", "Time network threads spent off select", metrics.networkBusyNanos());
+		gauge(out, "kafka_request_handler_threads", "Request handler threads", metrics.handlerThreads());
+		seconds(out, "kafka_request_handler_busy_seconds_total", "Time request handler threads spent handling",
+				metrics.handlerBusyNanos());
+
+		out.append("# HELP kafka_request_time_seconds Time requests spend in each stage\n");
+		out.append("# TYPE kafka_request_time_seconds summary\n");
+		StringBuilder max = new StringBuilder();
+		for (Metrics.ApiMetrics api : metrics.apis()) {
+			for (Metrics.Stage stage : Metrics.Stage.values()) {
+				LatencyHistogram.Snapshot snapshot = api.stage(stage).snapshot();
+				String labels = "request=\"" + api.name() + "\",stage=\"" + stage.label() + "\"";
+				for (double quantile : QUANTILES) {
+					out.append("kafka_request_time_seconds{").append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+							.append(snapshot.percentile(quantile) / 1e9).append('\n');
+				}
+				out.append("kafka_request_time_seconds_sum{").append(labels).append("} ").append(snapshot.sum() / 1e9).append('\n');
+				out.append("kafka_request_time_seconds_count{").append(labels).append("} ").append(snapshot.count()).append('\n');
+				max.append("kafka_request_time_max_seconds{").append(labels).append("} ").append(snapshot.max() / 1e9).append('\n');
+			}
+		}
+		out.append("# HELP kafka_request_time_max_seconds Slowest request seen in each stage\n");
+		out.append("# TYPE kafka_request_time_max_seconds gauge\n");
+		return out.append(max).toString();
+	}
+
+	private static void counter(StringBuilder out, String name, String help, long value) {
+		sample(out, name, "counter", help, value);
+	}
+
+	private static void gauge(StringBuilder out, String name, String help, long value) {
+		sample(out, name, "gauge", help, value);
+	}
+
+	private static void seconds(StringBuilder out, String name, String help, long nanos) {
+		sample(out, name, "counter", help, nanos / 1e9);
+	}
+
+	private static void sample(StringBuilder out, String name, String type, String help, Number value) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	// Read-only MBean over a fixed set of named suppliers
+	private static final class Bean implements DynamicMBean {
+
+		private final Map<String, Supplier<Object>> attributes;
+		private final MBeanInfo info;
+
+		Bean(String description, Map<String, Supplier<Object>> attributes) {
+			this.attributes = attributes;
+			MBeanAttributeInfo[] infos = new MBeanAttributeInfo[attributes.size()];
+			int i = 0;
+			for (Map.Entry<String, Supplier<Object>> entry : attributes.entrySet()) {
+				String type = entry.getValue().get().getClass().getName();
+				infos[i++] = new MBeanAttributeInfo(entry.getKey(), type, entry.getKey(), true, false, false);
+			}
+			this.info = new MBeanInfo(Bean.class.getName(), description, infos, null, null, null);
+		}
+
+		@Override
+		public Object getAttribute(String name) throws AttributeNotFoundException {
+			Supplier<Object> value = attributes.get(name);
+			if (value == null) {
+				throw new AttributeNotFoundException(name);
+			}
+			return value.get();
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] names) {
+			AttributeList list = new AttributeList();
+			for (String name : names) {
+				Supplier<Object> value = attributes.get(name);
+				if (value != null) {
+					list.add(new Attribute(name, value.get()));
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+			throw new ReflectionException(new NoSuchMethodException(action));
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			return info;
+		}
+	}
+}
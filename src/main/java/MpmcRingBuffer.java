@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Multi-producer multi-consumer ring (Vyukov bounded queue, as in Log).
+// Each slot carries a sequence number that says whose turn it is: equal to
+// the producer index when free, producer index + 1 once published, and
+// consumer index + capacity once taken. Both sides claim by CAS on their own
+// padded index and never lock.
+public class MpmcRingBuffer<E> implements MessageQueue<E> {
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<E> buffer;
+	private final AtomicLongArray sequences;
+	private final BackpressurePolicy backpressurePolicy;
+
+	private final Sequence producerIndex = new Sequence(0);
+	private final Sequence consumerIndex = new Sequence(0);
+
+	public MpmcRingBuffer(int requestedCapacity, BackpressurePolicy backpressurePolicy) {
+		this.capacity = RingBuffers.powerOfTwo(requestedCapacity);
+		this.mask = capacity - 1;
+		this.buffer = new AtomicReferenceArray<>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+		this.backpressurePolicy = backpressurePolicy;
+	}
+
+	@Override
+	public boolean offer(E element) {
+		if (element == null) {
+			throw new NullPointerException("Null elements are not supported");
+		}
+		long tail = producerIndex.get();
+		while (true) {
+			int index = (int) tail & mask;
+			long sequence = sequences.get(index);
+			if (sequence == tail) {
+				if (producerIndex.compareAndSet(tail, tail + 1)) {
+					buffer.lazySet(index, element);
+					sequences.set(index, tail + 1); // Publish to consumers
+					return true;
+				}
+				tail = producerIndex.get();
+			} else if (sequence < tail) {
+				return false; // The slot from one lap ago is not consumed yet: full
+			} else {
+				tail = producerIndex.get();
+			}
+		}
+	}
+
+	@Override
+	public E poll() {
+		long head = consumerIndex.get();
+		while (true) {
+			int index = (int) head & mask;
+			long sequence = sequences.get(index);
+			if (sequence == head + 1) {
+				if (consumerIndex.compareAndSet(head, head + 1)) {
+					E element = buffer.get(index);
+					buffer.lazySet(index, null);
+					sequences.set(index, head + capacity); // Hand the slot back to producers
+					return element;
+				}
+				head = consumerIndex.get();
+			} else if (sequence < head + 1) {
+				return null; // Not published yet: empty
+			} else {
+				head = consumerIndex.get();
+			}
+		}
+	}
+
+	@Override
+	public int drainTo(Consumer<? super E> sink, int limit) {
+		int count = 0;
+		E element;
+		while (count < limit && (element = poll()) != null) {
+			sink.accept(element);
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public int size() {
+		return RingBuffers.size(producerIndex, consumerIndex, capacity);
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	@Override
+	public BackpressurePolicy backpressurePolicy() {
+		return backpressurePolicy;
+	}
+}
@@ -0,0 +1,101 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Multi-producer single-consumer ring. Producers claim a slot by CAS on the
+// producer index, then publish the element into it; the consumer treats a
+// null slot below the producer index as "claimed but not yet published".
+public class MpscRingBuffer<E> implements MessageQueue<E> {
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<E> buffer;
+	private final BackpressurePolicy backpressurePolicy;
+
+	// producerIndex.cache: highest index producers may claim without
+	// re-reading the consumer index (shared hint, only ever too low)
+	private final Sequence producerIndex = new Sequence(0);
+	private final Sequence consumerIndex = new Sequence(0);
+
+	public MpscRingBuffer(int requestedCapacity, BackpressurePolicy backpressurePolicy) {
+		this.capacity = RingBuffers.powerOfTwo(requestedCapacity);
+		this.mask = capacity - 1;
+		this.buffer = new AtomicReferenceArray<>(capacity);
+		this.backpressurePolicy = backpressurePolicy;
+		this.producerIndex.setCache(capacity);
+	}
+
+	@Override
+	public boolean offer(E element) {
+		if (element == null) {
+			throw new NullPointerException("Null elements are not supported");
+		}
+		long tail;
+		do {
+			tail = producerIndex.get();
+			long limit = producerIndex.getCache();
+			if (tail >= limit) {
+				limit = consumerIndex.getAcquire() + capacity;
+				if (tail >= limit) {
+					return false;
+				}
+				producerIndex.setCache(limit);
+			}
+		} while (!producerIndex.compareAndSet(tail, tail + 1));
+		buffer.lazySet((int) tail & mask, element);
+		return true;
+	}
+
+	@Override
+	public E poll() {
+		long head = consumerIndex.getPlain();
+		int index = (int) head & mask;
+		E element = buffer.get(index);
+		if (element == null) {
+			if (head == producerIndex.get()) {
+				return null;
+			}
+			// A producer has claimed this slot but not published yet
+			while ((element = buffer.get(index)) == null) {
+				Thread.onSpinWait();
+			}
+		}
+		buffer.lazySet(index, null);
+		consumerIndex.setRelease(head + 1);
+		return element;
+	}
+
+	@Override
+	public int drainTo(Consumer<? super E> sink, int limit) {
+		long head = consumerIndex.getPlain();
+		int count = 0;
+		while (count < limit) {
+			int index = (int) (head + count) & mask;
+			E element = buffer.get(index);
+			if (element == null) {
+				break; // Empty, or next slot not published yet
+			}
+			buffer.lazySet(index, null);
+			sink.accept(element);
+			count++;
+		}
+		if (count > 0) {
+			consumerIndex.setRelease(head + count);
+		}
+		return count;
+	}
+
+	@Override
+	public int size() {
+		return RingBuffers.size(producerIndex, consumerIndex, capacity);
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	@Override
+	public BackpressurePolicy backpressurePolicy() {
+		return backpressurePolicy;
+	}
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+// Selector based network layer, in stages: one acceptor thread hands new
+// connections round-robin to num.network.threads Reactor threads, each of
+// which multiplexes all of its sockets on a single Selector and only frames
+// requests. Framed requests go through one bounded RequestChannel
+// (queued.max.requests) to a RequestHandlerPool of num.io.threads threads,
+// and responses back to the reactor that owns the connection.
+public class NioServer {
+
+	private final int port;
+	private final Reactor[] reactors;
+	private int nextReactor = 0;
+
+	public NioServer(int port, int numReactors) {
+		this.port = port;
+		this.reactors = new Reactor[numReactors];
+	}
+
+	public void start() throws IOException {
+		RequestChannel requestChannel = new RequestChannel(BrokerConfig.QUEUED_MAX_REQUESTS);
+		RequestHandlerPool requestHandlers = new RequestHandlerPool(requestChannel, BrokerConfig.NUM_IO_THREADS);
+		Metrics.get().stages(requestChannel, reactors.length, requestHandlers.size());
+		requestHandlers.start();
+
+		for (int i = 0; i < reactors.length; i++) {
+			reactors[i] = new Reactor(i, requestChannel);
+			Thread thread = new Thread(reactors[i], "kafka-network-thread-" + i);
+			thread.start();
+		}
+
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+
+		Selector acceptSelector = Selector.open();
+		serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+		Log.info("Listening on port {} with {} network threads, {} request handler threads and a request queue of {}",
+				port, reactors.length, requestHandlers.size(), requestChannel.capacity());
+
+		try {
+			while (true) {
+				acceptSelector.select();
+				acceptSelector.selectedKeys().clear();
+				accept(serverChannel);
+			}
+		} finally {
+			acceptSelector.close();
+			serverChannel.close();
+		}
+	}
+
+	private void accept(ServerSocketChannel serverChannel) {
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (IOException e) {
+				Log.error("Error accepting connection: {}", e.getMessage());
+				return;
+			}
+			if (channel == null) {
+				return;
+			}
+			try {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Log.debug("Accepted connection from {}", channel.getRemoteAddress());
+				reactors[nextReactor].register(channel);
+				nextReactor = (nextReactor + 1) % reactors.length;
+			} catch (IOException e) {
+				Log.warn("Error configuring connection: {}", e.getMessage());
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// OffsetCommit (key 8): stores a group's consumed positions. However many
+// partitions it carries, the request is checked against the group once and
+// written to the offsets log as one batch (see OffsetManager).
+public class OffsetCommitHandler implements RequestHandler {
+
+	private static final ThreadLocal<OffsetCommitRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(OffsetCommitRequestMessage.Reader::new);
+	private static final ThreadLocal<OffsetCommitResponseMessage.Writer> RESPONSE_WRITER =
+			ThreadLocal.withInitial(OffsetCommitResponseMessage.Writer::new);
+
+	static final class TopicCommits {
+		byte[] name;
+		List<OffsetManager.Commit> partitions = new ArrayList<>();
+	}
+
+	private final GroupCoordinator coordinator;
+
+	public OffsetCommitHandler(GroupCoordinator coordinator) {
+		this.coordinator = coordinator;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.OFFSET_COMMIT;
+	}
+
+	@Override
+	public short minVersion() {
+		return 0;
+	}
+
+	// v9 is the new consumer protocol's member epochs, which we do not have
+	@Override
+	public short maxVersion() {
+		return 8;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 8;
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		short version = request.apiVersion();
+		boolean flexible = isFlexible(version);
+		OffsetCommitRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+
+		List<OffsetManager.Commit> commits = new ArrayList<>();
+		List<TopicCommits> topics = new ArrayList<>(Math.max(0, reader.topicsCount()));
+		for (OffsetCommitRequestMessage.OffsetCommitRequestTopicReader topicReader = reader.topics(); topicReader.next(); ) {
+			TopicCommits topic = new TopicCommits();
+			String name = topicReader.name();
+			topic.name = KafkaProtocolUtils.utf8(name);
+			for (OffsetCommitRequestMessage.OffsetCommitRequestPartitionReader partition = topicReader.partitions(); partition.next(); ) {
+				OffsetManager.Commit commit = new OffsetManager.Commit(name, partition.partitionIndex(), partition.committedOffset(),
+						partition.committedLeaderEpoch(), partition.committedMetadata());
+				if (name == null || name.isEmpty()) {
+					commit.error = ErrorCodes.INVALID_TOPIC_EXCEPTION;
+				}
+				topic.partitions.add(commit);
+				commits.add(commit);
+			}
+			topics.add(topic);
+		}
+		request.decoded();
+
+		// v0 has neither: a standalone commit
+		int generationId = reader.hasGenerationIdOrMemberEpoch() ? reader.generationIdOrMemberEpoch() : -1;
+		String memberId = reader.hasMemberId() ? reader.memberId() : null;
+		coordinator.commitOffsets(reader.groupId(), memberId, generationId, commits);
+
+		request.encoding();
+		OffsetCommitResponseMessage.Writer writer = RESPONSE_WRITER.get();
+		write(writer.sizing(version), topics, request.throttleTimeMs());
+		ByteBuffer message = BufferPool.current().acquire(MessageUtils.responseHeaderSize(flexible) + writer.size());
+		MessageUtils.writeResponseHeader(message, request.correlationId(), flexible);
+		write(writer.wrap(message, version), topics, request.throttleTimeMs());
+		return MessageUtils.createResponseBuffer(message);
+	}
+
+	private static void write(OffsetCommitResponseMessage.Writer writer, List<TopicCommits> topics, int throttleTimeMs) {
+		OffsetCommitResponseMessage.OffsetCommitResponseTopicWriter responses = writer.throttleTimeMs(throttleTimeMs).topics(topics.size());
+		for (TopicCommits topic : topics) {
+			OffsetCommitResponseMessage.OffsetCommitResponsePartitionWriter partitions =
+					responses.name(topic.name).partitions(topic.partitions.size());
+			for (OffsetManager.Commit commit : topic.partitions) {
+				partitions.partitionIndex(commit.partition).errorCode((short) commit.error().getCode()).end();
+			}
+			responses.end();
+		}
+		writer.end();
+	}
+}
@@ -0,0 +1,212 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+// OffsetFetch (key 9): a group's committed positions, served from the
+// OffsetManager cache without touching the offsets log. A null topic list
+// (v2+) asks for every partition the group committed; v8 batches groups.
+// Partitions without a commit answer offset -1 and no error, like Kafka.
+public class OffsetFetchHandler implements RequestHandler {
+
+	private static final byte[] NO_METADATA = new byte[0];
+
+	private static final ThreadLocal<OffsetFetchRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(OffsetFetchRequestMessage.Reader::new);
+	private static final ThreadLocal<OffsetFetchResponseMessage.Writer> RESPONSE_WRITER =
+			ThreadLocal.withInitial(OffsetFetchResponseMessage.Writer::new);
+
+	static final class PartitionOffset {
+		int index;
+		long offset = -1;
+		int leaderEpoch = -1;
+		byte[] metadata = NO_METADATA;
+		ErrorCodes error = ErrorCodes.NONE;
+	}
+
+	static final class TopicOffsets {
+		String topic;
+		byte[] name;
+		List<PartitionOffset> partitions = new ArrayList<>();
+	}
+
+	static final class GroupOffsets {
+		byte[] groupId;
+		ErrorCodes error = ErrorCodes.NONE;
+		List<TopicOffsets> topics = new ArrayList<>();
+	}
+
+	private final OffsetManager offsets;
+
+	public OffsetFetchHandler(OffsetManager offsets) {
+		this.offsets = offsets;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.OFFSET_FETCH;
+	}
+
+	@Override
+	public short minVersion() {
+		return 0;
+	}
+
+	// v9 is the new consumer protocol's member epochs, which we do not have
+	@Override
+	public short maxVersion() {
+		return 8;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 6;
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		short version = request.apiVersion();
+		boolean flexible = isFlexible(version);
+		OffsetFetchRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+
+		List<GroupOffsets> groups = new ArrayList<>();
+		if (reader.hasGroups()) {
+			for (OffsetFetchRequestMessage.OffsetFetchRequestGroupReader group = reader.groups(); group.next(); ) {
+				List<TopicOffsets> requested = null;
+				if (group.topicsCount() >= 0) {
+					requested = new ArrayList<>();
+					for (OffsetFetchRequestMessage.OffsetFetchRequestTopicsReader topic = group.topics(); topic.next(); ) {
+						requested.add(requested(topic.name(), topic.partitionIndexesCount(), topic::partitionIndexes));
+					}
+				}
+				groups.add(fetch(group.groupId(), requested));
+			}
+		} else {
+			List<TopicOffsets> requested = null;
+			if (reader.topicsCount() >= 0) {
+				requested = new ArrayList<>();
+				for (OffsetFetchRequestMessage.OffsetFetchRequestTopicReader topic = reader.topics(); topic.next(); ) {
+					requested.add(requested(topic.name(), topic.partitionIndexesCount(), topic::partitionIndexes));
+				}
+			}
+			GroupOffsets group = fetch(reader.groupId(), requested);
+			// Before v2 there is no top-level error: every partition carries it
+			if (version < 2 && group.error != ErrorCodes.NONE) {
+				for (TopicOffsets topic : group.topics) {
+					for (PartitionOffset partition : topic.partitions) {
+						partition.error = group.error;
+					}
+				}
+			}
+			groups.add(group);
+		}
+		request.decoded();
+
+		request.encoding();
+		OffsetFetchResponseMessage.Writer writer = RESPONSE_WRITER.get();
+		write(writer.sizing(version), version, groups, request.throttleTimeMs());
+		ByteBuffer message = BufferPool.current().acquire(MessageUtils.responseHeaderSize(flexible) + writer.size());
+		MessageUtils.writeResponseHeader(message, request.correlationId(), flexible);
+		write(writer.wrap(message, version), version, groups, request.throttleTimeMs());
+		return MessageUtils.createResponseBuffer(message);
+	}
+
+	private static TopicOffsets requested(String name, int count, IntUnaryOperator partitionIndexes) {
+		TopicOffsets topic = new TopicOffsets();
+		topic.topic = name;
+		topic.name = KafkaProtocolUtils.utf8(name);
+		for (int i = 0; i < count; i++) {
+			PartitionOffset partition = new PartitionOffset();
+			partition.index = partitionIndexes.applyAsInt(i);
+			topic.partitions.add(partition);
+		}
+		return topic;
+	}
+
+	// Fills in the requested partitions, or every committed one when requested is null
+	private GroupOffsets fetch(String groupId, List<TopicOffsets> requested) {
+		GroupOffsets group = new GroupOffsets();
+		group.groupId = KafkaProtocolUtils.utf8(groupId);
+		if (requested != null) {
+			group.topics = requested;
+		}
+		if (offsets.isLoading()) {
+			group.error = ErrorCodes.GROUP_LOAD_IN_PROGRESS;
+			return group;
+		}
+		if (requested != null) {
+			for (TopicOffsets topic : requested) {
+				for (PartitionOffset partition : topic.partitions) {
+					fill(partition, offsets.fetch(groupId, topic.topic, partition.index));
+				}
+			}
+			return group;
+		}
+		Map<String, TopicOffsets> byTopic = new LinkedHashMap<>();
+		for (OffsetManager.CommittedOffset committed : offsets.fetchAll(groupId)) {
+			TopicOffsets topic = byTopic.computeIfAbsent(committed.topic, name -> {
+				TopicOffsets created = new TopicOffsets();
+				created.topic = name;
+				created.name = KafkaProtocolUtils.utf8(name);
+				return created;
+			});
+			PartitionOffset partition = new PartitionOffset();
+			partition.index = committed.partition;
+			fill(partition, committed);
+			topic.partitions.add(partition);
+		}
+		group.topics.addAll(byTopic.values());
+		return group;
+	}
+
+	private static void fill(PartitionOffset partition, OffsetManager.CommittedOffset committed) {
+		if (committed != null) {
+			partition.offset = committed.offset;
+			partition.leaderEpoch = committed.leaderEpoch;
+			partition.metadata = KafkaProtocolUtils.utf8(committed.metadata);
+		}
+	}
+
+	private static void write(OffsetFetchResponseMessage.Writer writer, short version, List<GroupOffsets> groups, int throttleTimeMs) {
+		writer.throttleTimeMs(throttleTimeMs);
+		if (version < 8) {
+			GroupOffsets group = groups.get(0);
+			OffsetFetchResponseMessage.OffsetFetchResponseTopicWriter topics = writer.topics(group.topics.size());
+			for (TopicOffsets topic : group.topics) {
+				OffsetFetchResponseMessage.OffsetFetchResponsePartitionWriter partitions = topics.name(topic.name).partitions(topic.partitions.size());
+				for (PartitionOffset partition : topic.partitions) {
+					partitions.partitionIndex(partition.index)
+							.committedOffset(partition.offset)
+							.committedLeaderEpoch(partition.leaderEpoch)
+							.metadata(partition.metadata)
+							.errorCode((short) partition.error.getCode())
+							.end();
+				}
+				topics.end();
+			}
+			writer.errorCode((short) group.error.getCode()).end();
+			return;
+		}
+		OffsetFetchResponseMessage.OffsetFetchResponseGroupWriter responses = writer.groups(groups.size());
+		for (GroupOffsets group : groups) {
+			OffsetFetchResponseMessage.OffsetFetchResponseTopicsWriter topics = responses.groupId(group.groupId).topics(group.topics.size());
+			for (TopicOffsets topic : group.topics) {
+				OffsetFetchResponseMessage.OffsetFetchResponsePartitionsWriter partitions = topics.name(topic.name).partitions(topic.partitions.size());
+				for (PartitionOffset partition : topic.partitions) {
+					partitions.partitionIndex(partition.index)
+							.committedOffset(partition.offset)
+							.committedLeaderEpoch(partition.leaderEpoch)
+							.metadata(partition.metadata)
+							.errorCode((short) partition.error.getCode())
+							.end();
+				}
+				topics.end();
+			}
+			responses.errorCode((short) group.error.getCode()).end();
+		}
+		writer.end();
+	}
+}
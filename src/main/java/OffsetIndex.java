@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+// offset -> file position index of a segment (.index). Entry: relative
+// offset INT32, position INT32; one entry every log.index.interval.bytes.
+public class OffsetIndex extends SegmentIndex {
+
+	private static final int ENTRY_SIZE = 8;
+
+	public OffsetIndex(Path file, long baseOffset, int maxIndexSize, boolean writable) throws IOException {
+		super(file, baseOffset, maxIndexSize, ENTRY_SIZE, writable);
+	}
+
+	public static Path fileName(Path dir, long baseOffset) {
+		return dir.resolve(String.format("%020d.index", baseOffset));
+	}
+
+	@Override
+	protected long key(int slot) {
+		return baseOffset + mmap.getInt(slotPosition(slot));
+	}
+
+	private int position(int slot) {
+		return mmap.getInt(slotPosition(slot) + 4);
+	}
+
+	// File position of the batch to start scanning from to find offset
+	public int lookup(long offset) {
+		int slot = largestLowerBound(offset);
+		return slot < 0 ? 0 : position(slot);
+	}
+
+	// Last indexed offset, or the base offset when empty
+	public long lastOffset() {
+		int entries = entries();
+		return entries == 0 ? baseOffset : key(entries - 1);
+	}
+
+	public int lastPosition() {
+		int entries = entries();
+		return entries == 0 ? 0 : position(entries - 1);
+	}
+
+	public void append(long offset, int position) {
+		if (isFull() || (entries() > 0 && offset <= lastOffset())) {
+			return;
+		}
+		int slot = slotPosition(entries());
+		mmap.putInt(slot, (int) (offset - baseOffset));
+		mmap.putInt(slot + 4, position);
+		publishEntry();
+	}
+
+	@Override
+	public boolean isSane(int segmentSize) {
+		long previous = -1;
+		for (int i = 0; i < entries(); i++) {
+			long offset = key(i);
+			int position = position(i);
+			if (offset <= previous || position < 0 || position >= segmentSize) {
+				return false;
+			}
+			previous = offset;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Committed offsets of every consumer group. The __consumer_offsets log is
+// the durable copy: one record per committed partition, keyed by (group,
+// topic, partition) in Kafka's own key and value formats, so only the
+// latest record of each key matters and the log can be compacted. Reads
+// never go to it: a ConcurrentHashMap per group serves every OffsetFetch,
+// and the log is read once, replayed into the cache at startup. Until that
+// is done, commits and fetches answer GROUP_LOAD_IN_PROGRESS.
+//
+// A group's commits go to partition hash(group) % offsets.topic.num.partitions.
+// One OffsetCommit becomes one record batch and a single append, however
+// many partitions it carries. The LogCleaner compacts the topic, but only
+// once the replay is done, so no segment is swapped under it.
+public class OffsetManager {
+
+	public static final String OFFSETS_TOPIC = "__consumer_offsets";
+
+	// Key version 0/1 is an offset commit, 2 is group metadata (which we do not persist)
+	private static final short OFFSET_KEY_VERSION = 1;
+	// offset, leader_epoch, metadata, commit_timestamp; 4 and up are flexible
+	private static final short OFFSET_VALUE_VERSION = 3;
+
+	// The latest commit of one partition, as OffsetFetch returns it
+	public static final class CommittedOffset {
+		public final String topic;
+		public final int partition;
+		public final long offset;
+		public final int leaderEpoch;
+		public final String metadata;
+		public final long commitTimestamp;
+
+		CommittedOffset(String topic, int partition, long offset, int leaderEpoch, String metadata, long commitTimestamp) {
+			this.topic = topic;
+			this.partition = partition;
+			this.offset = offset;
+			this.leaderEpoch = leaderEpoch;
+			this.metadata = metadata;
+			this.commitTimestamp = commitTimestamp;
+		}
+	}
+
+	// One partition of an OffsetCommit; commit() sets error for the ones it rejects
+	public static final class Commit {
+		final String topic;
+		final int partition;
+		final long offset;
+		final int leaderEpoch;
+		final String metadata;
+		ErrorCodes error = ErrorCodes.NONE;
+
+		public Commit(String topic, int partition, long offset, int leaderEpoch, String metadata) {
+			this.topic = topic;
+			this.partition = partition;
+			this.offset = offset;
+			this.leaderEpoch = leaderEpoch;
+			this.metadata = metadata == null ? "" : metadata;
+		}
+
+		public ErrorCodes error() {
+			return error;
+		}
+	}
+
+	private final LogManager logs;
+	private final LogCleaner cleaner;
+	private final FlushScheduler flushScheduler;
+	private final int numPartitions;
+	private final int segmentBytes;
+	// group id -> "topic-partition" -> latest commit
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, CommittedOffset>> offsets = new ConcurrentHashMap<>();
+	// Held across an append and its cache update, so the cache follows log order
+	private final ReentrantLock[] partitionLocks;
+	private volatile boolean loading = true;
+
+	public OffsetManager(LogManager logs, LogCleaner cleaner, FlushScheduler flushScheduler, int numPartitions, int segmentBytes) {
+		this.logs = logs;
+		this.cleaner = cleaner;
+		this.flushScheduler = flushScheduler;
+		this.numPartitions = numPartitions;
+		this.segmentBytes = segmentBytes;
+		this.partitionLocks = new ReentrantLock[numPartitions];
+		for (int i = 0; i < numPartitions; i++) {
+			partitionLocks[i] = new ReentrantLock();
+		}
+	}
+
+	// Replays the offsets logs into the cache on a background thread
+	public void startup() {
+		Thread loader = new Thread(this::load, "kafka-offsets-loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	public boolean isLoading() {
+		return loading;
+	}
+
+	// Same placement as Kafka: abs(hashCode) % partitions
+	public int partitionFor(String groupId) {
+		int hash = groupId.hashCode();
+		return (hash == Integer.MIN_VALUE ? 0 : Math.abs(hash)) % numPartitions;
+	}
+
+	// Writes the commits whose error is still NONE as one batch, then
+	// publishes them to the cache; on failure they all get the error
+	public void commit(String groupId, List<Commit> commits) {
+		if (loading) {
+			fail(commits, ErrorCodes.GROUP_LOAD_IN_PROGRESS);
+			return;
+		}
+		byte[] group = KafkaProtocolUtils.utf8(groupId);
+		long now = System.currentTimeMillis();
+		RecordBatchBuilder batch = new RecordBatchBuilder(BufferPool.current(), commits.size() * 64, now);
+		try {
+			ByteBuffer scratch = ByteBuffer.allocate(256);
+			for (Commit commit : commits) {
+				if (commit.error != ErrorCodes.NONE) {
+					continue;
+				}
+				byte[] topic = KafkaProtocolUtils.utf8(commit.topic);
+				byte[] metadata = KafkaProtocolUtils.utf8(commit.metadata);
+				if (metadata.length > BrokerConfig.OFFSET_METADATA_MAX_BYTES) {
+					commit.error = ErrorCodes.OFFSET_METADATA_TOO_LARGE;
+					continue;
+				}
+				int keySize = 2 + 2 + group.length + 2 + topic.length + 4;
+				int valueSize = 2 + 8 + 4 + 2 + metadata.length + 8;
+				if (scratch.capacity() < keySize + valueSize) {
+					scratch = ByteBuffer.allocate(keySize + valueSize);
+				}
+				scratch.clear();
+				scratch.putShort(OFFSET_KEY_VERSION);
+				KafkaProtocolUtils.writeString(scratch, group, false);
+				KafkaProtocolUtils.writeString(scratch, topic, false);
+				scratch.putInt(commit.partition);
+				scratch.putShort(OFFSET_VALUE_VERSION).putLong(commit.offset).putInt(commit.leaderEpoch);
+				KafkaProtocolUtils.writeString(scratch, metadata, false);
+				scratch.putLong(now);
+				batch.append(scratch.slice(0, keySize), scratch.slice(keySize, valueSize));
+			}
+			if (batch.count() == 0) {
+				return;
+			}
+			int partition = partitionFor(groupId);
+			PartitionLog log = logs.getOrCreate(OFFSETS_TOPIC, partition, segmentBytes);
+			ByteBuffer records = batch.build();
+			int length = records.remaining();
+			ReentrantLock lock = partitionLocks[partition];
+			lock.lock();
+			try {
+				log.append(records);
+				ConcurrentHashMap<String, CommittedOffset> cache = offsets.computeIfAbsent(groupId, id -> new ConcurrentHashMap<>());
+				for (Commit commit : commits) {
+					if (commit.error == ErrorCodes.NONE) {
+						cache.put(PartitionLog.dirName(commit.topic, commit.partition),
+								new CommittedOffset(commit.topic, commit.partition, commit.offset, commit.leaderEpoch, commit.metadata, now));
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+			flushScheduler.appended(log, length);
+		} catch (KafkaException e) {
+			Log.warn("Offset commit for group {} failed: {}", groupId, e.getMessage());
+			fail(commits, e.error() == ErrorCodes.RECORD_LIST_TOO_LARGE ? ErrorCodes.INVALID_COMMIT_OFFSET_SIZE : e.error());
+		} catch (IOException | RuntimeException e) {
+			Log.error("Error appending offsets of group {}", groupId, e);
+			fail(commits, ErrorCodes.GROUP_COORDINATOR_NOT_AVAILABLE);
+		} finally {
+			batch.release();
+		}
+	}
+
+	private static void fail(List<Commit> commits, ErrorCodes error) {
+		for (Commit commit : commits) {
+			if (commit.error == ErrorCodes.NONE) {
+				commit.error = error;
+			}
+		}
+	}
+
+	// Latest commit of the partition, null if the group never committed one
+	public CommittedOffset fetch(String groupId, String topic, int partition) {
+		Map<String, CommittedOffset> group = offsets.get(groupId);
+		return group == null ? null : group.get(PartitionLog.dirName(topic, partition));
+	}
+
+	// Every partition the group has committed
+	public Collection<CommittedOffset> fetchAll(String groupId) {
+		Map<String, CommittedOffset> group = offsets.get(groupId);
+		return group == null ? Collections.emptyList() : group.values();
+	}
+
+	private void load() {
+		long start = System.nanoTime();
+		int records = 0;
+		for (int partition = 0; partition < numPartitions; partition++) {
+			if (!Files.isDirectory(logs.logDir().resolve(PartitionLog.dirName(OFFSETS_TOPIC, partition)))) {
+				continue;
+			}
+			ReentrantLock lock = partitionLocks[partition];
+			lock.lock();
+			try {
+				records += replay(logs.getOrCreate(OFFSETS_TOPIC, partition, segmentBytes));
+			} catch (RuntimeException e) {
+				Log.error("Error loading offsets partition {}", partition, e);
+			} finally {
+				lock.unlock();
+			}
+		}
+		loading = false;
+		cleaner.compact(OFFSETS_TOPIC);
+		Log.info("Loaded {} offset commits of {} groups in {} ms", records, offsets.size(), (System.nanoTime() - start) / 1_000_000);
+	}
+
+	// Applies every record of the log's segments in order; returns how many
+	private int replay(PartitionLog log) {
+		PooledOutputStream inflated = new PooledOutputStream(BufferPool.current(), 64 * 1024);
+		RecordBatch batch = new RecordBatch();
+		int applied = 0;
+		try {
+			for (LogSegment segment : log.segments()) {
+				int size = segment.size();
+				if (size == 0) {
+					continue;
+				}
+				ByteBuffer data = segment.channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+				int position = 0;
+				while (RecordBatch.isComplete(data, position, size)) {
+					batch.wrap(data, position);
+					if (batch.magic() == RecordBatch.CURRENT_MAGIC && !batch.isControl()) {
+						applied += replayRecords(batch.records(inflated), batch.recordsCount());
+					}
+					position += batch.sizeInBytes();
+				}
+			}
+		} catch (IOException e) {
+			Log.error("Error reading offsets from {}: {}", log, e.getMessage());
+		} finally {
+			inflated.release();
+		}
+		return applied;
+	}
+
+	private int replayRecords(ByteBuffer records, int count) {
+		int applied = 0;
+		for (int i = 0; i < count && records.hasRemaining(); i++) {
+			int length = KafkaProtocolUtils.readVarint(records);
+			int next = records.position() + length;
+			records.get(); // attributes
+			KafkaProtocolUtils.readVarlong(records); // timestamp_delta
+			KafkaProtocolUtils.readVarint(records); // offset_delta
+			int keyLength = KafkaProtocolUtils.readVarint(records);
+			ByteBuffer key = keyLength < 0 ? null : records.slice(records.position(), keyLength);
+			records.position(records.position() + Math.max(0, keyLength));
+			int valueLength = KafkaProtocolUtils.readVarint(records);
+			ByteBuffer value = valueLength < 0 ? null : records.slice(records.position(), valueLength);
+			if (key != null) {
+				try {
+					if (apply(key, value)) {
+						applied++;
+					}
+				} catch (RuntimeException e) {
+					Log.warn("Skipping malformed offsets record: {}", e.toString());
+				}
+			}
+			records.position(next);
+		}
+		return applied;
+	}
+
+	// A null value is a tombstone: the commit was deleted
+	private boolean apply(ByteBuffer key, ByteBuffer value) {
+		if (key.getShort() > OFFSET_KEY_VERSION) {
+			return false;
+		}
+		String groupId = KafkaProtocolUtils.readString(key, false);
+		String topic = KafkaProtocolUtils.readString(key, false);
+		int partition = key.getInt();
+		String name = PartitionLog.dirName(topic, partition);
+		if (value == null) {
+			offsets.computeIfPresent(groupId, (id, group) -> {
+				group.remove(name);
+				return group.isEmpty() ? null : group;
+			});
+			return true;
+		}
+		short version = value.getShort();
+		long offset = value.getLong();
+		int leaderEpoch = version >= 3 ? value.getInt() : -1;
+		String metadata = KafkaProtocolUtils.readString(value, version >= 4);
+		long commitTimestamp = value.getLong();
+		offsets.computeIfAbsent(groupId, id -> new ConcurrentHashMap<>())
+				.put(name, new CommittedOffset(topic, partition, offset, leaderEpoch, metadata, commitTimestamp));
+		return true;
+	}
+}
@@ -0,0 +1,113 @@
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Key -> latest offset map of the LogCleaner, in one direct buffer of a
+// fixed size. Keys are not stored: a slot holds the key's MD5 (16 bytes,
+// like Kafka's cleaner) and offset + 1 (8 bytes, 0 marks a free slot), so
+// memory does not depend on key sizes and a pass simply stops adding keys
+// once the map is LOAD_FACTOR full. Open addressing with linear probing
+// from the first hash bytes.
+//
+// Used by the cleaner thread only.
+public class OffsetMap {
+
+	private static final int SLOT_SIZE = 24;
+	// Kafka's log.cleaner.io.buffer.load.factor default
+	private static final double LOAD_FACTOR = 0.9;
+
+	private final ByteBuffer slots;
+	private final int slotCount;
+	private final int capacity;
+	private final MessageDigest digest;
+	private final byte[] hash = new byte[16];
+	private int size = 0;
+
+	public OffsetMap(int memoryBytes) {
+		this.slotCount = memoryBytes / SLOT_SIZE;
+		this.capacity = (int) (slotCount * LOAD_FACTOR);
+		this.slots = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+		try {
+			this.digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available", e);
+		}
+	}
+
+	// Keys the map takes before it counts as full
+	public int capacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Room for count more keys, if they are all new
+	public boolean hasRoomFor(int count) {
+		return size + (long) count <= capacity;
+	}
+
+	// Records offset as the latest of key (the remaining bytes, position kept)
+	public void put(ByteBuffer key, long offset) {
+		hash(key);
+		int slot = find();
+		if (slots.getLong(slot + 16) == 0) {
+			if (size >= capacity) {
+				throw new IllegalStateException("Offset map is full with " + size + " keys");
+			}
+			slots.put(slot, hash);
+			size++;
+		}
+		slots.putLong(slot + 16, offset + 1);
+	}
+
+	// Latest offset of key, or -1 if the map does not have it
+	public long get(ByteBuffer key) {
+		hash(key);
+		return slots.getLong(find() + 16) - 1;
+	}
+
+	public void clear() {
+		if (size == 0) {
+			return;
+		}
+		for (int position = 0; position < slots.capacity(); position += 8) {
+			slots.putLong(position, 0L);
+		}
+		size = 0;
+	}
+
+	private void hash(ByteBuffer key) {
+		digest.update(key.duplicate());
+		try {
+			digest.digest(hash, 0, hash.length);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Byte position of the hash's slot, or of the free slot it would take
+	private int find() {
+		long high = (hash[0] & 0xFFL) << 56 | (hash[1] & 0xFFL) << 48 | (hash[2] & 0xFFL) << 40 | (hash[3] & 0xFFL) << 32
+				| (hash[4] & 0xFFL) << 24 | (hash[5] & 0xFFL) << 16 | (hash[6] & 0xFFL) << 8 | (hash[7] & 0xFFL);
+		int slot = (int) Long.remainderUnsigned(high, slotCount);
+		while (true) {
+			int position = slot * SLOT_SIZE;
+			if (slots.getLong(position + 16) == 0 || matches(position)) {
+				return position;
+			}
+			slot = slot + 1 == slotCount ? 0 : slot + 1;
+		}
+	}
+
+	private boolean matches(int position) {
+		for (int i = 0; i < hash.length; i++) {
+			if (slots.get(position + i) != hash[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,383 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Append-only log of one topic partition: a directory of segments keyed by
+// base offset. Only the last segment takes appends; when a batch set does not
+// fit, it is sealed and a new one is rolled at the next offset.
+//
+// Appends hold a ReentrantLock (not synchronized, so a virtual thread waiting
+// on it does not pin its carrier). Readers go through the skip list and each
+// segment's published size without locking.
+//
+// Compressed batches are stored exactly as the producer sent them; only
+// log.validate.records makes an append decompress them to check the records.
+public class PartitionLog {
+
+	private final String topic;
+	private final int partition;
+	private final Path dir;
+	private final int segmentBytes;
+	private static final boolean VALIDATE_RECORDS = BrokerConfig.LOG_VALIDATE_RECORDS;
+
+	private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+	private final ReentrantLock appendLock = new ReentrantLock();
+	private final RecordBatch batch = new RecordBatch(); // Guarded by appendLock
+	private long appendMaxTimestamp;
+	private long appendOffsetOfMaxTimestamp;
+
+	private volatile LogSegment active;
+
+	// One flush at a time; recoveryPoint starts at the log end on load,
+	// since everything recovered then came off the disk
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private volatile long recoveryPoint;
+
+	public PartitionLog(String topic, int partition, Path dir, int segmentBytes) throws IOException {
+		this.topic = topic;
+		this.partition = partition;
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		Files.createDirectories(dir);
+		load();
+	}
+
+	public static String dirName(String topic, int partition) {
+		return topic + "-" + partition;
+	}
+
+	private void load() throws IOException {
+		completeSwaps();
+		List<Path> files = segmentFiles();
+		for (int i = 0; i < files.size(); i++) {
+			LogSegment segment = LogSegment.open(files.get(i), segmentBytes, i == files.size() - 1);
+			segments.put(segment.baseOffset(), segment);
+		}
+		if (segments.isEmpty()) {
+			segments.put(0L, LogSegment.create(dir, 0, segmentBytes));
+		}
+		active = segments.lastEntry().getValue();
+		recoveryPoint = logEndOffset();
+		Log.debug("Loaded {} with {} segments, log end offset {}", dir, segments.size(), logEndOffset());
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> list = Files.list(dir)) {
+			list.filter(path -> path.getFileName().toString().matches("\\d{20}\\.log")).sorted().forEach(files::add);
+		}
+		return files;
+	}
+
+	private static long baseOffsetOf(Path file) {
+		return Long.parseLong(file.getFileName().toString().substring(0, 20));
+	}
+
+	// Finishes a LogCleaner swap cut short by a crash: the .swap file takes
+	// the place of every segment in its offset range, whichever of them were
+	// already renamed. Unfinished (.cleaned) and replaced (.deleted) files go.
+	private void completeSwaps() throws IOException {
+		List<Path> swaps = new ArrayList<>();
+		List<Path> leftovers = new ArrayList<>();
+		try (Stream<Path> list = Files.list(dir)) {
+			list.forEach(path -> {
+				String name = path.getFileName().toString();
+				if (name.endsWith(".log.swap")) {
+					swaps.add(path);
+				} else if (name.endsWith(".cleaned") || name.endsWith(".deleted")) {
+					leftovers.add(path);
+				}
+			});
+		}
+		for (Path path : leftovers) {
+			Files.deleteIfExists(path);
+		}
+		for (Path swap : swaps) {
+			long baseOffset = baseOffsetOf(swap);
+			long nextOffset = LogSegment.nextOffset(swap, baseOffset);
+			for (Path file : segmentFiles()) {
+				long offset = baseOffsetOf(file);
+				if (offset >= baseOffset && offset < nextOffset) {
+					Files.deleteIfExists(file);
+					Files.deleteIfExists(OffsetIndex.fileName(dir, offset));
+					Files.deleteIfExists(TimeIndex.fileName(dir, offset));
+				}
+			}
+			Files.move(swap, LogSegment.fileName(dir, baseOffset), StandardCopyOption.ATOMIC_MOVE);
+			Log.info("Completed interrupted cleaning of {} at offset {}", dir, baseOffset);
+		}
+	}
+
+	public String topic() {
+		return topic;
+	}
+
+	public int partition() {
+		return partition;
+	}
+
+	public Path dir() {
+		return dir;
+	}
+
+	public long logStartOffset() {
+		return segments.firstKey();
+	}
+
+	public long logEndOffset() {
+		return active.nextOffset();
+	}
+
+	public Collection<LogSegment> segments() {
+		return segments.values();
+	}
+
+	// Segment holding offset, or null if it is below the log start
+	public LogSegment segmentFor(long offset) {
+		Map.Entry<Long, LogSegment> entry = segments.floorEntry(offset);
+		return entry == null ? null : entry.getValue();
+	}
+
+	public LogSegment activeSegment() {
+		return active;
+	}
+
+	public int segmentBytes() {
+		return segmentBytes;
+	}
+
+	// Puts the LogCleaner's output in place of replaced, consecutive sealed
+	// segments; cleaned is named after the first one. Every step is a rename,
+	// so a crash in between is finished by completeSwaps() on the next load.
+	// Readers find every offset in either the old segments or the new one:
+	// it is published at the first base offset before the others are
+	// dropped. The replaced segments stay open for reads in flight and are
+	// left to the caller to delete.
+	public LogSegment replaceSegments(List<LogSegment> replaced, Path cleaned) throws IOException {
+		long baseOffset = replaced.get(0).baseOffset();
+		Path file = LogSegment.fileName(dir, baseOffset);
+		Path swap = file.resolveSibling(file.getFileName() + ".swap");
+		Files.move(cleaned, swap, StandardCopyOption.ATOMIC_MOVE);
+		for (LogSegment segment : replaced) {
+			segment.markDeleted();
+		}
+		Files.move(swap, file, StandardCopyOption.ATOMIC_MOVE);
+		LogSegment segment = LogSegment.openCleaned(file, baseOffset, segmentBytes);
+		segments.put(baseOffset, segment);
+		for (int i = 1; i < replaced.size(); i++) {
+			segments.remove(replaced.get(i).baseOffset(), replaced.get(i));
+		}
+		return segment;
+	}
+
+	// Appends the record batches in records[position, limit), assigning offsets
+	// from the log end. The baseOffset field is rewritten in place (it is not
+	// covered by the batch CRC). Returns the offset of the first batch.
+	public long append(ByteBuffer records) throws IOException {
+		int length = records.remaining();
+		if (length > segmentBytes) {
+			throw new KafkaException(ErrorCodes.RECORD_LIST_TOO_LARGE,
+					"Batch set of " + length + " bytes exceeds log.segment.bytes " + segmentBytes);
+		}
+		appendLock.lock();
+		try {
+			long firstOffset = logEndOffset();
+			long lastOffset = assignOffsets(records, firstOffset);
+			if (!active.hasRoomFor(length, lastOffset)) {
+				roll(firstOffset);
+			}
+			active.append(records, firstOffset, lastOffset, appendMaxTimestamp, appendOffsetOfMaxTimestamp);
+			return firstOffset;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	private void validateRecords(RecordBatch batch) {
+		PooledOutputStream inflated = new PooledOutputStream(BufferPool.current(), batch.sizeInBytes());
+		try {
+			batch.validateRecords(inflated);
+		} finally {
+			inflated.release();
+		}
+	}
+
+	// Walks the batches, validating framing, and returns the last offset used.
+	// Also records the largest batch timestamp for the time index.
+	private long assignOffsets(ByteBuffer records, long nextOffset) {
+		int position = records.position();
+		int limit = records.limit();
+		if (position == limit) {
+			throw new KafkaException(ErrorCodes.CORRUPT_MESSAGE, "Empty record set");
+		}
+		long lastOffset = nextOffset - 1;
+		appendMaxTimestamp = -1;
+		appendOffsetOfMaxTimestamp = -1;
+		while (position < limit) {
+			if (!RecordBatch.isComplete(records, position, limit)) {
+				throw new KafkaException(ErrorCodes.CORRUPT_MESSAGE, "Truncated record batch at " + position);
+			}
+			batch.wrap(records, position);
+			if (batch.magic() != RecordBatch.CURRENT_MAGIC) {
+				throw new KafkaException(ErrorCodes.UNSUPPORTED_FOR_MESSAGE_FORMAT,
+						"Unsupported record batch magic " + batch.magic());
+			}
+			if (!CompressionCodec.isKnown(batch.compressionId())) {
+				throw new KafkaException(ErrorCodes.UNSUPPORTED_COMPRESSION_TYPE,
+						"Unknown compression type " + batch.compressionId());
+			}
+			if (VALIDATE_RECORDS) {
+				validateRecords(batch);
+			}
+			batch.setBaseOffset(lastOffset + 1);
+			lastOffset = batch.lastOffset();
+			if (batch.maxTimestamp() > appendMaxTimestamp) {
+				appendMaxTimestamp = batch.maxTimestamp();
+				appendOffsetOfMaxTimestamp = lastOffset;
+			}
+			position += batch.sizeInBytes();
+		}
+		return lastOffset;
+	}
+
+	// Up to maxBytes of record batches starting at the batch containing offset,
+	// as a region of one segment file to be sent with transferTo. With
+	// minOneBatch the first batch is returned whole even if it is larger than
+	// maxBytes, so a consumer can always make progress. Null when there is
+	// nothing at or after offset yet.
+	public FileRegion read(long offset, int maxBytes, boolean minOneBatch) {
+		long logEndOffset = logEndOffset();
+		if (offset < logStartOffset() || offset > logEndOffset) {
+			throw new KafkaException(ErrorCodes.OFFSET_OUT_OF_RANGE, "Offset " + offset + " is outside ["
+					+ logStartOffset() + ", " + logEndOffset + "] of " + this);
+		}
+		Map.Entry<Long, LogSegment> entry = segments.floorEntry(offset);
+		while (entry != null) {
+			LogSegment segment = entry.getValue();
+			int position = segment.translateOffset(offset);
+			if (position >= 0) {
+				int length = Math.min(segment.size() - position, maxBytes);
+				if (minOneBatch) {
+					length = Math.max(length, segment.batchSizeAt(position));
+				}
+				return length <= 0 ? null : new FileRegion(segment.channel(), position, length);
+			}
+			entry = segments.higherEntry(entry.getKey()); // offset is past the end of this segment
+		}
+		return null;
+	}
+
+	// Bytes of record batches from the batch containing offset to the log
+	// end, or -1 if offset is out of range. Cheap enough for a delayed fetch
+	// to call on every append: one index lookup, then segment sizes.
+	public long bytesAvailable(long offset) {
+		long logEndOffset = logEndOffset();
+		if (offset < logStartOffset() || offset > logEndOffset) {
+			return -1;
+		}
+		if (offset == logEndOffset) {
+			return 0;
+		}
+		long bytes = 0;
+		boolean first = true;
+		for (LogSegment segment : segments.tailMap(segments.floorKey(offset)).values()) {
+			if (first) {
+				int position = segment.translateOffset(offset);
+				bytes += position < 0 ? 0 : segment.size() - position;
+				first = false;
+			} else {
+				bytes += segment.size();
+			}
+		}
+		return bytes;
+	}
+
+	// First record with a timestamp >= timestamp, or null if every record is older
+	public LogSegment.TimestampOffset offsetForTimestamp(long timestamp) throws IOException {
+		for (LogSegment segment : segments.values()) {
+			if (segment.maxTimestamp() >= timestamp) {
+				LogSegment.TimestampOffset found = segment.findOffsetByTimestamp(timestamp);
+				if (found != null) {
+					return found;
+				}
+			}
+		}
+		return null;
+	}
+
+	// Record with the largest timestamp, or null for an empty log
+	public LogSegment.TimestampOffset maxTimestampOffset() {
+		LogSegment.TimestampOffset max = null;
+		for (LogSegment segment : segments.values()) {
+			if (segment.maxTimestamp() >= 0 && (max == null || segment.maxTimestamp() > max.timestamp)) {
+				max = new LogSegment.TimestampOffset(segment.maxTimestamp(), segment.offsetOfMaxTimestamp());
+			}
+		}
+		return max;
+	}
+
+	private void roll(long baseOffset) throws IOException {
+		LogSegment previous = active;
+		LogSegment next = LogSegment.create(dir, baseOffset, segmentBytes);
+		segments.put(baseOffset, next);
+		active = next;
+		previous.seal();
+		Log.debug("Rolled {} to new segment {}", dir, next);
+	}
+
+	// Offsets below this are known to be on disk
+	public long recoveryPoint() {
+		return recoveryPoint;
+	}
+
+	// Forces everything appended so far, from the segment holding the
+	// recovery point up to the active one. Runs beside appends: it covers the
+	// log end taken under the append lock, whose bytes are all in place by then.
+	public void flush() throws IOException {
+		long end;
+		appendLock.lock();
+		try {
+			end = logEndOffset();
+		} finally {
+			appendLock.unlock();
+		}
+		flushLock.lock();
+		try {
+			if (end <= recoveryPoint) {
+				return;
+			}
+			Long from = segments.floorKey(recoveryPoint);
+			for (LogSegment segment : (from == null ? segments : segments.tailMap(from)).values()) {
+				segment.flush();
+			}
+			recoveryPoint = end;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	public void close() throws IOException {
+		appendLock.lock();
+		try {
+			for (LogSegment segment : segments.values()) {
+				segment.close();
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return dirName(topic, partition);
+	}
+}
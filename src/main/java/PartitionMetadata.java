@@ -0,0 +1,60 @@
+import java.util.UUID;
+
+// Leader and replica assignment of one partition, as of a metadata
+// snapshot. Immutable; the arrays are never modified once published.
+public final class PartitionMetadata {
+
+	private final UUID topicId;
+	private final int partitionId;
+	private final int leader;
+	private final int leaderEpoch;
+	private final int partitionEpoch;
+	private final int[] replicas;
+	private final int[] isr;
+
+	public PartitionMetadata(UUID topicId, int partitionId, int leader, int leaderEpoch, int partitionEpoch, int[] replicas, int[] isr) {
+		this.topicId = topicId;
+		this.partitionId = partitionId;
+		this.leader = leader;
+		this.leaderEpoch = leaderEpoch;
+		this.partitionEpoch = partitionEpoch;
+		this.replicas = replicas;
+		this.isr = isr;
+	}
+
+	public UUID topicId() {
+		return topicId;
+	}
+
+	public int partitionId() {
+		return partitionId;
+	}
+
+	public int leader() {
+		return leader;
+	}
+
+	public int leaderEpoch() {
+		return leaderEpoch;
+	}
+
+	public int partitionEpoch() {
+		return partitionEpoch;
+	}
+
+	public int[] replicas() {
+		return replicas;
+	}
+
+	public int[] isr() {
+		return isr;
+	}
+
+	// A leader or ISR change (PartitionChangeRecord); null keeps the current value
+	public PartitionMetadata withChange(int newLeader, int[] newReplicas, int[] newIsr) {
+		boolean leaderChanged = newLeader != leader;
+		return new PartitionMetadata(topicId, partitionId, newLeader,
+				leaderChanged ? leaderEpoch + 1 : leaderEpoch, partitionEpoch + 1,
+				newReplicas != null ? newReplicas : replicas, newIsr != null ? newIsr : isr);
+	}
+}
@@ -0,0 +1,77 @@
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// OutputStream into one pooled direct buffer that doubles (through the
+// pool) when full. Used to inflate or build record batches; buffer() is the
+// written bytes, valid until release() hands the buffer back.
+public class PooledOutputStream extends OutputStream {
+
+	private final BufferPool pool;
+	private ByteBuffer buffer;
+
+	public PooledOutputStream(BufferPool pool, int initialCapacity) {
+		this.pool = pool;
+		this.buffer = pool.acquire(Math.max(64, initialCapacity));
+	}
+
+	// Position 0, limit at the end of what was written
+	public ByteBuffer buffer() {
+		return buffer.duplicate().flip();
+	}
+
+	public int size() {
+		return buffer.position();
+	}
+
+	// Drops what was written, keeping the buffer for reuse
+	public void reset() {
+		buffer.clear();
+	}
+
+	@Override
+	public void write(int b) {
+		ensure(1);
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) {
+		ensure(length);
+		buffer.put(bytes, offset, length);
+	}
+
+	public void write(ByteBuffer bytes) {
+		ensure(bytes.remaining());
+		buffer.put(bytes);
+	}
+
+	private void ensure(int bytes) {
+		if (buffer.capacity() - buffer.position() >= bytes) {
+			if (buffer.limit() - buffer.position() < bytes) {
+				buffer.limit(buffer.capacity());
+			}
+			return;
+		}
+		long needed = (long) buffer.position() + bytes;
+		if (needed > Integer.MAX_VALUE - 8) {
+			throw new KafkaException(ErrorCodes.RECORD_LIST_TOO_LARGE, "Output exceeds 2 GiB");
+		}
+		ByteBuffer grown = pool.acquire((int) Math.max(needed, Math.min(Integer.MAX_VALUE - 8L, 2L * buffer.capacity())));
+		buffer.flip();
+		grown.put(buffer);
+		pool.release(buffer);
+		buffer = grown;
+	}
+
+	public void release() {
+		if (buffer != null) {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	// Closing keeps the bytes; release() gives the buffer back
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Produce (key 0): appends each partition's record batches to its
+// PartitionLog. Batches are copied straight from the request frame into the
+// mapped active segment; the only rewrite is the base offset. A partition
+// whose batches fail their CRC32C check (BatchValidator) is rejected with
+// CORRUPT_MESSAGE and nothing of it is appended.
+//
+// Partitions must exist in the cluster metadata (or on disk) unless
+// auto.create.topics.enable is set, in which case their log is created on
+// first produce. Every append retries the fetches parked on that partition.
+//
+// acks=-1 is answered once the FlushScheduler has forced the appended data
+// to disk (unless log.flush.policy is none); until then the request waits
+// in the produce purgatory.
+public class ProduceHandler implements RequestHandler {
+
+	private static final ThreadLocal<ProduceRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(ProduceRequestMessage.Reader::new);
+	private static final ThreadLocal<ProduceResponseMessage.Writer> RESPONSE_WRITER =
+			ThreadLocal.withInitial(ProduceResponseMessage.Writer::new);
+
+	private final LogManager logs;
+	private final FlushScheduler flushScheduler;
+	private final DelayedOperationPurgatory<DelayedFetch> fetchPurgatory;
+	private final DelayedOperationPurgatory<DelayedProduce> producePurgatory;
+
+	public ProduceHandler(LogManager logs, FlushScheduler flushScheduler,
+			DelayedOperationPurgatory<DelayedFetch> fetchPurgatory,
+			DelayedOperationPurgatory<DelayedProduce> producePurgatory) {
+		this.logs = logs;
+		this.flushScheduler = flushScheduler;
+		this.fetchPurgatory = fetchPurgatory;
+		this.producePurgatory = producePurgatory;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.PRODUCE;
+	}
+
+	// v3 is the first version that only carries record batch v2
+	@Override
+	public short minVersion() {
+		return 3;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 11;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 9;
+	}
+
+	static final class PartitionResult {
+		int index;
+		ErrorCodes error = ErrorCodes.NONE;
+		long baseOffset = -1;
+		long logStartOffset = -1;
+		// Set on a successful append: the flush that covers requiredOffset makes it durable
+		PartitionLog log;
+		long requiredOffset;
+
+		boolean isFlushed() {
+			return log == null || log.recoveryPoint() >= requiredOffset;
+		}
+	}
+
+	static final class TopicResult {
+		byte[] name;
+		List<PartitionResult> partitions = new ArrayList<>();
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		short version = request.apiVersion();
+		boolean flexible = isFlexible(version);
+		ProduceRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+
+		// transactional_id is not read, there are no transactions yet
+		short acks = reader.acks();
+		int timeoutMs = reader.timeoutMs(); // Only waited on for a flush, there are no replicas
+		boolean validAcks = acks == 0 || acks == 1 || acks == -1;
+
+		// Decode everything first, so all batches can be checked before any append
+		List<String> names = new ArrayList<>();
+		List<PartitionResult> partitions = new ArrayList<>();
+		List<ByteBuffer> recordSets = new ArrayList<>();
+		List<TopicResult> topics = new ArrayList<>(Math.max(0, reader.topicDataCount()));
+		for (ProduceRequestMessage.TopicProduceDataReader topicData = reader.topicData(); topicData.next(); ) {
+			TopicResult topic = new TopicResult();
+			String name = topicData.name();
+			topic.name = KafkaProtocolUtils.utf8(name);
+			for (ProduceRequestMessage.PartitionProduceDataReader partitionData = topicData.partitionData(); partitionData.next(); ) {
+				PartitionResult partition = new PartitionResult();
+				partition.index = partitionData.index();
+				names.add(name);
+				partitions.add(partition);
+				recordSets.add(partitionData.records());
+				topic.partitions.add(partition);
+			}
+			topics.add(topic);
+		}
+
+		request.decoded();
+		boolean[] valid = validAcks ? BatchValidator.validate(recordSets, BrokerConfig.PRODUCE_CRC_PARALLEL_THRESHOLD_BYTES) : null;
+		for (int i = 0; i < partitions.size(); i++) {
+			PartitionResult partition = partitions.get(i);
+			if (!validAcks) {
+				partition.error = ErrorCodes.INVALID_REQUIRED_ACKS;
+			} else if (recordSets.get(i) != null && !valid[i]) {
+				Log.debug("Rejecting corrupt batch for {}-{}", names.get(i), partition.index);
+				partition.error = ErrorCodes.CORRUPT_MESSAGE;
+			} else {
+				append(names.get(i), partition, recordSets.get(i));
+			}
+		}
+
+		if (acks == 0) {
+			return null; // The client does not read a response
+		}
+		if (acks == -1 && flushScheduler.isEnabled()) {
+			DelayedProduce delayed = new DelayedProduce(version, flexible, request.correlationId(), request.throttleTimeMs(), topics, timeoutMs,
+					request.canDefer() ? request.defer() : null);
+			List<String> keys = delayed.keys();
+			if (!keys.isEmpty()) {
+				if (request.canDefer()) {
+					producePurgatory.tryCompleteElseWatch(delayed, keys);
+					return Response.DEFERRED;
+				}
+				flushNow(topics); // Blocking transports wait for their own flush
+			}
+		}
+		request.encoding();
+		return encode(version, flexible, request.correlationId(), request.throttleTimeMs(), topics);
+	}
+
+	private static void flushNow(List<TopicResult> topics) {
+		for (TopicResult topic : topics) {
+			for (PartitionResult partition : topic.partitions) {
+				if (partition.log == null) {
+					continue;
+				}
+				try {
+					partition.log.flush();
+				} catch (IOException e) {
+					Log.error("Error flushing {}", partition.log, e);
+					partition.error = ErrorCodes.KAFKA_STORAGE_ERROR;
+				}
+			}
+		}
+	}
+
+	private void append(String topic, PartitionResult result, ByteBuffer records) {
+		if (topic == null || topic.isEmpty() || result.index < 0) {
+			result.error = topic == null || topic.isEmpty() ? ErrorCodes.INVALID_TOPIC_EXCEPTION : ErrorCodes.UNKNOWN_TOPIC_OR_PARTITION;
+			return;
+		}
+		if (records == null) {
+			result.error = ErrorCodes.CORRUPT_MESSAGE;
+			return;
+		}
+		try {
+			PartitionLog log = BrokerConfig.AUTO_CREATE_TOPICS_ENABLE ? logs.getOrCreate(topic, result.index) : logs.get(topic, result.index);
+			if (log == null) {
+				result.error = ErrorCodes.UNKNOWN_TOPIC_OR_PARTITION;
+				return;
+			}
+			int length = records.remaining();
+			result.baseOffset = log.append(records);
+			result.logStartOffset = log.logStartOffset();
+			result.log = log;
+			result.requiredOffset = log.logEndOffset(); // At or past our last offset
+			flushScheduler.appended(log, length);
+			fetchPurgatory.checkAndComplete(DelayedFetch.key(topic, result.index));
+		} catch (KafkaException e) {
+			Log.debug("Produce to {}-{} failed: {}", topic, result.index, e.getMessage());
+			result.error = e.error();
+		} catch (IOException | RuntimeException e) {
+			Log.error("Error appending to {}", topic + "-" + result.index, e);
+			result.error = ErrorCodes.UNKNOWN;
+		}
+	}
+
+	// Sized by a dry run of the generated writer, so the pooled buffer is
+	// acquired once at its exact size
+	static Response encode(short version, boolean flexible, int correlationId, int throttleTimeMs, List<TopicResult> topics) {
+		ProduceResponseMessage.Writer writer = RESPONSE_WRITER.get();
+		write(writer.sizing(version), topics, throttleTimeMs);
+		ByteBuffer message = BufferPool.current().acquire(MessageUtils.responseHeaderSize(flexible) + writer.size());
+		MessageUtils.writeResponseHeader(message, correlationId, flexible);
+		write(writer.wrap(message, version), topics, throttleTimeMs);
+		return MessageUtils.createResponseBuffer(message);
+	}
+
+	private static void write(ProduceResponseMessage.Writer writer, List<TopicResult> topics, int throttleTimeMs) {
+		ProduceResponseMessage.TopicProduceResponseWriter responses = writer.responses(topics.size());
+		for (TopicResult topic : topics) {
+			ProduceResponseMessage.PartitionProduceResponseWriter partitionResponses =
+					responses.name(topic.name).partitionResponses(topic.partitions.size());
+			for (PartitionResult partition : topic.partitions) {
+				partitionResponses.index(partition.index)
+						.errorCode((short) partition.error.getCode())
+						.baseOffset(partition.baseOffset)
+						.logAppendTimeMs(-1L) // -1 for CreateTime
+						.logStartOffset(partition.logStartOffset);
+				partitionResponses.recordErrors(0);
+				partitionResponses.errorMessage(null).end();
+			}
+			responses.end();
+		}
+		writer.throttleTimeMs(throttleTimeMs).end();
+	}
+}
@@ -0,0 +1,241 @@
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Client quotas: a request rate plus produce and fetch byte rates, each
+// enforced per client_id and per client IP (quota.client.* / quota.ip.*,
+// 0 = unlimited). Produce counts request bytes, Fetch the record bytes it
+// returns, as in Kafka.
+//
+// A client over any of its quotas is not refused and no thread waits for
+// it: the response carries the throttle time in throttle_time_ms and the
+// NIO transport stops reading from the connection until it has passed.
+//
+// Each entity's buckets are found once, through a ConcurrentHashMap, and
+// then cached by the connection's Session; recording usage is a CAS on the
+// entity's own TokenBucket, so handler and network threads never share a
+// lock for quota accounting.
+//
+// Like Kafka's quota sensors, an entity's buckets expire once they have been
+// idle longer than their burst plus debt window, when they are full again and
+// a new set would behave the same. Expired entries are swept when a new
+// entity is added, at most once per window, so the maps hold only clients
+// and addresses seen recently. A Session whose buckets expired looks them
+// up again.
+public final class QuotaManager {
+
+	private static final QuotaManager INSTANCE = new QuotaManager(
+			new Rates(BrokerConfig.QUOTA_CLIENT_REQUEST_RATE, BrokerConfig.QUOTA_CLIENT_PRODUCE_BYTE_RATE,
+					BrokerConfig.QUOTA_CLIENT_FETCH_BYTE_RATE),
+			new Rates(BrokerConfig.QUOTA_IP_REQUEST_RATE, BrokerConfig.QUOTA_IP_PRODUCE_BYTE_RATE,
+					BrokerConfig.QUOTA_IP_FETCH_BYTE_RATE),
+			BrokerConfig.QUOTA_BURST_SECONDS, BrokerConfig.QUOTA_MAX_THROTTLE_MS);
+
+	private final Rates clientRates;
+	private final Rates addressRates;
+	private final double burstSeconds;
+	private final int maxThrottleMs;
+	private final long expiryIntervalNanos;
+	private final AtomicLong nextExpiry = new AtomicLong(System.nanoTime());
+	private final ConcurrentHashMap<String, Buckets> clients = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Buckets> addresses = new ConcurrentHashMap<>();
+
+	public QuotaManager(Rates clientRates, Rates addressRates, double burstSeconds, int maxThrottleMs) {
+		this.clientRates = clientRates;
+		this.addressRates = addressRates;
+		this.burstSeconds = burstSeconds;
+		this.maxThrottleMs = Math.max(0, maxThrottleMs);
+		long windowNanos = (long) (burstSeconds * 1e9) + TimeUnit.MILLISECONDS.toNanos(this.maxThrottleMs);
+		this.expiryIntervalNanos = Math.max(windowNanos, TimeUnit.SECONDS.toNanos(1));
+	}
+
+	public static QuotaManager get() {
+		return INSTANCE;
+	}
+
+	// Requests per second and produce/fetch bytes per second; 0 = unlimited
+	public static final class Rates {
+
+		final long requests;
+		final long produceBytes;
+		final long fetchBytes;
+
+		public Rates(long requests, long produceBytes, long fetchBytes) {
+			this.requests = requests;
+			this.produceBytes = produceBytes;
+			this.fetchBytes = fetchBytes;
+		}
+
+		boolean isUnlimited() {
+			return requests <= 0 && produceBytes <= 0 && fetchBytes <= 0;
+		}
+	}
+
+	public boolean isEnabled() {
+		return !clientRates.isUnlimited() || !addressRates.isUnlimited();
+	}
+
+	// Quota state of one connection from address (an IP)
+	public Session session(String address) {
+		return new Session(this, address);
+	}
+
+	private Buckets address(String address) {
+		return addressRates.isUnlimited() ? null : lookup(addresses, address, addressRates);
+	}
+
+	private Buckets client(String clientId) {
+		return clientRates.isUnlimited() ? null : lookup(clients, clientId == null ? "" : clientId, clientRates);
+	}
+
+	private Buckets lookup(ConcurrentHashMap<String, Buckets> entities, String key, Rates rates) {
+		Buckets buckets = entities.get(key);
+		if (buckets == null) {
+			expireIdle(System.nanoTime());
+			buckets = entities.computeIfAbsent(key, k -> buckets(rates));
+		}
+		return buckets;
+	}
+
+	// Drops idle buckets, unless another thread swept within the last interval
+	private void expireIdle(long now) {
+		long next = nextExpiry.get();
+		if (now - next < 0 || !nextExpiry.compareAndSet(next, now + expiryIntervalNanos)) {
+			return;
+		}
+		expireIdle(clients, now);
+		expireIdle(addresses, now);
+	}
+
+	private static void expireIdle(ConcurrentHashMap<String, Buckets> entities, long now) {
+		for (Map.Entry<String, Buckets> entry : entities.entrySet()) {
+			Buckets buckets = entry.getValue();
+			if (buckets.isIdle(now) && entities.remove(entry.getKey(), buckets)) {
+				buckets.expired = true;
+			}
+		}
+	}
+
+	private Buckets buckets(Rates rates) {
+		long maxDebtNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleMs);
+		return new Buckets(bucket(rates.requests, maxDebtNanos), bucket(rates.produceBytes, maxDebtNanos),
+				bucket(rates.fetchBytes, maxDebtNanos));
+	}
+
+	private TokenBucket bucket(long rate, long maxDebtNanos) {
+		return rate > 0 ? new TokenBucket(rate, burstSeconds, maxDebtNanos) : null;
+	}
+
+	private static final class Buckets {
+
+		final TokenBucket requests;
+		final TokenBucket produceBytes;
+		final TokenBucket fetchBytes;
+		volatile boolean expired = false; // Removed from its map; sessions must look up again
+
+		Buckets(TokenBucket requests, TokenBucket produceBytes, TokenBucket fetchBytes) {
+			this.requests = requests;
+			this.produceBytes = produceBytes;
+			this.fetchBytes = fetchBytes;
+		}
+
+		boolean isIdle(long now) {
+			return isIdle(requests, now) && isIdle(produceBytes, now) && isIdle(fetchBytes, now);
+		}
+
+		private static boolean isIdle(TokenBucket bucket, long now) {
+			return bucket == null || bucket.isIdle(now);
+		}
+	}
+
+	// Per connection. The buckets are looked up again only when the client_id
+	// changes, which in practice is never, or when they expired.
+	public static final class Session {
+
+		private final QuotaManager quotas;
+		private final String addressKey;
+		private volatile Buckets address;
+		private volatile String clientId;
+		private volatile Buckets client;
+		private volatile boolean clientResolved = false;
+
+		private Session(QuotaManager quotas, String addressKey) {
+			this.quotas = quotas;
+			this.addressKey = addressKey;
+			this.address = quotas.address(addressKey);
+		}
+
+		// Network thread, for every request read: counts it, plus its bytes
+		// for a Produce. Returns the throttle time in ms, 0 if within quota.
+		public int recordRequest(String clientId, short apiKey, int bytes) {
+			Buckets client = client(clientId);
+			Buckets address = address();
+			if (client == null && address == null) {
+				return 0;
+			}
+			long now = System.nanoTime();
+			long produceBytes = apiKey == APIKeys.PRODUCE.getCode() ? bytes : 0;
+			return toMs(Math.max(recordRequest(client, produceBytes, now), recordRequest(address, produceBytes, now)));
+		}
+
+		// Handler threads: record bytes returned by a Fetch
+		public int recordFetch(long bytes) {
+			Buckets client = this.client;
+			Buckets address = address();
+			if (client == null && address == null) {
+				return 0;
+			}
+			long now = System.nanoTime();
+			return toMs(Math.max(recordFetch(client, bytes, now), recordFetch(address, bytes, now)));
+		}
+
+		private Buckets client(String clientId) {
+			Buckets client = this.client;
+			if (!clientResolved || (client != null && client.expired) || !Objects.equals(clientId, this.clientId)) {
+				client = quotas.client(clientId);
+				this.client = client;
+				this.clientId = clientId;
+				this.clientResolved = true;
+			}
+			return client;
+		}
+
+		private Buckets address() {
+			Buckets address = this.address;
+			if (address != null && address.expired) {
+				address = quotas.address(addressKey);
+				this.address = address;
+			}
+			return address;
+		}
+
+		private int toMs(long nanos) {
+			if (nanos <= 0) {
+				return 0;
+			}
+			long ms = TimeUnit.NANOSECONDS.toMillis(nanos + 999_999);
+			return (int) Math.min(ms, quotas.maxThrottleMs);
+		}
+
+		private static long recordRequest(Buckets buckets, long produceBytes, long now) {
+			if (buckets == null) {
+				return 0;
+			}
+			long throttle = record(buckets.requests, 1, now);
+			if (produceBytes > 0) {
+				throttle = Math.max(throttle, record(buckets.produceBytes, produceBytes, now));
+			}
+			return throttle;
+		}
+
+		private static long recordFetch(Buckets buckets, long bytes, long now) {
+			return buckets == null ? 0 : record(buckets.fetchBytes, bytes, now);
+		}
+
+		private static long record(TokenBucket bucket, long units, long now) {
+			return bucket == null ? 0 : bucket.record(units, now);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// One network thread. Owns a Selector and every Connection registered on it,
+// so connection state is only ever touched from this thread. It only frames
+// requests and sends them down the RequestChannel; request handler threads
+// hand completed requests back through this thread's completion queue.
+// Connections throttled by their quotas wait in a deadline queue; the
+// selector's timeout is the nearest deadline, so no timer thread is needed.
+public class Reactor implements Runnable {
+
+	private final int id;
+	private final Selector selector;
+	private final BufferPool bufferPool = new BufferPool();
+	private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+	private final Queue<Connection> completions = new ConcurrentLinkedQueue<>();
+	private final RequestChannel requestChannel;
+	// Network thread only, ordered by deadline
+	private final PriorityQueue<Throttle> throttled = new PriorityQueue<>();
+
+	private static final class Throttle implements Comparable<Throttle> {
+		final long until;
+		final Connection connection;
+
+		Throttle(long until, Connection connection) {
+			this.until = until;
+			this.connection = connection;
+		}
+
+		@Override
+		public int compareTo(Throttle other) {
+			return Long.compare(until - other.until, 0);
+		}
+	}
+
+	public Reactor(int id, RequestChannel requestChannel) throws IOException {
+		this.id = id;
+		this.selector = Selector.open();
+		this.requestChannel = requestChannel;
+	}
+
+	public BufferPool bufferPool() {
+		return bufferPool;
+	}
+
+	// Called from request handler threads once a request on connection is done
+	public void completed(Connection connection) {
+		if (connection.completionPending.compareAndSet(false, true)) {
+			Metrics.get().responseQueued();
+			completions.add(connection);
+			selector.wakeup();
+		}
+	}
+
+	// Network thread: wake connection up again at until (nanoTime)
+	void schedule(Connection connection, long until) {
+		throttled.add(new Throttle(until, connection));
+	}
+
+	// Called from the acceptor thread
+	public void register(SocketChannel channel) {
+		newChannels.add(channel);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		// Responses encoded on this thread draw from this reactor's pool
+		BufferPool.bind(bufferPool);
+		Metrics metrics = Metrics.get();
+		while (true) {
+			try {
+				long timeoutMs = nextThrottleTimeoutMs();
+				if (timeoutMs < 0) {
+					selector.select();
+				} else if (timeoutMs == 0) {
+					selector.selectNow();
+				} else {
+					selector.select(timeoutMs);
+				}
+				long busyStart = System.nanoTime();
+				registerNewChannels();
+				processCompletions();
+				expireThrottles();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Connection connection = (Connection) key.attachment();
+					if (!key.isValid()) {
+						connection.close();
+						continue;
+					}
+					if (key.isReadable()) {
+						connection.onReadable();
+					}
+					if (key.isValid() && key.isWritable()) {
+						connection.onWritable();
+					}
+				}
+				metrics.networkBusy(System.nanoTime() - busyStart);
+			} catch (IOException e) {
+				Log.error("Network thread {} error: {}", id, e.getMessage());
+			}
+		}
+	}
+
+	private void processCompletions() {
+		Connection connection;
+		while ((connection = completions.poll()) != null) {
+			Metrics.get().responseDequeued();
+			connection.completionPending.set(false);
+			connection.onCompletion();
+		}
+	}
+
+	// -1 when nothing is throttled
+	private long nextThrottleTimeoutMs() {
+		Throttle next = throttled.peek();
+		if (next == null) {
+			return -1;
+		}
+		long nanos = next.until - System.nanoTime();
+		return nanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos + 999_999);
+	}
+
+	private void expireThrottles() {
+		long now = System.nanoTime();
+		Throttle next;
+		while ((next = throttled.peek()) != null && next.until - now <= 0) {
+			throttled.poll();
+			next.connection.onThrottleExpired(now);
+		}
+	}
+
+	private void registerNewChannels() {
+		SocketChannel channel;
+		while ((channel = newChannels.poll()) != null) {
+			try {
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				key.attach(new Connection(channel, key, this, requestChannel));
+			} catch (ClosedChannelException e) {
+				Log.warn("Channel closed before registration: {}", e.getMessage());
+			}
+		}
+	}
+}
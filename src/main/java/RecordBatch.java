@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+// Flyweight over a v2 record batch (magic 2) in a buffer, read by offset.
+//
+//   baseOffset INT64, batchLength INT32, partitionLeaderEpoch INT32,
+//   magic INT8, crc UINT32, attributes INT16, lastOffsetDelta INT32,
+//   baseTimestamp INT64, maxTimestamp INT64, producerId INT64,
+//   producerEpoch INT16, baseSequence INT32, recordsCount INT32, records...
+//
+// batchLength counts everything after the batchLength field itself. The
+// low three attribute bits name the CompressionCodec of the records section.
+public class RecordBatch {
+
+	public static final int BASE_OFFSET_OFFSET = 0;
+	public static final int BATCH_LENGTH_OFFSET = 8;
+	public static final int PARTITION_LEADER_EPOCH_OFFSET = 12;
+	public static final int MAGIC_OFFSET = 16;
+	public static final int CRC_OFFSET = 17;
+	public static final int ATTRIBUTES_OFFSET = 21;
+	public static final int LAST_OFFSET_DELTA_OFFSET = 23;
+	public static final int BASE_TIMESTAMP_OFFSET = 27;
+	public static final int MAX_TIMESTAMP_OFFSET = 35;
+	public static final int PRODUCER_ID_OFFSET = 43;
+	public static final int PRODUCER_EPOCH_OFFSET = 51;
+	public static final int BASE_SEQUENCE_OFFSET = 53;
+	public static final int RECORDS_COUNT_OFFSET = 57;
+	public static final int RECORDS_OFFSET = 61;
+
+	// baseOffset + batchLength, the part not counted in batchLength
+	public static final int LOG_OVERHEAD = 12;
+	public static final int HEADER_SIZE = RECORDS_OFFSET;
+	public static final byte CURRENT_MAGIC = 2;
+	public static final int CONTROL_FLAG = 0x20;
+
+	private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+
+	private ByteBuffer buffer;
+	private int offset;
+
+	public RecordBatch wrap(ByteBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+		return this;
+	}
+
+	public int position() {
+		return offset;
+	}
+
+	public long baseOffset() {
+		return buffer.getLong(offset + BASE_OFFSET_OFFSET);
+	}
+
+	public void setBaseOffset(long baseOffset) {
+		buffer.putLong(offset + BASE_OFFSET_OFFSET, baseOffset);
+	}
+
+	public int batchLength() {
+		return buffer.getInt(offset + BATCH_LENGTH_OFFSET);
+	}
+
+	// Whole batch on the wire, log overhead included
+	public int sizeInBytes() {
+		return LOG_OVERHEAD + batchLength();
+	}
+
+	public byte magic() {
+		return buffer.get(offset + MAGIC_OFFSET);
+	}
+
+	public long crc() {
+		return buffer.getInt(offset + CRC_OFFSET) & 0xFFFFFFFFL;
+	}
+
+	// CRC32C of everything after the crc field (attributes to the end),
+	// computed in place over the wrapped buffer
+	public long computeChecksum() {
+		CRC32C crc = CRC.get();
+		crc.reset();
+		crc.update(buffer.duplicate().limit(offset + sizeInBytes()).position(offset + ATTRIBUTES_OFFSET));
+		return crc.getValue();
+	}
+
+	public boolean isValid() {
+		return sizeInBytes() >= HEADER_SIZE && crc() == computeChecksum();
+	}
+
+	public short attributes() {
+		return buffer.getShort(offset + ATTRIBUTES_OFFSET);
+	}
+
+	public int compressionId() {
+		return attributes() & CompressionCodec.ATTRIBUTE_MASK;
+	}
+
+	public boolean isControl() {
+		return (attributes() & CONTROL_FLAG) != 0;
+	}
+
+	public int lastOffsetDelta() {
+		return buffer.getInt(offset + LAST_OFFSET_DELTA_OFFSET);
+	}
+
+	public long lastOffset() {
+		return baseOffset() + lastOffsetDelta();
+	}
+
+	public long baseTimestamp() {
+		return buffer.getLong(offset + BASE_TIMESTAMP_OFFSET);
+	}
+
+	public long maxTimestamp() {
+		return buffer.getLong(offset + MAX_TIMESTAMP_OFFSET);
+	}
+
+	public long producerId() {
+		return buffer.getLong(offset + PRODUCER_ID_OFFSET);
+	}
+
+	public int recordsCount() {
+		return buffer.getInt(offset + RECORDS_COUNT_OFFSET);
+	}
+
+	// The records section, decompressed if needed. Uncompressed batches give
+	// a view of the wrapped buffer; compressed ones are inflated into out,
+	// which stays owned by the caller.
+	public ByteBuffer records(PooledOutputStream out) throws IOException {
+		ByteBuffer section = buffer.duplicate().limit(offset + sizeInBytes()).position(offset + RECORDS_OFFSET).slice();
+		int codec = compressionId();
+		if (codec == 0) {
+			return section;
+		}
+		out.reset();
+		byte[] chunk = CompressionCodec.scratch(8192);
+		try (InputStream in = CompressionCodec.forId(codec).decompress(section)) {
+			int read;
+			while ((read = in.read(chunk, 0, chunk.length)) > 0) {
+				out.write(chunk, 0, read);
+			}
+		} finally {
+			CompressionCodec.recycle(chunk);
+		}
+		return out.buffer();
+	}
+
+	// Walks every record (decompressing first if needed) and checks that
+	// their framing, count and offset deltas agree with the header. Throws
+	// CORRUPT_MESSAGE, or UNSUPPORTED_COMPRESSION_TYPE for zstd.
+	public void validateRecords(PooledOutputStream out) {
+		ByteBuffer records;
+		try {
+			records = records(out);
+		} catch (IOException e) {
+			throw new KafkaException(ErrorCodes.CORRUPT_MESSAGE, "Cannot decompress batch: " + e.getMessage());
+		}
+		int count = recordsCount();
+		try {
+			for (int i = 0; i < count; i++) {
+				int length = KafkaProtocolUtils.readVarint(records);
+				if (length <= 0 || length > records.remaining()) {
+					throw new KafkaException(ErrorCodes.CORRUPT_MESSAGE, "Record " + i + " overruns its batch");
+				}
+				int next = records.position() + length;
+				records.get(); // attributes
+				KafkaProtocolUtils.readVarlong(records); // timestamp_delta
+				if (KafkaProtocolUtils.readVarint(records) != i) {
+					throw new KafkaException(ErrorCodes.CORRUPT_MESSAGE, "Record " + i + " has a non-sequential offset delta");
+				}
+				records.position(next);
+			}
+		} catch (RuntimeException e) {
+			if (e instanceof KafkaException) {
+				throw e;
+			}
+			throw new KafkaException(ErrorCodes.CORRUPT_MESSAGE, "Malformed record: " + e);
+		}
+		if (records.hasRemaining() || count - 1 != lastOffsetDelta()) {
+			throw new KafkaException(ErrorCodes.CORRUPT_MESSAGE, "Batch holds " + count
+					+ " records but its header says last offset delta " + lastOffsetDelta());
+		}
+	}
+
+	// True if a complete batch header and body fit in [offset, limit)
+	public static boolean isComplete(ByteBuffer buffer, int offset, int limit) {
+		if (limit - offset < HEADER_SIZE) {
+			return false;
+		}
+		int batchLength = buffer.getInt(offset + BATCH_LENGTH_OFFSET);
+		return batchLength >= HEADER_SIZE - LOG_OVERHEAD && limit - offset >= LOG_OVERHEAD + (long) batchLength;
+	}
+}
@@ -0,0 +1,97 @@
+import java.nio.ByteBuffer;
+
+// Builds one uncompressed v2 RecordBatch in a pooled buffer, for records
+// the broker writes itself (committed offsets). Every record carries the
+// batch timestamp and its index as offset delta; the base offset is left
+// at 0 for PartitionLog.append to assign. The buffer doubles (through the
+// pool) when a record does not fit.
+public class RecordBatchBuilder {
+
+	private final BufferPool pool;
+	private final long timestamp;
+	private ByteBuffer buffer;
+	private int count = 0;
+
+	public RecordBatchBuilder(BufferPool pool, int estimatedSize, long timestamp) {
+		this.pool = pool;
+		this.timestamp = timestamp;
+		this.buffer = pool.acquire(RecordBatch.HEADER_SIZE + Math.max(64, estimatedSize));
+		buffer.position(RecordBatch.HEADER_SIZE);
+	}
+
+	// Appends the remaining bytes of key and value, which keep their
+	// positions; a null value makes a tombstone
+	public RecordBatchBuilder append(ByteBuffer key, ByteBuffer value) {
+		int keyLength = key == null ? -1 : key.remaining();
+		int valueLength = value == null ? -1 : value.remaining();
+		int bodySize = 1 // attributes
+				+ 1 // timestamp_delta, always 0
+				+ KafkaProtocolUtils.sizeOfVarint(count)
+				+ KafkaProtocolUtils.sizeOfVarint(keyLength) + Math.max(0, keyLength)
+				+ KafkaProtocolUtils.sizeOfVarint(valueLength) + Math.max(0, valueLength)
+				+ 1; // headers count, always 0
+		ensure(KafkaProtocolUtils.sizeOfVarint(bodySize) + bodySize);
+		KafkaProtocolUtils.writeVarint(buffer, bodySize);
+		buffer.put((byte) 0);
+		KafkaProtocolUtils.writeVarint(buffer, 0);
+		KafkaProtocolUtils.writeVarint(buffer, count);
+		KafkaProtocolUtils.writeVarint(buffer, keyLength);
+		if (keyLength > 0) {
+			buffer.put(key.duplicate());
+		}
+		KafkaProtocolUtils.writeVarint(buffer, valueLength);
+		if (valueLength > 0) {
+			buffer.put(value.duplicate());
+		}
+		KafkaProtocolUtils.writeVarint(buffer, 0);
+		count++;
+		return this;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	// Fills in the header and CRC; the batch from position 0, valid until
+	// release(). Needs at least one record.
+	public ByteBuffer build() {
+		if (count == 0) {
+			throw new IllegalStateException("A record batch needs at least one record");
+		}
+		int size = buffer.position();
+		buffer.putLong(RecordBatch.BASE_OFFSET_OFFSET, 0L)
+				.putInt(RecordBatch.BATCH_LENGTH_OFFSET, size - RecordBatch.LOG_OVERHEAD)
+				.putInt(RecordBatch.PARTITION_LEADER_EPOCH_OFFSET, -1)
+				.put(RecordBatch.MAGIC_OFFSET, RecordBatch.CURRENT_MAGIC)
+				.putShort(RecordBatch.ATTRIBUTES_OFFSET, (short) 0)
+				.putInt(RecordBatch.LAST_OFFSET_DELTA_OFFSET, count - 1)
+				.putLong(RecordBatch.BASE_TIMESTAMP_OFFSET, timestamp)
+				.putLong(RecordBatch.MAX_TIMESTAMP_OFFSET, timestamp)
+				.putLong(RecordBatch.PRODUCER_ID_OFFSET, -1L)
+				.putShort(RecordBatch.PRODUCER_EPOCH_OFFSET, (short) -1)
+				.putInt(RecordBatch.BASE_SEQUENCE_OFFSET, -1)
+				.putInt(RecordBatch.RECORDS_COUNT_OFFSET, count);
+		ByteBuffer batch = buffer.duplicate().flip();
+		buffer.putInt(RecordBatch.CRC_OFFSET, (int) new RecordBatch().wrap(batch, 0).computeChecksum());
+		return batch;
+	}
+
+	public void release() {
+		if (buffer != null) {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	private void ensure(int bytes) {
+		if (buffer.capacity() - buffer.position() >= bytes) {
+			buffer.limit(buffer.capacity());
+			return;
+		}
+		ByteBuffer grown = pool.acquire(Math.max(buffer.position() + bytes, 2 * buffer.capacity()));
+		buffer.flip();
+		grown.put(buffer);
+		pool.release(buffer);
+		buffer = grown;
+	}
+}
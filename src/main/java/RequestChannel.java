@@ -0,0 +1,90 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded hand-off between the two stages of the NIO server: network
+// threads only frame bytes and send requests here, the request handler pool
+// receives them. At queued.max.requests the sending network thread waits
+// (BackpressurePolicy.PARK), which stops it reading from its sockets until
+// the handlers catch up; that is the back-pressure, nothing is dropped.
+//
+// Responses go back the other way per network thread, through
+// Reactor.completed, so a handler never waits on a network thread.
+public class RequestChannel {
+
+	private static final int SPIN_TRIES = 100;
+
+	private final MessageQueue<Request> queue;
+	// Handler threads parked on an empty channel; send wakes one
+	private final ConcurrentLinkedQueue<Thread> idleHandlers = new ConcurrentLinkedQueue<>();
+
+	public RequestChannel(int capacity) {
+		this.queue = new MpmcRingBuffer<>(capacity, BackpressurePolicy.PARK);
+	}
+
+	// One framed request on its way to a handler
+	static final class Request {
+		final Connection connection;
+		final long sequence;
+		final ByteBuffer frame;
+		final short apiKey;
+		final long receivedNanos;
+		final int throttleTimeMs;
+
+		Request(Connection connection, long sequence, ByteBuffer frame, short apiKey, long receivedNanos, int throttleTimeMs) {
+			this.connection = connection;
+			this.sequence = sequence;
+			this.frame = frame;
+			this.apiKey = apiKey;
+			this.receivedNanos = receivedNanos;
+			this.throttleTimeMs = throttleTimeMs;
+		}
+	}
+
+	// Network thread; false only if interrupted while the channel was full
+	boolean send(Request request) {
+		if (!queue.put(request)) {
+			return false;
+		}
+		Thread idle = idleHandlers.poll();
+		if (idle != null) {
+			LockSupport.unpark(idle);
+		}
+		return true;
+	}
+
+	// Handler threads: the next request, spinning briefly and then parking
+	// until a send; null once the thread is interrupted
+	Request receive() {
+		int idleCount = 0;
+		while (true) {
+			Request request = queue.poll();
+			if (request != null) {
+				return request;
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+			if (idleCount++ < SPIN_TRIES) {
+				Thread.onSpinWait();
+				continue;
+			}
+			Thread self = Thread.currentThread();
+			idleHandlers.add(self);
+			// A send between our poll and add saw no idle thread; check again
+			if (queue.isEmpty()) {
+				LockSupport.park(this);
+			}
+			idleHandlers.remove(self);
+			idleCount = 0;
+		}
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	public int capacity() {
+		return queue.capacity();
+	}
+}
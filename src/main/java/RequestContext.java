@@ -0,0 +1,124 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// What a RequestHandler gets for one request: the decoded header flyweight
+// and the frame positioned at the request body. Reused per thread like the
+// header, so handlers must copy anything they keep beyond handle().
+//
+// A handler that cannot answer yet (a long-polling Fetch) may defer: it takes
+// the callback from defer(), returns Response.DEFERRED, and completes the
+// callback later from any thread. Only the NIO transport can take deferred
+// answers; elsewhere canDefer() is false and handlers answer right away.
+// A handler that must wait either way (JoinGroup, SyncGroup) uses
+// respondLater, which blocks the calling thread where it cannot defer.
+//
+// throttleTimeMs() is what the client's quotas charged for this request so
+// far (QuotaManager); handlers put it in throttle_time_ms.
+//
+// For the request metrics a handler may also mark where its phases end:
+// decoded() once the body is parsed, encoding() right before it builds the
+// response. Unmarked time counts as Metrics.Stage.HANDLE.
+public class RequestContext {
+
+	private static final long UNMARKED = Long.MIN_VALUE;
+
+	private final RequestHeader header = new RequestHeader();
+	private ByteBuffer body;
+	private ResponseCallback callback;
+	private QuotaManager.Session quota;
+	private int throttleTimeMs;
+	private long decodedNanos;
+	private long encodingNanos;
+
+	public RequestContext wrap(ByteBuffer frame) {
+		return wrap(frame, null);
+	}
+
+	public RequestContext wrap(ByteBuffer frame, ResponseCallback callback) {
+		return wrap(frame, callback, null, 0);
+	}
+
+	public RequestContext wrap(ByteBuffer frame, ResponseCallback callback, QuotaManager.Session quota, int throttleTimeMs) {
+		header.wrap(frame, frame.position());
+		body = frame;
+		this.callback = callback;
+		this.quota = quota;
+		this.throttleTimeMs = throttleTimeMs;
+		this.decodedNanos = UNMARKED;
+		this.encodingNanos = UNMARKED;
+		return this;
+	}
+
+	public void decoded() {
+		decodedNanos = System.nanoTime();
+	}
+
+	public void encoding() {
+		encodingNanos = System.nanoTime();
+	}
+
+	// Where each phase of the request that just ran ended, as recorded by the
+	// dispatcher once the handler returned
+	void recordStages(long startNanos, long headerNanos, long endNanos) {
+		short apiKey = header.apiKey();
+		Metrics metrics = Metrics.get();
+		long decoded = decodedNanos == UNMARKED ? headerNanos : decodedNanos;
+		long encoding = encodingNanos == UNMARKED ? endNanos : encodingNanos;
+		metrics.record(apiKey, Metrics.Stage.DECODE, decoded - startNanos);
+		metrics.record(apiKey, Metrics.Stage.HANDLE, encoding - decoded);
+		if (encodingNanos != UNMARKED) {
+			metrics.record(apiKey, Metrics.Stage.ENCODE, endNanos - encoding);
+		}
+	}
+
+	public boolean canDefer() {
+		return callback != null;
+	}
+
+	public ResponseCallback defer() {
+		if (callback == null) {
+			throw new IllegalStateException("This transport cannot defer responses");
+		}
+		return callback;
+	}
+
+	// Passes start the callback that completes this request's answer. Where
+	// the transport can defer, that happens later and Response.DEFERRED is
+	// returned; otherwise this thread waits for the callback, as the blocking
+	// transports own one thread per connection.
+	public Response respondLater(Consumer<ResponseCallback> start) {
+		if (callback != null) {
+			start.accept(callback);
+			return Response.DEFERRED;
+		}
+		CompletableFuture<Response> response = new CompletableFuture<>();
+		start.accept(response::complete);
+		return response.join();
+	}
+
+	// Quota state of the connection, null if the transport does not track one
+	public QuotaManager.Session quota() {
+		return quota;
+	}
+
+	public int throttleTimeMs() {
+		return throttleTimeMs;
+	}
+
+	public RequestHeader header() {
+		return header;
+	}
+
+	public ByteBuffer body() {
+		return body;
+	}
+
+	public short apiVersion() {
+		return header.apiVersion();
+	}
+
+	public int correlationId() {
+		return header.correlationId();
+	}
+}
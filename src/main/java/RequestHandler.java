@@ -0,0 +1,31 @@
+// Handles one api key. Handlers declare the versions they support; the
+// dispatcher in MessageUtils looks them up by api key in a
+// RequestHandlerRegistry and only calls handle for supported versions.
+public interface RequestHandler {
+
+	APIKeys apiKey();
+
+	short minVersion();
+
+	short maxVersion();
+
+	// First version using flexible encoding (request header v2, compact
+	// strings/arrays, tagged fields); Short.MAX_VALUE if none
+	short firstFlexibleVersion();
+
+	// request.body() is positioned at the first byte after the request header
+	Response handle(RequestContext request);
+
+	default boolean supportsVersion(short version) {
+		return version >= minVersion() && version <= maxVersion();
+	}
+
+	default boolean isFlexible(short version) {
+		return version >= firstFlexibleVersion();
+	}
+
+	// Answer for a version outside [minVersion, maxVersion]
+	default Response unsupportedVersion(RequestContext request) {
+		return MessageUtils.createErrorResponse(request.header().correlationId(), ErrorCodes.UNSUPPORTED_VERSION);
+	}
+}
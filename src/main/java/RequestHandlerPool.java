@@ -0,0 +1,37 @@
+// The request handler stage of the NIO server: num.io.threads threads, sized
+// independently of the network threads, that take requests off the
+// RequestChannel and run them. Time spent handling is added to
+// Metrics.handlerBusyNanos so the pool's utilisation can be watched.
+public class RequestHandlerPool {
+
+	private final RequestChannel channel;
+	private final Thread[] threads;
+
+	public RequestHandlerPool(RequestChannel channel, int numThreads) {
+		this.channel = channel;
+		this.threads = new Thread[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			threads[i] = new Thread(this::run, "kafka-request-handler-" + i);
+		}
+	}
+
+	public void start() {
+		for (Thread thread : threads) {
+			thread.start();
+		}
+	}
+
+	public int size() {
+		return threads.length;
+	}
+
+	private void run() {
+		Metrics metrics = Metrics.get();
+		RequestChannel.Request request;
+		while ((request = channel.receive()) != null) {
+			long start = System.nanoTime();
+			request.connection.handle(request);
+			metrics.handlerBusy(System.nanoTime() - start);
+		}
+	}
+}
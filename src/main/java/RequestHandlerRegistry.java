@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Dense api_key -> RequestHandler table. Lookups are a single array read;
+// registration copies the table, so readers never lock. Adding an API means
+// registering a handler in createDefault, never touching the dispatcher.
+public class RequestHandlerRegistry {
+
+	private static final RequestHandlerRegistry DEFAULT = createDefault();
+
+	private volatile RequestHandler[] handlers = new RequestHandler[APIKeys.MAX_API_KEY + 1];
+	// Bumped on every change, so caches derived from the registry can tell they are stale
+	private volatile long generation = 0;
+	private OffsetManager offsets;
+
+	public static RequestHandlerRegistry get() {
+		return DEFAULT;
+	}
+
+	private static RequestHandlerRegistry createDefault() {
+		RequestHandlerRegistry registry = new RequestHandlerRegistry();
+		registry.register(new ApiVersionsHandler(registry));
+		registry.register(new DescribeTopicPartitionsHandler(MetadataCache.get()));
+		DelayedOperationPurgatory<DelayedFetch> fetchPurgatory =
+				new DelayedOperationPurgatory<>("Fetch", BrokerConfig.FETCH_PURGATORY_PURGE_INTERVAL_REQUESTS);
+		registry.register(new FetchHandler(LogManager.get(), fetchPurgatory));
+		DelayedOperationPurgatory<DelayedProduce> producePurgatory =
+				new DelayedOperationPurgatory<>("Produce", BrokerConfig.PRODUCER_PURGATORY_PURGE_INTERVAL_REQUESTS);
+		FlushScheduler flushScheduler = new FlushScheduler(BrokerConfig.LOG_FLUSH_POLICY, BrokerConfig.LOG_FLUSH_INTERVAL_MS,
+				BrokerConfig.LOG_FLUSH_INTERVAL_BYTES, log -> producePurgatory.checkAndComplete(DelayedProduce.key(log)));
+		registry.register(new ProduceHandler(LogManager.get(), flushScheduler, fetchPurgatory, producePurgatory));
+		registry.register(new ListOffsetsHandler(LogManager.get()));
+		OffsetManager offsets = new OffsetManager(LogManager.get(), LogCleaner.get(), flushScheduler,
+				BrokerConfig.OFFSETS_TOPIC_NUM_PARTITIONS, BrokerConfig.OFFSETS_TOPIC_SEGMENT_BYTES);
+		registry.offsets = offsets;
+		GroupCoordinator coordinator = new GroupCoordinator(offsets);
+		registry.register(new FindCoordinatorHandler());
+		registry.register(new JoinGroupHandler(coordinator));
+		registry.register(new SyncGroupHandler(coordinator));
+		registry.register(new HeartbeatHandler(coordinator));
+		registry.register(new LeaveGroupHandler(coordinator));
+		registry.register(new OffsetCommitHandler(coordinator));
+		registry.register(new OffsetFetchHandler(offsets));
+		return registry;
+	}
+
+	public synchronized void register(RequestHandler handler) {
+		int apiKey = handler.apiKey().getCode();
+		RequestHandler[] updated = handlers.clone();
+		updated[apiKey] = handler;
+		handlers = updated;
+		generation++;
+	}
+
+	// null if nothing is registered for apiKey
+	public RequestHandler handlerFor(short apiKey) {
+		RequestHandler[] table = handlers;
+		if (apiKey < 0 || apiKey >= table.length) {
+			return null;
+		}
+		return table[apiKey];
+	}
+
+	// Registered handlers in api key order, as advertised by ApiVersions
+	public List<RequestHandler> handlers() {
+		List<RequestHandler> registered = new ArrayList<>();
+		for (RequestHandler handler : handlers) {
+			if (handler != null) {
+				registered.add(handler);
+			}
+		}
+		return registered;
+	}
+
+	public long generation() {
+		return generation;
+	}
+
+	// Committed offsets behind the group handlers. Building the registry only
+	// wires them; Main starts the replay of __consumer_offsets.
+	public OffsetManager offsetManager() {
+		return offsets;
+	}
+}
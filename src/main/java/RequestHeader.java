@@ -0,0 +1,165 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Flyweight over a request frame (size prefix already stripped). Fields are
+// read straight from the wrapped buffer by offset, so one instance can be
+// re-pointed at every request on a thread without allocating.
+//
+// Layout (request header v1/v2):
+//   request_api_key     INT16
+//   request_api_version INT16
+//   correlation_id      INT32
+//   client_id           NULLABLE_STRING (INT16 length)
+//   tagged_fields       TAG_BUFFER (v2 only)
+public class RequestHeader {
+
+	private static final int API_KEY_OFFSET = 0;
+	private static final int API_VERSION_OFFSET = 2;
+	private static final int CORRELATION_ID_OFFSET = 4;
+	private static final int CLIENT_ID_LENGTH_OFFSET = 8;
+	private static final int CLIENT_ID_OFFSET = 10;
+
+	private ByteBuffer buffer;
+	private int offset;
+	private int bodyOffset;
+
+	// Last decoded client_id, reused while the bytes stay the same
+	private byte[] cachedClientIdBytes;
+	private String cachedClientId;
+
+	public RequestHeader wrap(ByteBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.bodyOffset = -1;
+		return this;
+	}
+
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	public short apiKey() {
+		return buffer.getShort(offset + API_KEY_OFFSET);
+	}
+
+	public short apiVersion() {
+		return buffer.getShort(offset + API_VERSION_OFFSET);
+	}
+
+	public int correlationId() {
+		return buffer.getInt(offset + CORRELATION_ID_OFFSET);
+	}
+
+	// -1 for a null client_id
+	public int clientIdLength() {
+		return buffer.getShort(offset + CLIENT_ID_LENGTH_OFFSET);
+	}
+
+	// Absolute offset of the client_id bytes within buffer()
+	public int clientIdOffset() {
+		return offset + CLIENT_ID_OFFSET;
+	}
+
+	public boolean clientIdEquals(byte[] bytes) {
+		int length = clientIdLength();
+		if (length != bytes.length) {
+			return false;
+		}
+		int start = clientIdOffset();
+		for (int i = 0; i < length; i++) {
+			if (buffer.get(start + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Decoded lazily; a connection normally sends the same client_id on every
+	// request, so after the first call this is a byte compare, not a new String.
+	public String clientId() {
+		int length = clientIdLength();
+		if (length < 0) {
+			return null;
+		}
+		if (cachedClientIdBytes != null && clientIdEquals(cachedClientIdBytes)) {
+			return cachedClientId;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(clientIdOffset(), bytes);
+		cachedClientIdBytes = bytes;
+		cachedClientId = new String(bytes, StandardCharsets.UTF_8);
+		return cachedClientId;
+	}
+
+	public boolean isFlexible() {
+		return headerVersion(apiKey(), apiVersion()) >= 2;
+	}
+
+	// Number of tagged fields in the header (always 0 for header v1)
+	public int taggedFieldCount() {
+		if (!isFlexible()) {
+			return 0;
+		}
+		return (int) readUnsignedVarint(tagBufferOffset());
+	}
+
+	// Absolute offset of the first byte after the header, where the request body starts
+	public int bodyOffset() {
+		if (bodyOffset >= 0) {
+			return bodyOffset;
+		}
+		int position = tagBufferOffset();
+		if (isFlexible()) {
+			long count = readUnsignedVarint(position);
+			position += varintSize(count);
+			for (long i = 0; i < count; i++) {
+				long tag = readUnsignedVarint(position);
+				position += varintSize(tag);
+				long size = readUnsignedVarint(position);
+				position += varintSize(size) + (int) size;
+			}
+		}
+		bodyOffset = position;
+		return bodyOffset;
+	}
+
+	private int tagBufferOffset() {
+		return clientIdOffset() + Math.max(0, clientIdLength());
+	}
+
+	private long readUnsignedVarint(int position) {
+		long value = 0;
+		int shift = 0;
+		while (true) {
+			byte b = buffer.get(position++);
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+			if (shift > 28) {
+				throw new IllegalArgumentException("Varint is too long");
+			}
+		}
+	}
+
+	private static int varintSize(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	// Request header v2 (with tagged fields) is used from each API's first
+	// flexible version onwards, v1 before that. Unknown keys never get past
+	// the correlation id, so their header version does not matter.
+	public static int headerVersion(short apiKey, short apiVersion) {
+		RequestHandler handler = RequestHandlerRegistry.get().handlerFor(apiKey);
+		if (handler == null) {
+			return 1;
+		}
+		return handler.isFlexible(apiVersion) ? 2 : 1;
+	}
+}
@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// An encoded response ready to go on the wire: the 4-byte size header plus
+// the body buffers, written together with one gathering write and handed
+// back to their pool once fully sent.
+//
+// A body may also contain FileRegions (record batches of a Fetch): the
+// buffers around them are still gathered, the regions go out with
+// transferTo.
+public class Response {
+
+	private final ByteBuffer[] buffers;
+	private final FileRegion[] regions; // null, or the region at each index where buffers[i] is null
+	private final ByteBuffer[] owned;   // Returned to the pool on release
+	private final BufferPool pool;
+	private int firstPending = 0;
+
+	// Request metrics, set by the transport through track()
+	private short apiKey = -1;
+	private long receivedNanos;
+	private long completedNanos;
+	private long writeStartNanos;
+	private long size;
+	// Quota throttle charged while building this response, applied by the transport
+	private int throttleTimeMs;
+
+	// Returned by a handler that deferred its answer through RequestContext.defer()
+	public static final Response DEFERRED = new Response(new ByteBuffer[0], null);
+
+	private Response(ByteBuffer[] buffers, FileRegion[] regions, ByteBuffer[] owned, BufferPool pool) {
+		this.buffers = buffers;
+		this.regions = regions;
+		this.owned = owned;
+		this.pool = pool;
+	}
+
+	private Response(ByteBuffer[] buffers, BufferPool pool) {
+		this(buffers, null, buffers, pool);
+	}
+
+	// body must be flipped (position 0, limit == encoded size)
+	public static Response of(BufferPool pool, ByteBuffer... body) {
+		int size = 0;
+		for (ByteBuffer buffer : body) {
+			size += buffer.remaining();
+		}
+		ByteBuffer[] buffers = new ByteBuffer[body.length + 1];
+		buffers[0] = pool.acquire(4).putInt(0, size);
+		System.arraycopy(body, 0, buffers, 1, body.length);
+		return new Response(buffers, pool);
+	}
+
+	// Response whose body is shared (e.g. a cached template): the correlation
+	// id goes into the pooled header buffer next to the size, so the body
+	// itself is never patched
+	public static Response withCorrelationId(BufferPool pool, int correlationId, ByteBuffer body) {
+		ByteBuffer header = pool.acquire(8);
+		header.putInt(0, 4 + body.remaining());
+		header.putInt(4, correlationId);
+		return new Response(new ByteBuffer[] { header, body }, pool);
+	}
+
+	// Assembles a body from buffer slices and file regions, in wire order
+	public static Builder builder(BufferPool pool) {
+		return new Builder(pool);
+	}
+
+	public static final class Builder {
+
+		private final BufferPool pool;
+		private final List<ByteBuffer> buffers = new ArrayList<>();
+		private final List<FileRegion> regions = new ArrayList<>();
+		private final List<ByteBuffer> owned = new ArrayList<>();
+		private long size = 0;
+
+		private Builder(BufferPool pool) {
+			this.pool = pool;
+			ByteBuffer header = pool.acquire(4);
+			buffers.add(header);
+			regions.add(null);
+			owned.add(header);
+		}
+
+		// A flipped buffer or slice; not released with the response
+		public Builder add(ByteBuffer part) {
+			if (part.hasRemaining()) {
+				buffers.add(part);
+				regions.add(null);
+				size += part.remaining();
+			}
+			return this;
+		}
+
+		public Builder add(FileRegion region) {
+			if (region != null && region.count() > 0) {
+				buffers.add(null);
+				regions.add(region);
+				size += region.count();
+			}
+			return this;
+		}
+
+		// Pooled buffer backing some of the added slices, released with the response
+		public Builder own(ByteBuffer pooled) {
+			owned.add(pooled);
+			return this;
+		}
+
+		public Response build() {
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Response of " + size + " bytes is too large");
+			}
+			buffers.get(0).putInt(0, (int) size);
+			return new Response(buffers.toArray(new ByteBuffer[0]), regions.toArray(new FileRegion[0]),
+					owned.toArray(new ByteBuffer[0]), pool);
+		}
+	}
+
+	// Total bytes still to be written, size header included
+	public long remaining() {
+		long remaining = 0;
+		for (int i = firstPending; i < buffers.length; i++) {
+			remaining += buffers[i] != null ? buffers[i].remaining() : regions[i].remaining();
+		}
+		return remaining;
+	}
+
+	public Response throttled(int throttleTimeMs) {
+		this.throttleTimeMs = throttleTimeMs;
+		return this;
+	}
+
+	public int throttleTimeMs() {
+		return throttleTimeMs;
+	}
+
+	// Called once the handler is done. Once fully written, this response
+	// records SEND and TOTAL time for apiKey, TOTAL counting from
+	// receivedNanos (when its frame was read), and its size as bytes out.
+	public void track(short apiKey, long receivedNanos) {
+		this.apiKey = apiKey;
+		this.receivedNanos = receivedNanos;
+		this.completedNanos = System.nanoTime();
+		this.writeStartNanos = Long.MIN_VALUE;
+		this.size = remaining();
+	}
+
+	// Network thread, as it takes the response for writing: records how long
+	// it waited for its turn since the handler finished
+	public void dequeued() {
+		if (apiKey >= 0) {
+			Metrics.get().record(apiKey, Metrics.Stage.RESPONSE_QUEUE, System.nanoTime() - completedNanos);
+		}
+	}
+
+	// One gathering write per run of buffers, transferTo for file regions;
+	// returns true once the whole response is on the wire. On a non-blocking
+	// channel this may be partial and is called again later.
+	public boolean writeTo(GatheringByteChannel channel) throws IOException {
+		if (apiKey >= 0 && writeStartNanos == Long.MIN_VALUE) {
+			writeStartNanos = System.nanoTime();
+		}
+		if (!write(channel)) {
+			return false;
+		}
+		if (apiKey >= 0) {
+			long now = System.nanoTime();
+			Metrics metrics = Metrics.get();
+			metrics.record(apiKey, Metrics.Stage.SEND, now - writeStartNanos);
+			metrics.record(apiKey, Metrics.Stage.TOTAL, now - receivedNanos);
+			metrics.bytesOut(size);
+			apiKey = -1;
+		}
+		return true;
+	}
+
+	private boolean write(GatheringByteChannel channel) throws IOException {
+		while (firstPending < buffers.length) {
+			if (buffers[firstPending] == null) {
+				if (!regions[firstPending].transferTo(channel)) {
+					return false;
+				}
+				firstPending++;
+				continue;
+			}
+			int end = firstPending + 1;
+			while (end < buffers.length && buffers[end] != null) {
+				end++;
+			}
+			channel.write(buffers, firstPending, end - firstPending);
+			while (firstPending < end && !buffers[firstPending].hasRemaining()) {
+				firstPending++;
+			}
+			if (firstPending < end) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Blocking channels: keep writing until done
+	public void writeFully(GatheringByteChannel channel) throws IOException {
+		while (!writeTo(channel)) {
+			// The channel accepted only part of the response
+		}
+	}
+
+	// Diagnostics only (TRACE dumps); does not consume the buffers
+	public String toHexString() {
+		StringBuilder hex = new StringBuilder();
+		for (int i = firstPending; i < buffers.length; i++) {
+			ByteBuffer buffer = buffers[i];
+			if (buffer == null) {
+				hex.append(hex.length() > 0 ? " " : "").append(regions[i]);
+				continue;
+			}
+			for (int j = buffer.position(); j < buffer.limit(); j++) {
+				if (hex.length() > 0) {
+					hex.append(' ');
+				}
+				hex.append(String.format("%02x", buffer.get(j)));
+			}
+		}
+		return hex.toString();
+	}
+
+	public void release() {
+		for (ByteBuffer buffer : owned) {
+			pool.release(buffer);
+		}
+	}
+}
@@ -0,0 +1,7 @@
+// Completes a request whose handler deferred its answer. A null response
+// means nothing is sent, as for a synchronous handler.
+@FunctionalInterface
+public interface ResponseCallback {
+
+	void complete(Response response);
+}
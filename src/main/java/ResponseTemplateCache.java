@@ -0,0 +1,109 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Pre-encoded bodies for responses that only depend on the request version
+// (ApiVersions, later static metadata). A template holds everything after
+// the correlation id, so serving one is a read-only duplicate of the template
+// plus an 8-byte size/correlation-id header; nothing is encoded again.
+//
+// Templates are dropped when the handler registry changes (checked on every
+// lookup through its generation) or when invalidate() is called, which
+// MetadataCache does whenever it publishes a new snapshot. A caller takes a
+// Stamp before it encodes and hands it to put(), so a body encoded against
+// state that changed in the meantime is never stored.
+public class ResponseTemplateCache {
+
+	private static final int MAX_VERSIONS = 64;
+
+	private static final ResponseTemplateCache INSTANCE = new ResponseTemplateCache(RequestHandlerRegistry.get());
+
+	// The registry generation and epoch a body was encoded under
+	public static final class Stamp {
+		final long registryGeneration;
+		final long epoch;
+
+		private Stamp(long registryGeneration, long epoch) {
+			this.registryGeneration = registryGeneration;
+			this.epoch = epoch;
+		}
+	}
+
+	private static final class Template {
+		final Stamp stamp;
+		final ByteBuffer body; // read-only, position 0
+
+		Template(Stamp stamp, ByteBuffer body) {
+			this.stamp = stamp;
+			this.body = body;
+		}
+	}
+
+	private final RequestHandlerRegistry registry;
+	private final AtomicReferenceArray<Template> templates =
+			new AtomicReferenceArray<>((APIKeys.MAX_API_KEY + 1) * MAX_VERSIONS);
+	private final AtomicLong epoch = new AtomicLong();
+
+	public ResponseTemplateCache(RequestHandlerRegistry registry) {
+		this.registry = registry;
+	}
+
+	public static ResponseTemplateCache get() {
+		return INSTANCE;
+	}
+
+	// Response for correlationId built from the cached template, or null if
+	// there is no valid template for (apiKey, version)
+	public Response response(int apiKey, int version, int correlationId) {
+		int slot = slot(apiKey, version);
+		if (slot < 0) {
+			return null;
+		}
+		Template template = templates.get(slot);
+		if (template == null || !isCurrent(template.stamp)) {
+			return null;
+		}
+		return Response.withCorrelationId(BufferPool.current(), correlationId, template.body.duplicate());
+	}
+
+	// Taken on a miss, before encoding the body that is then passed to put()
+	public Stamp stamp() {
+		return new Stamp(registry.generation(), epoch.get());
+	}
+
+	// Stores a template from an encoded body that starts with a (dummy)
+	// correlation id; the caller keeps ownership of encoded. Nothing is stored
+	// if the registry changed or invalidate() ran since stamp was taken.
+	public void put(int apiKey, int version, ByteBuffer encoded, Stamp stamp) {
+		int slot = slot(apiKey, version);
+		if (slot < 0 || !isCurrent(stamp)) {
+			return;
+		}
+		ByteBuffer source = encoded.duplicate();
+		source.position(source.position() + 4); // Skip correlation_id
+		ByteBuffer body = ByteBuffer.allocateDirect(source.remaining());
+		body.put(source).flip();
+		// An invalidate() from here on still wins: the template keeps the old
+		// epoch, so lookups ignore it
+		templates.set(slot, new Template(stamp, body.asReadOnlyBuffer()));
+	}
+
+	// Drops every template; they are rebuilt on the next request
+	public void invalidate() {
+		epoch.incrementAndGet();
+		for (int i = 0; i < templates.length(); i++) {
+			templates.set(i, null);
+		}
+	}
+
+	private boolean isCurrent(Stamp stamp) {
+		return stamp.registryGeneration == registry.generation() && stamp.epoch == epoch.get();
+	}
+
+	private static int slot(int apiKey, int version) {
+		if (apiKey < 0 || apiKey > APIKeys.MAX_API_KEY || version < 0 || version >= MAX_VERSIONS) {
+			return -1;
+		}
+		return apiKey * MAX_VERSIONS + version;
+	}
+}
@@ -0,0 +1,29 @@
+// Helpers shared by the MessageQueue ring implementations.
+final class RingBuffers {
+
+	private RingBuffers() {
+	}
+
+	static int powerOfTwo(int requestedCapacity) {
+		if (requestedCapacity < 2) {
+			return 2;
+		}
+		if (requestedCapacity > (1 << 30)) {
+			throw new IllegalArgumentException("Capacity too large: " + requestedCapacity);
+		}
+		return Integer.highestOneBit(requestedCapacity - 1) << 1;
+	}
+
+	// Both indexes move concurrently, so re-read until they form a consistent pair
+	static int size(Sequence producerIndex, Sequence consumerIndex, int capacity) {
+		long after = consumerIndex.get();
+		while (true) {
+			long before = after;
+			long tail = producerIndex.get();
+			after = consumerIndex.get();
+			if (before == after) {
+				return (int) Math.max(0, Math.min(capacity, tail - after));
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Sparse, memory mapped index next to a log segment: fixed size entries in
+// ascending key order, searched with a binary search over the mapping. The
+// index of the active segment is preallocated and writable; once the segment
+// is sealed the file is cut down to its entries and mapped read-only.
+//
+// Entries are appended by the thread holding the partition append lock and
+// published through the volatile entry count, so lookups never lock.
+public abstract class SegmentIndex {
+
+	protected final Path file;
+	protected final long baseOffset;
+	private final int entrySize;
+	private final FileChannel channel;
+	private final int maxEntries;
+
+	protected MappedByteBuffer mmap;
+	private volatile int entries;
+	private boolean writable;
+
+	protected SegmentIndex(Path file, long baseOffset, int maxIndexSize, int entrySize, boolean writable) throws IOException {
+		this.file = file;
+		this.baseOffset = baseOffset;
+		this.entrySize = entrySize;
+		this.writable = writable;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (writable) {
+			this.maxEntries = Math.max(1, maxIndexSize / entrySize);
+			this.mmap = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) maxEntries * entrySize);
+			this.entries = 0; // The active segment's index is always rebuilt
+		} else {
+			long length = channel.size() - channel.size() % entrySize;
+			this.maxEntries = (int) (length / entrySize);
+			this.mmap = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			this.entries = maxEntries;
+		}
+	}
+
+	public Path file() {
+		return file;
+	}
+
+	public int entries() {
+		return entries;
+	}
+
+	public boolean isFull() {
+		return entries >= maxEntries;
+	}
+
+	// Key stored in slot, as an absolute value (offset or timestamp)
+	protected abstract long key(int slot);
+
+	// Structural check of a sealed index against the segment it belongs to
+	public abstract boolean isSane(int segmentSize);
+
+	// Slot of the largest key <= target, -1 if every key is greater
+	protected int largestLowerBound(long target) {
+		int low = 0;
+		int high = entries - 1;
+		if (high < 0 || key(0) > target) {
+			return -1;
+		}
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (key(mid) <= target) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	protected int slotPosition(int slot) {
+		return slot * entrySize;
+	}
+
+	// Caller has written the entry at slotPosition(entries()); make it visible
+	protected void publishEntry() {
+		entries = entries + 1;
+	}
+
+	protected boolean isWritable() {
+		return writable;
+	}
+
+	// Drops every entry (before a rebuild)
+	public void reset() {
+		entries = 0;
+	}
+
+	public void flush() {
+		if (writable) {
+			mmap.force(0, entries * entrySize);
+		}
+	}
+
+	// Segment sealed: keep only the written entries, remapped read-only
+	public void seal() throws IOException {
+		if (!writable) {
+			return;
+		}
+		flush();
+		long length = (long) entries * entrySize;
+		channel.truncate(length);
+		mmap = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		writable = false;
+	}
+
+	public void close() throws IOException {
+		seal();
+		channel.close();
+	}
+
+	public void delete() throws IOException {
+		channel.close();
+		Files.deleteIfExists(file);
+	}
+}
@@ -0,0 +1,69 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// A ring buffer index padded onto its own cache line, so the producer and
+// consumer indexes of a queue never false-share. The padding lives in
+// super/subclasses because the JVM keeps a superclass's fields ahead of its
+// subclass's. cache is a spare slot for the owning side, typically its last
+// seen copy of the opposite index.
+public class Sequence extends SequenceValue {
+
+	@SuppressWarnings("unused")
+	private long p9, p10, p11, p12, p13, p14, p15;
+
+	public Sequence(long initial) {
+		VALUE.setRelease(this, initial);
+	}
+
+	public long get() {
+		return (long) VALUE.getVolatile(this);
+	}
+
+	public long getAcquire() {
+		return (long) VALUE.getAcquire(this);
+	}
+
+	public long getPlain() {
+		return (long) VALUE.get(this);
+	}
+
+	public void setRelease(long newValue) {
+		VALUE.setRelease(this, newValue);
+	}
+
+	public boolean compareAndSet(long expected, long newValue) {
+		return VALUE.compareAndSet(this, expected, newValue);
+	}
+
+	public long getCache() {
+		return (long) CACHE.getOpaque(this);
+	}
+
+	public void setCache(long newValue) {
+		CACHE.setOpaque(this, newValue);
+	}
+}
+
+class SequencePadding {
+	@SuppressWarnings("unused")
+	protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequencePadding {
+
+	static final VarHandle VALUE;
+	static final VarHandle CACHE;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			VALUE = lookup.findVarHandle(SequenceValue.class, "value", long.class);
+			CACHE = lookup.findVarHandle(SequenceValue.class, "cache", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	protected long value;
+	protected long cache;
+}
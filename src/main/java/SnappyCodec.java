@@ -0,0 +1,415 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Snappy as Kafka clients write it (compression type 2): the snappy-java
+// (xerial) stream format around raw Snappy blocks, both done here in plain
+// Java.
+//
+// Stream: magic 0x82 "SNAPPY" 0x00, version INT32 = 1, compatible version
+// INT32 = 1, then chunks of [INT32 compressed length][raw Snappy block].
+// Input without that header is taken as one raw Snappy block.
+//
+// Raw block: uncompressed length as a varint, then elements whose tag's
+// low two bits say literal (0) or copy with a 1, 2 or 4 byte offset.
+public class SnappyCodec extends CompressionCodec {
+
+	private static final byte[] MAGIC = { (byte) 0x82, 'S', 'N', 'A', 'P', 'P', 'Y', 0 };
+	private static final int HEADER_SIZE = MAGIC.length + 8;
+	private static final int DEFAULT_VERSION = 1;
+	private static final int MIN_COMPATIBLE_VERSION = 1;
+	private static final int BLOCK_SIZE = 32 * 1024; // snappy-java's default chunk
+
+	private static final int LITERAL = 0;
+	private static final int COPY_1_BYTE_OFFSET = 1;
+	private static final int COPY_2_BYTE_OFFSET = 2;
+	private static final int COPY_4_BYTE_OFFSET = 3;
+	private static final int HASH_LOG = 14;
+
+	@Override
+	public int id() {
+		return 2;
+	}
+
+	@Override
+	public String name() {
+		return "snappy";
+	}
+
+	@Override
+	public InputStream decompress(ByteBuffer compressed) throws IOException {
+		return new XerialInputStream(compressed);
+	}
+
+	@Override
+	public OutputStream compress(OutputStream out) throws IOException {
+		return new XerialOutputStream(out);
+	}
+
+	static int maxCompressedLength(int length) {
+		return 32 + length + length / 6;
+	}
+
+	// Uncompressed length stored at the start of a raw block
+	static int uncompressedLength(byte[] src, int offset, int length) throws IOException {
+		int result = 0;
+		for (int shift = 0, i = offset; shift <= 28 && i < offset + length; shift += 7, i++) {
+			int b = src[i] & 0xFF;
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("Malformed Snappy block: bad length");
+	}
+
+	// Decodes one raw block into dst; returns its uncompressed length
+	static int decompressBlock(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) throws IOException {
+		int sp = srcOffset;
+		int srcEnd = srcOffset + srcLength;
+		int expected = 0;
+		for (int shift = 0;; shift += 7) {
+			if (sp >= srcEnd || shift > 28) {
+				throw new IOException("Malformed Snappy block: bad length");
+			}
+			int b = src[sp++] & 0xFF;
+			expected |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		if (expected > dst.length - dstOffset) {
+			throw new IOException("Snappy block of " + expected + " bytes does not fit");
+		}
+		int dp = dstOffset;
+		int dstEnd = dstOffset + expected;
+		while (sp < srcEnd) {
+			int tag = src[sp++] & 0xFF;
+			int length;
+			int distance;
+			switch (tag & 0x03) {
+				case LITERAL: {
+					length = tag >>> 2;
+					if (length >= 60) {
+						int bytes = length - 59;
+						if (srcEnd - sp < bytes) {
+							throw new IOException("Malformed Snappy block: truncated literal length");
+						}
+						length = 0;
+						for (int i = 0; i < bytes; i++) {
+							length |= (src[sp++] & 0xFF) << (8 * i);
+						}
+					}
+					length++;
+					if (length <= 0 || length > srcEnd - sp || length > dstEnd - dp) {
+						throw new IOException("Malformed Snappy block: literal overrun");
+					}
+					System.arraycopy(src, sp, dst, dp, length);
+					sp += length;
+					dp += length;
+					continue;
+				}
+				case COPY_1_BYTE_OFFSET:
+					if (sp >= srcEnd) {
+						throw new IOException("Malformed Snappy block: truncated copy");
+					}
+					length = ((tag >>> 2) & 0x07) + 4;
+					distance = ((tag >>> 5) << 8) | (src[sp++] & 0xFF);
+					break;
+				case COPY_2_BYTE_OFFSET:
+					if (srcEnd - sp < 2) {
+						throw new IOException("Malformed Snappy block: truncated copy");
+					}
+					length = (tag >>> 2) + 1;
+					distance = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+					sp += 2;
+					break;
+				default:
+					if (srcEnd - sp < 4) {
+						throw new IOException("Malformed Snappy block: truncated copy");
+					}
+					length = (tag >>> 2) + 1;
+					distance = XXHash32.readIntLE(src, sp);
+					sp += 4;
+					break;
+			}
+			int from = dp - distance;
+			if (distance <= 0 || from < dstOffset || length > dstEnd - dp) {
+				throw new IOException("Malformed Snappy block: bad copy");
+			}
+			if (distance >= length) {
+				System.arraycopy(dst, from, dst, dp, length);
+				dp += length;
+			} else {
+				for (int i = 0; i < length; i++) {
+					dst[dp++] = dst[from + i];
+				}
+			}
+		}
+		if (dp != dstEnd) {
+			throw new IOException("Malformed Snappy block: " + (dp - dstOffset) + " of " + expected + " bytes");
+		}
+		return expected;
+	}
+
+	// Greedy compressor for blocks of up to 64 KiB (so copies fit 2-byte
+	// offsets); returns the compressed length. dst needs maxCompressedLength.
+	static int compressBlock(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int[] hashTable) {
+		int dp = dstOffset;
+		int length = srcLength;
+		while ((length & ~0x7F) != 0) {
+			dst[dp++] = (byte) ((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		dst[dp++] = (byte) length;
+
+		int srcEnd = srcOffset + srcLength;
+		int anchor = srcOffset;
+		if (srcLength >= 16) {
+			Arrays.fill(hashTable, -1);
+			int ip = srcOffset;
+			int limit = srcEnd - 4;
+			while (ip <= limit) {
+				int sequence = XXHash32.readIntLE(src, ip);
+				int hash = (sequence * 0x1E35A7BD) >>> (32 - HASH_LOG);
+				int ref = hashTable[hash];
+				hashTable[hash] = ip;
+				if (ref < 0 || ip - ref > 0xFFFF || XXHash32.readIntLE(src, ref) != sequence) {
+					ip++;
+					continue;
+				}
+				int matchLength = 4;
+				while (ip + matchLength < srcEnd && src[ref + matchLength] == src[ip + matchLength]) {
+					matchLength++;
+				}
+				dp = writeLiteral(src, anchor, ip - anchor, dst, dp);
+				dp = writeCopies(dst, dp, ip - ref, matchLength);
+				ip += matchLength;
+				anchor = ip;
+			}
+		}
+		dp = writeLiteral(src, anchor, srcEnd - anchor, dst, dp);
+		return dp - dstOffset;
+	}
+
+	private static int writeLiteral(byte[] src, int start, int length, byte[] dst, int dp) {
+		if (length == 0) {
+			return dp;
+		}
+		int n = length - 1;
+		if (n < 60) {
+			dst[dp++] = (byte) (n << 2 | LITERAL);
+		} else if (n < (1 << 8)) {
+			dst[dp++] = (byte) (60 << 2 | LITERAL);
+			dst[dp++] = (byte) n;
+		} else if (n < (1 << 16)) {
+			dst[dp++] = (byte) (61 << 2 | LITERAL);
+			dst[dp++] = (byte) n;
+			dst[dp++] = (byte) (n >>> 8);
+		} else {
+			dst[dp++] = (byte) (62 << 2 | LITERAL);
+			dst[dp++] = (byte) n;
+			dst[dp++] = (byte) (n >>> 8);
+			dst[dp++] = (byte) (n >>> 16);
+		}
+		System.arraycopy(src, start, dst, dp, length);
+		return dp + length;
+	}
+
+	// A copy element holds at most 64 bytes, so long matches take several
+	private static int writeCopies(byte[] dst, int dp, int distance, int length) {
+		while (length >= 68) {
+			dp = writeCopy(dst, dp, distance, 64);
+			length -= 64;
+		}
+		if (length > 64) {
+			dp = writeCopy(dst, dp, distance, 60); // Leave at least 4 for the last one
+			length -= 60;
+		}
+		return writeCopy(dst, dp, distance, length);
+	}
+
+	private static int writeCopy(byte[] dst, int dp, int distance, int length) {
+		if (length < 12 && distance < 2048) {
+			dst[dp++] = (byte) (COPY_1_BYTE_OFFSET | (length - 4) << 2 | (distance >>> 8) << 5);
+			dst[dp++] = (byte) distance;
+		} else {
+			dst[dp++] = (byte) (COPY_2_BYTE_OFFSET | (length - 1) << 2);
+			dst[dp++] = (byte) distance;
+			dst[dp++] = (byte) (distance >>> 8);
+		}
+		return dp;
+	}
+
+	static final class XerialInputStream extends InputStream {
+
+		private final ByteBuffer in;
+		private final boolean framed;
+		private byte[] compressed;
+		private byte[] block;
+		private int blockPosition;
+		private int blockLimit;
+
+		XerialInputStream(ByteBuffer compressed) {
+			this.in = compressed.duplicate();
+			this.framed = hasHeader(in);
+			if (framed) {
+				in.position(in.position() + HEADER_SIZE);
+			}
+		}
+
+		private static boolean hasHeader(ByteBuffer buffer) {
+			if (buffer.remaining() < HEADER_SIZE) {
+				return false;
+			}
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (buffer.get(buffer.position() + i) != MAGIC[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean nextBlock() throws IOException {
+			if (!in.hasRemaining()) {
+				return false;
+			}
+			int size;
+			if (framed) {
+				if (in.remaining() < 4) {
+					throw new IOException("Truncated Snappy chunk header");
+				}
+				size = in.getInt();
+				if (size < 0 || size > in.remaining()) {
+					throw new IOException("Snappy chunk of " + size + " bytes is out of bounds");
+				}
+			} else {
+				size = in.remaining();
+			}
+			compressed = ensure(compressed, size);
+			in.get(compressed, 0, size);
+			int length = uncompressedLength(compressed, 0, size);
+			block = ensure(block, length);
+			blockLimit = decompressBlock(compressed, 0, size, block, 0);
+			blockPosition = 0;
+			return true;
+		}
+
+		private static byte[] ensure(byte[] array, int size) {
+			if (array != null && array.length >= size) {
+				return array;
+			}
+			recycle(array);
+			return scratch(Math.max(size, BLOCK_SIZE));
+		}
+
+		@Override
+		public int read() throws IOException {
+			while (blockPosition == blockLimit) {
+				if (!nextBlock()) {
+					return -1;
+				}
+			}
+			return block[blockPosition++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			while (blockPosition == blockLimit) {
+				if (!nextBlock()) {
+					return -1;
+				}
+			}
+			int count = Math.min(length, blockLimit - blockPosition);
+			System.arraycopy(block, blockPosition, bytes, offset, count);
+			blockPosition += count;
+			return count;
+		}
+
+		@Override
+		public void close() {
+			recycle(compressed);
+			recycle(block);
+			compressed = null;
+			block = null;
+		}
+	}
+
+	static final class XerialOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private final int[] hashTable = new int[1 << HASH_LOG];
+		private byte[] block = scratch(BLOCK_SIZE);
+		private byte[] compressed = scratch(maxCompressedLength(BLOCK_SIZE));
+		private int blockLength;
+		private boolean closed;
+
+		XerialOutputStream(OutputStream out) throws IOException {
+			this.out = out;
+			out.write(MAGIC);
+			writeInt(DEFAULT_VERSION);
+			writeInt(MIN_COMPATIBLE_VERSION);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (blockLength == BLOCK_SIZE) {
+				flushBlock();
+			}
+			block[blockLength++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (blockLength == BLOCK_SIZE) {
+					flushBlock();
+				}
+				int count = Math.min(length, BLOCK_SIZE - blockLength);
+				System.arraycopy(bytes, offset, block, blockLength, count);
+				blockLength += count;
+				offset += count;
+				length -= count;
+			}
+		}
+
+		private void flushBlock() throws IOException {
+			if (blockLength == 0) {
+				return;
+			}
+			int size = compressBlock(block, 0, blockLength, compressed, 0, hashTable);
+			writeInt(size);
+			out.write(compressed, 0, size);
+			blockLength = 0;
+		}
+
+		private void writeInt(int value) throws IOException {
+			out.write(value >>> 24);
+			out.write(value >>> 16);
+			out.write(value >>> 8);
+			out.write(value);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				flushBlock();
+				out.close();
+			} finally {
+				recycle(block);
+				recycle(compressed);
+				block = null;
+				compressed = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Single-producer single-consumer ring. Each side owns one padded index and
+// keeps a cached copy of the other, so in steady state neither side reads
+// the other's cache line.
+public class SpscRingBuffer<E> implements MessageQueue<E> {
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<E> buffer;
+	private final BackpressurePolicy backpressurePolicy;
+
+	// producerIndex.cache: consumer index last seen by the producer
+	private final Sequence producerIndex = new Sequence(0);
+	// consumerIndex.cache: producer index last seen by the consumer
+	private final Sequence consumerIndex = new Sequence(0);
+
+	public SpscRingBuffer(int requestedCapacity, BackpressurePolicy backpressurePolicy) {
+		this.capacity = RingBuffers.powerOfTwo(requestedCapacity);
+		this.mask = capacity - 1;
+		this.buffer = new AtomicReferenceArray<>(capacity);
+		this.backpressurePolicy = backpressurePolicy;
+	}
+
+	@Override
+	public boolean offer(E element) {
+		long tail = producerIndex.getPlain();
+		if (tail - producerIndex.getCache() >= capacity) {
+			producerIndex.setCache(consumerIndex.getAcquire());
+			if (tail - producerIndex.getCache() >= capacity) {
+				return false;
+			}
+		}
+		buffer.lazySet((int) tail & mask, element);
+		producerIndex.setRelease(tail + 1);
+		return true;
+	}
+
+	@Override
+	public E poll() {
+		long head = consumerIndex.getPlain();
+		if (head >= consumerIndex.getCache()) {
+			consumerIndex.setCache(producerIndex.getAcquire());
+			if (head >= consumerIndex.getCache()) {
+				return null;
+			}
+		}
+		int index = (int) head & mask;
+		E element = buffer.get(index);
+		buffer.lazySet(index, null);
+		consumerIndex.setRelease(head + 1);
+		return element;
+	}
+
+	@Override
+	public int drainTo(Consumer<? super E> sink, int limit) {
+		long head = consumerIndex.getPlain();
+		long available = producerIndex.getAcquire() - head;
+		int count = (int) Math.min(available, limit);
+		for (int i = 0; i < count; i++) {
+			int index = (int) (head + i) & mask;
+			E element = buffer.get(index);
+			buffer.lazySet(index, null);
+			sink.accept(element);
+		}
+		if (count > 0) {
+			consumerIndex.setRelease(head + count);
+		}
+		return count;
+	}
+
+	@Override
+	public int size() {
+		return RingBuffers.size(producerIndex, consumerIndex, capacity);
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	@Override
+	public BackpressurePolicy backpressurePolicy() {
+		return backpressurePolicy;
+	}
+}
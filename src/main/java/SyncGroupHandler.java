@@ -0,0 +1,82 @@
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+// SyncGroup (key 14): the leader hands in every member's assignment, the
+// followers wait for theirs. Answered through RequestContext.respondLater,
+// since a follower's answer waits for the leader's request.
+public class SyncGroupHandler implements RequestHandler {
+
+	private static final ThreadLocal<SyncGroupRequestMessage.Reader> REQUEST_READER =
+			ThreadLocal.withInitial(SyncGroupRequestMessage.Reader::new);
+	private static final ThreadLocal<SyncGroupResponseMessage.Writer> RESPONSE_WRITER =
+			ThreadLocal.withInitial(SyncGroupResponseMessage.Writer::new);
+
+	private final GroupCoordinator coordinator;
+
+	public SyncGroupHandler(GroupCoordinator coordinator) {
+		this.coordinator = coordinator;
+	}
+
+	@Override
+	public APIKeys apiKey() {
+		return APIKeys.SYNC_GROUP;
+	}
+
+	@Override
+	public short minVersion() {
+		return 0;
+	}
+
+	@Override
+	public short maxVersion() {
+		return 5;
+	}
+
+	@Override
+	public short firstFlexibleVersion() {
+		return 4;
+	}
+
+	@Override
+	public Response handle(RequestContext request) {
+		ByteBuffer buffer = request.body();
+		short version = request.apiVersion();
+		boolean flexible = isFlexible(version);
+		SyncGroupRequestMessage.Reader reader = REQUEST_READER.get().wrap(buffer, buffer.position(), version);
+
+		String groupId = reader.groupId();
+		int generationId = reader.generationId();
+		String memberId = reader.memberId();
+		String protocolType = reader.protocolType();
+		String protocolName = reader.protocolName();
+		Map<String, byte[]> assignments = new HashMap<>();
+		for (SyncGroupRequestMessage.SyncGroupRequestAssignmentReader assignment = reader.assignments(); assignment.next(); ) {
+			assignments.put(assignment.memberId(), KafkaProtocolUtils.copyBytes(assignment.assignment()));
+		}
+		int correlationId = request.correlationId();
+		int throttleTimeMs = request.throttleTimeMs();
+		request.decoded();
+
+		return request.respondLater(callback -> coordinator.syncGroup(groupId, generationId, memberId, protocolType, protocolName,
+				assignments, result -> callback.complete(encode(version, flexible, correlationId, throttleTimeMs, result))));
+	}
+
+	private static Response encode(short version, boolean flexible, int correlationId, int throttleTimeMs, GroupCoordinator.SyncResult result) {
+		SyncGroupResponseMessage.Writer writer = RESPONSE_WRITER.get();
+		write(writer.sizing(version), result, throttleTimeMs);
+		ByteBuffer message = BufferPool.current().acquire(MessageUtils.responseHeaderSize(flexible) + writer.size());
+		MessageUtils.writeResponseHeader(message, correlationId, flexible);
+		write(writer.wrap(message, version), result, throttleTimeMs);
+		return MessageUtils.createResponseBuffer(message);
+	}
+
+	private static void write(SyncGroupResponseMessage.Writer writer, GroupCoordinator.SyncResult result, int throttleTimeMs) {
+		writer.throttleTimeMs(throttleTimeMs)
+				.errorCode((short) result.error.getCode())
+				.protocolType(KafkaProtocolUtils.utf8(result.protocolType))
+				.protocolName(KafkaProtocolUtils.utf8(result.protocolName))
+				.assignment(ByteBuffer.wrap(result.assignment))
+				.end();
+	}
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Timer over a hierarchical TimingWheel. Adding a task is O(1); the clock
+// only moves when advanceClock finds an expired bucket in the DelayQueue,
+// so an idle timer costs one blocked poll and no ticking. Expired tasks
+// run on the thread that advances the clock, after it has let go of the
+// wheel, so a task may take locks that other threads hold around add or
+// cancel (a group's lock, for the group coordinator's delayed operations).
+public class SystemTimer {
+
+	private static final long TICK_MS = 1;
+	private static final int WHEEL_SIZE = 20;
+
+	private final DelayQueue<TimingWheel.Bucket> delayQueue = new DelayQueue<>();
+	private final AtomicInteger taskCounter = new AtomicInteger();
+	private final TimingWheel timingWheel = new TimingWheel(TICK_MS, WHEEL_SIZE, TimingWheel.nowMs(), taskCounter, delayQueue);
+
+	// Adds may run concurrently with each other but not with a clock advance
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public void add(TimerTask task) {
+		boolean due;
+		lock.readLock().lock();
+		try {
+			TimingWheel.Entry entry = new TimingWheel.Entry(task, TimingWheel.nowMs() + task.delayMs());
+			due = !timingWheel.add(entry) && !entry.isCancelled();
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (due) {
+			task.run(); // Already expired
+		}
+	}
+
+	// Re-buckets entry, or collects its task if it is due
+	private void addEntry(TimingWheel.Entry entry, List<TimerTask> expired) {
+		if (!timingWheel.add(entry) && !entry.isCancelled()) {
+			expired.add(entry.task);
+		}
+	}
+
+	// Waits up to timeoutMs for a bucket to expire, then runs or re-buckets
+	// everything that is due. Returns false if nothing expired.
+	public boolean advanceClock(long timeoutMs) throws InterruptedException {
+		TimingWheel.Bucket bucket = delayQueue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+		if (bucket == null) {
+			return false;
+		}
+		List<TimerTask> expired = new ArrayList<>();
+		lock.writeLock().lock();
+		try {
+			while (bucket != null) {
+				timingWheel.advanceClock(bucket.expiration());
+				bucket.flush(entry -> addEntry(entry, expired));
+				bucket = delayQueue.poll();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		for (TimerTask task : expired) {
+			task.run();
+		}
+		return true;
+	}
+
+	// Tasks still scheduled (not run and not cancelled)
+	public int size() {
+		return taskCounter.get();
+	}
+}
@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+// timestamp -> offset index of a segment (.timeindex). Entry: timestamp
+// INT64, relative offset INT32. Written next to each offset index entry,
+// only when the largest timestamp seen so far has grown, so timestamps are
+// strictly increasing.
+public class TimeIndex extends SegmentIndex {
+
+	private static final int ENTRY_SIZE = 12;
+
+	public TimeIndex(Path file, long baseOffset, int maxIndexSize, boolean writable) throws IOException {
+		super(file, baseOffset, maxIndexSize, ENTRY_SIZE, writable);
+	}
+
+	public static Path fileName(Path dir, long baseOffset) {
+		return dir.resolve(String.format("%020d.timeindex", baseOffset));
+	}
+
+	@Override
+	protected long key(int slot) {
+		return mmap.getLong(slotPosition(slot));
+	}
+
+	private long offset(int slot) {
+		return baseOffset + mmap.getInt(slotPosition(slot) + 8);
+	}
+
+	// Offset to start scanning from for the first record with timestamp >= target
+	public long lookup(long timestamp) {
+		int slot = largestLowerBound(timestamp);
+		return slot < 0 ? baseOffset : offset(slot);
+	}
+
+	public long lastTimestamp() {
+		int entries = entries();
+		return entries == 0 ? -1 : key(entries - 1);
+	}
+
+	public void append(long timestamp, long offset) {
+		if (isFull() || (entries() > 0 && timestamp <= lastTimestamp())) {
+			return;
+		}
+		int slot = slotPosition(entries());
+		mmap.putLong(slot, timestamp);
+		mmap.putInt(slot + 8, (int) (offset - baseOffset));
+		publishEntry();
+	}
+
+	@Override
+	public boolean isSane(int segmentSize) {
+		long previous = Long.MIN_VALUE;
+		for (int i = 0; i < entries(); i++) {
+			long timestamp = key(i);
+			if (timestamp <= previous || offset(i) < baseOffset) {
+				return false;
+			}
+			previous = timestamp;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,36 @@
+// Something to run once its delay has passed, scheduled on a SystemTimer.
+// Cancelling unlinks it from its timing wheel bucket in O(1).
+public abstract class TimerTask implements Runnable {
+
+	private final long delayMs;
+	private TimingWheel.Entry entry; // Guarded by this
+
+	protected TimerTask(long delayMs) {
+		this.delayMs = delayMs;
+	}
+
+	public long delayMs() {
+		return delayMs;
+	}
+
+	public void cancel() {
+		synchronized (this) {
+			if (entry != null) {
+				entry.remove();
+			}
+			entry = null;
+		}
+	}
+
+	// A task moves between buckets as the wheels turn; it belongs to one entry at a time
+	synchronized void setEntry(TimingWheel.Entry newEntry) {
+		if (entry != null && entry != newEntry) {
+			entry.remove();
+		}
+		entry = newEntry;
+	}
+
+	synchronized TimingWheel.Entry entry() {
+		return entry;
+	}
+}
@@ -0,0 +1,197 @@
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Hierarchical timing wheel (as in Kafka's purgatory). A wheel has
+// wheelSize buckets of tickMs each; a task that expires beyond the wheel's
+// span goes to an overflow wheel whose tick is this wheel's whole span,
+// created on demand. Insert and cancel are O(1) doubly linked list
+// operations. Only non-empty buckets sit in the shared DelayQueue, so the
+// queue holds at most one element per bucket, however many tasks there are.
+// When a bucket of an overflow wheel expires, its tasks are re-inserted
+// and fall into finer wheels.
+//
+// Not thread safe on its own; SystemTimer serialises clock advances.
+public class TimingWheel {
+
+	private final long tickMs;
+	private final int wheelSize;
+	private final long interval;
+	private final AtomicInteger taskCounter;
+	private final DelayQueue<Bucket> queue;
+	private final Bucket[] buckets;
+	private long currentTime;
+	private volatile TimingWheel overflowWheel;
+
+	public TimingWheel(long tickMs, int wheelSize, long startMs, AtomicInteger taskCounter, DelayQueue<Bucket> queue) {
+		this.tickMs = tickMs;
+		this.wheelSize = wheelSize;
+		this.interval = tickMs * wheelSize;
+		this.taskCounter = taskCounter;
+		this.queue = queue;
+		this.buckets = new Bucket[wheelSize];
+		for (int i = 0; i < wheelSize; i++) {
+			buckets[i] = new Bucket(taskCounter);
+		}
+		this.currentTime = startMs - (startMs % tickMs);
+	}
+
+	// False if the entry is already expired (or cancelled) and should run now
+	public boolean add(Entry entry) {
+		long expiration = entry.expirationMs;
+		if (entry.isCancelled()) {
+			return false;
+		}
+		if (expiration < currentTime + tickMs) {
+			return false;
+		}
+		if (expiration < currentTime + interval) {
+			long virtualId = expiration / tickMs;
+			Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+			bucket.add(entry);
+			// A bucket is reused once its previous round has been flushed
+			if (bucket.setExpiration(virtualId * tickMs)) {
+				queue.offer(bucket);
+			}
+			return true;
+		}
+		TimingWheel overflow = overflowWheel;
+		if (overflow == null) {
+			overflow = addOverflowWheel();
+		}
+		return overflow.add(entry);
+	}
+
+	private synchronized TimingWheel addOverflowWheel() {
+		if (overflowWheel == null) {
+			overflowWheel = new TimingWheel(interval, wheelSize, currentTime, taskCounter, queue);
+		}
+		return overflowWheel;
+	}
+
+	public void advanceClock(long timeMs) {
+		if (timeMs >= currentTime + tickMs) {
+			currentTime = timeMs - (timeMs % tickMs);
+			TimingWheel overflow = overflowWheel;
+			if (overflow != null) {
+				overflow.advanceClock(currentTime);
+			}
+		}
+	}
+
+	static long nowMs() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	// A scheduled task's place in a bucket
+	static final class Entry {
+
+		final TimerTask task;
+		final long expirationMs;
+		volatile Bucket bucket;
+		Entry next;
+		Entry prev;
+
+		Entry(TimerTask task, long expirationMs) {
+			this.task = task;
+			this.expirationMs = expirationMs;
+			if (task != null) {
+				task.setEntry(this);
+			}
+		}
+
+		boolean isCancelled() {
+			return task.entry() != this;
+		}
+
+		void remove() {
+			Bucket current = bucket;
+			// The entry may be moved by a concurrent flush, so retry until it is out
+			while (current != null) {
+				current.remove(this);
+				current = bucket;
+			}
+		}
+	}
+
+	// Circular doubly linked list of the entries expiring in one tick
+	static final class Bucket implements Delayed {
+
+		private final AtomicInteger taskCounter;
+		private final AtomicLong expiration = new AtomicLong(-1L);
+		private final Entry root = new Entry(null, -1L);
+
+		Bucket(AtomicInteger taskCounter) {
+			this.taskCounter = taskCounter;
+			root.next = root;
+			root.prev = root;
+		}
+
+		// True if the expiration changed, i.e. the bucket must be (re)queued
+		boolean setExpiration(long expirationMs) {
+			return expiration.getAndSet(expirationMs) != expirationMs;
+		}
+
+		long expiration() {
+			return expiration.get();
+		}
+
+		void add(Entry entry) {
+			boolean done = false;
+			while (!done) {
+				entry.remove(); // Out of any other bucket first
+				synchronized (this) {
+					synchronized (entry) {
+						if (entry.bucket == null) {
+							Entry tail = root.prev;
+							entry.next = root;
+							entry.prev = tail;
+							entry.bucket = this;
+							tail.next = entry;
+							root.prev = entry;
+							taskCounter.incrementAndGet();
+							done = true;
+						}
+					}
+				}
+			}
+		}
+
+		synchronized void remove(Entry entry) {
+			synchronized (entry) {
+				if (entry.bucket == this) {
+					entry.next.prev = entry.prev;
+					entry.prev.next = entry.next;
+					entry.next = null;
+					entry.prev = null;
+					entry.bucket = null;
+					taskCounter.decrementAndGet();
+				}
+			}
+		}
+
+		// Removes every entry and hands it to action (re-insert or run)
+		synchronized void flush(Consumer<Entry> action) {
+			Entry head = root.next;
+			while (head != root) {
+				remove(head);
+				action.accept(head);
+				head = root.next;
+			}
+			expiration.set(-1L);
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(Math.max(expiration() - nowMs(), 0), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(expiration(), ((Bucket) other).expiration());
+		}
+	}
+}
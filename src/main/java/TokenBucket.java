@@ -0,0 +1,44 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket refilled at rate units per second, holding at most
+// burstSeconds worth of units. Instead of a token count plus a refill time
+// it keeps one value, the nanoTime at which the bucket would be full again
+// (GCRA), so taking tokens is a single CAS and no lock.
+//
+// Usage is always recorded, even past empty, and the debt is returned as
+// the time the caller should back off; debt is capped at maxDebtNanos so a
+// client that ignores throttling is not locked out for ever.
+public final class TokenBucket {
+
+	private final double nanosPerUnit;
+	private final long burstNanos;
+	private final long maxDebtNanos;
+	private final AtomicLong fullAt;
+
+	public TokenBucket(long rate, double burstSeconds, long maxDebtNanos) {
+		this.nanosPerUnit = 1e9 / rate;
+		this.burstNanos = (long) (burstSeconds * 1e9);
+		this.maxDebtNanos = maxDebtNanos;
+		this.fullAt = new AtomicLong(System.nanoTime());
+	}
+
+	// Takes units; returns nanoseconds until the bucket is no longer
+	// overdrawn, 0 while the caller is within its quota
+	public long record(long units, long nowNanos) {
+		long cost = (long) Math.min(units * nanosPerUnit, burstNanos + maxDebtNanos);
+		long limit = nowNanos + burstNanos + maxDebtNanos;
+		long previous;
+		long next;
+		do {
+			previous = fullAt.get();
+			next = Math.min(Math.max(previous, nowNanos) + cost, limit);
+		} while (!fullAt.compareAndSet(previous, next));
+		return Math.max(0, next - nowNanos - burstNanos);
+	}
+
+	// True once the bucket has been full for longer than its burst plus debt
+	// window, so it is no different from a new one
+	public boolean isIdle(long nowNanos) {
+		return nowNanos - fullAt.get() >= burstNanos + maxDebtNanos;
+	}
+}
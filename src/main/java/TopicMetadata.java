@@ -0,0 +1,49 @@
+import java.util.Arrays;
+import java.util.UUID;
+
+// A topic in a metadata snapshot with its partitions, indexed by partition id.
+// Immutable.
+public final class TopicMetadata {
+
+	private static final PartitionMetadata[] NO_PARTITIONS = new PartitionMetadata[0];
+
+	private final String name;
+	private final UUID id;
+	private final PartitionMetadata[] partitions; // partitions[i].partitionId() == i, null for gaps
+
+	public TopicMetadata(String name, UUID id, PartitionMetadata[] partitions) {
+		this.name = name;
+		this.id = id;
+		this.partitions = partitions == null ? NO_PARTITIONS : partitions;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public UUID id() {
+		return id;
+	}
+
+	// Internal topics start with "__" (__consumer_offsets, __cluster_metadata)
+	public boolean isInternal() {
+		return name.startsWith("__");
+	}
+
+	public int partitionCount() {
+		return partitions.length;
+	}
+
+	// null if the partition does not exist
+	public PartitionMetadata partition(int partitionId) {
+		if (partitionId < 0 || partitionId >= partitions.length) {
+			return null;
+		}
+		return partitions[partitionId];
+	}
+
+	// For ClusterMetadata.Builder, which works on a private copy
+	PartitionMetadata[] partitionsCopy(int length) {
+		return Arrays.copyOf(partitions, length);
+	}
+}
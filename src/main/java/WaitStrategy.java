@@ -0,0 +1,51 @@
+import java.util.concurrent.locks.LockSupport;
+
+// How a thread waits on a MessageQueue that is empty (consumers) or full
+// (producers under backpressure). idle is called once per failed attempt.
+public enum WaitStrategy {
+
+	// Lowest latency, burns a core while waiting
+	BUSY_SPIN {
+		@Override
+		public int idle(int idleCount) {
+			Thread.onSpinWait();
+			return idleCount + 1;
+		}
+	},
+
+	// Spin briefly, then give the core away
+	YIELD {
+		@Override
+		public int idle(int idleCount) {
+			if (idleCount < SPIN_TRIES) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+			return idleCount + 1;
+		}
+	},
+
+	// Spin, yield, then park with an exponential backoff up to MAX_PARK_NANOS
+	PARK {
+		@Override
+		public int idle(int idleCount) {
+			if (idleCount < SPIN_TRIES) {
+				Thread.onSpinWait();
+			} else if (idleCount < SPIN_TRIES + YIELD_TRIES) {
+				Thread.yield();
+			} else {
+				int shift = Math.min(idleCount - SPIN_TRIES - YIELD_TRIES, 10);
+				LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << shift, MAX_PARK_NANOS));
+			}
+			return idleCount + 1;
+		}
+	};
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 10;
+	private static final long MIN_PARK_NANOS = 1_000L;
+	private static final long MAX_PARK_NANOS = 1_000_000L;
+
+	public abstract int idle(int idleCount);
+}
@@ -0,0 +1,64 @@
+// xxHash32, used by the LZ4 frame format for its header (and optional
+// content and block) checksums
+public final class XXHash32 {
+
+	private static final int PRIME1 = 0x9E3779B1;
+	private static final int PRIME2 = 0x85EBCA77;
+	private static final int PRIME3 = 0xC2B2AE3D;
+	private static final int PRIME4 = 0x27D4EB2F;
+	private static final int PRIME5 = 0x165667B1;
+
+	private XXHash32() {
+	}
+
+	public static int hash(byte[] bytes, int offset, int length, int seed) {
+		int end = offset + length;
+		int position = offset;
+		int h;
+		if (length >= 16) {
+			int v1 = seed + PRIME1 + PRIME2;
+			int v2 = seed + PRIME2;
+			int v3 = seed;
+			int v4 = seed - PRIME1;
+			int limit = end - 16;
+			do {
+				v1 = round(v1, readIntLE(bytes, position));
+				v2 = round(v2, readIntLE(bytes, position + 4));
+				v3 = round(v3, readIntLE(bytes, position + 8));
+				v4 = round(v4, readIntLE(bytes, position + 12));
+				position += 16;
+			} while (position <= limit);
+			h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+		} else {
+			h = seed + PRIME5;
+		}
+		h += length;
+		while (position + 4 <= end) {
+			h += readIntLE(bytes, position) * PRIME3;
+			h = Integer.rotateLeft(h, 17) * PRIME4;
+			position += 4;
+		}
+		while (position < end) {
+			h += (bytes[position] & 0xFF) * PRIME5;
+			h = Integer.rotateLeft(h, 11) * PRIME1;
+			position++;
+		}
+		h ^= h >>> 15;
+		h *= PRIME2;
+		h ^= h >>> 13;
+		h *= PRIME3;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static int round(int acc, int input) {
+		acc += input * PRIME2;
+		acc = Integer.rotateLeft(acc, 13);
+		return acc * PRIME1;
+	}
+
+	static int readIntLE(byte[] bytes, int position) {
+		return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8
+				| (bytes[position + 2] & 0xFF) << 16 | (bytes[position + 3] & 0xFF) << 24;
+	}
+}